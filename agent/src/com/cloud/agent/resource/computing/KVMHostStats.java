@@ -0,0 +1,280 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.agent.resource.computing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.Pair;
+
+/**
+ * Reads host cpu, memory, nic and bridge state straight from /proc and /sys
+ * instead of forking top, free, brctl and ethtool on every stats cycle. The
+ * root directory can be changed so recorded files can be read in tests.
+ */
+public class KVMHostStats {
+	private static final Logger s_logger = Logger.getLogger(KVMHostStats.class);
+
+	private final String _root;
+	private long[] _lastCpuTicks;
+	/* bridge name to the physical interface behind it */
+	private final Map<String, String> _bridgePifs = new ConcurrentHashMap<String, String>();
+
+	public KVMHostStats() {
+		this("/");
+	}
+
+	public KVMHostStats(String root) {
+		_root = root.endsWith("/") ? root.substring(0, root.length() - 1) : root;
+	}
+
+	/**
+	 * @return percentage of cpu time spent busy since the last call, or
+	 *         since boot on the first call; -1 if /proc/stat can't be read.
+	 */
+	public synchronized double getCpuUtilization() {
+		long[] ticks = readCpuTicks();
+		if (ticks == null) {
+			return -1;
+		}
+		long busy = ticks[0];
+		long total = ticks[1];
+		if (_lastCpuTicks != null && total > _lastCpuTicks[1]) {
+			busy -= _lastCpuTicks[0];
+			total -= _lastCpuTicks[1];
+		}
+		_lastCpuTicks = ticks;
+		if (total <= 0) {
+			return 0;
+		}
+		return busy * 100.0D / total;
+	}
+
+	/**
+	 * @return busy and total jiffies summed over all cpus, from the first
+	 *         line of /proc/stat.
+	 */
+	protected long[] readCpuTicks() {
+		String line = readFirstLine("/proc/stat");
+		if (line == null || !line.startsWith("cpu ")) {
+			return null;
+		}
+		String[] fields = line.trim().split("\\s+");
+		long total = 0;
+		long idle = 0;
+		try {
+			for (int i = 1; i < fields.length; i++) {
+				long value = Long.parseLong(fields[i]);
+				/* guest and guest_nice are already counted in user and nice */
+				if (i <= 8) {
+					total += value;
+				}
+				/* idle and iowait */
+				if (i == 4 || i == 5) {
+					idle += value;
+				}
+			}
+		} catch (NumberFormatException e) {
+			s_logger.debug("Unable to parse /proc/stat: " + line);
+			return null;
+		}
+		return new long[] { total - idle, total };
+	}
+
+	/**
+	 * @return total and free memory in KB, where free counts buffers and page
+	 *         cache the same way "free" reports it; null if /proc/meminfo
+	 *         can't be read.
+	 */
+	public Pair<Long, Long> getMemInfo() {
+		List<String> lines = readLines("/proc/meminfo");
+		if (lines == null) {
+			return null;
+		}
+		long total = -1;
+		long free = 0;
+		for (String line : lines) {
+			int colon = line.indexOf(':');
+			if (colon < 0) {
+				continue;
+			}
+			String name = line.substring(0, colon);
+			if (!name.equals("MemTotal") && !name.equals("MemFree")
+					&& !name.equals("Buffers") && !name.equals("Cached")) {
+				continue;
+			}
+			String[] value = line.substring(colon + 1).trim().split("\\s+");
+			long kb;
+			try {
+				kb = Long.parseLong(value[0]);
+			} catch (NumberFormatException e) {
+				s_logger.debug("Unable to parse /proc/meminfo: " + line);
+				return null;
+			}
+			if (name.equals("MemTotal")) {
+				total = kb;
+			} else {
+				free += kb;
+			}
+		}
+		if (total < 0) {
+			return null;
+		}
+		return new Pair<Long, Long>(total, free);
+	}
+
+	/**
+	 * @return bytes received and sent by the nic, zero if not known.
+	 */
+	public Pair<Double, Double> getNicStats(String nicName) {
+		double rx = readLong("/sys/class/net/" + nicName + "/statistics/rx_bytes", 0);
+		double tx = readLong("/sys/class/net/" + nicName + "/statistics/tx_bytes", 0);
+		return new Pair<Double, Double>(rx, tx);
+	}
+
+	/**
+	 * @return link speed in Mb/s, or -1 if the nic doesn't report one.
+	 */
+	public int getNicSpeed(String nicName) {
+		return (int) readLong("/sys/class/net/" + nicName + "/speed", -1);
+	}
+
+	/**
+	 * @return the interfaces enslaved to the bridge, sorted by name, or an
+	 *         empty list if it isn't a bridge.
+	 */
+	public List<String> getBridgeInterfaces(String bridgeName) {
+		String[] names = new File(_root + "/sys/class/net/" + bridgeName + "/brif").list();
+		if (names == null) {
+			return Collections.emptyList();
+		}
+		Arrays.sort(names);
+		return Arrays.asList(names);
+	}
+
+	/**
+	 * Finds the physical interface carrying a bridge: the first interface on
+	 * it that isn't a guest vif, resolved to its parent device when it is a
+	 * vlan interface. Results are cached until {@link #invalidateBridges()}.
+	 *
+	 * @return the interface name, or null if the bridge has no interfaces.
+	 */
+	public String getBridgePif(String bridgeName) {
+		String pif = _bridgePifs.get(bridgeName);
+		if (pif != null) {
+			return pif;
+		}
+
+		List<String> intfs = getBridgeInterfaces(bridgeName);
+		for (String intf : intfs) {
+			if (!intf.startsWith("vnet")) {
+				pif = intf;
+				break;
+			}
+		}
+		if (pif == null) {
+			if (intfs.isEmpty()) {
+				return null;
+			}
+			pif = intfs.get(0);
+		}
+
+		String vlanDevice = getVlanDevice(pif);
+		if (vlanDevice != null) {
+			pif = vlanDevice;
+		}
+		_bridgePifs.put(bridgeName, pif);
+		return pif;
+	}
+
+	/**
+	 * @return the device a vlan interface is stacked on, or null if the
+	 *         interface isn't a vlan.
+	 */
+	protected String getVlanDevice(String intf) {
+		List<String> lines = readLines("/proc/net/vlan/" + intf);
+		if (lines == null) {
+			return null;
+		}
+		for (String line : lines) {
+			if (line.startsWith("Device:")) {
+				String device = line.substring("Device:".length()).trim();
+				return device.isEmpty() ? null : device;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Forgets the cached bridge to interface mappings; called whenever the
+	 * agent creates bridges or is asked to re-check its networks.
+	 */
+	public void invalidateBridges() {
+		_bridgePifs.clear();
+	}
+
+	private long readLong(String path, long defaultValue) {
+		String line = readFirstLine(path);
+		if (line == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(line.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	private String readFirstLine(String path) {
+		List<String> lines = readLines(path);
+		return lines == null || lines.isEmpty() ? null : lines.get(0);
+	}
+
+	private List<String> readLines(String path) {
+		File file = new File(_root + path);
+		if (!file.isFile()) {
+			return null;
+		}
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new FileReader(file));
+			List<String> lines = new ArrayList<String>();
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+			return lines;
+		} catch (IOException e) {
+			/* sysfs attributes fail to read when a nic is down */
+			s_logger.debug("Unable to read " + file + ": " + e.getMessage());
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
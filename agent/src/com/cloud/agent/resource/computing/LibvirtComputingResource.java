@@ -124,6 +124,7 @@ import com.cloud.agent.api.StartupStorageCommand;
 import com.cloud.agent.api.StopAnswer;
 import com.cloud.agent.api.StopCommand;
 import com.cloud.agent.api.UpgradeSnapshotCommand;
+import com.cloud.agent.api.VmStatesDigest;
 import com.cloud.agent.api.VmStatsEntry;
 import com.cloud.agent.api.check.CheckSshAnswer;
 import com.cloud.agent.api.check.CheckSshCommand;
@@ -307,6 +308,8 @@ public class LibvirtComputingResource extends ServerResourceBase implements
 	protected String _localStorageUUID;
 	private Pair<String, String> _pifs;
 	private final Map<String, vmStats> _vmStats = new ConcurrentHashMap<String, vmStats>();
+	private final KVMHostStats _hostStats = new KVMHostStats();
+	private volatile int _hostCpus;
 
 	protected boolean _disconnected = true;
 	protected int _timeout;
@@ -726,17 +729,10 @@ public class LibvirtComputingResource extends ServerResourceBase implements
 		if (_migrateSpeed == -1) {
 			//get guest network device speed
 			_migrateSpeed = 0;
-			String speed = Script.runSimpleBashScript("ethtool " + _pifs.second() + " |grep Speed | cut -d \\  -f 2");
-			if (speed != null) {
-				String[] tokens = speed.split("M");
-				if (tokens.length == 2) {
-					try {
-						_migrateSpeed = Integer.parseInt(tokens[0]);
-					} catch (Exception e) {
-						
-					}
-					s_logger.debug("device " + _pifs.second() + " has speed: " + String.valueOf(_migrateSpeed));
-				}
+			int speed = _hostStats.getNicSpeed(_pifs.second());
+			if (speed > 0) {
+				_migrateSpeed = speed;
+				s_logger.debug("device " + _pifs.second() + " has speed: " + String.valueOf(_migrateSpeed));
 			}
 			params.put("vm.migrate.speed", String.valueOf(_migrateSpeed));
 		}
@@ -749,26 +745,11 @@ public class LibvirtComputingResource extends ServerResourceBase implements
 		/* get pifs from bridge */
 		String pubPif = null;
 		String privPif = null;
-		String vlan = null;
 		if (_publicBridgeName != null) {
-			pubPif = Script.runSimpleBashScript("brctl show | grep "
-					+ _publicBridgeName + " | awk '{print $4}'");
-			vlan = Script.runSimpleBashScript("ls /proc/net/vlan/" + pubPif);
-			if (vlan != null && !vlan.isEmpty()) {
-				pubPif = Script
-						.runSimpleBashScript("grep ^Device\\: /proc/net/vlan/"
-								+ pubPif + " | awk {'print $2'}");
-			}
+			pubPif = _hostStats.getBridgePif(_publicBridgeName);
 		}
 		if (_guestBridgeName != null) {
-			privPif = Script.runSimpleBashScript("brctl show | grep "
-					+ _guestBridgeName + " | awk '{print $4}'");
-			vlan = Script.runSimpleBashScript("ls /proc/net/vlan/" + privPif);
-			if (vlan != null && !vlan.isEmpty()) {
-				privPif = Script
-						.runSimpleBashScript("grep ^Device\\: /proc/net/vlan/"
-								+ privPif + " | awk {'print $2'}");
-			}
+			privPif = _hostStats.getBridgePif(_guestBridgeName);
 		}
 		return new Pair<String, String>(privPif, pubPif);
 	}
@@ -778,8 +759,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements
 			return true;
 		}
 
-		String name = Script.runSimpleBashScript("brctl show | grep "
-				+ networkName + " | awk '{print $4}'");
+		String name = _hostStats.getBridgePif(networkName);
 		if (name == null) {
 			return false;
 		} else {
@@ -1030,6 +1010,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements
 		List<PhysicalNetworkSetupInfo> phyNics = cmd
 				.getPhysicalNetworkInfoList();
 		String errMsg = null;
+		_hostStats.invalidateBridges();
 		for (PhysicalNetworkSetupInfo nic : phyNics) {
 			if (!checkNetwork(nic.getGuestNetworkName())) {
 				errMsg = "Can not find network: " + nic.getGuestNetworkName();
@@ -2119,6 +2100,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements
 		command.add("-o", "add");
 
 		final String result = command.execute();
+		_hostStats.invalidateBridges();
 		if (result != null) {
 			throw new InternalErrorException("Failed to create vnet " + vnetId
 					+ ": " + result);
@@ -2130,42 +2112,19 @@ public class LibvirtComputingResource extends ServerResourceBase implements
 	}
 
 	private Answer execute(GetHostStatsCommand cmd) {
-		final Script cpuScript = new Script("/bin/bash", s_logger);
-		cpuScript.add("-c");
-		cpuScript
-				.add("idle=$(top -b -n 1|grep Cpu\\(s\\):|cut -d% -f4|cut -d, -f2);echo $idle");
-
-		final OutputInterpreter.OneLineParser parser = new OutputInterpreter.OneLineParser();
-		String result = cpuScript.execute(parser);
-		if (result != null) {
-			s_logger.debug("Unable to get the host CPU state: " + result);
-			return new Answer(cmd, false, result);
+		double cpuUtil = _hostStats.getCpuUtilization();
+		if (cpuUtil < 0) {
+			s_logger.debug("Unable to get the host CPU state from /proc/stat");
+			return new Answer(cmd, false, "Unable to get the host CPU state");
 		}
-		double cpuUtil = (100.0D - Double.parseDouble(parser.getLine()));
 
-		long freeMem = 0;
-		final Script memScript = new Script("/bin/bash", s_logger);
-		memScript.add("-c");
-		memScript
-				.add("freeMem=$(free|grep cache:|awk '{print $4}');echo $freeMem");
-		final OutputInterpreter.OneLineParser Memparser = new OutputInterpreter.OneLineParser();
-		result = memScript.execute(Memparser);
-		if (result != null) {
-			s_logger.debug("Unable to get the host Mem state: " + result);
-			return new Answer(cmd, false, result);
+		Pair<Long, Long> memInfo = _hostStats.getMemInfo();
+		if (memInfo == null) {
+			s_logger.debug("Unable to get the host Mem state from /proc/meminfo");
+			return new Answer(cmd, false, "Unable to get the host Mem state");
 		}
-		freeMem = Long.parseLong(Memparser.getLine());
-
-		Script totalMem = new Script("/bin/bash", s_logger);
-		totalMem.add("-c");
-		totalMem.add("free|grep Mem:|awk '{print $2}'");
-		final OutputInterpreter.OneLineParser totMemparser = new OutputInterpreter.OneLineParser();
-		result = totalMem.execute(totMemparser);
-		if (result != null) {
-			s_logger.debug("Unable to get the host Mem state: " + result);
-			return new Answer(cmd, false, result);
-		}
-		long totMem = Long.parseLong(totMemparser.getLine());
+		long totMem = memInfo.first();
+		long freeMem = memInfo.second();
 
 		Pair<Double, Double> nicStats = getNicStats(_publicBridgeName);
 
@@ -2927,15 +2886,22 @@ public class LibvirtComputingResource extends ServerResourceBase implements
 	@Override
 	public PingCommand getCurrentStatus(long id) {
 		final HashMap<String, State> newStates = sync();
+		String digest;
+		synchronized (_vms) {
+			digest = VmStatesDigest.digest(_vms);
+		}
 
+		PingRoutingCommand ping;
 		if (!_can_bridge_firewall) {
-			return new PingRoutingCommand(com.cloud.host.Host.Type.Routing, id,
+			ping = new PingRoutingCommand(com.cloud.host.Host.Type.Routing, id,
 					newStates);
 		} else {
 			HashMap<String, Pair<Long, Long>> nwGrpStates = syncNetworkGroups(id);
-			return new PingRoutingWithNwGroupsCommand(getType(), id, newStates,
+			ping = new PingRoutingWithNwGroupsCommand(getType(), id, newStates,
 					nwGrpStates);
 		}
+		ping.setVmStatesDigest(digest);
+		return ping;
 	}
 
 	@Override
@@ -3803,8 +3769,10 @@ public class LibvirtComputingResource extends ServerResourceBase implements
 				double utilization = (info.cpuTime - oldStats._usedTime)
 						/ ((double) elapsedTime * 1000000);
 
-				NodeInfo node = conn.nodeInfo();
-				utilization = utilization / node.cpus;
+				if (_hostCpus == 0) {
+					_hostCpus = conn.nodeInfo().cpus;
+				}
+				utilization = utilization / _hostCpus;
 				stats.setCPUUtilization(utilization * 100);
 			}
 
@@ -4059,23 +4027,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements
 	}
 
 	private Pair<Double, Double> getNicStats(String nicName) {
-		double rx = 0.0;
-		OutputInterpreter.OneLineParser rxParser = new OutputInterpreter.OneLineParser();
-		String result = executeBashScript("cat /sys/class/net/" + nicName
-				+ "/statistics/rx_bytes", rxParser);
-		if (result == null && rxParser.getLine() != null) {
-			rx = Double.parseDouble(rxParser.getLine());
-		}
-
-		double tx = 0.0;
-		OutputInterpreter.OneLineParser txParser = new OutputInterpreter.OneLineParser();
-		result = executeBashScript("cat /sys/class/net/" + nicName
-				+ "/statistics/tx_bytes", txParser);
-		if (result == null && txParser.getLine() != null) {
-			tx = Double.parseDouble(txParser.getLine());
-		}
-
-		return new Pair<Double, Double>(rx, tx);
+		return _hostStats.getNicStats(nicName);
 	}
 
 	private void createControlNetwork(Connect conn) throws LibvirtException {
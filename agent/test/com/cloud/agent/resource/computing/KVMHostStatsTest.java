@@ -0,0 +1,119 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.agent.resource.computing;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.utils.Pair;
+
+/**
+ * Reads the /proc and /sys files recorded from a kvm host under
+ * agent/test/resources/hoststats.
+ */
+public class KVMHostStatsTest extends TestCase {
+	static final String FIXTURE_ROOT = "agent/test/resources/hoststats";
+
+	private KVMHostStats _stats;
+
+	@Override
+	protected void setUp() {
+		_stats = new KVMHostStats(FIXTURE_ROOT);
+	}
+
+	@Test
+	public void testCpuTicks() {
+		long[] ticks = _stats.readCpuTicks();
+		assertEquals(5922, ticks[0]);
+		assertEquals(3728158, ticks[1]);
+	}
+
+	@Test
+	public void testCpuUtilizationBetweenSamples() {
+		final long[][] samples = { { 1000, 10000 }, { 1500, 11000 }, { 1500, 11000 } };
+		KVMHostStats stats = new KVMHostStats(FIXTURE_ROOT) {
+			int _sample;
+
+			@Override
+			protected long[] readCpuTicks() {
+				return samples[_sample++];
+			}
+		};
+		assertEquals(10.0, stats.getCpuUtilization(), 0.001);
+		assertEquals(50.0, stats.getCpuUtilization(), 0.001);
+		/* no ticks elapsed, falls back to the totals */
+		assertEquals(1500 * 100.0 / 11000, stats.getCpuUtilization(), 0.001);
+	}
+
+	@Test
+	public void testMissingProcStat() {
+		KVMHostStats stats = new KVMHostStats(new File(FIXTURE_ROOT, "sys").getPath());
+		assertEquals(-1.0, stats.getCpuUtilization());
+		assertNull(stats.getMemInfo());
+	}
+
+	@Test
+	public void testMemInfo() {
+		Pair<Long, Long> mem = _stats.getMemInfo();
+		assertEquals(Long.valueOf(7987492), mem.first());
+		/* MemFree + Buffers + Cached */
+		assertEquals(Long.valueOf(3523400 + 211228 + 1815384), mem.second());
+	}
+
+	@Test
+	public void testNicStats() {
+		Pair<Double, Double> eth0 = _stats.getNicStats("eth0");
+		assertEquals(81239475212.0, eth0.first());
+		assertEquals(1123456789.0, eth0.second());
+
+		Pair<Double, Double> bridge = _stats.getNicStats("cloudbr0");
+		assertEquals(4096.0, bridge.first());
+		assertEquals(0.0, bridge.second());
+
+		assertEquals(1000, _stats.getNicSpeed("eth0"));
+		assertEquals(-1, _stats.getNicSpeed("eth1"));
+	}
+
+	@Test
+	public void testBridgePifs() {
+		assertEquals(Arrays.asList("eth0", "vnet0", "vnet3"), _stats.getBridgeInterfaces("cloudbr0"));
+		assertEquals("eth0", _stats.getBridgePif("cloudbr0"));
+		/* vlan interface resolves to the device it is stacked on */
+		assertEquals("eth1", _stats.getBridgePif("cloudbr1"));
+		assertNull(_stats.getBridgePif("cloudbr9"));
+		assertTrue(_stats.getBridgeInterfaces("eth0").isEmpty());
+	}
+
+	@Test
+	public void testBridgePifsCachedUntilInvalidated() {
+		final int[] lookups = new int[1];
+		KVMHostStats stats = new KVMHostStats(FIXTURE_ROOT) {
+			@Override
+			protected String getVlanDevice(String intf) {
+				lookups[0]++;
+				return super.getVlanDevice(intf);
+			}
+		};
+		assertEquals("eth1", stats.getBridgePif("cloudbr1"));
+		assertEquals("eth1", stats.getBridgePif("cloudbr1"));
+		assertEquals(1, lookups[0]);
+
+		stats.invalidateBridges();
+		assertEquals("eth1", stats.getBridgePif("cloudbr1"));
+		assertEquals(2, lookups[0]);
+	}
+}
@@ -21,6 +21,7 @@ public class ClusterSyncAnswer extends Answer {
     private long _clusterId;
     private HashMap<String, Pair<String, State>> _newStates;
     private boolean _isExecuted=false;
+    private String _vmStatesDigest;
  
     // this is here because a cron command answer is being sent twice
     //  AgentAttache.processAnswers
@@ -48,4 +49,15 @@ public class ClusterSyncAnswer extends Answer {
         return _newStates;
     }   
 
+    /**
+     * @return digest of all the VM states known for the cluster at the time of the sync, null if not computed
+     */
+    public String getVmStatesDigest() {
+        return _vmStatesDigest;
+    }
+
+    public void setVmStatesDigest(String vmStatesDigest) {
+        _vmStatesDigest = vmStatesDigest;
+    }
+
 }
\ No newline at end of file
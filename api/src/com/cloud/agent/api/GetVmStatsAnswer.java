@@ -20,13 +20,22 @@ import com.cloud.agent.api.LogLevel.Log4jLevel;
 public class GetVmStatsAnswer extends Answer {
 
     HashMap<String, VmStatsEntry> vmStatsMap;
+    // VmStatsCodec encoding of the map, sent instead of the map when the command asks for it
+    String columnarStats;
 
     public GetVmStatsAnswer(GetVmStatsCommand cmd, HashMap<String, VmStatsEntry> vmStatsMap) {
         super(cmd);
-        this.vmStatsMap = vmStatsMap;
+        if (cmd.isColumnarStats() && vmStatsMap != null) {
+            this.columnarStats = VmStatsCodec.encode(vmStatsMap);
+        } else {
+            this.vmStatsMap = vmStatsMap;
+        }
     }
 
     public HashMap<String, VmStatsEntry> getVmStatsMap() {
+        if (vmStatsMap == null && columnarStats != null) {
+            vmStatsMap = VmStatsCodec.decode(columnarStats);
+        }
         return vmStatsMap;
     }
 
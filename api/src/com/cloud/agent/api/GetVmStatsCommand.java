@@ -21,6 +21,8 @@ public class GetVmStatsCommand extends Command {
     List<String> vmNames;
     String hostGuid;
     String hostName;
+    // agents that know VmStatsCodec answer with the columnar encoding when this is set, older ones ignore it
+    boolean columnarStats;
 
     protected GetVmStatsCommand() {
     }
@@ -43,6 +45,14 @@ public class GetVmStatsCommand extends Command {
         return this.hostName;
     }
 
+    public boolean isColumnarStats() {
+        return columnarStats;
+    }
+
+    public void setColumnarStats(boolean columnarStats) {
+        this.columnarStats = columnarStats;
+    }
+
     @Override
     public boolean executeInSequence() {
         return false;
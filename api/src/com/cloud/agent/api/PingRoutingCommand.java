@@ -21,6 +21,7 @@ public class PingRoutingCommand extends PingCommand {
     Map<String, State> newStates;
     boolean _gatewayAccessible = true;
     boolean _vnetAccessible = true;
+    String _vmStatesDigest;
    
     protected PingRoutingCommand() {
     }
@@ -47,4 +48,14 @@ public class PingRoutingCommand extends PingCommand {
     public void setVnetAccessible(boolean vnetAccessible) {
         _vnetAccessible = vnetAccessible;
     }
+
+    /**
+     * @return digest of all the VM states known by the agent at the time of the ping, null if the agent does not compute one
+     */
+    public String getVmStatesDigest() {
+        return _vmStatesDigest;
+    }
+    public void setVmStatesDigest(String vmStatesDigest) {
+        _vmStatesDigest = vmStatesDigest;
+    }
 }
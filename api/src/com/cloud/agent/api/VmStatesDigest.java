@@ -0,0 +1,73 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.agent.api;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.cloud.utils.Pair;
+import com.cloud.vm.VirtualMachine.State;
+
+/**
+ * Digest of the VM states an agent knows about. Agents attach it to their periodic state reports so that
+ * the management server can tell a report that repeats the last one it processed without looking at it.
+ */
+public class VmStatesDigest {
+
+    public static String digest(Map<String, State> states) {
+        if (states == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, State> entry : new TreeMap<String, State>(states).entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        return md5(sb.toString());
+    }
+
+    public static String digestWithHost(Map<String, Pair<String, State>> states) {
+        if (states == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Pair<String, State>> entry : new TreeMap<String, Pair<String, State>>(states).entrySet()) {
+            Pair<String, State> value = entry.getValue();
+            sb.append(entry.getKey()).append('=');
+            if (value != null) {
+                sb.append(value.first()).append('/').append(value.second());
+            }
+            sb.append('\n');
+        }
+        return md5(sb.toString());
+    }
+
+    private static String md5(String s) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.agent.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Columnar encoding of the vm stats a host reports, so that GetVmStatsAnswer does not repeat every field name for
+ * every vm.  The encoding is deflated and base64 encoded so that it travels as a string inside the json answer.
+ * 
+ * Layout, before deflating:
+ * 1. Format version - 1 byte;
+ * 2. Number of vms and number of strings - varints;
+ * 3. String dictionary - the vm names and entity types, each once;
+ * 4. Columns, one value per vm each: name and entity type as dictionary index + 1 (0 for null) and number of cpus,
+ *    all varints, then cpu utilization, network read KBs and network write KBs as doubles.
+ */
+public class VmStatsCodec {
+    private static final byte FORMAT_VERSION = 1;
+
+    public static String encode(Map<String, VmStatsEntry> vmStatsMap) {
+        int count = vmStatsMap.size();
+        Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        int[] names = new int[count];
+        int[] entityTypes = new int[count];
+        VmStatsEntry[] entries = new VmStatsEntry[count];
+        int i = 0;
+        for (Map.Entry<String, VmStatsEntry> entry : vmStatsMap.entrySet()) {
+            names[i] = lookup(dictionary, strings, entry.getKey());
+            entityTypes[i] = lookup(dictionary, strings, entry.getValue().getEntityType());
+            entries[i++] = entry.getValue();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + count * 40);
+        try {
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+            out.writeByte(FORMAT_VERSION);
+            writeVarInt(out, count);
+            writeVarInt(out, strings.size());
+            for (String string : strings) {
+                out.writeUTF(string);
+            }
+            for (i = 0; i < count; i++) {
+                writeVarInt(out, names[i]);
+            }
+            for (i = 0; i < count; i++) {
+                writeVarInt(out, entityTypes[i]);
+            }
+            for (i = 0; i < count; i++) {
+                writeVarInt(out, entries[i].getNumCPUs());
+            }
+            for (i = 0; i < count; i++) {
+                out.writeDouble(entries[i].getCPUUtilization());
+            }
+            for (i = 0; i < count; i++) {
+                out.writeDouble(entries[i].getNetworkReadKBs());
+            }
+            for (i = 0; i < count; i++) {
+                out.writeDouble(entries[i].getNetworkWriteKBs());
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to encode vm stats", e);
+        }
+        return Base64.encodeBase64String(bytes.toByteArray());
+    }
+
+    public static HashMap<String, VmStatsEntry> decode(String encoded) {
+        try {
+            DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(Base64.decodeBase64(encoded))));
+            byte version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new CloudRuntimeException("Unsupported vm stats format " + version);
+            }
+            int count = readVarInt(in);
+            String[] strings = new String[readVarInt(in) + 1];
+            for (int i = 1; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            VmStatsEntry[] entries = new VmStatsEntry[count];
+            String[] names = new String[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = strings[readVarInt(in)];
+                entries[i] = new VmStatsEntry();
+            }
+            for (int i = 0; i < count; i++) {
+                entries[i].setEntityType(strings[readVarInt(in)]);
+            }
+            for (int i = 0; i < count; i++) {
+                entries[i].setNumCPUs(readVarInt(in));
+            }
+            for (int i = 0; i < count; i++) {
+                entries[i].setCPUUtilization(in.readDouble());
+            }
+            for (int i = 0; i < count; i++) {
+                entries[i].setNetworkReadKBs(in.readDouble());
+            }
+            for (int i = 0; i < count; i++) {
+                entries[i].setNetworkWriteKBs(in.readDouble());
+            }
+            in.close();
+
+            HashMap<String, VmStatsEntry> vmStatsMap = new HashMap<String, VmStatsEntry>(count * 2);
+            for (int i = 0; i < count; i++) {
+                vmStatsMap.put(names[i], entries[i]);
+            }
+            return vmStatsMap;
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to decode vm stats", e);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new CloudRuntimeException("Unable to decode vm stats", e);
+        }
+    }
+
+    private static int lookup(Map<String, Integer> dictionary, List<String> strings, String string) {
+        if (string == null) {
+            return 0;
+        }
+        Integer index = dictionary.get(string);
+        if (index == null) {
+            strings.add(string);
+            index = strings.size();
+            dictionary.put(string, index);
+        }
+        return index;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        // zigzag, so that a negative value does not take five bytes
+        int v = (value << 1) ^ (value >> 31);
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
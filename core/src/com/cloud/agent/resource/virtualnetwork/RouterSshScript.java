@@ -0,0 +1,101 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.agent.resource.virtualnetwork;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.Pair;
+import com.cloud.utils.script.OutputInterpreter;
+import com.cloud.utils.script.Script;
+import com.cloud.utils.ssh.SshConnectionPool;
+
+/**
+ * Stands in for one of the local wrapper scripts that just ssh into the router given as their first argument and
+ * call a script there with the rest of the arguments. The router script is called over the pooled ssh connection
+ * of the router instead of spawning the wrapper and a fresh ssh.
+ */
+public class RouterSshScript extends Script {
+    private static final Logger s_logger = Logger.getLogger(RouterSshScript.class);
+
+    private final SshConnectionPool _pool;
+    private final String _remoteScript;
+    private final int _timeout;
+    private final List<String> _args = new ArrayList<String>();
+
+    public RouterSshScript(SshConnectionPool pool, String localScript, String remoteScript, int timeout) {
+        super(localScript, timeout, s_logger);
+        _pool = pool;
+        _remoteScript = remoteScript;
+        _timeout = timeout;
+    }
+
+    @Override
+    public void add(String... params) {
+        super.add(params);
+        for (String param : params) {
+            _args.add(param);
+        }
+    }
+
+    @Override
+    public void add(String param) {
+        super.add(param);
+        _args.add(param);
+    }
+
+    /**
+     * @param args the arguments following the router ip
+     */
+    protected String getRemoteScript(List<String> args) {
+        return _remoteScript;
+    }
+
+    @Override
+    public String execute(OutputInterpreter interpreter) {
+        if (_args.isEmpty()) {
+            return "No router to run " + _remoteScript + " on";
+        }
+
+        String routerIp = _args.get(0);
+        List<String> args = _args.subList(1, _args.size());
+        String remoteScript = getRemoteScript(args);
+        StringBuilder command = new StringBuilder(remoteScript);
+        for (String arg : args) {
+            command.append(' ').append(arg);
+        }
+
+        Pair<Boolean, String> result;
+        try {
+            result = _pool.execute(routerIp, remoteScript.substring(remoteScript.lastIndexOf('/') + 1), command.toString(), _timeout);
+        } catch (IOException e) {
+            s_logger.warn("Unable to run " + remoteScript + " on router " + routerIp, e);
+            return "Unable to run " + remoteScript + " on router " + routerIp + ": " + e.getMessage();
+        }
+
+        String output = result.second() != null ? result.second() : "";
+        if (!result.first()) {
+            return output.length() > 0 ? output : remoteScript + " failed on router " + routerIp;
+        }
+        try {
+            return interpreter.interpret(new BufferedReader(new StringReader(output)));
+        } catch (IOException e) {
+            return "Unable to parse the output of " + remoteScript + ": " + e.getMessage();
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.net.InetSocketAddress;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.channels.SocketChannel;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -44,6 +45,7 @@ import com.cloud.agent.api.GetDomRVersionCmd;
 import com.cloud.agent.api.proxy.CheckConsoleProxyLoadCommand;
 import com.cloud.agent.api.proxy.ConsoleProxyLoadAnswer;
 import com.cloud.agent.api.proxy.WatchConsoleProxyLoadCommand;
+import com.cloud.agent.api.routing.DhcpEntryBatchCommand;
 import com.cloud.agent.api.routing.DhcpEntryCommand;
 import com.cloud.agent.api.routing.IpAssocAnswer;
 import com.cloud.agent.api.routing.IpAssocCommand;
@@ -57,6 +59,7 @@ import com.cloud.agent.api.routing.SetPortForwardingRulesAnswer;
 import com.cloud.agent.api.routing.SetPortForwardingRulesCommand;
 import com.cloud.agent.api.routing.SetStaticNatRulesAnswer;
 import com.cloud.agent.api.routing.SetStaticNatRulesCommand;
+import com.cloud.agent.api.routing.VmDataBatchCommand;
 import com.cloud.agent.api.routing.VmDataCommand;
 import com.cloud.agent.api.routing.VpnUsersCfgCommand;
 import com.cloud.agent.api.to.IpAddressTO;
@@ -69,6 +72,7 @@ import com.cloud.utils.component.Manager;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.utils.script.OutputInterpreter;
 import com.cloud.utils.script.Script;
+import com.cloud.utils.ssh.SshConnectionPool;
 
 /**
  * VirtualNetworkResource controls and configures virtual networking
@@ -81,6 +85,8 @@ import com.cloud.utils.script.Script;
 @Local(value={VirtualRoutingResource.class})
 public class VirtualRoutingResource implements Manager {
     private static final Logger s_logger = Logger.getLogger(VirtualRoutingResource.class);
+    // printed by the batch scripts when the router template does not have the batch scripts yet
+    private static final String BATCH_UNSUPPORTED = "batch.unsupported";
     private String _savepasswordPath; 	// This script saves a random password to the DomR file system
     private String _ipassocPath;
     private String _publicIpAddress;
@@ -88,6 +94,8 @@ public class VirtualRoutingResource implements Manager {
     private String _loadbPath;
     private String _dhcpEntryPath;
     private String _vmDataPath;
+    private String _dhcpEntryBatchPath;
+    private String _vmDataBatchPath;
     private String _publicEthIf;
     private String _privateEthIf;
     private String _getRouterStatusPath;
@@ -103,6 +111,9 @@ public class VirtualRoutingResource implements Manager {
     private int _sleep;
     private int _retry;
     private int _port;
+    private SshConnectionPool _sshPool;
+    // local wrapper scripts that only ssh into the router and run these scripts there
+    private final Map<String, String> _routerScripts = new HashMap<String, String>();
 
     public Answer executeRequest(final Command cmd) {
         try {
@@ -124,6 +135,10 @@ public class VirtualRoutingResource implements Manager {
                 return execute((DhcpEntryCommand)cmd);
             } else if (cmd instanceof VmDataCommand) {
                 return execute ((VmDataCommand)cmd);
+            } else if (cmd instanceof DhcpEntryBatchCommand) {
+                return execute((DhcpEntryBatchCommand)cmd);
+            } else if (cmd instanceof VmDataBatchCommand) {
+                return execute((VmDataBatchCommand)cmd);
             } else if (cmd instanceof CheckRouterCommand) {
                 return execute ((CheckRouterCommand)cmd);
             } else if (cmd instanceof SetFirewallRulesCommand) {
@@ -147,7 +162,7 @@ public class VirtualRoutingResource implements Manager {
 
     private Answer execute(VpnUsersCfgCommand cmd) {
         for (VpnUsersCfgCommand.UsernamePassword userpwd: cmd.getUserpwds()) {
-            Script command = new Script(_l2tpVpnPath, _timeout, s_logger);
+            Script command = createScript(_l2tpVpnPath, _timeout);
             command.add(cmd.getAccessDetail(NetworkElementCommand.ROUTER_IP));
             if (!userpwd.isAdd()) {
                 command.add("-U ", userpwd.getUsername());
@@ -164,7 +179,7 @@ public class VirtualRoutingResource implements Manager {
     }
 
     private Answer execute(RemoteAccessVpnCfgCommand cmd) {
-        Script command = new Script(_l2tpVpnPath, _timeout, s_logger);
+        Script command = createScript(_l2tpVpnPath, _timeout);
         command.add(cmd.getAccessDetail(NetworkElementCommand.ROUTER_IP));
         if (cmd.isCreate()) {
             command.add("-r ", cmd.getIpRange());
@@ -195,7 +210,7 @@ public class VirtualRoutingResource implements Manager {
         }
 
         String[][] rules = cmd.generateFwRules();
-        final Script command = new Script(_firewallPath, _timeout, s_logger);
+        final Script command = createScript(_firewallPath, _timeout);
         command.add(routerIp);
         command.add("-F");
         
@@ -225,7 +240,7 @@ public class VirtualRoutingResource implements Manager {
         boolean endResult = true;
         for (PortForwardingRuleTO rule : cmd.getRules()) {
             String result = null;
-            final Script command = new Script(_firewallPath, _timeout, s_logger);
+            final Script command = createScript(_firewallPath, _timeout);
             
             command.add(routerIp);
             command.add(rule.revoked() ? "-D" : "-A");
@@ -253,7 +268,7 @@ public class VirtualRoutingResource implements Manager {
         boolean endResult = true;
         for (StaticNatRuleTO rule : cmd.getRules()) {
             String result = null;
-            final Script command = new Script(_firewallPath, _timeout, s_logger);
+            final Script command = createScript(_firewallPath, _timeout);
             command.add(routerIp);
             command.add(rule.revoked() ? "-D" : "-A");
             
@@ -325,14 +340,7 @@ public class VirtualRoutingResource implements Manager {
             String data = vmDataEntry[2];
             File tmpFile = null;
 
-            byte[] dataBytes = null;
-            if (data != null) {
-                if (folder.equals("userdata")) {
-                    dataBytes = Base64.decodeBase64(data);//userdata is supplied in url-safe unchunked mode
-                } else {
-                    dataBytes = data.getBytes();
-                }
-            }
+            byte[] dataBytes = getVmDataBytes(folder, data);
 
             try {
                 tmpFile = File.createTempFile("vmdata_", null);
@@ -347,7 +355,7 @@ public class VirtualRoutingResource implements Manager {
             }
        
 
-            final Script command  = new Script(_vmDataPath, _timeout, s_logger);
+            final Script command  = createScript(_vmDataPath, _timeout);
             command.add("-r", cmd.getAccessDetail(NetworkElementCommand.ROUTER_IP));
             command.add("-v", cmd.getVmIpAddress());
             command.add("-F", folder);
@@ -376,6 +384,108 @@ public class VirtualRoutingResource implements Manager {
         return new Answer(cmd);
     }
 
+    private byte[] getVmDataBytes(String folder, String data) {
+        if (data == null) {
+            return null;
+        }
+        if (folder.equals("userdata")) {
+            return Base64.decodeBase64(data);//userdata is supplied in url-safe unchunked mode
+        }
+        return data.getBytes();
+    }
+
+    protected Answer execute(VmDataBatchCommand cmd) {
+        if (_vmDataBatchPath == null) {
+            return executeOneByOne(cmd, cmd.getEntries());
+        }
+
+        StringBuilder entries = new StringBuilder();
+        for (VmDataCommand entry : cmd.getEntries()) {
+            for (String[] vmDataEntry : entry.getVmData()) {
+                byte[] dataBytes = getVmDataBytes(vmDataEntry[0], vmDataEntry[2]);
+                entries.append(entry.getVmIpAddress()).append(' ').append(vmDataEntry[0]).append(' ').append(vmDataEntry[1]).append(' ');
+                if (dataBytes != null) {
+                    entries.append(new String(Base64.encodeBase64(dataBytes)));
+                }
+                entries.append('\n');
+            }
+        }
+
+        return executeBatch(cmd, _vmDataBatchPath, "vmdata_", entries.toString(), cmd.getEntries());
+    }
+
+    protected Answer execute(DhcpEntryBatchCommand cmd) {
+        if (_dhcpEntryBatchPath == null) {
+            return executeOneByOne(cmd, cmd.getEntries());
+        }
+
+        StringBuilder entries = new StringBuilder();
+        for (DhcpEntryCommand entry : cmd.getEntries()) {
+            entries.append(entry.getVmMac()).append(' ').append(entry.getVmIpAddress()).append(' ').append(entry.getVmName());
+            entries.append(' ').append(entry.getDefaultRouter() != null ? entry.getDefaultRouter() : "-");
+            entries.append(' ').append(entry.getDefaultDns() != null ? entry.getDefaultDns() : "-");
+            entries.append(' ').append(entry.getStaticRoutes() != null ? entry.getStaticRoutes() : "-");
+            entries.append('\n');
+        }
+
+        synchronized (this) {
+            return executeBatch(cmd, _dhcpEntryBatchPath, "dhcp_", entries.toString(), cmd.getEntries());
+        }
+    }
+
+    /**
+     * Hands all the entries to the router in a single script call. Routers whose template does not have the
+     * batch scripts yet get the entries one at a time.
+     */
+    private Answer executeBatch(NetworkElementCommand cmd, String scriptPath, String filePrefix, String entries, Command[] fallback) {
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile(filePrefix, null);
+            FileOutputStream outStream = new FileOutputStream(tmpFile);
+            try {
+                outStream.write(entries.getBytes());
+            } finally {
+                outStream.close();
+            }
+        } catch (IOException e) {
+            String tmpDir = System.getProperty("java.io.tmpdir");
+            s_logger.warn("Failed to create temporary file: is " + tmpDir + " full?", e);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            return new Answer(cmd, false, "Failed to create or write to temporary file: is " + tmpDir + " full? " + e.getMessage());
+        }
+
+        String result;
+        try {
+            final Script command = createScript(scriptPath, _timeout);
+            command.add("-r", cmd.getAccessDetail(NetworkElementCommand.ROUTER_IP));
+            command.add("-f", tmpFile.getAbsolutePath());
+            result = command.execute();
+        } finally {
+            if (!tmpFile.delete()) {
+                s_logger.warn("Failed to clean up temp file " + tmpFile.getAbsolutePath());
+                tmpFile.deleteOnExit();
+            }
+        }
+
+        if (result != null && result.contains(BATCH_UNSUPPORTED)) {
+            s_logger.info("Router " + cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME) + " does not support batch updates, sending " + fallback.length + " entries one by one");
+            return executeOneByOne(cmd, fallback);
+        }
+        return new Answer(cmd, result == null, result);
+    }
+
+    private Answer executeOneByOne(Command cmd, Command[] entries) {
+        for (Command entry : entries) {
+            Answer answer = executeRequest(entry);
+            if (!answer.getResult()) {
+                return new Answer(cmd, false, answer.getDetails());
+            }
+        }
+        return new Answer(cmd);
+    }
+
     protected Answer execute(final IpAssocCommand cmd) {
         IpAddressTO[] ips = cmd.getIpAddresses();
         String[] results = new String[cmd.getIpAddresses().length];
@@ -452,7 +562,7 @@ public class VirtualRoutingResource implements Manager {
     }
 
     protected synchronized Answer execute (final DhcpEntryCommand cmd) {
-        final Script command  = new Script(_dhcpEntryPath, _timeout, s_logger);
+        final Script command  = createScript(_dhcpEntryPath, _timeout);
         command.add("-r", cmd.getAccessDetail(NetworkElementCommand.ROUTER_IP));
         command.add("-v", cmd.getVmIpAddress());
         command.add("-m", cmd.getVmMac());
@@ -474,7 +584,7 @@ public class VirtualRoutingResource implements Manager {
     }
 
     public String getRouterStatus(String routerIP) {
-        final Script command  = new Script(_getRouterStatusPath, _timeout, s_logger);
+        final Script command  = createScript(_getRouterStatusPath, _timeout);
         final OutputInterpreter.OneLineParser parser = new OutputInterpreter.OneLineParser();
         command.add(routerIP);
         String result = command.execute(parser);
@@ -496,7 +606,7 @@ public class VirtualRoutingResource implements Manager {
 
     protected Answer execute(BumpUpPriorityCommand cmd) {
         final String routerPrivateIPAddress = cmd.getAccessDetail(NetworkElementCommand.ROUTER_IP);
-        final Script command  = new Script(_bumpUpPriorityPath, _timeout, s_logger);
+        final Script command  = createScript(_bumpUpPriorityPath, _timeout);
         final OutputInterpreter.OneLineParser parser = new OutputInterpreter.OneLineParser();
         command.add(routerPrivateIPAddress);
         String result = command.execute(parser);
@@ -507,7 +617,7 @@ public class VirtualRoutingResource implements Manager {
     }
 
     protected String getDomRVersion(String routerIP) {
-        final Script command  = new Script(_getDomRVersionPath, _timeout, s_logger);
+        final Script command  = createScript(_getDomRVersionPath, _timeout);
         final OutputInterpreter.OneLineParser parser = new OutputInterpreter.OneLineParser();
         command.add(routerIP);
         String result = command.execute(parser);
@@ -610,7 +720,7 @@ public class VirtualRoutingResource implements Manager {
             final String vlanId, final String vlanGateway,
             final String vlanNetmask, final String vifMacAddress, String guestIp, int nicNum){
 
-        final Script command = new Script(_ipassocPath, _timeout, s_logger);
+        final Script command = createScript(_ipassocPath, _timeout);
         command.add( privateIpAddress);
         if (add) {
             command.add("-A");
@@ -771,6 +881,28 @@ public class VirtualRoutingResource implements Manager {
         return Script.findScript(_scriptsDir, script);
     }
 
+    protected Script createScript(final String path, final int timeout) {
+        if (_sshPool != null && path != null) {
+            if (path.equals(_firewallPath)) {
+                return new RouterSshScript(_sshPool, path, "/root/firewall.sh", timeout) {
+                    @Override
+                    protected String getRemoteScript(List<String> args) {
+                        return args.contains("-F") ? "/root/firewall_rule.sh" : "/root/firewall.sh";
+                    }
+                };
+            }
+            String remoteScript = _routerScripts.get(path);
+            if (remoteScript != null) {
+                return new RouterSshScript(_sshPool, path, remoteScript, timeout);
+            }
+        }
+        return new Script(path, timeout, s_logger);
+    }
+
+    public SshConnectionPool getSshPool() {
+        return _sshPool;
+    }
+
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
         _name = name;
@@ -838,6 +970,16 @@ public class VirtualRoutingResource implements Manager {
             throw new ConfigurationException("Unable to find user_data.sh");
         }
 
+        _dhcpEntryBatchPath = findScript("dhcp_entry_batch.sh");
+        if (_dhcpEntryBatchPath == null) {
+            s_logger.warn("Unable to find dhcp_entry_batch.sh, dhcp entries will be sent one by one");
+        }
+
+        _vmDataBatchPath = findScript("vm_data_batch.sh");
+        if (_vmDataBatchPath == null) {
+            s_logger.warn("Unable to find vm_data_batch.sh, vm data will be sent one by one");
+        }
+
         _getRouterStatusPath = findScript("getRouterStatus.sh");
         if(_getRouterStatusPath == null) {
             throw new ConfigurationException("Unable to find getRouterStatus.sh");
@@ -869,6 +1011,24 @@ public class VirtualRoutingResource implements Manager {
         if(_getDomRVersionPath == null) {
             throw new ConfigurationException("Unable to find getDomRVersion.sh");
         }
+
+        _routerScripts.put(_ipassocPath, "/root/ipassoc.sh");
+        _routerScripts.put(_getRouterStatusPath, "/root/checkrouter.sh");
+        _routerScripts.put(_bumpUpPriorityPath, "/root/bumpup_priority.sh");
+        _routerScripts.put(_getDomRVersionPath, "/opt/cloud/bin/get_template_version.sh");
+        _routerScripts.put(_l2tpVpnPath, "/opt/cloud/bin/vpn_l2tp.sh");
+
+        value = (String)params.get("router.ssh.key");
+        File keyFile = new File(value != null ? value : "/root/.ssh/id_rsa.cloud");
+        value = (String)params.get("router.ssh.pool");
+        if (!"false".equalsIgnoreCase(value) && keyFile.exists()) {
+            int idleTimeout = NumbersUtil.parseInt((String)params.get("router.ssh.idle.timeout"), 300);
+            int keepAlive = NumbersUtil.parseInt((String)params.get("router.ssh.keepalive"), 60);
+            _sshPool = new SshConnectionPool("VirtualRouting", new SshConnectionPool.TrileadSessionFactory(_port, "root", keyFile, 10000), idleTimeout);
+            _sshPool.start(keepAlive);
+        } else {
+            s_logger.info("Not keeping ssh connections to the routers open, every router command runs its own ssh");
+        }
         
         return true;
     }
@@ -930,6 +1090,9 @@ public class VirtualRoutingResource implements Manager {
 
     @Override
     public boolean stop() {
+        if (_sshPool != null) {
+            _sshPool.stop();
+        }
         return true;
     }
 
@@ -471,16 +471,18 @@ public class Request {
         
         byte[] command = null;
         int offset = 0;
+        // the decompressed buffer is larger than its content, only the remaining bytes are the command
+        int length = buff.remaining();
         if (buff.hasArray()) {
             command = buff.array();
             offset = buff.arrayOffset() + buff.position();
         } else {
-            command = new byte[buff.remaining()];
+            command = new byte[length];
             buff.get(command);
             offset = 0;
         }
 
-        final String content = new String(command, offset, command.length - offset);
+        final String content = new String(command, offset, length);
 
         if (isRequest) {
             return new Request(version, seq, agentId, mgmtId, via, flags, content);
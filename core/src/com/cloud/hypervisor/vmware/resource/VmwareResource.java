@@ -26,9 +26,11 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
 
@@ -159,8 +161,11 @@ import com.cloud.hypervisor.vmware.mo.HostMO;
 import com.cloud.hypervisor.vmware.mo.HostVirtualNicType;
 import com.cloud.hypervisor.vmware.mo.HypervisorHostHelper;
 import com.cloud.hypervisor.vmware.mo.NetworkDetails;
+import com.cloud.hypervisor.vmware.mo.PerfCounterInfoMapper;
+import com.cloud.hypervisor.vmware.mo.PerfManagerMO;
 import com.cloud.hypervisor.vmware.mo.VirtualEthernetCardType;
 import com.cloud.hypervisor.vmware.mo.VirtualMachineMO;
+import com.cloud.hypervisor.vmware.mo.VmStateTracker;
 import com.cloud.hypervisor.vmware.mo.VmwareHypervisorHost;
 import com.cloud.hypervisor.vmware.mo.VmwareHypervisorHostNetworkSummary;
 import com.cloud.hypervisor.vmware.mo.VmwareHypervisorHostResourceSummary;
@@ -188,6 +193,7 @@ import com.cloud.utils.exception.ExceptionUtil;
 import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.mgmt.PropertyMapDynamicBean;
 import com.cloud.utils.net.NetUtils;
+import com.cloud.utils.ssh.SshConnectionPool;
 import com.cloud.vm.DiskProfile;
 import com.cloud.vm.VirtualMachine;
 import com.cloud.vm.VirtualMachine.State;
@@ -207,16 +213,9 @@ import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.ObjectContent;
 import com.vmware.vim25.OptionValue;
 import com.vmware.vim25.PerfCounterInfo;
-import com.vmware.vim25.PerfEntityMetric;
-import com.vmware.vim25.PerfEntityMetricBase;
-import com.vmware.vim25.PerfMetricId;
-import com.vmware.vim25.PerfMetricIntSeries;
-import com.vmware.vim25.PerfMetricSeries;
-import com.vmware.vim25.PerfQuerySpec;
-import com.vmware.vim25.PerfSampleInfo;
+import com.vmware.vim25.PerfSummaryType;
 import com.vmware.vim25.RuntimeFault;
 import com.vmware.vim25.ToolsUnavailable;
-import com.vmware.vim25.VimPortType;
 import com.vmware.vim25.VirtualDevice;
 import com.vmware.vim25.VirtualDeviceConfigSpec;
 import com.vmware.vim25.VirtualDeviceConfigSpecOperation;
@@ -243,6 +242,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     protected final int _retry = 24;
     protected final int _sleep = 10000;
     protected final int DEFAULT_DOMR_SSHPORT = 3922;
+    private SshConnectionPool _routerSshPool;
     protected final int MAX_CMD_MBEAN = 100;
 
     protected String _url;
@@ -268,6 +268,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
 
     protected ManagedObjectReference _morHyperHost;
     protected VmwareContext _serviceContext;
+    protected VmStateTracker _vmStateTracker;
     protected String _hostName;
 
     protected HashMap<String, State> _vms = new HashMap<String, State>(71);
@@ -296,6 +297,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     	
         Answer answer = null;
         NDC.push(_hostName != null ? _hostName : _guid + "(" + ComponentLocator.class.getPackage().getImplementationVersion() + ")");
+        VmwareContext.beginPropertySnapshot();
         try {
             long cmdSequence = _cmdSequence++;
             Date startTime = DateUtil.currentGMTTime();
@@ -437,6 +439,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
             }
 
         } finally {
+            VmwareContext.endPropertySnapshot();
             NDC.pop();
         }
 
@@ -490,8 +493,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
             args += " -d " + rule.getStringDstPortRange();
 
             try {
-                VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
-                Pair<Boolean, String> result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "/root/firewall.sh " + args);
+                Pair<Boolean, String> result = routerSshExecute(controlIp, "/root/firewall.sh " + args);
 
                 if (s_logger.isDebugEnabled())
                     s_logger.debug("Executing script on domain router " + controlIp + ": /root/firewall.sh " + args);
@@ -530,11 +532,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
 		}
 
 		try {
-			VmwareManager mgr = getServiceContext().getStockObject(
-					VmwareManager.CONTEXT_STOCK_NAME);
-			Pair<Boolean, String> result = SshHelper.sshExecute(controlIp,
-					DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(),
-					null, "/root/firewall_rule.sh " + args);
+			Pair<Boolean, String> result = routerSshExecute(controlIp, "/root/firewall_rule.sh " + args);
 
 			if (s_logger.isDebugEnabled())
 				s_logger.debug("Executing script on domain router " + controlIp
@@ -588,9 +586,8 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
             args += " -G ";
 
             try {
-                VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
                 String controlIp = getRouterSshControlIp(cmd);
-                Pair<Boolean, String> result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "/root/firewall.sh " + args);
+                Pair<Boolean, String> result = routerSshExecute(controlIp, "/root/firewall.sh " + args);
 
                 if (s_logger.isDebugEnabled())
                     s_logger.debug("Executing script on domain router " + controlIp + ": /root/firewall.sh " + args);
@@ -670,7 +667,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                     args += " -s " + sb.toString();
                 }
                 
-                Pair<Boolean, String> result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "scp " + tmpCfgFilePath + " /etc/haproxy/haproxy.cfg.new");
+                Pair<Boolean, String> result = routerSshExecute(controlIp, "scp " + tmpCfgFilePath + " /etc/haproxy/haproxy.cfg.new");
 
                 if (!result.first()) {
                     s_logger.error("Unable to copy haproxy configuration file");
@@ -681,7 +678,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                     s_logger.debug("Run command on domain router " + routerIp + ",  /root/loadbalancer.sh " + args);
                 }
 
-                result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "/root/loadbalancer.sh " + args);
+                result = routerSshExecute(controlIp, "/root/loadbalancer.sh " + args);
 
                 if (!result.first()) {
                     String msg = "LoadBalancerConfigCommand on domain router " + routerIp + " failed. message: " + result.second();
@@ -694,7 +691,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                     s_logger.info("LoadBalancerConfigCommand on domain router " + routerIp + " completed");
                 }
             } finally {
-                SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "rm " + tmpCfgFilePath);
+                routerSshExecute(controlIp, "rm " + tmpCfgFilePath);
             }
 
             return new Answer(cmd);
@@ -774,8 +771,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
             s_logger.debug("Run command on domain router " + privateIpAddress + ", /root/ipassoc.sh " + args);
         }
 
-        VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
-        Pair<Boolean, String> result = SshHelper.sshExecute(privateIpAddress, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "/root/ipassoc.sh " + args);
+        Pair<Boolean, String> result = routerSshExecute(privateIpAddress, "/root/ipassoc.sh " + args);
 
         if (!result.first()) {
             s_logger.error("ipassoc command on domain router " + privateIpAddress + " failed. message: " + result.second());
@@ -934,8 +930,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
 
 
         try {
-            VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
-            Pair<Boolean, String> result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "/root/savepassword.sh " + args);
+            Pair<Boolean, String> result = routerSshExecute(controlIp, "/root/savepassword.sh " + args);
 
             if (!result.first()) {
                 s_logger.error("savepassword command on domain router " + controlIp + " failed, message: " + result.second());
@@ -982,10 +977,8 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
         }
 
         try {
-            VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
             String controlIp = getRouterSshControlIp(cmd);
-            Pair<Boolean, String> result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null,
-                    "/root/edithosts.sh " + args);
+            Pair<Boolean, String> result = routerSshExecute(controlIp, "/root/edithosts.sh " + args);
 
             if (!result.first()) {
                 s_logger.error("dhcp_entry command on domR " + controlIp + " failed, message: " + result.second());
@@ -1014,10 +1007,8 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
 
         Pair<Boolean, String> result;
         try {
-            VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
             String controlIp = getRouterSshControlIp(cmd);
-            result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null,
-                    "/root/checkrouter.sh ");
+            result = routerSshExecute(controlIp, "/root/checkrouter.sh ");
 
             if (!result.first()) {
                 s_logger.error("check router command on domR " + cmd.getAccessDetail(NetworkElementCommand.ROUTER_IP) + " failed, message: " + result.second());
@@ -1044,10 +1035,8 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
 
         Pair<Boolean, String> result;
         try {
-            VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
             String controlIp = getRouterSshControlIp(cmd);
-            result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null,
-                    "/opt/cloud/bin/get_template_version.sh ");
+            result = routerSshExecute(controlIp, "/opt/cloud/bin/get_template_version.sh ");
 
             if (!result.first()) {
                 s_logger.error("GetDomRVersionCmd on domR " + cmd.getAccessDetail(NetworkElementCommand.ROUTER_IP) + " failed, message: " + result.second());
@@ -1078,10 +1067,8 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
 
         Pair<Boolean, String> result;
         try {
-            VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
             String controlIp = getRouterSshControlIp(cmd);
-            result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null,
-                    "/root/bumpup_priority.sh ");
+            result = routerSshExecute(controlIp, "/root/bumpup_priority.sh ");
 
             if (!result.first()) {
                 s_logger.error("BumpUpPriority command on domR " + cmd.getAccessDetail(NetworkElementCommand.ROUTER_IP) + " failed, message: " + result.second());
@@ -1141,8 +1128,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
             SshHelper.scpTo(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "/tmp", content.getBytes(), tmpFileName, null);
 
             try {
-                Pair<Boolean, String> result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null,
-                        "/root/userdata.py " + tmpFileName);
+                Pair<Boolean, String> result = routerSshExecute(controlIp, "/root/userdata.py " + tmpFileName);
 
                 if (!result.first()) {
                     s_logger.error("vm_data command on domain router " + controlIp + " failed. messge: " + result.second());
@@ -1150,7 +1136,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                 }
             } finally {
 
-                SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "rm /tmp/" + tmpFileName);
+                routerSshExecute(controlIp, "rm /tmp/" + tmpFileName);
             }
 
             if (s_logger.isInfoEnabled()) {
@@ -1729,13 +1715,11 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
         }
 
         try {
-            VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
-
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Executing /opt/cloud/bin/vpn_lt2p.sh ");
             }
 
-            Pair<Boolean, String> result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "/opt/cloud/bin/vpn_l2tp.sh " + argsBuf.toString());
+            Pair<Boolean, String> result = routerSshExecute(controlIp, "/opt/cloud/bin/vpn_l2tp.sh " + argsBuf.toString());
 
             if (!result.first()) {
                 s_logger.error("RemoteAccessVpnCfg command on domR failed, message: " + result.second());
@@ -1762,8 +1746,6 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     }
 
     protected synchronized Answer execute(final VpnUsersCfgCommand cmd) {
-        VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
-
         String controlIp = getRouterSshControlIp(cmd);
         for (VpnUsersCfgCommand.UsernamePassword userpwd : cmd.getUserpwds()) {
             StringBuffer argsBuf = new StringBuffer();
@@ -1779,7 +1761,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                     s_logger.debug("Executing /opt/cloud/bin/vpn_lt2p.sh ");
                 }
 
-                Pair<Boolean, String> result = SshHelper.sshExecute(controlIp, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "/opt/cloud/bin/vpn_l2tp.sh " + argsBuf.toString());
+                Pair<Boolean, String> result = routerSshExecute(controlIp, "/opt/cloud/bin/vpn_l2tp.sh " + argsBuf.toString());
 
                 if (!result.first()) {
                     s_logger.error("VpnUserCfg command on domR failed, message: " + result.second());
@@ -3680,61 +3662,36 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     }
     
     private HashMap<String, State> getVmStates() throws Exception {
-        VmwareHypervisorHost hyperHost = getHyperHost(getServiceContext());
-        ObjectContent[] ocs = hyperHost.getVmPropertiesOnHyperHost(new String[] { "name", "runtime.powerState", "config.template" });
+        Map<String, VirtualMachinePowerState> powerStates = getVmStateTracker(getServiceContext()).getVmPowerStates();
 
         HashMap<String, State> newStates = new HashMap<String, State>();
-        if (ocs != null && ocs.length > 0) {
-            for (ObjectContent oc : ocs) {
-                DynamicProperty[] objProps = oc.getPropSet();
-                if (objProps != null) {
-
-                    boolean isTemplate = false;
-                    String name = null;
-                    VirtualMachinePowerState powerState = VirtualMachinePowerState.poweredOff;
-                    for (DynamicProperty objProp : objProps) {
-                        if (objProp.getName().equals("config.template")) {
-                            if (objProp.getVal().toString().equalsIgnoreCase("true")) {
-                                isTemplate = true;
-                            }
-                        } else if (objProp.getName().equals("name")) {
-                            name = (String) objProp.getVal();
-                        } else if (objProp.getName().equals("runtime.powerState")) {
-                            powerState = (VirtualMachinePowerState) objProp.getVal();
-                        } else {
-                            assert (false);
-                        }
-                    }
-
-                    if (!isTemplate) {
-                        newStates.put(name, convertState(powerState));
-                    }
-                }
-            }
+        for (Map.Entry<String, VirtualMachinePowerState> entry : powerStates.entrySet()) {
+            newStates.put(entry.getKey(), convertState(entry.getValue()));
         }
         return newStates;
     }
 
     private HashMap<String, VmStatsEntry> getVmStats(List<String> vmNames) throws Exception {
-        VmwareHypervisorHost hyperHost = getHyperHost(getServiceContext());
+        VmwareContext context = getServiceContext();
+        VmwareHypervisorHost hyperHost = getHyperHost(context);
         HashMap<String, VmStatsEntry> vmResponseMap = new HashMap<String, VmStatsEntry>();
-        ManagedObjectReference perfMgr = getServiceContext().getServiceConnection().getServiceContent().getPerfManager();
-        VimPortType service = getServiceContext().getServiceConnection().getService();
-        PerfCounterInfo rxPerfCounterInfo = null;
-        PerfCounterInfo txPerfCounterInfo = null;
-
-        PerfCounterInfo[] cInfo = (PerfCounterInfo[]) getServiceContext().getServiceUtil().getDynamicProperty(perfMgr, "perfCounter");
-        for(int i=0; i<cInfo.length; ++i) {
-            if ("net".equalsIgnoreCase(cInfo[i].getGroupInfo().getKey())) { 
-                if ("transmitted".equalsIgnoreCase(cInfo[i].getNameInfo().getKey())) {
-                    txPerfCounterInfo = cInfo[i];
-                }
-                if ("received".equalsIgnoreCase(cInfo[i].getNameInfo().getKey())) {
-                    rxPerfCounterInfo = cInfo[i];
-                }
-            }
+
+        PerfCounterInfoMapper counterMapper = context.getPerfCounterInfoMapper();
+        PerfCounterInfo rxPerfCounterInfo = counterMapper.lookupOne("net", "received", PerfSummaryType.average);
+        PerfCounterInfo txPerfCounterInfo = counterMapper.lookupOne("net", "transmitted", PerfSummaryType.average);
+
+        List<Integer> counterIds = new ArrayList<Integer>();
+        if (rxPerfCounterInfo != null) {
+            counterIds.add(rxPerfCounterInfo.getKey());
+        }
+        if (txPerfCounterInfo != null) {
+            counterIds.add(txPerfCounterInfo.getKey());
         }
 
+        Set<String> requestedVmNames = new HashSet<String>(vmNames);
+        List<ManagedObjectReference> vmMors = new ArrayList<ManagedObjectReference>();
+        List<VmStatsEntry> vmStats = new ArrayList<VmStatsEntry>();
+
         ObjectContent[] ocs = hyperHost.getVmPropertiesOnHyperHost(new String[] {"name", "summary.config.numCpu", "summary.quickStats.overallCpuUsage"});
         if (ocs != null && ocs.length > 0) {
             for (ObjectContent oc : ocs) {
@@ -3754,60 +3711,45 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                         }
                     }
 
-                    if (!vmNames.contains(name)) {
+                    if (!requestedVmNames.contains(name)) {
                         continue;
                     }
 
-                    ManagedObjectReference vmMor = hyperHost.findVmOnHyperHost(name).getMor();
-                    assert(vmMor!=null);
-
-                    ArrayList vmNetworkMetrics = new ArrayList();
-                    // get all the metrics from the available sample period 
-                    PerfMetricId[] perfMetrics = service.queryAvailablePerfMetric(perfMgr, vmMor, null, null, null);
-                    if(perfMetrics != null) {
-                       for(int index=0; index < perfMetrics.length; ++index) {
-                           if ( ((rxPerfCounterInfo != null) && (perfMetrics[index].getCounterId() == rxPerfCounterInfo.getKey())) || 
-                                   ((txPerfCounterInfo != null) && (perfMetrics[index].getCounterId() == txPerfCounterInfo.getKey())) ) {
-                               vmNetworkMetrics.add(perfMetrics[index]);
-                          }
-                       }
-                    }
-
-                    double networkReadKBs=0;
-                    double networkWriteKBs=0;
-                    long sampleDuration=0;
-
-                    if (vmNetworkMetrics.size() != 0) {
-                        PerfQuerySpec qSpec = new PerfQuerySpec();
-                        qSpec.setEntity(vmMor);
-                        PerfMetricId[] availableMetricIds = (PerfMetricId[]) vmNetworkMetrics.toArray(new PerfMetricId[0]);
-                        qSpec.setMetricId(availableMetricIds);
-                        PerfQuerySpec[] qSpecs = new PerfQuerySpec[] {qSpec};
-                        PerfEntityMetricBase[] values = service.queryPerf(perfMgr, qSpecs);
-
-                        for(int i=0; i<values.length; ++i) {
-                            PerfSampleInfo[]  infos = ((PerfEntityMetric)values[i]).getSampleInfo();
-                            sampleDuration = (infos[infos.length-1].getTimestamp().getTimeInMillis() - infos[0].getTimestamp().getTimeInMillis()) /1000;
-                            PerfMetricSeries[] vals = ((PerfEntityMetric)values[i]).getValue();
-                            for(int vi = 0; ((vals!= null) && (vi < vals.length)); ++vi){
-                                if(vals[vi] instanceof PerfMetricIntSeries) {
-                                    PerfMetricIntSeries val = (PerfMetricIntSeries)vals[vi];
-                                    long[] perfValues = val.getValue();
-                                    if (vals[vi].getId().getCounterId() == rxPerfCounterInfo.getKey()) {
-                                        networkReadKBs = sampleDuration * perfValues[3]; //get the average RX rate multiplied by sampled duration
-                                    }
-                                    if (vals[vi].getId().getCounterId() == txPerfCounterInfo.getKey()) {
-                                        networkWriteKBs = sampleDuration * perfValues[3];//get the average TX rate multiplied by sampled duration
-                                    }
-                               }
-                            }
-                         }
-                    }
-                    vmResponseMap.put(name, new VmStatsEntry(Integer.parseInt(maxCpuUsage), networkReadKBs, networkWriteKBs, Integer.parseInt(numberCPUs), "vm"));
+                    vmMors.add(oc.getObj());
+                    vmStats.add(new VmStatsEntry(Integer.parseInt(maxCpuUsage), 0, 0, Integer.parseInt(numberCPUs), "vm"));
+                    vmResponseMap.put(name, vmStats.get(vmStats.size() - 1));
                 }
             }
         }
-        return vmResponseMap;    	
+
+        if (vmMors.isEmpty() || counterIds.isEmpty()) {
+            return vmResponseMap;
+        }
+
+        // latest real-time sample of every vm in one round trip
+        int[] ids = new int[counterIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = counterIds.get(i);
+        }
+        Map<String, Map<Integer, Long>> perfValues = context.getPerfManager().queryLatestPerfValues(
+            vmMors.toArray(new ManagedObjectReference[vmMors.size()]), ids, PerfManagerMO.REALTIME_INTERVAL_ID);
+
+        for (int i = 0; i < vmMors.size(); i++) {
+            Map<Integer, Long> values = perfValues.get(vmMors.get(i).get_value());
+            if (values == null) {
+                continue;
+            }
+
+            // net counters are average KBps over the sample period
+            VmStatsEntry stats = vmStats.get(i);
+            if (rxPerfCounterInfo != null && values.get(rxPerfCounterInfo.getKey()) != null) {
+                stats.setNetworkReadKBs(PerfManagerMO.REALTIME_SAMPLE_PERIOD_SECONDS * values.get(rxPerfCounterInfo.getKey()));
+            }
+            if (txPerfCounterInfo != null && values.get(txPerfCounterInfo.getKey()) != null) {
+                stats.setNetworkWriteKBs(PerfManagerMO.REALTIME_SAMPLE_PERIOD_SECONDS * values.get(txPerfCounterInfo.getKey()));
+            }
+        }
+        return vmResponseMap;
     }    
 
     protected String networkUsage(final String privateIpAddress, final String option, final String ethName) {
@@ -3831,9 +3773,7 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                 s_logger.trace("Executing /root/netusage.sh " + args + " on DomR " + privateIpAddress);
             }
 
-            VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
-
-            Pair<Boolean, String> result = SshHelper.sshExecute(privateIpAddress, DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), null, "/root/netusage.sh " + args);
+            Pair<Boolean, String> result = routerSshExecute(privateIpAddress, "/root/netusage.sh " + args);
 
             if (!result.first()) {
                 return null;
@@ -4049,9 +3989,33 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
 
     @Override
     public boolean stop() {
+        synchronized (this) {
+            if (_routerSshPool != null) {
+                _routerSshPool.stop();
+                _routerSshPool = null;
+            }
+        }
         return true;
     }
 
+    /**
+     * Runs a command on a router over the ssh connection kept open to the router
+     */
+    protected Pair<Boolean, String> routerSshExecute(String controlIp, String command) throws Exception {
+        SshConnectionPool pool;
+        synchronized (this) {
+            if (_routerSshPool == null) {
+                VmwareManager mgr = getServiceContext().getStockObject(VmwareManager.CONTEXT_STOCK_NAME);
+                _routerSshPool = new SshConnectionPool("VmwareRouter", new SshConnectionPool.TrileadSessionFactory(DEFAULT_DOMR_SSHPORT, "root", mgr.getSystemVMKeyFile(), 60000), 300);
+                _routerSshPool.start(60);
+            }
+            pool = _routerSshPool;
+        }
+
+        String script = command.trim().split(" ")[0];
+        return pool.execute(controlIp, script.substring(script.lastIndexOf('/') + 1), command, 120000);
+    }
+
     private VmwareContext getServiceContext() {
         return getServiceContext(null);
     }
@@ -4106,6 +4070,14 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
             _serviceContext.close();
         }
         _serviceContext = null;
+        _vmStateTracker = null;
+    }
+
+    private synchronized VmStateTracker getVmStateTracker(VmwareContext context) {
+        if (_vmStateTracker == null || _vmStateTracker.getContext() != context) {
+            _vmStateTracker = new VmStateTracker(context, getHyperHost(context));
+        }
+        return _vmStateTracker;
     }
 
     @Override
@@ -125,6 +125,7 @@ import com.cloud.agent.api.StopCommand;
 import com.cloud.agent.api.StoragePoolInfo;
 import com.cloud.agent.api.UpdateHostPasswordCommand;
 import com.cloud.agent.api.UpgradeSnapshotCommand;
+import com.cloud.agent.api.VmStatesDigest;
 import com.cloud.agent.api.VmStatsEntry;
 import com.cloud.agent.api.check.CheckSshAnswer;
 import com.cloud.agent.api.check.CheckSshCommand;
@@ -6657,7 +6658,11 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
             return  new Answer(cmd);
         } 
         HashMap<String, Pair<String, State>> newStates = deltaClusterSync(conn);
-        return new ClusterSyncAnswer(cmd.getClusterId(), newStates);
+        ClusterSyncAnswer answer = new ClusterSyncAnswer(cmd.getClusterId(), newStates);
+        synchronized (_cluster.intern()) {
+            answer.setVmStatesDigest(VmStatesDigest.digestWithHost(s_vms.getClusterVmState(_cluster)));
+        }
+        return answer;
     }
 
 
@@ -14,15 +14,10 @@ package com.cloud.storage.resource;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.URI;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -498,51 +493,21 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
             relativeTemplatePath = relativeTemplatePath.substring(1);
         }
 
-        if (!parent.endsWith(File.separator)) {
-            parent += File.separator;
-        }
-        String absoluteTemplatePath = parent + relativeTemplatePath;
-        MessageDigest digest;
-        String checksum = null;
-        File f = new File(absoluteTemplatePath);   
-        InputStream is = null;
-        byte[] buffer = new byte[8192];
-        int read = 0;
         if(s_logger.isDebugEnabled()){
             s_logger.debug("parent path " +parent+ " relative template path " +relativeTemplatePath );   
         }
-        
-        
+
+        String checksum = null;
         try {
-            digest = MessageDigest.getInstance("MD5");           
-            is = new FileInputStream(f);     
-            while( (read = is.read(buffer)) > 0) {
-                digest.update(buffer, 0, read);
-            }       
-            byte[] md5sum = digest.digest();
-            BigInteger bigInt = new BigInteger(1, md5sum);
-            checksum = bigInt.toString(16);
+            // the inventory only reads the file again if it changed since its checksum was last computed
+            checksum = _dlMgr.getTemplateInventory(parent).getChecksum(relativeTemplatePath);
             if(s_logger.isDebugEnabled()){
-                s_logger.debug("Successfully calculated checksum for file " +absoluteTemplatePath+ " - " +checksum );   
+                s_logger.debug("Successfully calculated checksum for file " + parent + File.separator + relativeTemplatePath + " - " +checksum );   
             }
-        
-        }catch(IOException e) {
-            String logMsg = "Unable to process file for MD5 - " + absoluteTemplatePath;
+        } catch(IOException e) {
+            String logMsg = "Unable to process file for MD5 - " + parent + File.separator + relativeTemplatePath;
             s_logger.error(logMsg);
             return new Answer(cmd, false, checksum); 
-        }catch (NoSuchAlgorithmException e) {         
-            return new Answer(cmd, false, checksum);
-        }
-        finally {
-            try {
-            	if(is != null)
-            		is.close();
-            } catch (IOException e) {
-                if(s_logger.isDebugEnabled()){
-                  s_logger.debug("Could not close the file " +absoluteTemplatePath);   
-                }
-                return new Answer(cmd, false, checksum);   
-            }                        
         }
 
         return new Answer(cmd, true, checksum);
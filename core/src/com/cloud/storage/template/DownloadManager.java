@@ -91,4 +91,10 @@ public interface DownloadManager extends Manager {
 	 * @return list of template info for installed templates
 	 */
 	public Map<String, TemplateInfo> gatherTemplateInfo(String templateDir);
+
+	/**
+	 * @param rootDir mount point of the secondary storage
+	 * @return the template inventory of the secondary storage
+	 */
+	public TemplateInventory getTemplateInventory(String rootDir);
 }
\ No newline at end of file
@@ -212,8 +212,9 @@ public class DownloadManagerImpl implements DownloadManager {
     private ExecutorService threadPool;
 
     private final Map<String, DownloadJob> jobs = new ConcurrentHashMap<String, DownloadJob>();
-    private String listTmpltScr;
+    private final Map<String, TemplateInventory> _inventories = new HashMap<String, TemplateInventory>();
     private int installTimeoutPerGig = 180 * 60 * 1000;
+    private int downloadParts = 4;
     private boolean _sslCopy;
 
     /**
@@ -300,6 +301,14 @@ public class DownloadManagerImpl implements DownloadManager {
         }
     }
 
+    private static boolean isSameChecksum(String expected, String actual) {
+        try {
+            return new BigInteger(expected.trim(), 16).equals(new BigInteger(actual, 16));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     /**
      * Post download activity (install and cleanup). Executed in context of downloader thread
      * 
@@ -346,8 +355,18 @@ public class DownloadManagerImpl implements DownloadManager {
 
         scr.add("-t", templatePath);
         scr.add("-f", td.getDownloadLocalPath());
+        // the http downloader computed the checksum of the file while downloading it
+        TemplateDownloadSink sink = td instanceof HttpTemplateDownloader ? ((HttpTemplateDownloader) td).getSink() : null;
+        String downloadChecksum = sink != null ? sink.getChecksum() : null;
         if (dnld.getChecksum() != null && dnld.getChecksum().length() > 1) {
             scr.add("-c", dnld.getChecksum());
+            if (downloadChecksum != null) {
+                if (!isSameChecksum(dnld.getChecksum(), downloadChecksum)) {
+                    return "Checksum failed, not proceeding with install";
+                }
+                // no need for the script to read the file again to verify it
+                scr.add("-k");
+            }
         }
         scr.add("-u"); // cleanup
         String result;
@@ -393,7 +412,13 @@ public class DownloadManagerImpl implements DownloadManager {
             }
         }
         
-        String checkSum = computeCheckSum(downloadedTemplate);
+        String checkSum = null;
+        if (downloadChecksum != null && sink.isSameFile(downloadedTemplate)) {
+            checkSum = downloadChecksum;
+        } else {
+            // the install script uncompressed the file, or changed more than its header or footer
+            checkSum = computeCheckSum(downloadedTemplate);
+        }
         dnld.setCheckSum(checkSum);
         
         if (!loc.save()) {
@@ -448,7 +473,10 @@ public class DownloadManagerImpl implements DownloadManager {
             TemplateDownloader td;
             if ((uri != null) && (uri.getScheme() != null)) {
                 if (uri.getScheme().equalsIgnoreCase("http") || uri.getScheme().equalsIgnoreCase("https")) {
-                    td = new HttpTemplateDownloader(_storage, url, tmpDir, new Completion(jobId), maxTemplateSizeInBytes, user, password, proxy);
+                    HttpTemplateDownloader httpDownloader = new HttpTemplateDownloader(_storage, url, tmpDir, new Completion(jobId), maxTemplateSizeInBytes, user, password, proxy);
+                    httpDownloader.setParts(downloadParts);
+                    httpDownloader.setFormat(format);
+                    td = httpDownloader;
                 } else if (uri.getScheme().equalsIgnoreCase("file")) {
                     td = new LocalTemplateDownloader(_storage, url, tmpDir, maxTemplateSizeInBytes, new Completion(jobId));
                 } else if (uri.getScheme().equalsIgnoreCase("scp")) {
@@ -654,61 +682,65 @@ public class DownloadManagerImpl implements DownloadManager {
 
     }
 
-    private List<String> listTemplates(String rootdir) {
-        List<String> result = new ArrayList<String>();
-        
-        Script script = new Script(listTmpltScr, s_logger);
-        script.add("-r", rootdir);
-        ZfsPathParser zpp = new ZfsPathParser(rootdir);
-        script.execute(zpp);
-        result.addAll(zpp.getPaths());
-        s_logger.info("found " + zpp.getPaths().size() + " templates" + zpp.getPaths());
-        return result;
+    @Override
+    public synchronized TemplateInventory getTemplateInventory(String rootDir) {
+        TemplateInventory inventory = _inventories.get(rootDir);
+        if (inventory == null) {
+            final String templateDir = rootDir + File.separator + _templateDir;
+            inventory = new TemplateInventory(_storage, rootDir, templateDir) {
+                @Override
+                protected TemplateInfo loadTemplate(String path) {
+                    return loadTemplateInfo(path, templateDir);
+                }
+            };
+            _inventories.put(rootDir, inventory);
+        }
+        return inventory;
+    }
+
+    protected TemplateInfo loadTemplateInfo(String path, String templateDir) {
+        TemplateLocation loc = new TemplateLocation(_storage, path);
+        try {
+            if (!loc.load()) {
+                s_logger.warn("Post download installation was not completed for " + path);
+                //loc.purge();
+                _storage.cleanup(path, templateDir);
+                return null;
+            }
+        } catch (IOException e) {
+            s_logger.warn("Unable to load template location " + path, e);
+            return null;
+        }
+
+        TemplateInfo tInfo = loc.getTemplateInfo();
+
+        if ((tInfo.size == tInfo.physicalSize) && (tInfo.installPath.endsWith(ImageFormat.OVA.getFileExtension()))) {
+        	try {
+        	    Processor processor = _processors.get("VMDK Processor");
+        	    VmdkProcessor vmdkProcessor = (VmdkProcessor)processor;
+        	    long vSize = vmdkProcessor.getTemplateVirtualSize(path, tInfo.installPath.substring(tInfo.installPath.lastIndexOf(File.separator) + 1));
+            	tInfo.size = vSize;
+            	loc.updateVirtualSize(vSize);
+            	loc.save();
+        	} catch (Exception e) {
+        		s_logger.error("Unable to get the virtual size of the template: " + tInfo.installPath + " due to " + e.getMessage());
+        	}
+        }
+
+        s_logger.debug("Added template name: " + tInfo.templateName + ", path: " + path);
+        return tInfo;
     }
 
     @Override
     public Map<String, TemplateInfo> gatherTemplateInfo(String rootDir) {
-        Map<String, TemplateInfo> result = new HashMap<String, TemplateInfo>();
         String templateDir = rootDir + File.separator + _templateDir;
         
         if (! _storage.exists(templateDir)) {
             _storage.mkdirs(templateDir);
         }
         
-        List<String> publicTmplts = listTemplates(templateDir);
-        for (String tmplt : publicTmplts) {
-            String path = tmplt.substring(0, tmplt.lastIndexOf(File.separator));
-            TemplateLocation loc = new TemplateLocation(_storage, path);
-            try {
-                if (!loc.load()) {
-                    s_logger.warn("Post download installation was not completed for " + path);
-                    //loc.purge();
-                    _storage.cleanup(path, templateDir);
-                    continue;
-                }
-            } catch (IOException e) {
-                s_logger.warn("Unable to load template location " + path, e);
-                continue;
-            }
-
-            TemplateInfo tInfo = loc.getTemplateInfo();
-            
-            if ((tInfo.size == tInfo.physicalSize) && (tInfo.installPath.endsWith(ImageFormat.OVA.getFileExtension()))) {
-            	try {
-            	    Processor processor = _processors.get("VMDK Processor");
-            	    VmdkProcessor vmdkProcessor = (VmdkProcessor)processor;
-            	    long vSize = vmdkProcessor.getTemplateVirtualSize(path, tInfo.installPath.substring(tInfo.installPath.lastIndexOf(File.separator) + 1));
-                	tInfo.size = vSize;
-                	loc.updateVirtualSize(vSize);
-                	loc.save();
-            	} catch (Exception e) {
-            		s_logger.error("Unable to get the virtual size of the template: " + tInfo.installPath + " due to " + e.getMessage());
-            	}
-            }
-
-            result.put(tInfo.templateName, tInfo);
-            s_logger.debug("Added template name: " + tInfo.templateName + ", path: " + tmplt);
-        }
+        Map<String, TemplateInfo> result = getTemplateInventory(rootDir).listTemplates();
+        s_logger.info("found " + result.size() + " templates in " + templateDir);
         /*
         for (String tmplt : isoTmplts) {
             String tmp[];
@@ -811,6 +843,9 @@ public class DownloadManagerImpl implements DownloadManager {
         value = (String) params.get("install.timeout.pergig");
         this.installTimeoutPerGig = NumbersUtil.parseInt(value, 15 * 60) * 1000;
 
+        value = (String) params.get("download.parts");
+        downloadParts = NumbersUtil.parseInt(value, 4);
+
         value = (String) params.get("install.numthreads");
         final int numInstallThreads = NumbersUtil.parseInt(value, 10);
 
@@ -819,12 +854,6 @@ public class DownloadManagerImpl implements DownloadManager {
             scriptsDir = "scripts/storage/secondary";
         }
 
-        listTmpltScr = Script.findScript(scriptsDir, "listvmtmplt.sh");
-        if (listTmpltScr == null) {
-            throw new ConfigurationException("Unable to find the listvmtmplt.sh");
-        }
-        s_logger.info("listvmtmplt.sh found in " + listTmpltScr);
-
         createTmpltScr = Script.findScript(scriptsDir, "createtmplt.sh");
         if (createTmpltScr == null) {
             throw new ConfigurationException("Unable to find createtmplt.sh");
@@ -17,13 +17,24 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.httpclient.ChunkedInputStream;
 import org.apache.commons.httpclient.Credentials;
@@ -33,17 +44,20 @@ import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpMethodRetryHandler;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NoHttpResponseException;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
 import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.log4j.Logger;
 
 import com.cloud.agent.api.storage.DownloadCommand.Proxy;
+import com.cloud.storage.Storage.ImageFormat;
 import com.cloud.storage.StorageLayer;
-import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.Pair;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 
 /**
  * Download a template file using HTTP
@@ -54,6 +68,8 @@ public class HttpTemplateDownloader implements TemplateDownloader {
 	public static final Logger s_logger = Logger.getLogger(HttpTemplateDownloader.class.getName());
 
 	private static final int CHUNK_SIZE = 1024*1024; //1M
+	static final int SEGMENT_SIZE = 4*1024*1024; //4M, unit of a ranged download
+	private static final int RANGE_STOP_TIMEOUT_SECONDS = 60;
 	private String downloadUrl;
 	private String toFile;
 	public TemplateDownloader.Status status= TemplateDownloader.Status.NOT_STARTED;
@@ -73,6 +89,13 @@ public class HttpTemplateDownloader implements TemplateDownloader {
 
 	private final HttpMethodRetryHandler myretryhandler;
 
+	private int parts = 1;
+	private ImageFormat format;
+	private TemplateDownloadSink sink;
+	private final Set<HttpMethod> rangeRequests = new HashSet<HttpMethod>();
+	// set when the server answers a ranged request with 200 OK
+	private volatile boolean rangesIgnored = false;
+
 	public HttpTemplateDownloader (StorageLayer storageLayer, String downloadUrl, String toDir, DownloadCompleteCallback callback, long maxTemplateSizeInBytes, String user, String password, Proxy proxy) {
 		this._storage = storageLayer;
 		this.downloadUrl = downloadUrl;
@@ -82,7 +105,7 @@ public class HttpTemplateDownloader implements TemplateDownloader {
 		this.MAX_TEMPLATE_SIZE_IN_BYTES = maxTemplateSizeInBytes;
 		
 		this.totalBytes = 0;
-		this.client = new HttpClient();
+		this.client = new HttpClient(new MultiThreadedHttpConnectionManager());
 
 		myretryhandler = new HttpMethodRetryHandler() {
 		    public boolean retryMethod(
@@ -151,7 +174,7 @@ public class HttpTemplateDownloader implements TemplateDownloader {
 	}
 	
 
-	private  Pair<String, Integer> validateUrl(String url) throws IllegalArgumentException {
+	protected Pair<String, Integer> validateUrl(String url) throws IllegalArgumentException {
 		try {
 			URI uri = new URI(url);
 			if (!uri.getScheme().equalsIgnoreCase("http") && !uri.getScheme().equalsIgnoreCase("https") ) {
@@ -212,6 +235,29 @@ public class HttpTemplateDownloader implements TemplateDownloader {
 			
             Date start = new Date();
 
+            long rangedSize = 0;
+            boolean ranged = false;
+            if (localFileSize == 0 && parts > 1) {
+                rangedSize = getRangedSize();
+            }
+
+            if (rangedSize > 0) {
+            	remoteSize = rangedSize;
+            	if (!checkRemoteSize()) {
+            		return 0;
+            	}
+            	sink = new TemplateDownloadSink(file, format);
+            	s_logger.info("Starting download from " + getDownloadUrl() + " to " + toFile + " in " + parts + " parts, remoteSize=" + remoteSize + " , max size=" + MAX_TEMPLATE_SIZE_IN_BYTES);
+            	status = TemplateDownloader.Status.IN_PROGRESS;
+            	ranged = downloadRanges(sink);
+            	if (!ranged) {
+            		s_logger.info("HTTP Server answered a ranged request of " + getDownloadUrl() + " with the whole template, downloading over a single connection");
+            		sink.close();
+            		sink = null;
+            		totalBytes = 0;
+            	}
+            }
+            if (!ranged) {
 			int responseCode=0;
 			
 			if (localFileSize > 0 ) {
@@ -248,48 +294,42 @@ public class HttpTemplateDownloader implements TemplateDownloader {
             	remoteSize = remoteSize2;
             }
             
-            if (remoteSize > MAX_TEMPLATE_SIZE_IN_BYTES) {
-            	s_logger.info("Remote size is too large: " + remoteSize + " , max=" + MAX_TEMPLATE_SIZE_IN_BYTES);
-            	status = Status.UNRECOVERABLE_ERROR;
-            	errorString = "Download file size is too large";
+            if (!checkRemoteSize()) {
             	return 0;
             }
             
-            if (remoteSize == 0) {
-            	remoteSize = MAX_TEMPLATE_SIZE_IN_BYTES;
-            }
-            
             InputStream in = !chunked?new BufferedInputStream(request.getResponseBodyAsStream())
             						: new ChunkedInputStream(request.getResponseBodyAsStream());
             
-            RandomAccessFile out = new RandomAccessFile(file, "rwd");
-            out.seek(localFileSize);
+            sink = new TemplateDownloadSink(file, format);
+            sink.resume(localFileSize);
 
             s_logger.info("Starting download from " + getDownloadUrl() + " to " + toFile + " remoteSize=" + remoteSize + " , max size=" + MAX_TEMPLATE_SIZE_IN_BYTES);
             
-            byte[] block = new byte[CHUNK_SIZE];
             long offset=0;
             boolean done=false;
             status = TemplateDownloader.Status.IN_PROGRESS;
+            // the sink only keeps a block written ahead of its checksum, which a sequential download never is
+            byte[] block = new byte[CHUNK_SIZE];
             while (!done && status != Status.ABORTED && offset <= remoteSize) {
             	if ( (bytes = in.read(block, 0, CHUNK_SIZE)) > -1) {
-            		out.write(block, 0, bytes);
+            		sink.write(localFileSize + offset, block, bytes);
             		offset +=bytes;
-            		out.seek(offset);
             		totalBytes += bytes;
             	} else {
             		done = true;
             	}
             }
+            }
             Date finish = new Date();
             String downloaded = "(incomplete download)";
-            if (totalBytes >= remoteSize) {
+            if (totalBytes >= remoteSize && status != Status.ABORTED) {
+            	sink.finish();
             	status = TemplateDownloader.Status.DOWNLOAD_FINISHED;
             	downloaded = "(download complete remote=" + remoteSize + "bytes)";
             }
             errorString = "Downloaded " + totalBytes + " bytes " + downloaded;
             downloadTime += finish.getTime() - start.getTime();
-            out.close();
             
             return totalBytes;
 		}catch (HttpException hte) {
@@ -299,10 +339,14 @@ public class HttpTemplateDownloader implements TemplateDownloader {
 			status = TemplateDownloader.Status.UNRECOVERABLE_ERROR; //probably a file write error?
 			errorString = ioe.getMessage();
 		} finally {
+			if (sink != null) {
+				sink.close();
+			}
 			if (status == Status.UNRECOVERABLE_ERROR && file.exists() && !file.isDirectory()) {
 				file.delete();
 			}
 			request.releaseConnection();
+			client.getHttpConnectionManager().closeIdleConnections(0);
             if (callback != null) {
             	callback.downloadComplete(status);
             }
@@ -310,6 +354,176 @@ public class HttpTemplateDownloader implements TemplateDownloader {
 		return 0;
 	}
 
+	private boolean checkRemoteSize() {
+        if (remoteSize > MAX_TEMPLATE_SIZE_IN_BYTES) {
+        	s_logger.info("Remote size is too large: " + remoteSize + " , max=" + MAX_TEMPLATE_SIZE_IN_BYTES);
+        	status = Status.UNRECOVERABLE_ERROR;
+        	errorString = "Download file size is too large";
+        	return false;
+        }
+        
+        if (remoteSize == 0) {
+        	remoteSize = MAX_TEMPLATE_SIZE_IN_BYTES;
+        }
+        return true;
+	}
+
+	/**
+	 * Asks the server whether the template can be downloaded in ranges.
+	 * @return size of the template, 0 if it has to be downloaded over a single connection.
+	 */
+	private long getRangedSize() {
+		HeadMethod head = new HeadMethod(downloadUrl);
+		head.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, myretryhandler);
+		try {
+			if (client.executeMethod(head) != HttpStatus.SC_OK) {
+				return 0;
+			}
+			Header acceptRanges = head.getResponseHeader("Accept-Ranges");
+			Header contentLength = head.getResponseHeader("Content-Length");
+			if (acceptRanges == null || !acceptRanges.getValue().toLowerCase().contains("bytes") || contentLength == null) {
+				return 0;
+			}
+			long size = Long.parseLong(contentLength.getValue().trim());
+			// not worth more than one connection
+			return size > SEGMENT_SIZE ? size : 0;
+		} catch (Exception e) {
+			s_logger.info("Unable to find out whether " + downloadUrl + " can be downloaded in ranges, downloading over a single connection: " + e.getMessage());
+			return 0;
+		} finally {
+			head.releaseConnection();
+		}
+	}
+
+	/**
+	 * Downloads the template in segments, over as many connections as there are parts.  The segments are fetched in
+	 * order and written to the sink as they complete; a connection doesn't start a segment further than two segments
+	 * per part ahead of the checksum, which bounds the data the sink keeps in memory.
+	 * Every connection is stopped before this returns, so none of them touches the sink afterwards.
+	 * @return false if the server ignored the range of a request, the template then has to be downloaded over a
+	 *         single connection.
+	 */
+	private boolean downloadRanges(final TemplateDownloadSink rangeSink) throws IOException {
+		final int segments = (int) ((remoteSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+		final long window = 2L * parts * SEGMENT_SIZE;
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicBoolean stopped = new AtomicBoolean();
+		ExecutorService executor = Executors.newFixedThreadPool(parts, new NamedThreadFactory("TemplateDownloadPart"));
+		try {
+			List<Future<Object>> results = new ArrayList<Future<Object>>();
+			for (int i = 0; i < parts; i++) {
+				results.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						try {
+							int segment;
+							while (!isRangeStopped(stopped) && (segment = next.getAndIncrement()) < segments) {
+								long start = (long) segment * SEGMENT_SIZE;
+								rangeSink.waitForRoom(start, window);
+								downloadRange(rangeSink, stopped, start, Math.min(start + SEGMENT_SIZE, remoteSize));
+							}
+							return null;
+						} catch (Exception e) {
+							rangeSink.abort(e.getMessage());
+							throw e;
+						}
+					}
+				}));
+			}
+			for (Future<Object> result : results) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					if (status == Status.ABORTED) {
+						return true;
+					}
+					if (rangesIgnored) {
+						return false;
+					}
+					Throwable cause = e.getCause();
+					throw cause instanceof IOException ? (IOException) cause : new IOException(cause.toString());
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			rangeSink.abort("Download interrupted");
+			throw new IOException("Download interrupted");
+		} finally {
+			stopRanges(executor, stopped);
+		}
+	}
+
+	private boolean isRangeStopped(AtomicBoolean stopped) {
+		return stopped.get() || rangesIgnored || status == Status.ABORTED;
+	}
+
+	/**
+	 * Stops the connections still downloading ranges: the ones waiting for room are interrupted, the requests in
+	 * flight aborted, and no connection starts another request.
+	 */
+	private void stopRanges(ExecutorService executor, AtomicBoolean stopped) {
+		synchronized (rangeRequests) {
+			stopped.set(true);
+			for (HttpMethod rangeRequest : rangeRequests) {
+				rangeRequest.abort();
+			}
+		}
+		executor.shutdownNow();
+		try {
+			if (!executor.awaitTermination(RANGE_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				s_logger.warn("Connections downloading ranges of " + downloadUrl + " didn't stop within " + RANGE_STOP_TIMEOUT_SECONDS + " seconds");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void downloadRange(TemplateDownloadSink rangeSink, AtomicBoolean stopped, long start, long end) throws IOException {
+		GetMethod method = new GetMethod(downloadUrl);
+		method.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, myretryhandler);
+		method.addRequestHeader("Range", "bytes=" + start + "-" + (end - 1));
+		synchronized (rangeRequests) {
+			// checked under the lock stopRanges() aborts the requests with, so a stopped download sends no request
+			if (isRangeStopped(stopped)) {
+				throw new IOException("Download of the ranges stopped before bytes " + start + "-" + (end - 1));
+			}
+			rangeRequests.add(method);
+		}
+		try {
+			int responseCode = client.executeMethod(method);
+			if (responseCode == HttpStatus.SC_OK) {
+				// the body is the whole template, don't let releaseConnection() read it
+				rangesIgnored = true;
+				method.abort();
+				throw new IOException("HTTP Server ignored the range of the request for bytes " + start + "-" + (end - 1));
+			}
+			if (responseCode != HttpStatus.SC_PARTIAL_CONTENT) {
+				throw new IOException("HTTP Server returned " + responseCode + " (expected 206 Partial Content) for bytes " + start + "-" + (end - 1));
+			}
+			InputStream in = method.getResponseBodyAsStream();
+			byte[] data = new byte[(int) (end - start)];
+			int length = 0;
+			int bytes;
+			while (length < data.length && (bytes = in.read(data, length, data.length - length)) > -1) {
+				length += bytes;
+				addDownloadedBytes(bytes);
+			}
+			if (length < data.length) {
+				throw new IOException("HTTP Server returned " + length + " bytes instead of " + data.length + " for bytes " + start + "-" + (end - 1));
+			}
+			rangeSink.write(start, data, length);
+		} finally {
+			synchronized (rangeRequests) {
+				rangeRequests.remove(method);
+			}
+			method.releaseConnection();
+		}
+	}
+
+	private synchronized void addDownloadedBytes(long bytes) {
+		totalBytes += bytes;
+	}
+
 	public String getDownloadUrl() {
 		return downloadUrl;
 	}
@@ -339,10 +553,18 @@ public class HttpTemplateDownloader implements TemplateDownloader {
 	public boolean stopDownload() {
 		switch (getStatus()) {
 		case IN_PROGRESS:
+			status = TemplateDownloader.Status.ABORTED;
 			if (request != null) {
 				request.abort();
 			}
-			status = TemplateDownloader.Status.ABORTED;
+			synchronized (rangeRequests) {
+				for (HttpMethod rangeRequest : rangeRequests) {
+					rangeRequest.abort();
+				}
+			}
+			if (sink != null) {
+				sink.abort("Download aborted");
+			}
 			return true;
 		case UNKNOWN:
 		case NOT_STARTED:
@@ -419,6 +641,32 @@ public class HttpTemplateDownloader implements TemplateDownloader {
 	public long getMaxTemplateSizeInBytes() { 
 		return this.MAX_TEMPLATE_SIZE_IN_BYTES;
 	}
+
+	/**
+	 * @param parts number of connections to download the template over, if the server accepts ranges.
+	 */
+	public void setParts(int parts) {
+		this.parts = Math.max(parts, 1);
+		client.getHttpConnectionManager().getParams().setDefaultMaxConnectionsPerHost(this.parts + 1);
+	}
+
+	public int getParts() {
+		return parts;
+	}
+
+	/**
+	 * @param format format the template is expected to be in, checked as it is downloaded.
+	 */
+	public void setFormat(ImageFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * @return the sink the template was downloaded to, holding its checksum once the download is finished.
+	 */
+	public TemplateDownloadSink getSink() {
+		return sink;
+	}
 	
 	public static void main(String[] args) {
 		String url ="http:// dev.mysql.com/get/Downloads/MySQL-5.0/mysql-noinstall-5.0.77-win32.zip/from/http://mirror.services.wisc.edu/mysql/";
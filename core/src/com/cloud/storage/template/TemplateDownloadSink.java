@@ -0,0 +1,267 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.storage.template;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.cloud.storage.Storage.ImageFormat;
+
+/**
+ * Writes a downloaded template to its file and computes its MD5 checksum on the way, so that the file doesn't have
+ * to be read again once the download is complete.
+ * 
+ * Data can arrive out of order when the template is downloaded over several connections.  It is written at its
+ * position in the file as soon as it arrives, but only digested once everything before it has been, so data
+ * arriving ahead is kept in memory until then.  Writers downloading ahead are expected to call waitForRoom() to
+ * bound that memory.
+ * 
+ * The first and last bytes of the template are kept as well.  The header is checked against the expected format as
+ * soon as it has arrived, the footer when the download is finished, and both are used to tell whether the installed
+ * template is still the downloaded file.
+ */
+public class TemplateDownloadSink {
+    private static final int HEADER_SIZE = 512;
+    private static final int FOOTER_SIZE = 512;
+    private static final byte[] QCOW2_MAGIC = { 'Q', 'F', 'I', (byte) 0xfb };
+    private static final byte[] VHD_COOKIE = { 'c', 'o', 'n', 'e', 'c', 't', 'i', 'x' };
+    private static final byte[][] COMPRESSED_MAGICS = { { 0x1f, (byte) 0x8b }, { 'B', 'Z', 'h' }, { 'P', 'K', 3, 4 } };
+
+    private final File _file;
+    private final ImageFormat _format;
+    private final RandomAccessFile _out;
+    private final FileChannel _channel;
+    private final MessageDigest _digest;
+    private final TreeMap<Long, byte[]> _pending = new TreeMap<Long, byte[]>();
+    private final byte[] _header = new byte[HEADER_SIZE];
+    private final byte[] _footer = new byte[FOOTER_SIZE];
+    private long _digested = 0;
+    private boolean _headerChecked = false;
+    private boolean _finished = false;
+    private String _failure;
+
+    /**
+     * @param format format the template is expected to be in, null to not check it.
+     */
+    public TemplateDownloadSink(File file, ImageFormat format) throws IOException {
+        try {
+            _digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unable to get MD5 digest: " + e.getMessage());
+        }
+        _file = file;
+        _format = format;
+        _out = new RandomAccessFile(file, "rw");
+        _channel = _out.getChannel();
+    }
+
+    /**
+     * Digests the first bytes of the file, already downloaded by a previous attempt.
+     */
+    public synchronized void resume(long length) throws IOException {
+        byte[] buffer = new byte[1024 * 1024];
+        while (_digested < length) {
+            int read = _channel.read(ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, length - _digested)), _digested);
+            if (read < 0) {
+                throw new IOException("Unable to read " + _file + " at " + _digested);
+            }
+            digest(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Writes data at its position in the file.  The data may be kept until everything before it has been written,
+     * the caller must not change it afterwards.
+     */
+    public void write(long position, byte[] data, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        while (buffer.hasRemaining()) {
+            _channel.write(buffer, position + buffer.position());
+        }
+
+        synchronized (this) {
+            checkFailure();
+            if (position != _digested) {
+                _pending.put(position, length == data.length ? data : Arrays.copyOf(data, length));
+                return;
+            }
+            digest(data, 0, length);
+            Map.Entry<Long, byte[]> next;
+            while ((next = _pending.firstEntry()) != null && next.getKey() == _digested) {
+                _pending.remove(next.getKey());
+                digest(next.getValue(), 0, next.getValue().length);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the data which has to be written before a position is less than a window.
+     */
+    public synchronized void waitForRoom(long position, long window) throws IOException, InterruptedException {
+        while (position - _digested >= window) {
+            checkFailure();
+            wait();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Fails the writers waiting for room, and any further write.
+     */
+    public synchronized void abort(String reason) {
+        if (_failure == null) {
+            _failure = reason;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Ends the download: flushes the file and checks the footer of the template.
+     */
+    public synchronized void finish() throws IOException {
+        checkFailure();
+        if (!_pending.isEmpty()) {
+            throw new IOException("Missing data of " + _file + " at " + _digested);
+        }
+        _channel.force(false);
+        checkHeader();
+        if (_format == ImageFormat.VHD && !isCompressed() && !startsWith(_footer, 0, VHD_COOKIE) && !startsWith(_footer, 1, VHD_COOKIE)) {
+            throw new IOException("Downloaded file is not a VHD image, it has no VHD footer");
+        }
+        _finished = true;
+    }
+
+    public void close() {
+        try {
+            _out.close();
+        } catch (IOException e) {
+        }
+    }
+
+    public synchronized long getDigestedBytes() {
+        return _digested;
+    }
+
+    /**
+     * @return MD5 checksum of the downloaded file, null if the download isn't finished.
+     */
+    public synchronized String getChecksum() {
+        if (!_finished) {
+            return null;
+        }
+        try {
+            MessageDigest digest = (MessageDigest) _digest.clone();
+            return new BigInteger(1, digest.digest()).toString(16);
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the downloaded file is compressed.  The format of a compressed template isn't checked.
+     */
+    public synchronized boolean isCompressed() {
+        for (byte[] magic : COMPRESSED_MAGICS) {
+            if (_digested >= magic.length && startsWith(_header, 0, magic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether a file still has the content of the download, expecting it to have been either left untouched
+     * or processed as a whole (uncompressed), or to have had its header or footer updated in place.
+     */
+    public synchronized boolean isSameFile(File file) {
+        if (!_finished || file.length() != _digested) {
+            return false;
+        }
+        int headerLength = (int) Math.min(_digested, HEADER_SIZE);
+        int footerLength = (int) Math.min(_digested, FOOTER_SIZE);
+        byte[] header = new byte[headerLength];
+        byte[] footer = new byte[footerLength];
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            in.readFully(header);
+            in.seek(_digested - footerLength);
+            in.readFully(footer);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        return Arrays.equals(header, Arrays.copyOf(_header, headerLength))
+                && Arrays.equals(footer, Arrays.copyOfRange(_footer, FOOTER_SIZE - footerLength, FOOTER_SIZE));
+    }
+
+    private void digest(byte[] data, int offset, int length) throws IOException {
+        _digest.update(data, offset, length);
+        if (_digested < HEADER_SIZE) {
+            System.arraycopy(data, offset, _header, (int) _digested, (int) Math.min(length, HEADER_SIZE - _digested));
+        }
+        if (length >= FOOTER_SIZE) {
+            System.arraycopy(data, offset + length - FOOTER_SIZE, _footer, 0, FOOTER_SIZE);
+        } else {
+            System.arraycopy(_footer, length, _footer, 0, FOOTER_SIZE - length);
+            System.arraycopy(data, offset, _footer, FOOTER_SIZE - length, length);
+        }
+        _digested += length;
+        if (_digested >= HEADER_SIZE) {
+            checkHeader();
+        }
+    }
+
+    private void checkHeader() throws IOException {
+        if (_headerChecked) {
+            return;
+        }
+        _headerChecked = true;
+        if (_format == ImageFormat.QCOW2 && !isCompressed() && !startsWith(_header, 0, QCOW2_MAGIC)) {
+            _failure = "Downloaded file is not a QCOW2 image, it has no QCOW2 header";
+            notifyAll();
+            throw new IOException(_failure);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (_failure != null) {
+            throw new IOException(_failure);
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,401 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.storage.template;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.storage.StorageLayer;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Index of the templates under the template directory of a secondary storage, keyed by install path.
+ * 
+ * A refresh only lists directories whose mtime changed and only re-reads template.properties files whose
+ * mtime or size changed.  Checksums are cached with the size and mtime of the file they were computed
+ * from.  The index is saved next to the templates, so a restarted secondary storage vm does not have to
+ * read every template.properties or checksum every template again.
+ */
+public class TemplateInventory {
+    private static final Logger s_logger = Logger.getLogger(TemplateInventory.class);
+    public final static String Filename = ".inventory.properties";
+
+    // a file modified this recently may be modified again within the same mtime tick, so it is not cached
+    private static final long MTIME_GRANULARITY = 2000;
+
+    static class Entry {
+        String propertiesPath;
+        long propertiesModified = -1;
+        long propertiesSize = -1;
+        TemplateInfo info;
+
+        long fileModified = -1;
+        long fileSize = -1;
+        String checksum;
+    }
+
+    static class Directory {
+        long modified;
+        boolean hasProperties;
+        List<String> subdirs = new ArrayList<String>();
+    }
+
+    StorageLayer _storage;
+    String _rootDir;
+    String _templateDir;
+
+    final Map<String, Entry> _entries = new HashMap<String, Entry>();
+    final Map<String, String> _installPaths = new HashMap<String, String>();
+    final Map<String, Directory> _dirs = new HashMap<String, Directory>();
+    boolean _loaded;
+    boolean _dirty;
+
+    /**
+     * @param storage storage layer
+     * @param rootDir mount point of the secondary storage, install paths are relative to it
+     * @param templateDir directory the templates are kept in
+     */
+    public TemplateInventory(StorageLayer storage, String rootDir, String templateDir) {
+        _storage = storage;
+        _rootDir = _storage.getFile(rootDir).getAbsolutePath();
+        _templateDir = _storage.getFile(templateDir).getAbsolutePath();
+    }
+
+    /**
+     * Brings the index up to date with the template directory.
+     * @return the templates found, keyed by unique name
+     */
+    public synchronized Map<String, TemplateInfo> listTemplates() {
+        if (!_loaded) {
+            loadIndex();
+        }
+
+        long now = System.currentTimeMillis();
+        Set<String> visited = new HashSet<String>();
+        Set<String> found = new HashSet<String>();
+        walk(_templateDir, now, visited, found);
+        _dirs.keySet().retainAll(visited);
+
+        Iterator<Map.Entry<String, String>> it = _installPaths.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, String> installPath = it.next();
+            if (!found.contains(installPath.getKey())) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Template " + installPath.getValue() + " is gone from " + _templateDir);
+                }
+                it.remove();
+                _entries.remove(installPath.getValue());
+                _dirty = true;
+            }
+        }
+
+        Map<String, TemplateInfo> result = new HashMap<String, TemplateInfo>();
+        for (Entry entry : _entries.values()) {
+            if (entry.info != null) {
+                result.put(entry.info.templateName, copy(entry.info));
+            }
+        }
+
+        saveIndex();
+        return result;
+    }
+
+    /**
+     * @param installPath path of a file relative to the root of the secondary storage
+     * @return MD5 of the file, computed again only if the file changed since the last time
+     */
+    public String getChecksum(String installPath) throws IOException {
+        if (installPath.startsWith(File.separator)) {
+            installPath = installPath.substring(1);
+        }
+
+        File file = _storage.getFile(_rootDir + File.separator + installPath);
+        long modified;
+        long size;
+        synchronized (this) {
+            if (!_loaded) {
+                loadIndex();
+            }
+            modified = file.lastModified();
+            size = file.length();
+            Entry entry = _entries.get(installPath);
+            if (entry != null && entry.checksum != null && entry.fileModified == modified && entry.fileSize == size) {
+                return entry.checksum;
+            }
+        }
+
+        // reading a template of several GB takes a while, listTemplates() must not wait for it
+        String checksum = computeChecksum(file);
+
+        synchronized (this) {
+            // the file may have changed while it was read, only cache a checksum of the file that is there now
+            if (file.lastModified() != modified || file.length() != size) {
+                return checksum;
+            }
+            Entry entry = _entries.get(installPath);
+            if (entry == null) {
+                entry = new Entry();
+                _entries.put(installPath, entry);
+            }
+            entry.checksum = checksum;
+            entry.fileModified = isStable(modified, System.currentTimeMillis()) ? modified : -1;
+            entry.fileSize = size;
+            _dirty = true;
+            saveIndex();
+        }
+        return checksum;
+    }
+
+    /**
+     * Reads a template.properties.  Override to add checks or clean up templates that fail to load.
+     * @param templatePath directory holding the template.properties
+     * @return template info, or null if the template is not usable
+     */
+    protected TemplateInfo loadTemplate(String templatePath) {
+        TemplateLocation loc = new TemplateLocation(_storage, templatePath);
+        try {
+            if (!loc.load()) {
+                s_logger.warn("Post download installation was not completed for " + templatePath);
+                return null;
+            }
+        } catch (IOException e) {
+            s_logger.warn("Unable to load template location " + templatePath, e);
+            return null;
+        }
+        return loc.getTemplateInfo();
+    }
+
+    protected String computeChecksum(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new CloudRuntimeException("MD5 is not available", e);
+        }
+
+        byte[] buffer = new byte[65536];
+        InputStream is = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        return new BigInteger(1, digest.digest()).toString(16);
+    }
+
+    private void walk(String dir, long now, Set<String> visited, Set<String> found) {
+        visited.add(dir);
+        long modified = _storage.getFile(dir).lastModified();
+        Directory directory = _dirs.get(dir);
+        if (directory == null || directory.modified != modified) {
+            directory = new Directory();
+            directory.modified = isStable(modified, now) ? modified : -1;
+            for (String child : _storage.listFiles(dir)) {
+                if (_storage.isDirectory(child)) {
+                    directory.subdirs.add(child);
+                } else if (child.endsWith(File.separator + TemplateLocation.Filename)) {
+                    directory.hasProperties = true;
+                }
+            }
+            _dirs.put(dir, directory);
+        }
+
+        if (directory.hasProperties) {
+            String propertiesPath = dir + File.separator + TemplateLocation.Filename;
+            found.add(propertiesPath);
+            refreshTemplate(dir, propertiesPath, now);
+        }
+        for (String subdir : directory.subdirs) {
+            walk(subdir, now, visited, found);
+        }
+    }
+
+    private void refreshTemplate(String dir, String propertiesPath, long now) {
+        File properties = _storage.getFile(propertiesPath);
+        String installPath = _installPaths.get(propertiesPath);
+        Entry entry = installPath == null ? null : _entries.get(installPath);
+        if (entry != null && entry.propertiesModified == properties.lastModified() && entry.propertiesSize == properties.length()) {
+            return;
+        }
+
+        TemplateInfo info = loadTemplate(dir);
+        // looked up before the old entry is dropped, it is the same entry when the install path did not change
+        Entry previous = info == null ? null : _entries.get(info.installPath);
+        if (installPath != null) {
+            _installPaths.remove(propertiesPath);
+            _entries.remove(installPath);
+        }
+        _dirty = true;
+        if (info == null) {
+            return;
+        }
+
+        if (previous != null && previous.propertiesPath != null && !previous.propertiesPath.equals(propertiesPath)) {
+            _installPaths.remove(previous.propertiesPath);
+        }
+        entry = new Entry();
+        if (previous != null) {
+            // the data file did not necessarily change, keep its checksum
+            entry.fileModified = previous.fileModified;
+            entry.fileSize = previous.fileSize;
+            entry.checksum = previous.checksum;
+        }
+        entry.propertiesPath = propertiesPath;
+        // stat after loading, loadTemplate() may have rewritten the file
+        long modified = properties.lastModified();
+        entry.propertiesModified = isStable(modified, now) ? modified : -1;
+        entry.propertiesSize = properties.length();
+        entry.info = info;
+        _entries.put(info.installPath, entry);
+        _installPaths.put(propertiesPath, info.installPath);
+    }
+
+    private static boolean isStable(long modified, long now) {
+        return modified < now - MTIME_GRANULARITY;
+    }
+
+    private static TemplateInfo copy(TemplateInfo info) {
+        TemplateInfo copy = new TemplateInfo(info.templateName, info.installPath, info.size, info.physicalSize, info.isPublic, info.isCorrupted);
+        copy.id = info.id;
+        return copy;
+    }
+
+    private void loadIndex() {
+        _loaded = true;
+        File file = _storage.getFile(_templateDir + File.separator + Filename);
+        if (!file.exists()) {
+            return;
+        }
+
+        Properties props = new Properties();
+        FileInputStream strm = null;
+        try {
+            strm = new FileInputStream(file);
+            props.load(strm);
+        } catch (IOException e) {
+            s_logger.warn("Unable to read the template inventory " + file.getPath() + ", it will be rebuilt", e);
+            return;
+        } finally {
+            if (strm != null) {
+                try {
+                    strm.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        for (String key : props.stringPropertyNames()) {
+            if (!key.endsWith(".checksum") && !key.endsWith(".properties")) {
+                continue;
+            }
+            String installPath = key.substring(0, key.lastIndexOf('.'));
+            if (_entries.containsKey(installPath)) {
+                continue;
+            }
+            Entry entry = new Entry();
+            entry.checksum = props.getProperty(installPath + ".checksum");
+            entry.fileModified = NumbersUtil.parseLong(props.getProperty(installPath + ".file.modified"), -1);
+            entry.fileSize = NumbersUtil.parseLong(props.getProperty(installPath + ".file.size"), -1);
+            entry.propertiesPath = props.getProperty(installPath + ".properties");
+            if (entry.propertiesPath != null) {
+                entry.propertiesModified = NumbersUtil.parseLong(props.getProperty(installPath + ".properties.modified"), -1);
+                entry.propertiesSize = NumbersUtil.parseLong(props.getProperty(installPath + ".properties.size"), -1);
+                TemplateInfo info = new TemplateInfo(props.getProperty(installPath + ".uniquename"), installPath,
+                        NumbersUtil.parseLong(props.getProperty(installPath + ".virtualsize"), 0), NumbersUtil.parseLong(props.getProperty(installPath + ".physicalsize"), 0),
+                        Boolean.parseBoolean(props.getProperty(installPath + ".public")), Boolean.parseBoolean(props.getProperty(installPath + ".corrupted")));
+                info.id = NumbersUtil.parseLong(props.getProperty(installPath + ".id"), 0);
+                entry.info = info;
+                _installPaths.put(entry.propertiesPath, installPath);
+            }
+            _entries.put(installPath, entry);
+        }
+        s_logger.info("Loaded " + _entries.size() + " entries from the template inventory " + file.getPath());
+    }
+
+    private void saveIndex() {
+        if (!_dirty) {
+            return;
+        }
+
+        Properties props = new Properties();
+        for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+            String installPath = e.getKey();
+            Entry entry = e.getValue();
+            if (entry.checksum != null) {
+                props.setProperty(installPath + ".checksum", entry.checksum);
+                props.setProperty(installPath + ".file.modified", Long.toString(entry.fileModified));
+                props.setProperty(installPath + ".file.size", Long.toString(entry.fileSize));
+            }
+            if (entry.info != null) {
+                props.setProperty(installPath + ".properties", entry.propertiesPath);
+                props.setProperty(installPath + ".properties.modified", Long.toString(entry.propertiesModified));
+                props.setProperty(installPath + ".properties.size", Long.toString(entry.propertiesSize));
+                props.setProperty(installPath + ".id", Long.toString(entry.info.id));
+                props.setProperty(installPath + ".uniquename", entry.info.templateName);
+                props.setProperty(installPath + ".public", Boolean.toString(entry.info.isPublic));
+                props.setProperty(installPath + ".corrupted", Boolean.toString(entry.info.isCorrupted));
+                props.setProperty(installPath + ".virtualsize", Long.toString(entry.info.size));
+                props.setProperty(installPath + ".physicalsize", Long.toString(entry.info.physicalSize));
+            }
+        }
+
+        File file = _storage.getFile(_templateDir + File.separator + Filename);
+        // secondary storage vms sharing the store each write a temporary file of their own
+        File tmp = null;
+        FileOutputStream strm = null;
+        try {
+            tmp = File.createTempFile(Filename + ".", ".tmp", file.getParentFile());
+            strm = new FileOutputStream(tmp);
+            props.store(strm, "");
+        } catch (IOException e) {
+            s_logger.warn("Unable to save the template inventory " + file.getPath(), e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+            return;
+        } finally {
+            if (strm != null) {
+                try {
+                    strm.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            s_logger.warn("Unable to save the template inventory " + file.getPath());
+            tmp.delete();
+            return;
+        }
+        _dirty = false;
+    }
+}
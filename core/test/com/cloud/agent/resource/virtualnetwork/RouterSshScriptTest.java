@@ -0,0 +1,80 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.agent.resource.virtualnetwork;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.utils.Pair;
+import com.cloud.utils.script.OutputInterpreter;
+import com.cloud.utils.ssh.SshConnectionPool;
+
+public class RouterSshScriptTest extends TestCase {
+    final List<String> hosts = new ArrayList<String>();
+    final List<String> commands = new ArrayList<String>();
+
+    private SshConnectionPool createPool() {
+        return new SshConnectionPool("Test", new SshConnectionPool.SshSessionFactory() {
+            @Override
+            public SshConnectionPool.SshSession connect(String host) throws IOException {
+                hosts.add(host);
+                return new SshConnectionPool.SshSession() {
+                    @Override
+                    public Pair<Boolean, String> execute(String command, int timeoutMs) throws IOException {
+                        commands.add(command);
+                        if (command.contains("-D")) {
+                            return new Pair<Boolean, String>(false, "rule not found");
+                        }
+                        return new Pair<Boolean, String>(true, "MASTER\n");
+                    }
+
+                    @Override
+                    public void keepAlive() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        }, 300);
+    }
+
+    @Test
+    public void testRunsRouterScriptOverPool() {
+        SshConnectionPool pool = createPool();
+
+        RouterSshScript status = new RouterSshScript(pool, "/usr/lib/cloud/getRouterStatus.sh", "/root/checkrouter.sh", 1000);
+        status.add("169.254.3.4");
+        OutputInterpreter.OneLineParser parser = new OutputInterpreter.OneLineParser();
+        assertNull(status.execute(parser));
+        assertEquals("MASTER", parser.getLine());
+
+        RouterSshScript firewall = new RouterSshScript(pool, "/usr/lib/cloud/call_firewall.sh", "/root/firewall.sh", 1000);
+        firewall.add("169.254.3.4");
+        firewall.add("-D");
+        firewall.add("-P ", "tcp");
+        assertEquals("rule not found", firewall.execute());
+
+        assertEquals(1, hosts.size());
+        assertEquals("169.254.3.4", hosts.get(0));
+        assertEquals("/root/checkrouter.sh", commands.get(0));
+        assertEquals("/root/firewall.sh -D -P  tcp", commands.get(1));
+        assertEquals(1, pool.getLatency("checkrouter.sh").getCount());
+    }
+}
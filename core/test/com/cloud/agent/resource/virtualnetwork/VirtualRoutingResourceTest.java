@@ -0,0 +1,154 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.agent.resource.virtualnetwork;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.routing.DhcpEntryBatchCommand;
+import com.cloud.agent.api.routing.DhcpEntryCommand;
+import com.cloud.agent.api.routing.NetworkElementCommand;
+import com.cloud.agent.api.routing.VmDataBatchCommand;
+import com.cloud.agent.api.routing.VmDataCommand;
+import com.cloud.agent.transport.Request;
+import com.cloud.utils.script.Script;
+
+public class VirtualRoutingResourceTest extends TestCase {
+    static final int VMS = 500;
+
+    /**
+     * Records the scripts it is asked to run instead of spawning them
+     */
+    static class CountingRoutingResource extends VirtualRoutingResource {
+        final List<String> spawns = new ArrayList<String>();
+        boolean batchSupported = true;
+
+        @Override
+        protected Script createScript(final String path, final int timeout) {
+            return new Script(path, timeout) {
+                @Override
+                public String execute() {
+                    String name = new File(path).getName();
+                    synchronized (spawns) {
+                        spawns.add(name);
+                    }
+                    if (!batchSupported && name.contains("_batch")) {
+                        return "batch.unsupported";
+                    }
+                    return null;
+                }
+            };
+        }
+    }
+
+    private CountingRoutingResource createResource() throws Exception {
+        CountingRoutingResource resource = new CountingRoutingResource();
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("domr.scripts.dir", new File("scripts/network/domr").getAbsolutePath());
+        assertTrue(resource.configure("VirtualRoutingResource", params));
+        return resource;
+    }
+
+    private List<DhcpEntryCommand> createDhcpEntries() {
+        List<DhcpEntryCommand> entries = new ArrayList<DhcpEntryCommand>();
+        for (int i = 0; i < VMS; i++) {
+            DhcpEntryCommand entry = new DhcpEntryCommand(String.format("02:00:00:00:%02x:%02x", i / 256, i % 256), "10.1." + (i / 250) + "." + (i % 250 + 2), "vm-" + i);
+            entry.setDefaultRouter("10.1.0.1");
+            entry.setAccessDetail(NetworkElementCommand.ROUTER_IP, "169.254.1.1");
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private List<VmDataCommand> createVmData() {
+        List<VmDataCommand> entries = new ArrayList<VmDataCommand>();
+        for (int i = 0; i < VMS; i++) {
+            VmDataCommand entry = new VmDataCommand("10.1." + (i / 250) + "." + (i % 250 + 2), "vm-" + i);
+            entry.addVmData("userdata", "user-data", null);
+            entry.addVmData("metadata", "local-hostname", "vm-" + i);
+            entry.addVmData("metadata", "instance-id", "i-2-" + i + "-VM");
+            entry.setAccessDetail(NetworkElementCommand.ROUTER_IP, "169.254.1.1");
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    @Test
+    public void testBatchIsOneScriptCall() throws Exception {
+        CountingRoutingResource resource = createResource();
+
+        DhcpEntryBatchCommand dhcp = new DhcpEntryBatchCommand(createDhcpEntries());
+        dhcp.setAccessDetail(NetworkElementCommand.ROUTER_IP, "169.254.1.1");
+        Answer answer = resource.executeRequest(dhcp);
+        assertTrue(answer.getDetails(), answer.getResult());
+
+        VmDataBatchCommand vmData = new VmDataBatchCommand(createVmData());
+        vmData.setAccessDetail(NetworkElementCommand.ROUTER_IP, "169.254.1.1");
+        answer = resource.executeRequest(vmData);
+        assertTrue(answer.getDetails(), answer.getResult());
+
+        assertEquals(2, resource.spawns.size());
+        assertEquals("dhcp_entry_batch.sh", resource.spawns.get(0));
+        assertEquals("vm_data_batch.sh", resource.spawns.get(1));
+    }
+
+    @Test
+    public void testFallbackForOldRouters() throws Exception {
+        CountingRoutingResource resource = createResource();
+        resource.batchSupported = false;
+
+        DhcpEntryBatchCommand dhcp = new DhcpEntryBatchCommand(createDhcpEntries());
+        dhcp.setAccessDetail(NetworkElementCommand.ROUTER_IP, "169.254.1.1");
+        Answer answer = resource.executeRequest(dhcp);
+        assertTrue(answer.getDetails(), answer.getResult());
+        assertEquals(1 + VMS, resource.spawns.size());
+
+        resource.spawns.clear();
+        VmDataBatchCommand vmData = new VmDataBatchCommand(createVmData());
+        vmData.setAccessDetail(NetworkElementCommand.ROUTER_IP, "169.254.1.1");
+        answer = resource.executeRequest(vmData);
+        assertTrue(answer.getDetails(), answer.getResult());
+        // the per entry path runs vm_data.sh for every user data and meta data file
+        assertEquals(1 + VMS * 3, resource.spawns.size());
+    }
+
+    @Test
+    public void testBatchSerialization() throws Exception {
+        DhcpEntryBatchCommand dhcp = new DhcpEntryBatchCommand(createDhcpEntries());
+        dhcp.setAccessDetail(NetworkElementCommand.ROUTER_IP, "169.254.1.1");
+        VmDataBatchCommand vmData = new VmDataBatchCommand(createVmData());
+
+        Request sreq = new Request(2, 3, new Command[] { dhcp, vmData }, true, true);
+        Request creq = Request.parse(sreq.getBytes());
+        Command[] cmds = creq.getCommands();
+
+        DhcpEntryBatchCommand dhcpCopy = (DhcpEntryBatchCommand)cmds[0];
+        assertEquals(VMS, dhcpCopy.getEntries().length);
+        assertEquals("169.254.1.1", dhcpCopy.getAccessDetail(NetworkElementCommand.ROUTER_IP));
+        assertEquals("vm-7", dhcpCopy.getEntries()[7].getVmName());
+        assertEquals("10.1.0.1", dhcpCopy.getEntries()[7].getDefaultRouter());
+
+        VmDataBatchCommand vmDataCopy = (VmDataBatchCommand)cmds[1];
+        assertEquals(VMS, vmDataCopy.getEntries().length);
+        assertEquals("i-2-9-VM", vmDataCopy.getEntries()[9].getVmData().get(2)[2]);
+    }
+}
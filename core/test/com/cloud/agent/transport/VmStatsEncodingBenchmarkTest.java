@@ -0,0 +1,136 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.agent.transport;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.VmStatsEntry;
+
+/**
+ * Compares the wire size and the cpu time of vm stats answers of 200-vm hosts sent as the json map and with the
+ * columnar encoding, in the manner of a JMH benchmark: each scenario runs warmup iterations followed by measured
+ * iterations and reports the median cpu time per answer.  Encoding is what the agent does, building the answer and
+ * the bytes of the response; decoding is what the management server does, parsing the response and reading the map.
+ */
+public class VmStatsEncodingBenchmarkTest extends TestCase {
+    private static final Logger s_logger = Logger.getLogger(VmStatsEncodingBenchmarkTest.class);
+
+    private static final int VMS = 200;
+    private static final int HOSTS = 10;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final int OPS_PER_ITERATION = 200;
+
+    private interface Operation {
+        void run(int i) throws Exception;
+    }
+
+    private final List<HashMap<String, VmStatsEntry>> _stats = new ArrayList<HashMap<String, VmStatsEntry>>();
+    private final List<Request> _requests = new ArrayList<Request>();
+
+    @Override
+    protected void setUp() throws Exception {
+        for (int i = 0; i < HOSTS; i++) {
+            _stats.add(VmStatsEncodingTest.createStats(VMS, i));
+        }
+    }
+
+    private void createRequests(boolean columnar) throws Exception {
+        _requests.clear();
+        for (HashMap<String, VmStatsEntry> stats : _stats) {
+            _requests.add(Request.parse(new Request(2, 3, VmStatsEncodingTest.createCommand(stats, columnar), true).getBytes()));
+        }
+    }
+
+    private byte[] encode(int i) {
+        Request request = _requests.get(i % HOSTS);
+        GetVmStatsAnswer answer = new GetVmStatsAnswer((GetVmStatsCommand) request.getCommand(), _stats.get(i % HOSTS));
+        return new Response(request, answer).getBytes();
+    }
+
+    private double measure(String name, Operation op) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++) {
+            for (int i = 0; i < OPS_PER_ITERATION; i++) {
+                op.run(i);
+            }
+        }
+
+        List<Double> results = new ArrayList<Double>();
+        for (int iteration = 0; iteration < MEASURED_ITERATIONS; iteration++) {
+            long start = cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+            for (int i = 0; i < OPS_PER_ITERATION; i++) {
+                op.run(i);
+            }
+            long end = cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+            results.add((end - start) / 1000.0 / OPS_PER_ITERATION);
+        }
+        Collections.sort(results);
+        double median = results.get(results.size() / 2);
+        s_logger.info(String.format("%-16s %10.1f us/answer (min %.1f, max %.1f)", name, median, results.get(0), results.get(results.size() - 1)));
+        return median;
+    }
+
+    private int[] measureFormat(String name, boolean columnar) throws Exception {
+        createRequests(columnar);
+        final List<byte[]> encoded = new ArrayList<byte[]>();
+        int wireBytes = 0;
+        int contentBytes = 0;
+        for (int i = 0; i < HOSTS; i++) {
+            byte[] bytes = encode(i);
+            encoded.add(bytes);
+            wireBytes += bytes.length;
+            contentBytes += Request.parse(bytes)._content.length();
+        }
+
+        measure(name + " encode", new Operation() {
+            @Override
+            public void run(int i) throws Exception {
+                encode(i);
+            }
+        });
+        measure(name + " decode", new Operation() {
+            @Override
+            public void run(int i) throws Exception {
+                Response response = Response.parse(encoded.get(i % HOSTS));
+                assertEquals(VMS, ((GetVmStatsAnswer) response.getAnswer()).getVmStatsMap().size());
+            }
+        });
+        s_logger.info(String.format("%-16s %10d bytes/answer on the wire, %d before compression", name, wireBytes / HOSTS, contentBytes / HOSTS));
+        return new int[] { wireBytes / HOSTS, contentBytes / HOSTS };
+    }
+
+    @Test
+    public void testPayloadAndCpuFor200VmHosts() throws Exception {
+        int[] json = measureFormat("json", false);
+        int[] columnar = measureFormat("columnar", true);
+        s_logger.info(String.format("columnar answers are %.1f%% of json on the wire, %.1f%% before compression", columnar[0] * 100.0 / json[0],
+                columnar[1] * 100.0 / json[1]));
+
+        assertTrue(columnar[0] < json[0]);
+        assertTrue(columnar[1] < json[1]);
+    }
+}
@@ -0,0 +1,131 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.agent.transport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.VmStatsCodec;
+import com.cloud.agent.api.VmStatsEntry;
+
+/**
+ * Round trips vm stats through Request and Response, with the columnar encoding and with the json map that older
+ * agents and management servers use, and checks that both give the same stats back.
+ */
+public class VmStatsEncodingTest extends TestCase {
+
+    static HashMap<String, VmStatsEntry> createStats(int count, long seed) {
+        Random random = new Random(seed);
+        HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+        for (int i = 0; i < count; i++) {
+            VmStatsEntry entry = new VmStatsEntry(random.nextDouble() * 100, random.nextDouble() * 1000000, random.nextDouble() * 1000000,
+                    1 + random.nextInt(8), "vm");
+            stats.put("i-" + (2 + i % 7) + "-" + (1000 + i) + "-VM", entry);
+        }
+        return stats;
+    }
+
+    static GetVmStatsCommand createCommand(Map<String, VmStatsEntry> stats, boolean columnar) {
+        GetVmStatsCommand cmd = new GetVmStatsCommand(new ArrayList<String>(stats.keySet()), "host-guid", "host");
+        cmd.setColumnarStats(columnar);
+        return cmd;
+    }
+
+    static Response roundTrip(GetVmStatsCommand cmd, HashMap<String, VmStatsEntry> stats) throws Exception {
+        Request request = Request.parse(new Request(2, 3, cmd, true).getBytes());
+        GetVmStatsCommand received = (GetVmStatsCommand) request.getCommand();
+        Response response = new Response(request, new GetVmStatsAnswer(received, stats));
+        return Response.parse(response.getBytes());
+    }
+
+    static void assertSameStats(Map<String, VmStatsEntry> expected, Map<String, VmStatsEntry> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<String, VmStatsEntry> entry : expected.entrySet()) {
+            VmStatsEntry expectedEntry = entry.getValue();
+            VmStatsEntry actualEntry = actual.get(entry.getKey());
+            assertNotNull(entry.getKey(), actualEntry);
+            assertEquals(expectedEntry.getCPUUtilization(), actualEntry.getCPUUtilization());
+            assertEquals(expectedEntry.getNetworkReadKBs(), actualEntry.getNetworkReadKBs());
+            assertEquals(expectedEntry.getNetworkWriteKBs(), actualEntry.getNetworkWriteKBs());
+            assertEquals(expectedEntry.getNumCPUs(), actualEntry.getNumCPUs());
+            assertEquals(expectedEntry.getEntityType(), actualEntry.getEntityType());
+        }
+    }
+
+    @Test
+    public void testColumnarAndJsonAnswersAreEquivalent() throws Exception {
+        for (int count : new int[] { 0, 1, 200, 1000 }) {
+            HashMap<String, VmStatsEntry> stats = createStats(count, count);
+            Map<String, VmStatsEntry> columnar = ((GetVmStatsAnswer) roundTrip(createCommand(stats, true), stats).getAnswer()).getVmStatsMap();
+            Map<String, VmStatsEntry> json = ((GetVmStatsAnswer) roundTrip(createCommand(stats, false), stats).getAnswer()).getVmStatsMap();
+            assertSameStats(stats, columnar);
+            assertSameStats(json, columnar);
+        }
+    }
+
+    @Test
+    public void testColumnarAnswerCarriesNoMap() throws Exception {
+        HashMap<String, VmStatsEntry> stats = createStats(20, 1);
+        Response response = roundTrip(createCommand(stats, true), stats);
+        String content = new String(response.getBytes());
+        assertFalse(content.contains("vmStatsMap"));
+        assertFalse(content.contains("i-2-1000-VM"));
+        assertTrue(content.contains("columnarStats"));
+    }
+
+    @Test
+    public void testFallbackBetweenVersions() throws Exception {
+        HashMap<String, VmStatsEntry> stats = createStats(50, 2);
+
+        // a command from an older management server has no columnarStats, the agent answers with the map
+        String content = new String(new Request(2, 3, createCommand(stats, false), true).getBytes());
+        content = content.substring(content.indexOf('['));
+        assertTrue(content.contains("\"columnarStats\":false"));
+        String oldContent = content.replace(",\"columnarStats\":false", "").replace("\"columnarStats\":false,", "");
+        assertFalse(oldContent.contains("columnarStats"));
+        Request oldRequest = new Request(Request.Version.v1, 1, 2, 3, 2, (short) 0, oldContent);
+        GetVmStatsCommand oldCmd = (GetVmStatsCommand) oldRequest.getCommand();
+        assertFalse(oldCmd.isColumnarStats());
+        GetVmStatsAnswer answer = new GetVmStatsAnswer(oldCmd, stats);
+        assertSame(stats, answer.getVmStatsMap());
+
+        // an older agent ignores columnarStats and answers with the map, which is read as before
+        Response response = roundTrip(createCommand(stats, false), stats);
+        assertTrue(new String(response.getBytes()).contains("vmStatsMap"));
+        assertSameStats(stats, ((GetVmStatsAnswer) response.getAnswer()).getVmStatsMap());
+
+        // a failed collection has no stats either way
+        GetVmStatsAnswer failed = new GetVmStatsAnswer(createCommand(stats, true), null);
+        assertNull(failed.getVmStatsMap());
+    }
+
+    @Test
+    public void testCodecEdgeCases() {
+        HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+        stats.put("no-type", new VmStatsEntry(Double.NaN, Double.POSITIVE_INFINITY, -0.0, 0, null));
+        stats.put("negative", new VmStatsEntry(-1, Double.MIN_VALUE, Double.MAX_VALUE, -1, "vm"));
+        stats.put("\u00e9t\u00e9-\u4e2d", new VmStatsEntry(0.5, 1, 2, Integer.MAX_VALUE, "domainRouter"));
+        HashMap<String, VmStatsEntry> decoded = VmStatsCodec.decode(VmStatsCodec.encode(stats));
+        assertSameStats(stats, decoded);
+        assertNull(decoded.get("no-type").getEntityType());
+        assertEquals(Integer.MAX_VALUE, decoded.get("\u00e9t\u00e9-\u4e2d").getNumCPUs());
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.hypervisor.vmware.mo;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.cloud.hypervisor.vmware.util.VmwareContext;
+import com.vmware.apputils.version.ExtendedAppUtil;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * Stands in for the vSphere web service in tests: every VimPortType call is counted as a SOAP round trip and
+ * answered by {@link #handle(String, Object[])}, which tests override for the calls they expect.
+ */
+public class FakeVimService implements InvocationHandler {
+	private final Map<String, Integer> _calls = new HashMap<String, Integer>();
+	private final ServiceContent _serviceContent;
+	
+	public FakeVimService() {
+		_serviceContent = new ServiceContent();
+		_serviceContent.setRootFolder(createMor("Folder", "group-d1"));
+		_serviceContent.setPropertyCollector(createMor("PropertyCollector", "propertyCollector"));
+		_serviceContent.setPerfManager(createMor("PerformanceManager", "PerfMgr"));
+	}
+	
+	public static ManagedObjectReference createMor(String type, String value) {
+		ManagedObjectReference mor = new ManagedObjectReference();
+		mor.setType(type);
+		mor.set_value(value);
+		return mor;
+	}
+	
+	public VmwareContext createContext() {
+		final VimPortType service = (VimPortType)Proxy.newProxyInstance(VimPortType.class.getClassLoader(), 
+			new Class<?>[] { VimPortType.class }, this);
+		
+		return new VmwareContext(new ExtendedAppUtil("fake"), "vcenter.fake") {
+			@Override
+			public VimPortType getService() {
+				return service;
+			}
+			
+			@Override
+			public ServiceContent getServiceContent() {
+				return _serviceContent;
+			}
+		};
+	}
+	
+	public synchronized int getCallCount(String methodName) {
+		Integer count = _calls.get(methodName);
+		return count == null ? 0 : count;
+	}
+	
+	public synchronized int getCallCount() {
+		int total = 0;
+		for(Integer count : _calls.values())
+			total += count;
+		return total;
+	}
+	
+	public synchronized void resetCallCount() {
+		_calls.clear();
+	}
+	
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if(method.getDeclaringClass() == Object.class)
+			return method.invoke(this, args);
+		
+		synchronized(this) {
+			_calls.put(method.getName(), getCallCount(method.getName()) + 1);
+		}
+		return handle(method.getName(), args);
+	}
+	
+	protected Object handle(String methodName, Object[] args) throws Exception {
+		throw new UnsupportedOperationException("Unexpected call to " + methodName);
+	}
+}
@@ -0,0 +1,155 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.hypervisor.vmware.mo;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.cloud.hypervisor.vmware.util.VmwareContext;
+import com.vmware.vim25.ArrayOfPerfCounterInfo;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ElementDescription;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.PerfCounterInfo;
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfEntityMetricBase;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfMetricSeries;
+import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.PerfSummaryType;
+
+public class TestPerfManagerMO extends TestCase {
+	private static final int RX_COUNTER = 143;
+	private static final int TX_COUNTER = 144;
+	
+	private FakeVimService _service;
+	private VmwareContext _context;
+	private PerfQuerySpec[] _lastSpecs;
+	
+	@Override
+	protected void setUp() {
+		_service = new FakeVimService() {
+			@Override
+			protected Object handle(String methodName, Object[] args) throws Exception {
+				if(methodName.equals("retrieveProperties"))
+					return retrieveCounters();
+				if(methodName.equals("queryPerf"))
+					return queryPerf((PerfQuerySpec[])args[1]);
+				return super.handle(methodName, args);
+			}
+		};
+		_context = _service.createContext();
+	}
+	
+	public void testCounterTableFetchedOncePerContext() throws Exception {
+		for(int i = 0; i < 3; i++) {
+			PerfCounterInfoMapper mapper = _context.getPerfCounterInfoMapper();
+			assertEquals(RX_COUNTER, mapper.lookupOne("net", "received", PerfSummaryType.average).getKey());
+			assertEquals(TX_COUNTER, mapper.lookupOne("net", "transmitted", PerfSummaryType.average).getKey());
+			assertNull(mapper.lookupOne("net", "received", PerfSummaryType.maximum));
+		}
+		assertEquals(1, _service.getCallCount("retrieveProperties"));
+		
+		assertEquals(1, _service.createContext().getPerfCounterInfoMapper().lookup("net", "received", null).length);
+		assertEquals(2, _service.getCallCount("retrieveProperties"));
+	}
+	
+	public void testLatestValuesOfAllVmsInOneCall() throws Exception {
+		ManagedObjectReference[] vms = new ManagedObjectReference[100];
+		for(int i = 0; i < vms.length; i++)
+			vms[i] = FakeVimService.createMor("VirtualMachine", "vm-" + i);
+		
+		Map<String, Map<Integer, Long>> values = _context.getPerfManager().queryLatestPerfValues(vms, 
+			new int[] { RX_COUNTER, TX_COUNTER }, PerfManagerMO.REALTIME_INTERVAL_ID);
+		
+		assertEquals(1, _service.getCallCount());
+		assertEquals(100, _lastSpecs.length);
+		for(PerfQuerySpec spec : _lastSpecs) {
+			assertEquals(Integer.valueOf(1), spec.getMaxSample());
+			assertEquals(Integer.valueOf(20), spec.getIntervalId());
+			assertEquals(2, spec.getMetricId().length);
+			assertEquals("", spec.getMetricId(0).getInstance());
+		}
+		
+		assertEquals(99, values.size());
+		assertNull(values.get("vm-7"));
+		assertEquals(Long.valueOf(31), values.get("vm-3").get(RX_COUNTER));
+		assertEquals(Long.valueOf(32), values.get("vm-3").get(TX_COUNTER));
+	}
+	
+	public void testNothingToQuery() throws Exception {
+		assertTrue(_context.getPerfManager().queryLatestPerfValues(new ManagedObjectReference[0], 
+			new int[] { RX_COUNTER }, PerfManagerMO.REALTIME_INTERVAL_ID).isEmpty());
+		assertEquals(0, _service.getCallCount());
+	}
+	
+	private ObjectContent[] retrieveCounters() {
+		ArrayOfPerfCounterInfo counters = new ArrayOfPerfCounterInfo();
+		counters.setPerfCounterInfo(new PerfCounterInfo[] {
+			createCounter(2, "cpu", "usage", PerfSummaryType.average),
+			createCounter(RX_COUNTER, "net", "received", PerfSummaryType.average),
+			createCounter(TX_COUNTER, "net", "transmitted", PerfSummaryType.average)
+		});
+		
+		DynamicProperty prop = new DynamicProperty();
+		prop.setName("perfCounter");
+		prop.setVal(counters);
+		
+		ObjectContent oc = new ObjectContent();
+		oc.setObj(_context.getServiceContent().getPerfManager());
+		oc.setPropSet(new DynamicProperty[] { prop });
+		return new ObjectContent[] { oc };
+	}
+	
+	private static PerfCounterInfo createCounter(int key, String group, String name, PerfSummaryType rollupType) {
+		PerfCounterInfo info = new PerfCounterInfo();
+		info.setKey(key);
+		info.setGroupInfo(new ElementDescription());
+		info.getGroupInfo().setKey(group);
+		info.setNameInfo(new ElementDescription());
+		info.getNameInfo().setKey(name);
+		info.setRollupType(rollupType);
+		return info;
+	}
+	
+	// vm-N reports N * 10 + 1 KBps received and N * 10 + 2 KBps sent; vm-7 has no samples yet
+	private PerfEntityMetricBase[] queryPerf(PerfQuerySpec[] specs) {
+		_lastSpecs = specs;
+		
+		PerfEntityMetricBase[] metrics = new PerfEntityMetricBase[specs.length - 1];
+		int index = 0;
+		for(PerfQuerySpec spec : specs) {
+			int vm = Integer.parseInt(spec.getEntity().get_value().substring("vm-".length()));
+			if(vm == 7)
+				continue;
+			
+			PerfMetricSeries[] series = new PerfMetricSeries[spec.getMetricId().length];
+			for(int i = 0; i < series.length; i++) {
+				PerfMetricId id = spec.getMetricId(i);
+				PerfMetricIntSeries serie = new PerfMetricIntSeries();
+				serie.setId(id);
+				serie.setValue(new long[] { vm * 10 + (id.getCounterId() == RX_COUNTER ? 1 : 2) });
+				series[i] = serie;
+			}
+			
+			PerfEntityMetric metric = new PerfEntityMetric();
+			metric.setEntity(spec.getEntity());
+			metric.setValue(series);
+			metrics[index++] = metric;
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,206 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.hypervisor.vmware.mo;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.cloud.hypervisor.vmware.util.VmwareContext;
+import com.vmware.vim25.InvalidCollectorVersion;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VirtualMachinePowerState;
+
+public class TestVmStateTracker extends TestCase {
+	private FakeVimService _service;
+	private VmwareContext _context;
+	private VmStateTracker _tracker;
+	
+	// recorded checkForUpdates() replies, either an UpdateSet, null (no change) or an exception to throw
+	private LinkedList<Object> _replies = new LinkedList<Object>();
+	private List<String> _versions = new ArrayList<String>();
+	private int _collectors;
+	
+	@Override
+	protected void setUp() {
+		_service = new FakeVimService() {
+			@Override
+			protected Object handle(String methodName, Object[] args) throws Exception {
+				if(methodName.equals("createPropertyCollector"))
+					return createMor("PropertyCollector", "session[" + (++_collectors) + "]");
+				if(methodName.equals("createFilter")) {
+					assertEquals("session[" + _collectors + "]", ((ManagedObjectReference)args[0]).get_value());
+					assertEquals(3, ((PropertyFilterSpec)args[1]).getPropSet(0).getPathSet().length);
+					return createMor("PropertyFilter", "filter-" + _collectors);
+				}
+				if(methodName.equals("destroyPropertyCollector"))
+					return null;
+				if(methodName.equals("checkForUpdates")) {
+					_versions.add((String)args[1]);
+					Object reply = _replies.removeFirst();
+					if(reply instanceof Exception)
+						throw (Exception)reply;
+					return reply;
+				}
+				return super.handle(methodName, args);
+			}
+		};
+		_context = _service.createContext();
+		_tracker = new VmStateTracker(_context, new HostMO(_context, FakeVimService.createMor("HostSystem", "host-10")));
+	}
+	
+	public void testUnchangedHostCostsOneCheckPerPing() throws Exception {
+		_replies.add(updateSet("1", "filter-1",
+			enter("vm-1", "i-2-10-VM", VirtualMachinePowerState.poweredOn, false),
+			enter("vm-2", "r-4-VM", VirtualMachinePowerState.poweredOff, false),
+			enter("vm-3", "template-201", VirtualMachinePowerState.poweredOff, true)));
+		
+		Map<String, VirtualMachinePowerState> states = _tracker.getVmPowerStates();
+		assertEquals(2, states.size());
+		assertEquals(VirtualMachinePowerState.poweredOn, states.get("i-2-10-VM"));
+		assertEquals(VirtualMachinePowerState.poweredOff, states.get("r-4-VM"));
+		
+		_service.resetCallCount();
+		for(int i = 0; i < 10; i++) {
+			_replies.add(null);
+			assertEquals(states, _tracker.getVmPowerStates());
+		}
+		assertEquals(10, _service.getCallCount());
+		assertEquals(10, _service.getCallCount("checkForUpdates"));
+		assertEquals(0, _service.getCallCount("retrieveProperties"));
+		
+		assertEquals("", _versions.get(0));
+		assertEquals("1", _versions.get(10));
+	}
+	
+	public void testIncrementalUpdates() throws Exception {
+		_replies.add(updateSet("1", "filter-1",
+			enter("vm-1", "i-2-10-VM", VirtualMachinePowerState.poweredOn, false),
+			enter("vm-2", "r-4-VM", VirtualMachinePowerState.poweredOn, false)));
+		_tracker.getVmPowerStates();
+		
+		// updates of other filters on the same collector are not ours to apply
+		_replies.add(updateSet("2", "filter-99", leave("vm-1")));
+		_replies.add(updateSet("3", "filter-1",
+			modify("vm-1", change("runtime.powerState", PropertyChangeOp.assign, VirtualMachinePowerState.suspended)),
+			leave("vm-2"),
+			enter("vm-5", "i-2-11-VM", VirtualMachinePowerState.poweredOff, false)));
+		_replies.add(updateSet("4", "filter-1",
+			modify("vm-5", change("runtime.powerState", PropertyChangeOp.assign, VirtualMachinePowerState.poweredOn),
+				change("name", PropertyChangeOp.assign, "i-2-12-VM"))));
+		
+		Map<String, VirtualMachinePowerState> states = _tracker.getVmPowerStates();
+		assertEquals(2, states.size());
+		
+		states = _tracker.getVmPowerStates();
+		assertEquals(2, states.size());
+		assertEquals(VirtualMachinePowerState.suspended, states.get("i-2-10-VM"));
+		assertEquals(VirtualMachinePowerState.poweredOff, states.get("i-2-11-VM"));
+		
+		states = _tracker.getVmPowerStates();
+		assertEquals(2, states.size());
+		assertEquals(VirtualMachinePowerState.poweredOn, states.get("i-2-12-VM"));
+		
+		assertEquals("[, 1, 2, 3]", _versions.toString());
+		assertEquals(1, _collectors);
+	}
+	
+	public void testVersionGapRetrievesAllVmsAgain() throws Exception {
+		_replies.add(updateSet("1", "filter-1",
+			enter("vm-1", "i-2-10-VM", VirtualMachinePowerState.poweredOn, false),
+			enter("vm-2", "r-4-VM", VirtualMachinePowerState.poweredOn, false)));
+		_tracker.getVmPowerStates();
+		
+		_replies.add(new InvalidCollectorVersion());
+		_replies.add(updateSet("1", "filter-2",
+			enter("vm-2", "r-4-VM", VirtualMachinePowerState.poweredOff, false)));
+		
+		Map<String, VirtualMachinePowerState> states = _tracker.getVmPowerStates();
+		assertEquals(1, states.size());
+		assertEquals(VirtualMachinePowerState.poweredOff, states.get("r-4-VM"));
+		
+		assertEquals(2, _collectors);
+		assertEquals(1, _service.getCallCount("destroyPropertyCollector"));
+		assertEquals("[, 1, ]", _versions.toString());
+	}
+	
+	public void testConnectionFailureIsReportedAndRecovered() throws Exception {
+		_replies.add(updateSet("1", "filter-1", enter("vm-1", "i-2-10-VM", VirtualMachinePowerState.poweredOn, false)));
+		_tracker.getVmPowerStates();
+		
+		_replies.add(new RemoteException("connection reset"));
+		try {
+			_tracker.getVmPowerStates();
+			fail("connection failure should reach the caller");
+		} catch(RemoteException e) {
+		}
+		
+		_replies.add(updateSet("1", "filter-2", enter("vm-1", "i-2-10-VM", VirtualMachinePowerState.poweredOff, false)));
+		assertEquals(VirtualMachinePowerState.poweredOff, _tracker.getVmPowerStates().get("i-2-10-VM"));
+		assertEquals(2, _collectors);
+		assertEquals(1, _service.getCallCount("destroyPropertyCollector"));
+	}
+	
+	private static UpdateSet updateSet(String version, String filter, ObjectUpdate... objUpdates) {
+		PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+		filterUpdate.setFilter(FakeVimService.createMor("PropertyFilter", filter));
+		filterUpdate.setObjectSet(objUpdates);
+		
+		UpdateSet updateSet = new UpdateSet();
+		updateSet.setVersion(version);
+		updateSet.setFilterSet(new PropertyFilterUpdate[] { filterUpdate });
+		return updateSet;
+	}
+	
+	private static ObjectUpdate enter(String vm, String name, VirtualMachinePowerState powerState, boolean template) {
+		ObjectUpdate objUpdate = modify(vm, change("name", PropertyChangeOp.assign, name),
+			change("runtime.powerState", PropertyChangeOp.assign, powerState),
+			change("config.template", PropertyChangeOp.assign, template));
+		objUpdate.setKind(ObjectUpdateKind.enter);
+		return objUpdate;
+	}
+	
+	private static ObjectUpdate modify(String vm, PropertyChange... changes) {
+		ObjectUpdate objUpdate = new ObjectUpdate();
+		objUpdate.setKind(ObjectUpdateKind.modify);
+		objUpdate.setObj(FakeVimService.createMor("VirtualMachine", vm));
+		objUpdate.setChangeSet(changes);
+		return objUpdate;
+	}
+	
+	private static ObjectUpdate leave(String vm) {
+		ObjectUpdate objUpdate = new ObjectUpdate();
+		objUpdate.setKind(ObjectUpdateKind.leave);
+		objUpdate.setObj(FakeVimService.createMor("VirtualMachine", vm));
+		return objUpdate;
+	}
+	
+	private static PropertyChange change(String name, PropertyChangeOp op, Object val) {
+		PropertyChange change = new PropertyChange();
+		change.setName(name);
+		change.setOp(op);
+		change.setVal(val);
+		return change;
+	}
+}
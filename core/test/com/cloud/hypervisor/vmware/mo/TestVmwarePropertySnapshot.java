@@ -0,0 +1,220 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.hypervisor.vmware.mo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.cloud.hypervisor.vmware.util.VmwareContext;
+import com.cloud.hypervisor.vmware.util.VmwarePropertySnapshot;
+import com.vmware.vim25.ArrayOfManagedObjectReference;
+import com.vmware.vim25.ArrayOfVirtualDevice;
+import com.vmware.vim25.DatastoreSummary;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.SelectionSpec;
+import com.vmware.vim25.TraversalSpec;
+import com.vmware.vim25.VirtualDevice;
+import com.vmware.vim25.VirtualDisk;
+import com.vmware.vim25.VirtualIDEController;
+import com.vmware.vim25.VirtualLsiLogicController;
+
+public class TestVmwarePropertySnapshot extends TestCase {
+	private static final ManagedObjectReference HOST = FakeVimService.createMor("HostSystem", "host-10");
+	private static final ManagedObjectReference CLUSTER = FakeVimService.createMor("ClusterComputeResource", "domain-c7");
+	private static final ManagedObjectReference POOL = FakeVimService.createMor("ResourcePool", "resgroup-8");
+	private static final ManagedObjectReference VM = FakeVimService.createMor("VirtualMachine", "vm-21");
+	
+	private FakeVimService _service;
+	private VmwareContext _context;
+	
+	// server side inventory: "type:value" -> property path -> value
+	private Map<String, Map<String, Object>> _inventory = new HashMap<String, Map<String, Object>>();
+	
+	@Override
+	protected void setUp() {
+		_service = new FakeVimService() {
+			@Override
+			protected Object handle(String methodName, Object[] args) throws Exception {
+				if(methodName.equals("retrieveProperties"))
+					return retrieveProperties(((PropertyFilterSpec[])args[1])[0]);
+				return super.handle(methodName, args);
+			}
+		};
+		_context = _service.createContext();
+		
+		setProperty(HOST, "parent", CLUSTER);
+		setProperty(HOST, "name", "esx-1.lab");
+		setProperty(CLUSTER, "resourcePool", POOL);
+		
+		ArrayOfManagedObjectReference datastores = new ArrayOfManagedObjectReference();
+		datastores.setManagedObjectReference(new ManagedObjectReference[10]);
+		for(int i = 0; i < 10; i++) {
+			ManagedObjectReference morDs = FakeVimService.createMor("Datastore", "datastore-" + i);
+			datastores.setManagedObjectReference(i, morDs);
+			
+			DatastoreSummary summary = new DatastoreSummary();
+			summary.setType(i % 3 == 0 ? "VMFS" : "NFS");
+			summary.setMultipleHostAccess(i == 6);
+			setProperty(morDs, "summary", summary);
+		}
+		setProperty(HOST, "datastore", datastores);
+		
+		ArrayOfVirtualDevice devices = new ArrayOfVirtualDevice();
+		VirtualLsiLogicController scsi = new VirtualLsiLogicController();
+		scsi.setKey(1000);
+		VirtualIDEController ide = new VirtualIDEController();
+		ide.setKey(200);
+		VirtualDisk disk = new VirtualDisk();
+		disk.setKey(2000);
+		disk.setControllerKey(1000);
+		disk.setUnitNumber(0);
+		devices.setVirtualDevice(new VirtualDevice[] { scsi, ide, disk });
+		setProperty(VM, "config.hardware.device", devices);
+		setProperty(VM, "name", "i-2-10-VM");
+	}
+	
+	@Override
+	protected void tearDown() {
+		VmwareContext.endPropertySnapshot();
+	}
+	
+	public void testOwnerResourcePoolInOneRoundTrip() throws Exception {
+		HostMO hostMo = new HostMO(_context, HOST);
+		assertEquals(POOL.get_value(), hostMo.getHyperHostOwnerResourcePool().get_value());
+		assertEquals(1, _service.getCallCount());
+	}
+	
+	public void testLocalDatastoresInOneRoundTrip() throws Exception {
+		HostMO hostMo = new HostMO(_context, HOST);
+		ManagedObjectReference[] localDatastores = hostMo.getHostLocalDatastore();
+		
+		assertEquals(1, _service.getCallCount());
+		assertEquals(3, localDatastores.length);
+		assertEquals("datastore-0", localDatastores[0].get_value());
+		assertEquals("datastore-3", localDatastores[1].get_value());
+		assertEquals("datastore-9", localDatastores[2].get_value());
+	}
+	
+	public void testBatchedRetrieval() throws Exception {
+		ManagedObjectReference[] mors = new ManagedObjectReference[] { HOST, CLUSTER, VM };
+		String[][] paths = new String[][] { { "name", "parent" }, { "resourcePool" }, { "name", "config.template" } };
+		
+		VmwarePropertySnapshot snapshot = _context.retrieveProperties(mors, paths);
+		assertEquals(1, _service.getCallCount());
+		assertEquals("esx-1.lab", snapshot.get(HOST, "name"));
+		assertEquals(CLUSTER.get_value(), ((ManagedObjectReference)snapshot.get(HOST, "parent")).get_value());
+		assertEquals(POOL.get_value(), ((ManagedObjectReference)snapshot.get(CLUSTER, "resourcePool")).get_value());
+		assertEquals("i-2-10-VM", snapshot.get(VM, "name"));
+		
+		// unset on the server, but known to be so
+		assertTrue(snapshot.contains(VM, "config.template"));
+		assertNull(snapshot.get(VM, "config.template"));
+	}
+	
+	public void testCommandSnapshot() throws Exception {
+		VirtualMachineMO vmMo = new VirtualMachineMO(_context, VM);
+		
+		// outside of a command every read goes to vCenter
+		vmMo.getScsiDeviceControllerKey();
+		vmMo.getIDEDeviceControllerKey();
+		assertEquals(2, _service.getCallCount());
+		
+		VmwareContext.beginPropertySnapshot();
+		_service.resetCallCount();
+		assertEquals(1000, vmMo.getScsiDeviceControllerKey());
+		assertEquals(200, vmMo.getIDEDeviceControllerKey());
+		assertEquals(1, vmMo.getNextScsiDiskDeviceNumber());
+		assertEquals(1, vmMo.getAllDiskDevice().length);
+		assertEquals("i-2-10-VM", vmMo.getVmName());
+		assertEquals(2, _service.getCallCount());
+		
+		// a finished task drops what has been read so far
+		TaskMO.getTaskFailureInfo(_context, FakeVimService.createMor("Task", "task-1"));
+		_service.resetCallCount();
+		vmMo.getScsiDeviceControllerKey();
+		vmMo.getScsiDeviceControllerKey();
+		assertEquals(1, _service.getCallCount());
+		
+		VmwareContext.endPropertySnapshot();
+		_service.resetCallCount();
+		vmMo.getScsiDeviceControllerKey();
+		assertEquals(1, _service.getCallCount());
+	}
+	
+	private void setProperty(ManagedObjectReference mor, String path, Object value) {
+		Map<String, Object> props = _inventory.get(key(mor));
+		if(props == null) {
+			props = new HashMap<String, Object>();
+			_inventory.put(key(mor), props);
+		}
+		props.put(path, value);
+	}
+	
+	private ObjectContent[] retrieveProperties(PropertyFilterSpec pfSpec) {
+		List<ObjectContent> ocs = new ArrayList<ObjectContent>();
+		for(ObjectSpec oSpec : pfSpec.getObjectSet()) {
+			if(!Boolean.TRUE.equals(oSpec.getSkip()))
+				collect(oSpec.getObj(), pfSpec.getPropSet(), ocs);
+			
+			if(oSpec.getSelectSet() != null) {
+				for(SelectionSpec sSpec : oSpec.getSelectSet()) {
+					Object target = _inventory.get(key(oSpec.getObj())).get(((TraversalSpec)sSpec).getPath());
+					if(target instanceof ManagedObjectReference) {
+						collect((ManagedObjectReference)target, pfSpec.getPropSet(), ocs);
+					} else if(target instanceof ArrayOfManagedObjectReference) {
+						for(ManagedObjectReference mor : ((ArrayOfManagedObjectReference)target).getManagedObjectReference())
+							collect(mor, pfSpec.getPropSet(), ocs);
+					}
+				}
+			}
+		}
+		return ocs.toArray(new ObjectContent[0]);
+	}
+	
+	private void collect(ManagedObjectReference mor, PropertySpec[] pSpecs, List<ObjectContent> ocs) {
+		Map<String, Object> props = _inventory.get(key(mor));
+		List<DynamicProperty> propSet = new ArrayList<DynamicProperty>();
+		for(PropertySpec pSpec : pSpecs) {
+			// ComputeResource also covers ClusterComputeResource
+			if(!mor.getType().endsWith(pSpec.getType()))
+				continue;
+			
+			for(String path : pSpec.getPathSet()) {
+				if(props.get(path) != null) {
+					DynamicProperty prop = new DynamicProperty();
+					prop.setName(path);
+					prop.setVal(props.get(path));
+					propSet.add(prop);
+				}
+			}
+		}
+		
+		ObjectContent oc = new ObjectContent();
+		oc.setObj(mor);
+		oc.setPropSet(propSet.toArray(new DynamicProperty[0]));
+		ocs.add(oc);
+	}
+	
+	private static String key(ManagedObjectReference mor) {
+		return mor.getType() + ":" + mor.get_value();
+	}
+}
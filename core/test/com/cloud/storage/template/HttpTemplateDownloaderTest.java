@@ -0,0 +1,270 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.storage.template;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.storage.Storage.ImageFormat;
+import com.cloud.utils.Pair;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Downloads a generated template from an embedded http server, which may or may not accept ranges, and checks the
+ * downloaded file and the checksum computed while downloading it.
+ */
+public class HttpTemplateDownloaderTest extends TestCase {
+    private HttpServer _server;
+    private ExecutorService _executor;
+    private File _dir;
+    private byte[] _data;
+    private boolean _acceptRanges;
+    // announce ranges but answer every request with the whole template
+    private boolean _ignoreRanges;
+    private final List<String> _requests = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger _active = new AtomicInteger();
+    private final AtomicInteger _peak = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws IOException {
+        _dir = File.createTempFile("download", "");
+        _dir.delete();
+        _dir.mkdirs();
+
+        // a qcow2 header followed by random data, ending in the middle of a segment
+        _data = new byte[3 * HttpTemplateDownloader.SEGMENT_SIZE + 12345];
+        new Random(7).nextBytes(_data);
+        System.arraycopy(new byte[] { 'Q', 'F', 'I', (byte) 0xfb }, 0, _data, 0, 4);
+
+        _server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        _server.createContext("/template.qcow2", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        _executor = Executors.newCachedThreadPool();
+        _server.setExecutor(_executor);
+        _server.start();
+    }
+
+    @Override
+    protected void tearDown() {
+        _server.stop(0);
+        _executor.shutdownNow();
+        for (File file : _dir.listFiles()) {
+            file.delete();
+        }
+        _dir.delete();
+    }
+
+    @Test
+    public void testRangedDownload() throws Exception {
+        _acceptRanges = true;
+        HttpTemplateDownloader downloader = createDownloader(3, ImageFormat.QCOW2);
+        assertEquals(_data.length, downloader.download(false, null));
+        assertEquals(TemplateDownloader.Status.DOWNLOAD_FINISHED, downloader.getStatus());
+        assertTrue(Arrays.equals(_data, read(new File(downloader.getDownloadLocalPath()))));
+        assertEquals(md5(_data), downloader.getSink().getChecksum());
+        assertEquals(100, downloader.getDownloadPercent());
+
+        // one request per segment after the HEAD request, over several connections
+        assertEquals("HEAD", _requests.get(0));
+        assertEquals(5, _requests.size());
+        for (String request : _requests.subList(1, _requests.size())) {
+            assertTrue(request, request.startsWith("GET bytes="));
+        }
+        assertTrue(_requests.contains("GET bytes=0-" + (HttpTemplateDownloader.SEGMENT_SIZE - 1)));
+        assertTrue(_requests.contains("GET bytes=" + 3 * HttpTemplateDownloader.SEGMENT_SIZE + "-" + (_data.length - 1)));
+        assertTrue(_peak.get() > 1);
+    }
+
+    @Test
+    public void testSingleConnectionDownload() throws Exception {
+        _acceptRanges = false;
+        HttpTemplateDownloader downloader = createDownloader(3, ImageFormat.QCOW2);
+        assertEquals(_data.length, downloader.download(false, null));
+        assertEquals(TemplateDownloader.Status.DOWNLOAD_FINISHED, downloader.getStatus());
+        assertTrue(Arrays.equals(_data, read(new File(downloader.getDownloadLocalPath()))));
+        assertEquals(md5(_data), downloader.getSink().getChecksum());
+        assertEquals(Arrays.asList("HEAD", "GET"), _requests);
+    }
+
+    @Test
+    public void testIgnoredRangesFallBackToSingleConnection() throws Exception {
+        _acceptRanges = true;
+        _ignoreRanges = true;
+        HttpTemplateDownloader downloader = createDownloader(3, ImageFormat.QCOW2);
+        assertEquals(_data.length, downloader.download(false, null));
+        assertEquals(TemplateDownloader.Status.DOWNLOAD_FINISHED, downloader.getStatus());
+        assertTrue(Arrays.equals(_data, read(new File(downloader.getDownloadLocalPath()))));
+        assertEquals(md5(_data), downloader.getSink().getChecksum());
+        assertEquals(_data.length, downloader.getDownloadedBytes());
+
+        // no connection of the ranged download is left to send a request once it fell back
+        assertEquals("HEAD", _requests.get(0));
+        assertEquals("GET", _requests.get(_requests.size() - 1));
+        assertEquals(1, Collections.frequency(_requests, "GET"));
+    }
+
+    @Test
+    public void testFormatCheckedWhileDownloading() throws Exception {
+        for (boolean acceptRanges : new boolean[] { true, false }) {
+            _acceptRanges = acceptRanges;
+            HttpTemplateDownloader downloader = createDownloader(3, ImageFormat.VHD);
+            assertEquals(0, downloader.download(false, null));
+            assertEquals(TemplateDownloader.Status.UNRECOVERABLE_ERROR, downloader.getStatus());
+            assertTrue(downloader.getDownloadError(), downloader.getDownloadError().contains("not a VHD image"));
+            assertFalse(new File(downloader.getDownloadLocalPath()).exists());
+        }
+
+        _data[0] = 0;
+        for (boolean acceptRanges : new boolean[] { true, false }) {
+            _acceptRanges = acceptRanges;
+            HttpTemplateDownloader downloader = createDownloader(3, ImageFormat.QCOW2);
+            assertEquals(0, downloader.download(false, null));
+            assertEquals(TemplateDownloader.Status.UNRECOVERABLE_ERROR, downloader.getStatus());
+            assertTrue(downloader.getDownloadError(), downloader.getDownloadError().contains("not a QCOW2 image"));
+            // given up as soon as the header arrived
+            assertTrue(downloader.getDownloadedBytes() < _data.length);
+        }
+    }
+
+    @Test
+    public void testSinkDigestsInFileOrder() throws Exception {
+        File file = new File(_dir, "sink");
+        TemplateDownloadSink sink = new TemplateDownloadSink(file, null);
+        int size = 1000;
+        // written backwards, nothing can be digested until the first block arrives
+        for (int offset = _data.length / size * size; offset >= 0; offset -= size) {
+            int length = Math.min(size, _data.length - offset);
+            sink.write(offset, Arrays.copyOfRange(_data, offset, offset + length), length);
+            assertEquals(offset == 0 ? _data.length : 0, sink.getDigestedBytes());
+        }
+        assertNull(sink.getChecksum());
+        sink.finish();
+        sink.close();
+        assertEquals(md5(_data), sink.getChecksum());
+        assertTrue(sink.isSameFile(file));
+
+        // a changed footer, as vhd-util set does, means the checksum has to be computed again
+        byte[] changed = _data.clone();
+        changed[changed.length - 10]++;
+        File other = new File(_dir, "other");
+        OutputStream out = new FileOutputStream(other);
+        out.write(changed);
+        out.close();
+        assertFalse(sink.isSameFile(other));
+    }
+
+    private HttpTemplateDownloader createDownloader(int parts, ImageFormat format) {
+        _requests.clear();
+        String url = "http://127.0.0.1:" + _server.getAddress().getPort() + "/template.qcow2";
+        HttpTemplateDownloader downloader = new HttpTemplateDownloader(null, url, _dir.getAbsolutePath(), null,
+                TemplateDownloader.DEFAULT_MAX_TEMPLATE_SIZE_IN_BYTES, null, null, null) {
+            @Override
+            protected Pair<String, Integer> validateUrl(String url) {
+                // the embedded server listens on the loopback address and on any port
+                return new Pair<String, Integer>("127.0.0.1", 80);
+            }
+        };
+        assertTrue(downloader.isInited());
+        downloader.setParts(parts);
+        downloader.setFormat(format);
+        return downloader;
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        int active = _active.incrementAndGet();
+        synchronized (_peak) {
+            _peak.set(Math.max(_peak.get(), active));
+        }
+        try {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (_acceptRanges) {
+                exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            }
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                _requests.add("HEAD");
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(_data.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            int start = 0;
+            int end = _data.length;
+            if (range != null && _acceptRanges && !_ignoreRanges) {
+                _requests.add("GET " + range);
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Integer.parseInt(bounds[1]) + 1;
+                exchange.sendResponseHeaders(206, end - start);
+                // let the other connections catch up
+                Thread.sleep(50);
+            } else {
+                _requests.add(range != null ? "GET " + range : "GET");
+                exchange.sendResponseHeaders(200, _data.length);
+            }
+            OutputStream out = exchange.getResponseBody();
+            try {
+                out.write(_data, start, end - start);
+            } catch (IOException e) {
+                // the downloader gave up
+            }
+            out.close();
+        } catch (InterruptedException e) {
+            throw new IOException(e.toString());
+        } finally {
+            _active.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int length = 0;
+            while (length < data.length) {
+                length += in.read(data, length, data.length - length);
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private static String md5(byte[] data) throws Exception {
+        return new BigInteger(1, MessageDigest.getInstance("MD5").digest(data)).toString(16);
+    }
+}
@@ -0,0 +1,246 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.storage.template;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.storage.JavaStorageLayer;
+import com.cloud.storage.StorageLayer;
+
+/**
+ * Builds a template tree in a temporary directory and checks that refreshing the inventory only reads the
+ * template.properties and data files that changed.
+ */
+public class TemplateInventoryTest extends TestCase {
+    private static final int TEMPLATE_COUNT = 2000;
+
+    private final StorageLayer _storage = new JavaStorageLayer();
+    private File _root;
+    private File _templateDir;
+    private long _past;
+    private int _loads;
+    private int _checksums;
+
+    @Override
+    protected void setUp() throws IOException {
+        _root = File.createTempFile("inventory", "");
+        _root.delete();
+        _templateDir = new File(_root, "template/tmpl");
+        _past = (System.currentTimeMillis() / 1000 - 3600) * 1000;
+        for (int i = 1; i <= TEMPLATE_COUNT; i++) {
+            createTemplate(2 + i % 5, i, "data-" + i);
+        }
+        age(_root);
+    }
+
+    @Override
+    protected void tearDown() {
+        delete(_root);
+    }
+
+    @Test
+    public void testRefreshReadsOnlyChangedTemplates() throws IOException {
+        TemplateInventory inventory = createInventory();
+        Map<String, TemplateInfo> templates = inventory.listTemplates();
+        assertEquals(TEMPLATE_COUNT, templates.size());
+        assertEquals(TEMPLATE_COUNT, _loads);
+        TemplateInfo info = templates.get("tmpl-7");
+        assertEquals(7, info.getId());
+        assertEquals(4096 * 7, info.getSize());
+        assertTrue(info.getInstallPath(), info.getInstallPath().startsWith("template/tmpl/4/7/"));
+
+        _loads = 0;
+        assertEquals(TEMPLATE_COUNT, inventory.listTemplates().size());
+        assertEquals(0, _loads);
+
+        // a rewritten template.properties, a removed template and a new template
+        long later = _past + 60000;
+        createTemplate(2, 5, "data-5-v2");
+        new File(_templateDir, "2/5/" + TemplateLocation.Filename).setLastModified(later);
+        delete(new File(_templateDir, "3/6"));
+        new File(_templateDir, "3").setLastModified(later);
+        createTemplate(9, TEMPLATE_COUNT + 1, "new");
+        age(new File(_templateDir, "9"));
+        _templateDir.setLastModified(later);
+        templates = inventory.listTemplates();
+        assertEquals(2, _loads);
+        assertEquals(TEMPLATE_COUNT, templates.size());
+        assertNull(templates.get("tmpl-6"));
+        assertNotNull(templates.get("tmpl-" + (TEMPLATE_COUNT + 1)));
+        assertTrue(templates.get("tmpl-5").getInstallPath().startsWith("template/tmpl/2/5/"));
+    }
+
+    @Test
+    public void testChecksumComputedOnlyWhenContentChanges() throws Exception {
+        TemplateInventory inventory = createInventory();
+        String installPath = inventory.listTemplates().get("tmpl-11").getInstallPath();
+
+        assertEquals(md5("data-11"), inventory.getChecksum(installPath));
+        assertEquals(md5("data-11"), inventory.getChecksum(installPath));
+        assertEquals(1, _checksums);
+
+        File data = new File(_root, installPath);
+        write(data, "changed-11");
+        data.setLastModified(_past + 1000);
+        assertEquals(md5("changed-11"), inventory.getChecksum(installPath));
+        assertEquals(2, _checksums);
+    }
+
+    @Test
+    public void testChecksumSurvivesRewrittenProperties() throws Exception {
+        TemplateInventory inventory = createInventory();
+        String installPath = inventory.listTemplates().get("tmpl-11").getInstallPath();
+        assertEquals(md5("data-11"), inventory.getChecksum(installPath));
+
+        // the template.properties changes, the data file and so the install path stay the same
+        File properties = new File(_templateDir, "3/11/" + TemplateLocation.Filename);
+        write(properties, "filename=11.vhd\nid=11\npublic=false\nuniquename=tmpl-11\nvirtualsize=" + (4096 * 11) + "\nvhd=true\nvhd.filename=11.vhd\nvhd.size=7\nvhd.virtualsize="
+                + (4096 * 11) + "\n");
+        properties.setLastModified(_past + 60000);
+        _loads = 0;
+        TemplateInfo info = inventory.listTemplates().get("tmpl-11");
+        assertEquals(1, _loads);
+        assertFalse(info.isPublic());
+        assertEquals(installPath, info.getInstallPath());
+
+        assertEquals(md5("data-11"), inventory.getChecksum(installPath));
+        assertEquals(1, _checksums);
+    }
+
+    @Test
+    public void testListingDoesNotWaitForChecksum() throws Exception {
+        final Thread[] lister = new Thread[1];
+        final TemplateInventory inventory = new TemplateInventory(_storage, _root.getAbsolutePath(), _templateDir.getAbsolutePath()) {
+            @Override
+            protected String computeChecksum(File file) throws IOException {
+                // list the templates from another thread while this one is still reading the file
+                final TemplateInventory self = this;
+                lister[0] = new Thread() {
+                    @Override
+                    public void run() {
+                        self.listTemplates();
+                    }
+                };
+                lister[0].start();
+                try {
+                    lister[0].join(30000);
+                } catch (InterruptedException e) {
+                }
+                return super.computeChecksum(file);
+            }
+        };
+        String installPath = inventory.listTemplates().get("tmpl-3").getInstallPath();
+
+        assertEquals(md5("data-3"), inventory.getChecksum(installPath));
+        assertFalse("listTemplates() waited for the checksum", lister[0].isAlive());
+    }
+
+    @Test
+    public void testIndexSurvivesRestart() throws Exception {
+        TemplateInventory inventory = createInventory();
+        String installPath = inventory.listTemplates().get("tmpl-3").getInstallPath();
+        inventory.getChecksum(installPath);
+
+        _loads = 0;
+        _checksums = 0;
+        inventory = createInventory();
+        Map<String, TemplateInfo> templates = inventory.listTemplates();
+        assertEquals(TEMPLATE_COUNT, templates.size());
+        assertEquals(0, _loads);
+        assertEquals(3, templates.get("tmpl-3").getId());
+        assertEquals(md5("data-3"), inventory.getChecksum(installPath));
+        assertEquals(0, _checksums);
+        for (String name : _templateDir.list()) {
+            assertFalse(name, name.endsWith(".tmp"));
+        }
+    }
+
+    @Test
+    public void testRecentlyModifiedFilesAreReadAgain() throws IOException {
+        TemplateInventory inventory = createInventory();
+        createTemplate(2, 5, "data-5");
+        inventory.listTemplates();
+
+        // the template.properties may still change within the same mtime tick
+        _loads = 0;
+        inventory.listTemplates();
+        assertEquals(1, _loads);
+    }
+
+    private TemplateInventory createInventory() {
+        return new TemplateInventory(_storage, _root.getAbsolutePath(), _templateDir.getAbsolutePath()) {
+            @Override
+            protected TemplateInfo loadTemplate(String templatePath) {
+                _loads++;
+                return super.loadTemplate(templatePath);
+            }
+
+            @Override
+            protected String computeChecksum(File file) throws IOException {
+                _checksums++;
+                return super.computeChecksum(file);
+            }
+        };
+    }
+
+    private void createTemplate(long accountId, long id, String content) throws IOException {
+        File dir = new File(_templateDir, accountId + "/" + id);
+        dir.mkdirs();
+        String filename = id + ".vhd";
+        write(new File(dir, filename), content);
+        write(new File(dir, TemplateLocation.Filename), "filename=" + filename + "\nid=" + id + "\npublic=true\nuniquename=tmpl-" + id
+                + "\nvirtualsize=" + (4096 * id) + "\nvhd=true\nvhd.filename=" + filename + "\nvhd.size=" + content.length()
+                + "\nvhd.virtualsize=" + (4096 * id) + "\n");
+    }
+
+    private static void delete(File file) {
+        if (file.isDirectory()) {
+            for (File child : file.listFiles()) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void age(File file) {
+        if (file.isDirectory()) {
+            for (File child : file.listFiles()) {
+                age(child);
+            }
+        }
+        file.setLastModified(_past);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String md5(String content) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        return new BigInteger(1, digest.digest(content.getBytes("UTF-8"))).toString(16);
+    }
+}
@@ -0,0 +1,141 @@
+#!/usr/bin/env bash
+# Copyright 2012 Citrix Systems, Inc. Licensed under the
+# Apache License, Version 2.0 (the "License"); you may not use this
+# file except in compliance with the License.  Citrix Systems, Inc.
+# reserves all rights not expressly granted by the License.
+# You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+# 
+# Automatically generated by addcopyright.py at 04/03/2012
+
+
+
+# edithosts_batch.sh -- edit the dhcphosts file on the routing domain for a batch of vms
+# $1 : file with one entry per line, the same fields edithosts.sh takes:
+#      mac ip host [default router] [nameserver] [static routes], "-" for a missing field
+# the files are rewritten once for the whole batch and dnsmasq is restarted once
+
+entries=$1
+
+DHCP_HOSTS=/etc/dhcphosts.txt
+DHCP_OPTS=/etc/dhcpopts.txt
+DHCP_LEASES=/var/lib/misc/dnsmasq.leases
+HOSTS=/etc/hosts
+
+source /root/func.sh
+
+lock="biglock"
+locked=$(getLockFile $lock)
+if [ "$locked" != "1" ]
+then
+    exit 1
+fi
+
+grep "redundant_router=1" /var/cache/cloud/cmdline > /dev/null
+no_redundant=$?
+
+wait_for_dnsmasq () {
+  local _pid=$(pidof dnsmasq)
+  for i in 0 1 2 3 4 5 6 7 8 9 10
+  do
+    sleep 1
+    _pid=$(pidof dnsmasq)
+    [ "$_pid" != "" ] && break;
+  done
+  [ "$_pid" != "" ] && return 0;
+  logger -t cloud "edithosts_batch: timed out waiting for dnsmasq to start"
+  return 1
+}
+
+[ ! -f "$entries" ] && unlock_exit 1 $lock $locked
+
+logger -t cloud "edithosts_batch: update $(wc -l < $entries) entries to hosts"
+
+[ ! -f $DHCP_HOSTS ] && touch $DHCP_HOSTS
+[ ! -f $DHCP_OPTS ] && touch $DHCP_OPTS
+[ ! -f $DHCP_LEASES ] && touch $DHCP_LEASES
+
+rm -f $DHCP_HOSTS.new $DHCP_LEASES.new $HOSTS.new $DHCP_OPTS.new
+
+# drop the previous entries of every mac, ip and host of the batch, then put in the new ones
+awk -v hosts=$DHCP_HOSTS.new -v leases=$DHCP_LEASES.new -v etchosts=$HOSTS.new -v opts=$DHCP_OPTS.new '
+  FILENAME == ARGV[1] {
+    if (NF < 3) next
+    n++; mac[n] = $1; ip[n] = $2; host[n] = $3
+    dflt[n] = ($4 == "-") ? "" : $4; dns[n] = ($5 == "-") ? "" : $5; routes[n] = ($6 == "-") ? "" : $6
+    macs[$1]; ips[$2]; names[$3]
+    if (dflt[n] != "") { tag[n] = $2; gsub(/\./, "_", tag[n]); tags[tag[n]] }
+    next
+  }
+  FILENAME == ARGV[2] {
+    split($0, f, ","); drop = 0
+    for (i in f) if ((f[i] in macs) || (f[i] in ips) || (f[i] in names)) drop = 1
+    if (!drop) print > hosts
+    next
+  }
+  FILENAME == ARGV[3] {
+    if (!(($2 in macs) || ($3 in ips) || ($4 in names))) print > leases
+    next
+  }
+  FILENAME == ARGV[4] {
+    if (!(($1 in ips) || ($2 in names))) print > etchosts
+    next
+  }
+  FILENAME == ARGV[5] {
+    split($0, f, ",")
+    if (!(f[1] in tags)) print > opts
+    next
+  }
+  END {
+    printf "" >> hosts; printf "" >> leases; printf "" >> etchosts; printf "" >> opts
+    for (i = 1; i <= n; i++) {
+      if (tag[i] != "") {
+        print mac[i] ",set:" tag[i] "," ip[i] "," host[i] ",infinite" > hosts
+        if (dflt[i] != "0.0.0.0") print tag[i] ",3," dflt[i] > opts
+        else print tag[i] ",3," > opts
+        if (dns[i] != "") print tag[i] ",6," dns[i] > opts
+        if (routes[i] != "") print tag[i] ",121," routes[i] > opts
+      } else {
+        print mac[i] "," ip[i] "," host[i] ",infinite" > hosts
+      }
+      print "0 " mac[i] " " ip[i] " " host[i] " *" > leases
+      print ip[i] " " host[i] > etchosts
+    }
+  }' $entries $DHCP_HOSTS $DHCP_LEASES $HOSTS $DHCP_OPTS
+
+if [ $? -ne 0 ]
+then
+  rm -f $DHCP_HOSTS.new $DHCP_LEASES.new $HOSTS.new $DHCP_OPTS.new
+  unlock_exit 1 $lock $locked
+fi
+
+cat $DHCP_HOSTS.new > $DHCP_HOSTS
+cat $DHCP_LEASES.new > $DHCP_LEASES
+cat $HOSTS.new > $HOSTS
+cat $DHCP_OPTS.new > $DHCP_OPTS
+rm -f $DHCP_HOSTS.new $DHCP_LEASES.new $HOSTS.new $DHCP_OPTS.new
+
+#make sure dnsmasq looks into options file
+sed -i /dhcp-optsfile/d /etc/dnsmasq.conf
+echo "dhcp-optsfile=$DHCP_OPTS" >> /etc/dnsmasq.conf
+
+# make dnsmasq re-read files
+pid=$(pidof dnsmasq)
+if [ "$pid" != "" ]
+then
+  service dnsmasq restart
+else
+  if [ $no_redundant -eq 1 ]
+  then
+      wait_for_dnsmasq
+  else
+      logger -t cloud "edithosts_batch: skip wait dnsmasq due to redundant virtual router"
+  fi
+fi
+
+ret=$?
+unlock_exit $ret $lock $locked
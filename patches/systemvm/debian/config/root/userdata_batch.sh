@@ -0,0 +1,105 @@
+#!/bin/bash
+# Copyright 2012 Citrix Systems, Inc. Licensed under the
+# Apache License, Version 2.0 (the "License"); you may not use this
+# file except in compliance with the License.  Citrix Systems, Inc.
+# reserves all rights not expressly granted by the License.
+# You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+# 
+# Automatically generated by addcopyright.py at 04/03/2012
+
+
+
+# userdata_batch.sh -- write the user data and meta data of a batch of vms
+# $1 : file with one entry per line: <vm ip> <folder> <file> <base64 encoded data>
+# the htaccess rules and the metadata tree are written in one pass instead of
+# running userdata.sh for every entry
+
+source /root/func.sh
+
+lock="biglock"
+locked=$(getLockFile $lock)
+if [ "$locked" != "1" ]
+then
+    exit 1
+fi
+
+[ ! -f "$1" ] && unlock_exit 1 $lock $locked
+
+python - "$1" <<'PYEOF'
+import base64
+import os
+import sys
+
+html = "/var/www/html"
+latest = os.path.join(html, "latest", ".htaccess")
+
+def read_lines(path):
+    if not os.path.exists(path):
+        return []
+    f = open(path)
+    lines = [l.rstrip("\n") for l in f.readlines()]
+    f.close()
+    return lines
+
+def write_file(path, data):
+    f = open(path, "w")
+    f.write(data)
+    f.close()
+    os.chmod(path, 0644)
+
+if not os.path.isdir(os.path.dirname(latest)):
+    os.makedirs(os.path.dirname(latest))
+rules = read_lines(latest)
+newRules = []
+manifests = {}
+vmDirs = set()
+
+for line in open(sys.argv[1]):
+    fields = line.rstrip("\n").split(" ", 3)
+    if len(fields) < 3:
+        continue
+    vmIp, folder, name = fields[0], fields[1], fields[2]
+    if folder != "userdata" and folder != "metadata":
+        continue
+    data = ""
+    if len(fields) > 3 and fields[3] != "":
+        data = base64.b64decode(fields[3])
+
+    wanted = ["RewriteRule ^%s$ ../%s/%%{REMOTE_ADDR}/%s [L,NC,QSA]" % (name, folder, name)]
+    if folder == "metadata":
+        wanted.append("RewriteRule ^meta-data/(.+)$  ../%s/%%{REMOTE_ADDR}/$1 [L,NC,QSA]" % folder)
+        wanted.append("RewriteRule ^meta-data/$  ../%s/%%{REMOTE_ADDR}/meta-data [L,NC,QSA]" % folder)
+    for rule in wanted:
+        if rule not in rules and rule not in newRules:
+            newRules.append(rule)
+
+    vmDir = os.path.join(html, folder, vmIp)
+    if vmDir not in vmDirs:
+        vmDirs.add(vmDir)
+        if not os.path.isdir(vmDir):
+            os.makedirs(vmDir)
+        write_file(os.path.join(vmDir, ".htaccess"), "Options -Indexes\nOrder Deny,Allow\nDeny from all\nAllow from %s\n" % vmIp)
+    write_file(os.path.join(vmDir, name), data)
+
+    manifest = os.path.join(vmDir, "meta-data")
+    if manifest not in manifests:
+        manifests[manifest] = read_lines(manifest)
+    if folder == "metadata" and name not in manifests[manifest]:
+        manifests[manifest].append(name)
+
+if newRules:
+    f = open(latest, "a")
+    for rule in newRules:
+        f.write(rule + "\n")
+    f.close()
+
+for manifest, names in manifests.items():
+    write_file(manifest, "".join([n + "\n" for n in names]))
+PYEOF
+
+unlock_exit $? $lock $locked
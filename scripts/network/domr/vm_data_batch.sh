@@ -0,0 +1,54 @@
+#!/bin/bash
+# Copyright 2012 Citrix Systems, Inc. Licensed under the
+# Apache License, Version 2.0 (the "License"); you may not use this
+# file except in compliance with the License.  Citrix Systems, Inc.
+# reserves all rights not expressly granted by the License.
+# You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+# 
+# Automatically generated by addcopyright.py at 04/03/2012
+
+
+
+ 
+
+# vm_data_batch.sh -- apply a batch of user data and meta data entries on domr
+# exits with 3 and prints batch.unsupported when the router does not have
+# /root/userdata_batch.sh yet, the caller falls back to one entry at a time then
+# @VERSION@
+
+usage() {
+  printf "Usage: %s: -r <domr-ip> -f <vm data entries file>\n" $(basename $0) >&2
+  exit 2
+}
+
+cert="/root/.ssh/id_rsa.cloud"
+PORT=3922
+
+domrIp=
+entriesFile=
+
+while getopts 'r:f:' OPTION
+do
+  case $OPTION in
+  r)	domrIp="$OPTARG"
+		;;
+  f)	entriesFile="$OPTARG"
+		;;
+  ?)    usage
+		exit 1
+		;;
+  esac
+done
+
+[ "$domrIp" == "" ] || [ "$entriesFile" == "" ] && usage
+
+dest=/tmp/$(basename $entriesFile)
+scp -P $PORT -o StrictHostKeyChecking=no -i $cert $entriesFile root@$domrIp:$dest >/dev/null || exit 1
+ssh -p $PORT -o StrictHostKeyChecking=no -i $cert root@$domrIp "if [ ! -x /root/userdata_batch.sh ]; then rm -f $dest; echo batch.unsupported; exit 3; fi; /root/userdata_batch.sh $dest; rc=\$?; rm -f $dest; exit \$rc"
+
+exit $?
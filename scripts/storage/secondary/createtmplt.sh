@@ -20,7 +20,7 @@
 # createtmplt.sh -- install a template
 
 usage() {
-  printf "Usage: %s: -t <template-fs> -n <templatename> -f <root disk file> -c <md5 cksum> -d <descr> -h  [-u] [-v]\n" $(basename $0) >&2
+  printf "Usage: %s: -t <template-fs> -n <templatename> -f <root disk file> -c <md5 cksum> [-k] -d <descr> -h  [-u] [-v]\n" $(basename $0) >&2
 }
 
 
@@ -128,8 +128,9 @@ hvm=false
 cleanup=false
 dflag=
 cflag=
+kflag=
 
-while getopts 'vuht:n:f:s:c:d:S:' OPTION
+while getopts 'vuhkt:n:f:s:c:d:S:' OPTION
 do
   case $OPTION in
   t)	tflag=1
@@ -146,6 +147,8 @@ do
   c)	cflag=1
 		cksum="$OPTARG"
 		;;
+  k)	kflag=1
+		;;
   d)	dflag=1
 		descr="$OPTARG"
 		;;
@@ -181,7 +184,8 @@ then
   exit 3
 fi
 
-if [ -n "$cksum" ]
+# -k: the checksum was already verified by the caller
+if [ -n "$cksum" ] && [ "$kflag" != "1" ]
 then
   verify_cksum $cksum $tmpltimg
 fi
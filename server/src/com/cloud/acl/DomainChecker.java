@@ -17,7 +17,6 @@ import javax.ejb.Local;
 import com.cloud.api.BaseCmd;
 import com.cloud.dc.DataCenter;
 import com.cloud.domain.Domain;
-import com.cloud.domain.DomainVO;
 import com.cloud.domain.dao.DomainDao;
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.network.Network;
@@ -158,25 +157,9 @@ public class DomainChecker extends AdapterBase implements SecurityChecker {
 				{
 					return true; //disk offering and account at exact node
 				}
-				else
+				else if(_domainDao.isChildDomain(dof.getDomainId(), account.getDomainId()))
 				{
-		    		DomainVO domainRecord = _domainDao.findById(account.getDomainId());
-		    		if(domainRecord != null)
-		    		{
-		    			while(true)
-		    			{
-		    				if(domainRecord.getId() == dof.getDomainId())
-		    				{
-		    					//found as a child
-		    					return true;
-		    				}
-		    				if(domainRecord.getParent() != null) {
-                                domainRecord = _domainDao.findById(domainRecord.getParent());
-                            } else {
-                                break;
-                            }
-		    			}
-		    		}
+					return true; //found as a child
 				}
 			}
 		}
@@ -206,25 +189,9 @@ public class DomainChecker extends AdapterBase implements SecurityChecker {
 				{
 					return true; //service offering and account at exact node
 				}
-				else
+				else if(_domainDao.isChildDomain(so.getDomainId(), account.getDomainId()))
 				{
-		    		DomainVO domainRecord = _domainDao.findById(account.getDomainId());
-		    		if(domainRecord != null)
-		    		{
-		    			while(true)
-		    			{
-		    				if(domainRecord.getId() == so.getDomainId())
-		    				{
-		    					//found as a child
-		    					return true;
-		    				}
-		    				if(domainRecord.getParent() != null) {
-                                domainRecord = _domainDao.findById(domainRecord.getParent());
-                            } else {
-                                break;
-                            }
-		    			}
-		    		}
+					return true; //found as a child
 				}
 			}
 		}
@@ -246,22 +213,8 @@ public class DomainChecker extends AdapterBase implements SecurityChecker {
 			else if(account.getType() == Account.ACCOUNT_TYPE_NORMAL || account.getType() == Account.ACCOUNT_TYPE_PROJECT){
 				if(account.getDomainId() == zone.getDomainId()){
 					return true; //zone and account at exact node
-				}else{
-		    		DomainVO domainRecord = _domainDao.findById(account.getDomainId());
-		    		if(domainRecord != null)
-		    		{
-		    			while(true){
-		    				if(domainRecord.getId() == zone.getDomainId()){
-		    					//found as a child
-		    					return true;
-		    				}
-		    				if(domainRecord.getParent() != null) {
-                                domainRecord = _domainDao.findById(domainRecord.getParent());
-                            } else {
-                                break;
-                            }
-		    			}
-		    		}
+				}else if(_domainDao.isChildDomain(zone.getDomainId(), account.getDomainId())){
+					return true; //found as a child
 				}
 				//not found
 				return false;
@@ -271,28 +224,10 @@ public class DomainChecker extends AdapterBase implements SecurityChecker {
 			else if(account.getType() == Account.ACCOUNT_TYPE_DOMAIN_ADMIN){
 				if(account.getDomainId() == zone.getDomainId()){
 					return true; //zone and account at exact node
-				}else{
-					DomainVO zoneDomainRecord = _domainDao.findById(zone.getDomainId());
-		    		DomainVO accountDomainRecord = _domainDao.findById(account.getDomainId());
-		    		if(accountDomainRecord != null)
-		    		{
-		    			DomainVO localRecord = accountDomainRecord;
-		    			while(true){
-		    				if(localRecord.getId() == zone.getDomainId()){
-		    					//found as a child
-		    					return true;
-		    				}
-		    				if(localRecord.getParent() != null) {
-                                localRecord = _domainDao.findById(localRecord.getParent());
-                            } else {
-                                break;
-                            }
-		    			}
-		    		}
-		    		//didn't find in upper tree
-		    		if(zoneDomainRecord.getPath().contains(accountDomainRecord.getPath())){
-		    			return true;
-		    		}
+				}else if(_domainDao.isChildDomain(zone.getDomainId(), account.getDomainId())){
+					return true; //found as a child
+				}else if(_domainDao.isChildDomain(account.getDomainId(), zone.getDomainId())){
+					return true; //didn't find in upper tree, zone's domain is below the account's domain
 				}
 				//not found
 				return false;
@@ -298,12 +298,8 @@ public class AlertManagerImpl implements AlertManager {
 	        // Calculate storage pool capacity
 	        List<StoragePoolVO> storagePools = _storagePoolDao.listAll();
 	        for (StoragePoolVO pool : storagePools) {
-	            long disk = _capacityMgr.getAllocatedPoolCapacity(pool, null);
-	            if (pool.isShared()){
-	            	_storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, disk);
-	            }else {
-	            	_storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_LOCAL_STORAGE, disk);
-	            }
+	            // STORAGE_ALLOCATED for shared pools, LOCAL_STORAGE for local ones
+	            _capacityMgr.reconcileAllocatedPoolCapacity(pool);
 	        }
 	        
 	        if (s_logger.isDebugEnabled()) {
@@ -13,20 +13,12 @@
 package com.cloud.api;
 
 import java.lang.reflect.Field;
-import java.text.DateFormat;
-import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
-import com.cloud.api.BaseCmd.CommandType;
-import com.cloud.api.commands.ListEventsCmd;
 import com.cloud.async.AsyncCommandQueued;
 import com.cloud.async.AsyncJobManager;
 import com.cloud.exception.AccountLimitException;
@@ -39,7 +31,6 @@ import com.cloud.utils.IdentityProxy;
 import com.cloud.server.ManagementServer;
 import com.cloud.user.Account;
 import com.cloud.user.UserContext;
-import com.cloud.utils.DateUtil;
 import com.cloud.utils.component.ComponentLocator;
 import com.cloud.utils.component.PluggableService;
 import com.cloud.utils.exception.CSExceptionErrorCode;
@@ -55,6 +46,12 @@ public class ApiDispatcher {
     ComponentLocator _locator;
     AsyncJobManager _asyncMgr;
     IdentityDao _identityDao;
+    CommandDescriptor.IdentityResolver _identityResolver = new CommandDescriptor.IdentityResolver() {
+        @Override
+        public Map<String, Map<String, Long>> getIdentityIds(Map<String, Set<String>> tokensByTable) {
+            return _identityDao.getIdentityIds(tokensByTable);
+        }
+    };
 
     // singleton class
     private static ApiDispatcher s_instance = new ApiDispatcher();
@@ -285,181 +282,7 @@ public class ApiDispatcher {
             }
         }
 
-        Field[] fields = cmd.getClass().getDeclaredFields();
-        Class<?> superClass = cmd.getClass().getSuperclass();
-        while (BaseCmd.class.isAssignableFrom(superClass)) {
-            Field[] superClassFields = superClass.getDeclaredFields();
-            if (superClassFields != null) {
-                Field[] tmpFields = new Field[fields.length + superClassFields.length];
-                System.arraycopy(fields, 0, tmpFields, 0, fields.length);
-                System.arraycopy(superClassFields, 0, tmpFields, fields.length, superClassFields.length);
-                fields = tmpFields;
-            }
-            superClass = superClass.getSuperclass();
-        }
-
-        for (Field field : fields) {
-            Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
-            if ((parameterAnnotation == null) || !parameterAnnotation.expose()) {
-                continue;
-            }
-
-            IdentityMapper identityMapper = field.getAnnotation(IdentityMapper.class);
-
-            Object paramObj = unpackedParams.get(parameterAnnotation.name());
-            if (paramObj == null) {
-                if (parameterAnnotation.required()) {
-                    throw new ServerApiException(BaseCmd.PARAM_ERROR, "Unable to execute API command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) + " due to missing parameter "
-                            + parameterAnnotation.name());
-                }
-                continue;
-            }
-
-            // marshall the parameter into the correct type and set the field value
-            try {
-                setFieldValue(field, cmd, paramObj, parameterAnnotation, identityMapper);
-            } catch (IllegalArgumentException argEx) {
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("Unable to execute API command " + cmd.getCommandName() + " due to invalid value " + paramObj + " for parameter " + parameterAnnotation.name());
-                }
-                throw new ServerApiException(BaseCmd.PARAM_ERROR, "Unable to execute API command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) + " due to invalid value " + paramObj
-                        + " for parameter "
-                        + parameterAnnotation.name());
-            } catch (ParseException parseEx) {
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("Invalid date parameter " + paramObj + " passed to command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8));
-                }
-                throw new ServerApiException(BaseCmd.PARAM_ERROR, "Unable to parse date " + paramObj + " for command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8)
-                        + ", please pass dates in the format mentioned in the api documentation");
-            } catch (InvalidParameterValueException invEx) {
-                throw new ServerApiException(BaseCmd.PARAM_ERROR, "Unable to execute API command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) + " due to invalid value. " + invEx.getMessage());
-            } catch (CloudRuntimeException cloudEx) {
-                // FIXME: Better error message? This only happens if the API command is not executable, which typically
-// means
-                // there was
-                // and IllegalAccessException setting one of the parameters.
-                throw new ServerApiException(BaseCmd.INTERNAL_ERROR, "Internal error executing API command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8));
-            }
-        }
-    }
-
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-    private static void setFieldValue(Field field, BaseCmd cmdObj, Object paramObj, Parameter annotation, IdentityMapper identityMapper) throws IllegalArgumentException, ParseException {
-        try {
-            field.setAccessible(true);
-            CommandType fieldType = annotation.type();
-            switch (fieldType) {
-            case BOOLEAN:
-                field.set(cmdObj, Boolean.valueOf(paramObj.toString()));
-                break;
-            case DATE:
-                // This piece of code is for maintaining backward compatibility and support both the date formats(Bug
-// 9724)
-                // Do the date massaging for ListEventsCmd only
-                if (cmdObj instanceof ListEventsCmd) {
-                    boolean isObjInNewDateFormat = isObjInNewDateFormat(paramObj.toString());
-                    if (isObjInNewDateFormat) {
-                        DateFormat newFormat = BaseCmd.NEW_INPUT_FORMAT;
-                        synchronized (newFormat) {
-                            field.set(cmdObj, newFormat.parse(paramObj.toString()));
-                        }
-                    } else {
-                        DateFormat format = BaseCmd.INPUT_FORMAT;
-                        synchronized (format) {
-                            Date date = format.parse(paramObj.toString());
-                            if (field.getName().equals("startDate")) {
-                                date = massageDate(date, 0, 0, 0);
-                            } else if (field.getName().equals("endDate")) {
-                                date = massageDate(date, 23, 59, 59);
-                            }
-                            field.set(cmdObj, date);
-                        }
-                    }
-                } else {
-                    DateFormat format = BaseCmd.INPUT_FORMAT;
-                    format.setLenient(false);
-                    synchronized (format) {
-                        field.set(cmdObj, format.parse(paramObj.toString()));
-                    }
-                }
-                break;
-            case FLOAT:
-                field.set(cmdObj, Float.valueOf(paramObj.toString()));
-                break;
-            case INTEGER:
-                field.set(cmdObj, Integer.valueOf(paramObj.toString()));
-                break;
-            case LIST:
-                List listParam = new ArrayList();
-                StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
-                while (st.hasMoreTokens()) {
-                    String token = st.nextToken();
-                    CommandType listType = annotation.collectionType();
-                    switch (listType) {
-                    case INTEGER:
-                        listParam.add(Integer.valueOf(token));
-                        break;
-                    case LONG: {
-                        Long val = null;
-                        if (identityMapper != null)
-                            val = s_instance._identityDao.getIdentityId(identityMapper, token);
-                        else
-                            val = Long.valueOf(token);
-
-                        listParam.add(val);
-                    }
-                        break;
-                    case SHORT:
-                        listParam.add(Short.valueOf(token));
-                    case STRING:
-                        listParam.add(token);
-                        break;
-                    }
-                }
-                field.set(cmdObj, listParam);
-                break;
-            case LONG:
-                if (identityMapper != null)
-                    field.set(cmdObj, s_instance._identityDao.getIdentityId(identityMapper, paramObj.toString()));
-                else
-                    field.set(cmdObj, Long.valueOf(paramObj.toString()));
-                break;
-            case SHORT:
-                field.set(cmdObj, Short.valueOf(paramObj.toString()));
-                break;
-            case STRING:
-                if ((paramObj != null) && paramObj.toString().length() > annotation.length()) {
-                    s_logger.error("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
-                    throw new InvalidParameterValueException("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
-                }
-                field.set(cmdObj, paramObj.toString());
-                break;
-            case TZDATE:
-                field.set(cmdObj, DateUtil.parseTZDateString(paramObj.toString()));
-                break;
-            case MAP:
-            default:
-                field.set(cmdObj, paramObj);
-                break;
-            }
-        } catch (IllegalAccessException ex) {
-            s_logger.error("Error initializing command " + cmdObj.getCommandName() + ", field " + field.getName() + " is not accessible.");
-            throw new CloudRuntimeException("Internal error initializing parameters for command " + cmdObj.getCommandName() + " [field " + field.getName() + " is not accessible]");
-        }
-    }
-
-    private static boolean isObjInNewDateFormat(String string) {
-        Matcher matcher = BaseCmd.newInputDateFormat.matcher(string);
-        return matcher.matches();
-    }
-
-    private static Date massageDate(Date date, int hourOfDay, int minute, int second) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(date);
-        cal.set(Calendar.HOUR_OF_DAY, hourOfDay);
-        cal.set(Calendar.MINUTE, minute);
-        cal.set(Calendar.SECOND, second);
-        return cal.getTime();
+        CommandDescriptor.get(cmd.getClass()).bind(cmd, unpackedParams, s_instance._identityResolver);
     }
 
     public static void plugService(BaseCmd cmd) {
@@ -467,38 +290,28 @@ public class ApiDispatcher {
         if (!ApiServer.isPluggableServiceCommand(cmd.getClass().getName())) {
             return;
         }
-        Class<?> clazz = cmd.getClass();
         ComponentLocator locator = ComponentLocator.getLocator(ManagementServer.Name);
-        do {
-            Field[] fields = clazz.getDeclaredFields();
-            for (Field field : fields) {
-                PlugService plugService = field.getAnnotation(PlugService.class);
-                if (plugService == null) {
-                    continue;
-                }
-                Class<?> fc = field.getType();
-                Object instance = null;
-                if (PluggableService.class.isAssignableFrom(fc)) {
-                    instance = locator.getPluggableService(fc);
-                }
+        for (Field field : CommandDescriptor.get(cmd.getClass()).getPluggedServices()) {
+            Class<?> fc = field.getType();
+            Object instance = null;
+            if (PluggableService.class.isAssignableFrom(fc)) {
+                instance = locator.getPluggableService(fc);
+            }
 
-                if (instance == null) {
-                    throw new CloudRuntimeException("Unable to plug service " + fc.getSimpleName() + " in command " + clazz.getSimpleName());
-                }
+            if (instance == null) {
+                throw new CloudRuntimeException("Unable to plug service " + fc.getSimpleName() + " in command " + field.getDeclaringClass().getSimpleName());
+            }
 
-                try {
-                    field.setAccessible(true);
-                    field.set(cmd, instance);
-                } catch (IllegalArgumentException e) {
-                    s_logger.error("IllegalArgumentException at plugService for command " + cmd.getCommandName() + ", field " + field.getName());
-                    throw new CloudRuntimeException("Internal error at plugService for command " + cmd.getCommandName() + " [Illegal argumet at field " + field.getName() + "]");
-                } catch (IllegalAccessException e) {
-                    s_logger.error("Error at plugService for command " + cmd.getCommandName() + ", field " + field.getName() + " is not accessible.");
-                    throw new CloudRuntimeException("Internal error at plugService for command " + cmd.getCommandName() + " [field " + field.getName() + " is not accessible]");
-                }
+            try {
+                field.set(cmd, instance);
+            } catch (IllegalArgumentException e) {
+                s_logger.error("IllegalArgumentException at plugService for command " + cmd.getCommandName() + ", field " + field.getName());
+                throw new CloudRuntimeException("Internal error at plugService for command " + cmd.getCommandName() + " [Illegal argumet at field " + field.getName() + "]");
+            } catch (IllegalAccessException e) {
+                s_logger.error("Error at plugService for command " + cmd.getCommandName() + ", field " + field.getName() + " is not accessible.");
+                throw new CloudRuntimeException("Internal error at plugService for command " + cmd.getCommandName() + " [field " + field.getName() + " is not accessible]");
             }
-            clazz = clazz.getSuperclass();
-        } while (clazz != Object.class && clazz != null);
+        }
     }
     
     
@@ -12,6 +12,9 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.api;
 
+import java.lang.reflect.Modifier;
+
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.cloud.utils.IdentityProxy;
 
@@ -20,6 +23,7 @@ import com.cloud.utils.IdentityProxy;
  */
 public class ApiResponseGsonHelper {
     private static final GsonBuilder s_gBuilder;
+    private static final Gson s_gson;
     
     static {
         s_gBuilder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
@@ -27,9 +31,17 @@ public class ApiResponseGsonHelper {
         s_gBuilder.registerTypeAdapter(ResponseObject.class, new ResponseObjectTypeAdapter());
         s_gBuilder.registerTypeAdapter(String.class, new EncodedStringTypeAdapter());
         s_gBuilder.registerTypeAdapter(IdentityProxy.class, new IdentityTypeAdapter());
+        s_gson = s_gBuilder.excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
     }
 
     public static GsonBuilder getBuilder() {
         return s_gBuilder;
     }
+
+    /**
+     * @return the Gson instance api responses are serialized with, Gson instances are thread safe so it is shared.
+     */
+    public static Gson getGson() {
+        return s_gson;
+    }
 }
@@ -25,6 +25,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -34,6 +35,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -141,6 +143,22 @@ public class ApiServer implements HttpRequestHandler {
     private static List<String> s_pluggableServiceCommands = null;
     private static final DateFormat _dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
 
+    // initialized HmacSHA1 instances of the most recently used secret keys, per api worker thread
+    private static final int MAX_MACS_PER_THREAD = 16;
+    private static final ThreadLocal<Map<String, Mac>> s_macs = new ThreadLocal<Map<String, Mac>>() {
+        @Override
+        protected Map<String, Mac> initialValue() {
+            return new LinkedHashMap<String, Mac>(MAX_MACS_PER_THREAD, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Mac> eldest) {
+                    return size() > MAX_MACS_PER_THREAD;
+                }
+            };
+        }
+    };
+
     private static ExecutorService _executor = new ThreadPoolExecutor(10, 150, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("ApiServer"));
 
     static {
@@ -410,8 +428,7 @@ public class ApiServer implements HttpRequestHandler {
                 }
                 String cmdClassName = _apiCommands.getProperty(command[0]);
                 if (cmdClassName != null) {
-                    Class<?> cmdClass = Class.forName(cmdClassName);
-                    BaseCmd cmdObj = (BaseCmd) cmdClass.newInstance();
+                    BaseCmd cmdObj = CommandDescriptor.forName(cmdClassName).newInstance();
                     cmdObj.setFullUrlParams(paramMap);
                     cmdObj.setResponseType(responseType);
                     // This is where the command is either serialized, or directly dispatched
@@ -611,7 +628,7 @@ public class ApiServer implements HttpRequestHandler {
             String apiKey = null;
             String secretKey = null;
             String signature = null;
-            String unsignedRequest = null;
+            StringBuilder unsignedRequest = new StringBuilder(256);
 
             String[] command = (String[]) requestParameters.get("command");
             if (command == null) {
@@ -669,11 +686,11 @@ public class ApiServer implements HttpRequestHandler {
                         expires = paramValue;
                     }
 
-                    if (unsignedRequest == null) {
-                        unsignedRequest = paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
-                    } else {
-                        unsignedRequest = unsignedRequest + "&" + paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
+                    if (unsignedRequest.length() > 0) {
+                        unsignedRequest.append('&');
                     }
+                    unsignedRequest.append(paramName).append('=');
+                    appendEncodedParameterValue(unsignedRequest, paramValue);
                 }
             }
 
@@ -740,14 +757,7 @@ public class ApiServer implements HttpRequestHandler {
                 return false;
             }
 
-            unsignedRequest = unsignedRequest.toLowerCase();
-
-            Mac mac = Mac.getInstance("HmacSHA1");
-            SecretKeySpec keySpec = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
-            mac.init(keySpec);
-            mac.update(unsignedRequest.getBytes());
-            byte[] encryptedBytes = mac.doFinal();
-            String computedSignature = Base64.encodeBytes(encryptedBytes);
+            String computedSignature = computeSignature(secretKey, unsignedRequest.toString().toLowerCase());
             boolean equalSig = signature.equals(computedSignature);
             if (!equalSig) {
                 s_logger.info("User signature: " + signature + " is not equaled to computed signature: " + computedSignature);
@@ -762,6 +772,33 @@ public class ApiServer implements HttpRequestHandler {
         return false;
     }
     
+    /**
+     * Appends the URL encoded value with spaces encoded as %20, the way clients encode the request they sign.
+     */
+    static void appendEncodedParameterValue(StringBuilder sb, String value) throws UnsupportedEncodingException {
+        String encoded = URLEncoder.encode(value, "UTF-8");
+        for (int i = 0; i < encoded.length(); i++) {
+            char c = encoded.charAt(i);
+            if (c == '+') {
+                sb.append("%20");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    static String computeSignature(String secretKey, String unsignedRequest) throws GeneralSecurityException {
+        Map<String, Mac> macs = s_macs.get();
+        Mac mac = macs.get(secretKey);
+        if (mac == null) {
+            mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(secretKey.getBytes(), "HmacSHA1"));
+            macs.put(secretKey, mac);
+        }
+        // doFinal() resets the mac for the next request signed with this key
+        return Base64.encodeBytes(mac.doFinal(unsignedRequest.getBytes()));
+    }
+
     public Long fetchDomainId(String domainUUID){
         ComponentLocator locator = ComponentLocator.getLocator(ManagementServer.Name);
         IdentityDao identityDao = locator.getDao(IdentityDao.class);
@@ -1032,8 +1069,7 @@ public class ApiServer implements HttpRequestHandler {
                     String cmdName = ((String[]) cmdObj)[0];
                     cmdClassName = _apiCommands.getProperty(cmdName);
                     if (cmdClassName != null) {
-                        Class<?> claz = Class.forName(cmdClassName);
-                        responseName = ((BaseCmd) claz.newInstance()).getCommandName();
+                        responseName = CommandDescriptor.forName(cmdClassName).newInstance().getCommandName();
                     } else {
                         responseName = "errorresponse";
                     }
@@ -0,0 +1,402 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.api;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.api.BaseCmd.CommandType;
+import com.cloud.api.commands.ListEventsCmd;
+import com.cloud.exception.InvalidParameterValueException;
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Reflection metadata of an API command class, built the first time the command is used and shared by every request
+ * after that: the constructor, the exposed @Parameter fields in binding order and the @PlugService fields, all made
+ * accessible once.  bind() marshals the request parameters into a new command instance, resolving the uuids of all
+ * identity mapped parameters of the request with one IdentityResolver call.
+ */
+public class CommandDescriptor {
+    private static final Logger s_logger = Logger.getLogger(CommandDescriptor.class.getName());
+
+    private static final Map<Class<?>, CommandDescriptor> s_descriptors = new ConcurrentHashMap<Class<?>, CommandDescriptor>();
+    private static final Map<String, CommandDescriptor> s_descriptorsByName = new ConcurrentHashMap<String, CommandDescriptor>();
+
+    private final Class<? extends BaseCmd> _cmdClass;
+    private final Constructor<? extends BaseCmd> _constructor;
+    private final List<ParameterField> _parameters;
+    private final List<Field> _pluggedServices;
+    private final boolean _listEventsCmd;
+
+    /**
+     * Resolves uuids, or database ids, of entities to their database ids.
+     */
+    public interface IdentityResolver {
+        /**
+         * @param tokensByTable uuids or ids to resolve, by table name.
+         * @return the database id of every token found by table name and token, with an entry for every table, or
+         *         null if the lookup failed.
+         */
+        Map<String, Map<String, Long>> getIdentityIds(Map<String, Set<String>> tokensByTable);
+    }
+
+    public static class ParameterField {
+        final Field field;
+        final Parameter annotation;
+        final String name;
+        final CommandType type;
+        final CommandType collectionType;
+        final String identityTable;
+
+        ParameterField(Field field, Parameter annotation, IdentityMapper identityMapper) {
+            this.field = field;
+            this.annotation = annotation;
+            this.name = annotation.name();
+            this.type = annotation.type();
+            this.collectionType = annotation.collectionType();
+            this.identityTable = identityMapper != null ? identityMapper.entityTableName() : null;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        boolean isIdentity() {
+            return identityTable != null && (type == CommandType.LONG || (type == CommandType.LIST && collectionType == CommandType.LONG));
+        }
+    }
+
+    public static CommandDescriptor get(Class<? extends BaseCmd> cmdClass) {
+        CommandDescriptor descriptor = s_descriptors.get(cmdClass);
+        if (descriptor == null) {
+            descriptor = new CommandDescriptor(cmdClass);
+            s_descriptors.put(cmdClass, descriptor);
+        }
+        return descriptor;
+    }
+
+    public static CommandDescriptor forName(String cmdClassName) throws ClassNotFoundException {
+        CommandDescriptor descriptor = s_descriptorsByName.get(cmdClassName);
+        if (descriptor == null) {
+            descriptor = get(Class.forName(cmdClassName).asSubclass(BaseCmd.class));
+            s_descriptorsByName.put(cmdClassName, descriptor);
+        }
+        return descriptor;
+    }
+
+    protected CommandDescriptor(Class<? extends BaseCmd> cmdClass) {
+        _cmdClass = cmdClass;
+        _listEventsCmd = ListEventsCmd.class.isAssignableFrom(cmdClass);
+
+        Constructor<? extends BaseCmd> constructor = null;
+        try {
+            constructor = cmdClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            // abstract commands and test doubles, newInstance() reports it
+        }
+        _constructor = constructor;
+
+        // same order as the declared fields walk always used: the command class first, then its super classes
+        List<ParameterField> parameters = new ArrayList<ParameterField>();
+        Class<?> clazz = cmdClass;
+        while (clazz != null && BaseCmd.class.isAssignableFrom(clazz)) {
+            for (Field field : clazz.getDeclaredFields()) {
+                Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
+                if ((parameterAnnotation == null) || !parameterAnnotation.expose()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                parameters.add(new ParameterField(field, parameterAnnotation, field.getAnnotation(IdentityMapper.class)));
+            }
+            clazz = clazz.getSuperclass();
+        }
+        _parameters = Collections.unmodifiableList(parameters);
+
+        List<Field> pluggedServices = new ArrayList<Field>();
+        for (clazz = cmdClass; clazz != Object.class && clazz != null; clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (field.getAnnotation(PlugService.class) != null) {
+                    field.setAccessible(true);
+                    pluggedServices.add(field);
+                }
+            }
+        }
+        _pluggedServices = Collections.unmodifiableList(pluggedServices);
+    }
+
+    public Class<? extends BaseCmd> getCmdClass() {
+        return _cmdClass;
+    }
+
+    public List<ParameterField> getParameters() {
+        return _parameters;
+    }
+
+    public List<Field> getPluggedServices() {
+        return _pluggedServices;
+    }
+
+    public BaseCmd newInstance() throws InstantiationException, IllegalAccessException {
+        if (_constructor == null) {
+            throw new InstantiationException(_cmdClass.getName() + " has no default constructor");
+        }
+        try {
+            return _constructor.newInstance();
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            InstantiationException ie = new InstantiationException("Unable to create " + _cmdClass.getName());
+            ie.initCause(e.getCause());
+            throw ie;
+        }
+    }
+
+    /**
+     * Sets the exposed parameters of cmd from the unpacked request parameters.
+     */
+    public void bind(BaseCmd cmd, Map<String, Object> unpackedParams, IdentityResolver resolver) {
+        Map<String, Map<String, Long>> identities = resolveIdentities(unpackedParams, resolver);
+
+        for (ParameterField parameter : _parameters) {
+            Parameter parameterAnnotation = parameter.annotation;
+            Object paramObj = unpackedParams.get(parameter.name);
+            if (paramObj == null) {
+                if (parameterAnnotation.required()) {
+                    throw new ServerApiException(BaseCmd.PARAM_ERROR, "Unable to execute API command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) + " due to missing parameter "
+                            + parameterAnnotation.name());
+                }
+                continue;
+            }
+
+            // marshall the parameter into the correct type and set the field value
+            try {
+                setFieldValue(parameter, cmd, paramObj, identities);
+            } catch (IllegalArgumentException argEx) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Unable to execute API command " + cmd.getCommandName() + " due to invalid value " + paramObj + " for parameter " + parameterAnnotation.name());
+                }
+                throw new ServerApiException(BaseCmd.PARAM_ERROR, "Unable to execute API command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) + " due to invalid value " + paramObj
+                        + " for parameter "
+                        + parameterAnnotation.name());
+            } catch (ParseException parseEx) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Invalid date parameter " + paramObj + " passed to command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8));
+                }
+                throw new ServerApiException(BaseCmd.PARAM_ERROR, "Unable to parse date " + paramObj + " for command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8)
+                        + ", please pass dates in the format mentioned in the api documentation");
+            } catch (InvalidParameterValueException invEx) {
+                throw new ServerApiException(BaseCmd.PARAM_ERROR, "Unable to execute API command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8) + " due to invalid value. " + invEx.getMessage());
+            } catch (CloudRuntimeException cloudEx) {
+                // This only happens if the API command is not executable, which typically means there was an
+                // IllegalAccessException setting one of the parameters.
+                throw new ServerApiException(BaseCmd.INTERNAL_ERROR, "Internal error executing API command " + cmd.getCommandName().substring(0, cmd.getCommandName().length() - 8));
+            }
+        }
+    }
+
+    /**
+     * Looks up the uuids of every identity mapped parameter present in the request in one go.  Tokens that are not
+     * found are reported when their parameter is set, in parameter order, as they always were.
+     */
+    private Map<String, Map<String, Long>> resolveIdentities(Map<String, Object> unpackedParams, IdentityResolver resolver) {
+        Map<String, Set<String>> tokensByTable = null;
+        for (ParameterField parameter : _parameters) {
+            if (!parameter.isIdentity()) {
+                continue;
+            }
+            Object paramObj = unpackedParams.get(parameter.name);
+            if (paramObj == null) {
+                continue;
+            }
+            if (tokensByTable == null) {
+                tokensByTable = new HashMap<String, Set<String>>();
+            }
+            Set<String> tokens = tokensByTable.get(parameter.identityTable);
+            if (tokens == null) {
+                tokens = new HashSet<String>();
+                tokensByTable.put(parameter.identityTable, tokens);
+            }
+            if (parameter.type == CommandType.LIST) {
+                StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                while (st.hasMoreTokens()) {
+                    tokens.add(st.nextToken());
+                }
+            } else {
+                tokens.add(paramObj.toString());
+            }
+        }
+        if (tokensByTable == null) {
+            return null;
+        }
+        return resolver.getIdentityIds(tokensByTable);
+    }
+
+    private static Long getIdentityId(String table, String token, Map<String, Map<String, Long>> identities) {
+        if (identities == null) {
+            // the lookup failed, it has been logged already
+            return null;
+        }
+        Map<String, Long> ids = identities.get(table);
+        Long id = ids != null ? ids.get(token) : null;
+        if (id != null) {
+            return id;
+        }
+
+        long value = 0;
+        try {
+            value = Long.parseLong(token);
+        } catch (NumberFormatException e) {
+            // a uuid
+        }
+        if (value == -1L) {
+            return value;
+        }
+        throw new InvalidParameterValueException("Object " + table + "(uuid: " + token + ") does not exist.");
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void setFieldValue(ParameterField parameter, BaseCmd cmdObj, Object paramObj, Map<String, Map<String, Long>> identities) throws IllegalArgumentException, ParseException {
+        Field field = parameter.field;
+        try {
+            switch (parameter.type) {
+            case BOOLEAN:
+                field.set(cmdObj, Boolean.valueOf(paramObj.toString()));
+                break;
+            case DATE:
+                // This piece of code is for maintaining backward compatibility and support both the date formats(Bug 9724)
+                // Do the date massaging for ListEventsCmd only
+                if (_listEventsCmd) {
+                    boolean isObjInNewDateFormat = isObjInNewDateFormat(paramObj.toString());
+                    if (isObjInNewDateFormat) {
+                        DateFormat newFormat = BaseCmd.NEW_INPUT_FORMAT;
+                        synchronized (newFormat) {
+                            field.set(cmdObj, newFormat.parse(paramObj.toString()));
+                        }
+                    } else {
+                        DateFormat format = BaseCmd.INPUT_FORMAT;
+                        synchronized (format) {
+                            Date date = format.parse(paramObj.toString());
+                            if (field.getName().equals("startDate")) {
+                                date = massageDate(date, 0, 0, 0);
+                            } else if (field.getName().equals("endDate")) {
+                                date = massageDate(date, 23, 59, 59);
+                            }
+                            field.set(cmdObj, date);
+                        }
+                    }
+                } else {
+                    DateFormat format = BaseCmd.INPUT_FORMAT;
+                    format.setLenient(false);
+                    synchronized (format) {
+                        field.set(cmdObj, format.parse(paramObj.toString()));
+                    }
+                }
+                break;
+            case FLOAT:
+                field.set(cmdObj, Float.valueOf(paramObj.toString()));
+                break;
+            case INTEGER:
+                field.set(cmdObj, Integer.valueOf(paramObj.toString()));
+                break;
+            case LIST:
+                List listParam = new ArrayList();
+                StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                while (st.hasMoreTokens()) {
+                    String token = st.nextToken();
+                    switch (parameter.collectionType) {
+                    case INTEGER:
+                        listParam.add(Integer.valueOf(token));
+                        break;
+                    case LONG: {
+                        Long val = null;
+                        if (parameter.identityTable != null)
+                            val = getIdentityId(parameter.identityTable, token, identities);
+                        else
+                            val = Long.valueOf(token);
+
+                        listParam.add(val);
+                    }
+                        break;
+                    case SHORT:
+                        listParam.add(Short.valueOf(token));
+                    case STRING:
+                        listParam.add(token);
+                        break;
+                    }
+                }
+                field.set(cmdObj, listParam);
+                break;
+            case LONG:
+                if (parameter.identityTable != null)
+                    field.set(cmdObj, getIdentityId(parameter.identityTable, paramObj.toString(), identities));
+                else
+                    field.set(cmdObj, Long.valueOf(paramObj.toString()));
+                break;
+            case SHORT:
+                field.set(cmdObj, Short.valueOf(paramObj.toString()));
+                break;
+            case STRING:
+                if ((paramObj != null) && paramObj.toString().length() > parameter.annotation.length()) {
+                    s_logger.error("Value greater than max allowed length " + parameter.annotation.length() + " for param: " + field.getName());
+                    throw new InvalidParameterValueException("Value greater than max allowed length " + parameter.annotation.length() + " for param: " + field.getName());
+                }
+                field.set(cmdObj, paramObj.toString());
+                break;
+            case TZDATE:
+                field.set(cmdObj, DateUtil.parseTZDateString(paramObj.toString()));
+                break;
+            case MAP:
+            default:
+                field.set(cmdObj, paramObj);
+                break;
+            }
+        } catch (IllegalAccessException ex) {
+            s_logger.error("Error initializing command " + cmdObj.getCommandName() + ", field " + field.getName() + " is not accessible.");
+            throw new CloudRuntimeException("Internal error initializing parameters for command " + cmdObj.getCommandName() + " [field " + field.getName() + " is not accessible]");
+        }
+    }
+
+    private static boolean isObjInNewDateFormat(String string) {
+        Matcher matcher = BaseCmd.newInputDateFormat.matcher(string);
+        return matcher.matches();
+    }
+
+    private static Date massageDate(Date date, int hourOfDay, int minute, int second) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+        cal.set(Calendar.HOUR_OF_DAY, hourOfDay);
+        cal.set(Calendar.MINUTE, minute);
+        cal.set(Calendar.SECOND, second);
+        return cal.getTime();
+    }
+}
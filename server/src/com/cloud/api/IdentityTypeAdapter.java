@@ -13,10 +13,8 @@
 package com.cloud.api;
 
 import java.lang.reflect.Type;
-import java.util.ArrayList;
 
-import com.cloud.uuididentity.dao.IdentityDao;
-import com.cloud.uuididentity.dao.IdentityDaoImpl;
+import com.cloud.api.response.ApiResponseSerializer;
 import com.google.gson.Gson;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
@@ -30,6 +28,7 @@ import com.cloud.utils.IdentityProxy;
 
 
 public class IdentityTypeAdapter implements JsonSerializer<IdentityProxy>, JsonDeserializer<IdentityProxy> {
+    private static final Gson s_gson = new Gson();
 	
 	@Override
 	public JsonElement serialize(IdentityProxy src, Type srcType, JsonSerializationContext context) {
@@ -38,9 +37,8 @@ public class IdentityTypeAdapter implements JsonSerializer<IdentityProxy>, JsonD
 			if(src.getValue() == null)
 				return context.serialize(null);
 	
-			IdentityDao identityDao = new IdentityDaoImpl();
 			if(src.getTableName() != null) {
-				String uuid = identityDao.getIdentityUuid(src.getTableName(), String.valueOf(src.getValue()));
+				String uuid = ApiResponseSerializer.getIdentityUuid(src.getTableName(), src.getValue());
 				if(uuid == null)
 					return context.serialize(null);
 				
@@ -59,7 +57,7 @@ public class IdentityTypeAdapter implements JsonSerializer<IdentityProxy>, JsonD
 				return new JsonPrimitive(String.valueOf(src.getValue()));
 			}
 		} else {
-	        return new Gson().toJsonTree(src);
+	        return s_gson.toJsonTree(src);
 		}
 	}
 	
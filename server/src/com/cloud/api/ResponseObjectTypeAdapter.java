@@ -39,7 +39,7 @@ public class ResponseObjectTypeAdapter implements JsonSerializer<ResponseObject>
             obj.addProperty("errortext", ((ExceptionResponse) responseObj).getErrorText());
             return obj;
         } else {
-            obj.add(responseObj.getObjectName(), ApiResponseGsonHelper.getBuilder().create().toJsonTree(responseObj));
+            obj.add(responseObj.getObjectName(), ApiResponseGsonHelper.getGson().toJsonTree(responseObj));
             return obj;
         }
     }
@@ -12,10 +12,13 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.api;
 
+import java.util.Map;
+
 public class SerializationContext {
     private static ThreadLocal<SerializationContext> s_currentContext = new ThreadLocal<SerializationContext>();
 
     private boolean _doUuidTranslation = false;
+    private Map<String, Map<Long, String>> _identityUuids;
     
     public SerializationContext() {
     }
@@ -36,4 +39,26 @@ public class SerializationContext {
     public void setUuidTranslation(boolean value) {
     	_doUuidTranslation = value;
     }
+
+    public Map<String, Map<Long, String>> getIdentityUuids() {
+        return _identityUuids;
+    }
+
+    /**
+     * Sets the uuids fetched ahead of serializing a response, by table name and id.
+     */
+    public void setIdentityUuids(Map<String, Map<Long, String>> identityUuids) {
+        _identityUuids = identityUuids;
+    }
+
+    /**
+     * @return the uuid fetched ahead for the given row, null if it was not fetched.
+     */
+    public String getIdentityUuid(String tableName, Long id) {
+        if (_identityUuids == null || tableName == null || id == null) {
+            return null;
+        }
+        Map<Long, String> uuids = _identityUuids.get(tableName);
+        return uuids != null ? uuids.get(id) : null;
+    }
 }
@@ -0,0 +1,597 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cloud.api.ApiConstants.VMDetails;
+import com.cloud.api.response.NicResponse;
+import com.cloud.api.response.SecurityGroupResponse;
+import com.cloud.api.response.UserVmResponse;
+import com.cloud.dc.DataCenterVO;
+import com.cloud.dc.dao.DataCenterDao;
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.host.HostVO;
+import com.cloud.host.dao.HostDao;
+import com.cloud.network.IPAddressVO;
+import com.cloud.network.NetworkVO;
+import com.cloud.network.dao.IPAddressDao;
+import com.cloud.network.dao.NetworkDao;
+import com.cloud.network.security.SecurityGroupVMMapVO;
+import com.cloud.network.security.SecurityGroupVO;
+import com.cloud.network.security.dao.SecurityGroupDao;
+import com.cloud.network.security.dao.SecurityGroupVMMapDao;
+import com.cloud.service.ServiceOfferingVO;
+import com.cloud.service.dao.ServiceOfferingDao;
+import com.cloud.storage.StoragePoolVO;
+import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.Volume;
+import com.cloud.storage.VolumeVO;
+import com.cloud.storage.dao.StoragePoolDao;
+import com.cloud.storage.dao.VMTemplateDao;
+import com.cloud.storage.dao.VolumeDao;
+import com.cloud.user.Account;
+import com.cloud.user.AccountVO;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.uservm.UserVm;
+import com.cloud.utils.component.ComponentLocator;
+import com.cloud.utils.db.GenericDao;
+import com.cloud.vm.InstanceGroupVMMapVO;
+import com.cloud.vm.InstanceGroupVO;
+import com.cloud.vm.NicVO;
+import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.dao.InstanceGroupDao;
+import com.cloud.vm.dao.InstanceGroupVMMapDao;
+import com.cloud.vm.dao.NicDao;
+
+/**
+ * Builds the responses for a page of user vms.  The ids of the rows the vms refer to are collected from the whole page
+ * first, and every table is then read with one IN query per batch of ids rather than one query per vm.
+ */
+public class UserVmResponseBuilder {
+    private static final int BATCH_SIZE = 500;
+
+    private final AccountDao _accountDao;
+    private final DomainDao _domainDao;
+    private final InstanceGroupVMMapDao _groupVMMapDao;
+    private final InstanceGroupDao _groupDao;
+    private final DataCenterDao _zoneDao;
+    private final HostDao _hostDao;
+    private final VMTemplateDao _templateDao;
+    private final ServiceOfferingDao _serviceOfferingDao;
+    private final VolumeDao _volumeDao;
+    private final StoragePoolDao _storagePoolDao;
+    private final SecurityGroupVMMapDao _securityGroupVMMapDao;
+    private final SecurityGroupDao _securityGroupDao;
+    private final NicDao _nicDao;
+    private final NetworkDao _networkDao;
+    private final IPAddressDao _ipAddressDao;
+
+    public UserVmResponseBuilder(ComponentLocator locator) {
+        _accountDao = locator.getDao(AccountDao.class);
+        _domainDao = locator.getDao(DomainDao.class);
+        _groupVMMapDao = locator.getDao(InstanceGroupVMMapDao.class);
+        _groupDao = locator.getDao(InstanceGroupDao.class);
+        _zoneDao = locator.getDao(DataCenterDao.class);
+        _hostDao = locator.getDao(HostDao.class);
+        _templateDao = locator.getDao(VMTemplateDao.class);
+        _serviceOfferingDao = locator.getDao(ServiceOfferingDao.class);
+        _volumeDao = locator.getDao(VolumeDao.class);
+        _storagePoolDao = locator.getDao(StoragePoolDao.class);
+        _securityGroupVMMapDao = locator.getDao(SecurityGroupVMMapDao.class);
+        _securityGroupDao = locator.getDao(SecurityGroupDao.class);
+        _nicDao = locator.getDao(NicDao.class);
+        _networkDao = locator.getDao(NetworkDao.class);
+        _ipAddressDao = locator.getDao(IPAddressDao.class);
+    }
+
+    /**
+     * @return a response for each vm, in the order of the vms, with everything but the vm statistics filled in.
+     */
+    public List<UserVmResponse> createUserVmResponses(String objectName, EnumSet<VMDetails> details, Account caller, UserVm... userVms) {
+        boolean callerIsAdmin = caller == null || caller.getType() == Account.ACCOUNT_TYPE_ADMIN;
+        boolean all = details.contains(VMDetails.all);
+
+        Set<Long> vmIds = new HashSet<Long>();
+        Set<Long> accountIds = new HashSet<Long>();
+        Set<Long> zoneIds = new HashSet<Long>();
+        Set<Long> hostIds = new HashSet<Long>();
+        Set<Long> templateIds = new HashSet<Long>();
+        Set<Long> offeringIds = new HashSet<Long>();
+        for (UserVm userVm : userVms) {
+            vmIds.add(userVm.getId());
+            accountIds.add(userVm.getAccountId());
+            zoneIds.add(userVm.getDataCenterIdToDeployIn());
+            if (userVm.getHostId() != null) {
+                hostIds.add(userVm.getHostId());
+            }
+            if (all || details.contains(VMDetails.tmpl)) {
+                templateIds.add(userVm.getTemplateId());
+            }
+            if ((all || details.contains(VMDetails.iso)) && userVm.getIsoId() != null) {
+                templateIds.add(userVm.getIsoId());
+            }
+            if (all || details.contains(VMDetails.servoff)) {
+                offeringIds.add(userVm.getServiceOfferingId());
+            }
+        }
+
+        Map<Long, AccountVO> accounts = fetch(_accountDao, ACCOUNT_ID, accountIds, true);
+        Set<Long> domainIds = new HashSet<Long>();
+        for (AccountVO account : accounts.values()) {
+            domainIds.add(account.getDomainId());
+        }
+        Map<Long, DomainVO> domains = fetch(_domainDao, DOMAIN_ID, domainIds, true);
+        Map<Long, DataCenterVO> zones = fetch(_zoneDao, ZONE_ID, zoneIds, false);
+        Map<Long, HostVO> hosts = fetch(_hostDao, HOST_ID, hostIds, true);
+        Map<Long, VMTemplateVO> templates = fetch(_templateDao, TEMPLATE_ID, templateIds, true);
+        Map<Long, ServiceOfferingVO> offerings = fetch(_serviceOfferingDao, OFFERING_ID, offeringIds, true);
+
+        Map<Long, InstanceGroupVO> groups = new HashMap<Long, InstanceGroupVO>();
+        if (all || details.contains(VMDetails.group)) {
+            groups = fetchGroups(vmIds);
+        }
+
+        Map<Long, VolumeVO> rootVolumes = new HashMap<Long, VolumeVO>();
+        Map<Long, StoragePoolVO> pools = new HashMap<Long, StoragePoolVO>();
+        if (all || details.contains(VMDetails.volume)) {
+            rootVolumes = fetchRootVolumes(vmIds);
+            Set<Long> poolIds = new HashSet<Long>();
+            for (VolumeVO volume : rootVolumes.values()) {
+                if (volume.getPoolId() != null) {
+                    poolIds.add(volume.getPoolId());
+                }
+            }
+            pools = fetch(_storagePoolDao, POOL_ID, poolIds, true);
+        }
+
+        Map<Long, List<SecurityGroupVO>> securityGroups = new HashMap<Long, List<SecurityGroupVO>>();
+        if (all || details.contains(VMDetails.secgrp)) {
+            // security groups are listed only when the zone is security group enabled
+            Set<Long> sgVmIds = new HashSet<Long>();
+            for (UserVm userVm : userVms) {
+                DataCenterVO zone = zones.get(userVm.getDataCenterIdToDeployIn());
+                if (zone != null && zone.isSecurityGroupEnabled()) {
+                    sgVmIds.add(userVm.getId());
+                }
+            }
+            securityGroups = fetchSecurityGroups(sgVmIds);
+        }
+
+        Map<Long, List<NicVO>> nics = new HashMap<Long, List<NicVO>>();
+        Map<Long, NetworkVO> networks = new HashMap<Long, NetworkVO>();
+        if (all || details.contains(VMDetails.nics)) {
+            Set<Long> networkIds = new HashSet<Long>();
+            for (List<NicVO> batch : listInBatches(vmIds, new BatchLister<NicVO>() {
+                @Override
+                public List<NicVO> list(Collection<Long> ids) {
+                    return _nicDao.listByVmIds(ids);
+                }
+            })) {
+                for (NicVO nic : batch) {
+                    addToList(nics, nic.getInstanceId(), nic);
+                    networkIds.add(nic.getNetworkId());
+                }
+            }
+            networks = fetch(_networkDao, NETWORK_ID, networkIds, false);
+        }
+
+        Map<Long, IPAddressVO> ips = new HashMap<Long, IPAddressVO>();
+        for (List<IPAddressVO> batch : listInBatches(vmIds, new BatchLister<IPAddressVO>() {
+            @Override
+            public List<IPAddressVO> list(Collection<Long> ids) {
+                return _ipAddressDao.listByAssociatedVmIds(ids);
+            }
+        })) {
+            for (IPAddressVO ip : batch) {
+                if (!ips.containsKey(ip.getAssociatedWithVmId())) {
+                    ips.put(ip.getAssociatedWithVmId(), ip);
+                }
+            }
+        }
+
+        List<UserVmResponse> vmResponses = new ArrayList<UserVmResponse>();
+        for (UserVm userVm : userVms) {
+            UserVmResponse userVmResponse = new UserVmResponse();
+            Account acct = accounts.get(userVm.getAccountId());
+            if (acct != null) {
+                userVmResponse.setAccountName(acct.getAccountName());
+                userVmResponse.setDomainId(acct.getDomainId());
+                DomainVO domain = domains.get(acct.getDomainId());
+                if (domain != null) {
+                    userVmResponse.setDomainName(domain.getName());
+                }
+            }
+
+            userVmResponse.setId(userVm.getId());
+            userVmResponse.setName(userVm.getHostName());
+            userVmResponse.setCreated(userVm.getCreated());
+
+            userVmResponse.setHaEnable(userVm.isHaEnabled());
+
+            if (userVm.getDisplayName() != null) {
+                userVmResponse.setDisplayName(userVm.getDisplayName());
+            } else {
+                userVmResponse.setDisplayName(userVm.getHostName());
+            }
+
+            if (caller != null && caller.getType() == Account.ACCOUNT_TYPE_ADMIN) {
+                userVmResponse.setInstanceName(userVm.getInstanceName());
+            }
+
+            if (userVm.getPassword() != null) {
+                userVmResponse.setPassword(userVm.getPassword());
+            }
+
+            InstanceGroupVO group = groups.get(userVm.getId());
+            if (group != null) {
+                userVmResponse.setGroup(group.getName());
+                userVmResponse.setGroupId(group.getId());
+            }
+
+            // Data Center Info
+            DataCenterVO zone = zones.get(userVm.getDataCenterIdToDeployIn());
+            if (zone != null) {
+                userVmResponse.setZoneId(zone.getId());
+                userVmResponse.setZoneName(zone.getName());
+            }
+
+            HostVO host = userVm.getHostId() != null ? hosts.get(userVm.getHostId()) : null;
+            // if user is an admin, display host id
+            if (callerIsAdmin && host != null) {
+                userVmResponse.setHostId(host.getId());
+                userVmResponse.setHostName(host.getName());
+            }
+
+            if (userVm.getState() != null) {
+                if (host != null && host.getStatus() != com.cloud.host.Status.Up) {
+                    userVmResponse.setState(VirtualMachine.State.Unknown.toString());
+                } else {
+                    userVmResponse.setState(userVm.getState().toString());
+                }
+            }
+
+            if (caller != null && (caller.getType() == Account.ACCOUNT_TYPE_ADMIN || caller.getType() == Account.ACCOUNT_TYPE_RESOURCE_DOMAIN_ADMIN)) {
+                if (userVm.getHypervisorType() != null) {
+                    userVmResponse.setHypervisor(userVm.getHypervisorType().toString());
+                }
+            }
+
+            if (all || details.contains(VMDetails.tmpl)) {
+                // Template Info
+                VMTemplateVO template = templates.get(userVm.getTemplateId());
+                if (template != null) {
+                    userVmResponse.setTemplateId(userVm.getTemplateId());
+                    userVmResponse.setTemplateName(template.getName());
+                    userVmResponse.setTemplateDisplayText(template.getDisplayText());
+                    userVmResponse.setPasswordEnabled(template.getEnablePassword());
+                } else {
+                    userVmResponse.setTemplateId(-1L);
+                    userVmResponse.setTemplateName("ISO Boot");
+                    userVmResponse.setTemplateDisplayText("ISO Boot");
+                    userVmResponse.setPasswordEnabled(false);
+                }
+            }
+
+            if (all || details.contains(VMDetails.iso)) {
+                // ISO Info
+                VMTemplateVO iso = userVm.getIsoId() != null ? templates.get(userVm.getIsoId()) : null;
+                if (iso != null) {
+                    userVmResponse.setIsoId(iso.getId());
+                    userVmResponse.setIsoName(iso.getName());
+                }
+            }
+
+            ServiceOfferingVO offering = offerings.get(userVm.getServiceOfferingId());
+            if (offering != null) {
+                // Service Offering Info
+                userVmResponse.setServiceOfferingId(offering.getId());
+                userVmResponse.setServiceOfferingName(offering.getName());
+                userVmResponse.setCpuNumber(offering.getCpu());
+                userVmResponse.setCpuSpeed(offering.getSpeed());
+                userVmResponse.setMemory(offering.getRamSize());
+            }
+
+            VolumeVO rootVolume = rootVolumes.get(userVm.getId());
+            if (rootVolume != null) {
+                userVmResponse.setRootDeviceId(rootVolume.getDeviceId());
+                String rootDeviceType = "Not created";
+                if (rootVolume.getPoolId() != null) {
+                    StoragePoolVO storagePool = pools.get(rootVolume.getPoolId());
+                    if (storagePool != null) {
+                        rootDeviceType = storagePool.getPoolType().toString();
+                    }
+                }
+                userVmResponse.setRootDeviceType(rootDeviceType);
+            }
+
+            userVmResponse.setGuestOsId(userVm.getGuestOSId());
+
+            if ((all || details.contains(VMDetails.secgrp)) && zone != null && zone.isSecurityGroupEnabled()) {
+                List<SecurityGroupResponse> securityGroupResponse = new ArrayList<SecurityGroupResponse>();
+                List<SecurityGroupVO> vmGroups = securityGroups.get(userVm.getId());
+                if (vmGroups != null) {
+                    for (SecurityGroupVO grp : vmGroups) {
+                        SecurityGroupResponse resp = new SecurityGroupResponse();
+                        resp.setId(grp.getId());
+                        resp.setName(grp.getName());
+                        resp.setDescription(grp.getDescription());
+                        resp.setObjectName("securitygroup");
+                        securityGroupResponse.add(resp);
+                    }
+                }
+                userVmResponse.setSecurityGroupList(securityGroupResponse);
+            }
+
+            if (all || details.contains(VMDetails.nics)) {
+                List<NicResponse> nicResponses = new ArrayList<NicResponse>();
+                List<NicVO> vmNics = nics.get(userVm.getId());
+                if (vmNics != null) {
+                    for (NicVO nic : vmNics) {
+                        NicResponse nicResponse = new NicResponse();
+                        nicResponse.setId(nic.getId());
+                        nicResponse.setIpaddress(nic.getIp4Address());
+                        nicResponse.setGateway(nic.getGateway());
+                        nicResponse.setNetmask(nic.getNetmask());
+                        nicResponse.setNetworkid(nic.getNetworkId());
+                        if (acct != null && acct.getType() == Account.ACCOUNT_TYPE_ADMIN) {
+                            if (nic.getBroadcastUri() != null) {
+                                nicResponse.setBroadcastUri(nic.getBroadcastUri().toString());
+                            }
+                            if (nic.getIsolationUri() != null) {
+                                nicResponse.setIsolationUri(nic.getIsolationUri().toString());
+                            }
+                        }
+
+                        NetworkVO network = networks.get(nic.getNetworkId());
+                        if (network != null) {
+                            nicResponse.setTrafficType(network.getTrafficType().toString());
+                            nicResponse.setType(network.getGuestType().toString());
+                        }
+                        nicResponse.setIsDefault(nic.isDefaultNic());
+                        nicResponse.setObjectName("nic");
+                        nicResponses.add(nicResponse);
+                    }
+                }
+                userVmResponse.setNics(nicResponses);
+            }
+
+            IPAddressVO ip = ips.get(userVm.getId());
+            if (ip != null) {
+                userVmResponse.setPublicIpId(ip.getId());
+                userVmResponse.setPublicIp(ip.getAddress().addr());
+            }
+
+            userVmResponse.setObjectName(objectName);
+            vmResponses.add(userVmResponse);
+        }
+
+        return vmResponses;
+    }
+
+    private Map<Long, InstanceGroupVO> fetchGroups(Set<Long> vmIds) {
+        // a vm is in one group at most for now, the first mapping wins as with UserVmManager.getGroupForVm()
+        Map<Long, InstanceGroupVMMapVO> vmGroups = new HashMap<Long, InstanceGroupVMMapVO>();
+        for (List<InstanceGroupVMMapVO> batch : listInBatches(vmIds, new BatchLister<InstanceGroupVMMapVO>() {
+            @Override
+            public List<InstanceGroupVMMapVO> list(Collection<Long> ids) {
+                return _groupVMMapDao.listByInstanceIds(ids);
+            }
+        })) {
+            for (InstanceGroupVMMapVO map : batch) {
+                InstanceGroupVMMapVO first = vmGroups.get(map.getInstanceId());
+                if (first == null || first.getId() > map.getId()) {
+                    vmGroups.put(map.getInstanceId(), map);
+                }
+            }
+        }
+
+        Set<Long> groupIds = new HashSet<Long>();
+        for (InstanceGroupVMMapVO map : vmGroups.values()) {
+            groupIds.add(map.getGroupId());
+        }
+        Map<Long, InstanceGroupVO> groups = fetch(_groupDao, GROUP_ID, groupIds, false);
+
+        Map<Long, InstanceGroupVO> result = new HashMap<Long, InstanceGroupVO>();
+        for (InstanceGroupVMMapVO map : vmGroups.values()) {
+            InstanceGroupVO group = groups.get(map.getGroupId());
+            if (group != null) {
+                result.put(map.getInstanceId(), group);
+            }
+        }
+        return result;
+    }
+
+    private Map<Long, VolumeVO> fetchRootVolumes(Set<Long> vmIds) {
+        Map<Long, List<VolumeVO>> volumes = new HashMap<Long, List<VolumeVO>>();
+        for (List<VolumeVO> batch : listInBatches(vmIds, new BatchLister<VolumeVO>() {
+            @Override
+            public List<VolumeVO> list(Collection<Long> ids) {
+                return _volumeDao.listByInstancesAndType(ids, Volume.Type.ROOT);
+            }
+        })) {
+            for (VolumeVO volume : batch) {
+                addToList(volumes, volume.getInstanceId(), volume);
+            }
+        }
+
+        // as with ApiDBUtils.findRootVolume(), a vm with more than one root volume shows none
+        Map<Long, VolumeVO> result = new HashMap<Long, VolumeVO>();
+        for (Map.Entry<Long, List<VolumeVO>> entry : volumes.entrySet()) {
+            if (entry.getValue().size() == 1) {
+                result.put(entry.getKey(), entry.getValue().get(0));
+            }
+        }
+        return result;
+    }
+
+    private Map<Long, List<SecurityGroupVO>> fetchSecurityGroups(Set<Long> vmIds) {
+        List<SecurityGroupVMMapVO> maps = new ArrayList<SecurityGroupVMMapVO>();
+        Set<Long> groupIds = new HashSet<Long>();
+        for (List<SecurityGroupVMMapVO> batch : listInBatches(vmIds, new BatchLister<SecurityGroupVMMapVO>() {
+            @Override
+            public List<SecurityGroupVMMapVO> list(Collection<Long> ids) {
+                return _securityGroupVMMapDao.listByInstanceIds(ids);
+            }
+        })) {
+            for (SecurityGroupVMMapVO map : batch) {
+                maps.add(map);
+                groupIds.add(map.getSecurityGroupId());
+            }
+        }
+        Map<Long, SecurityGroupVO> groups = fetch(_securityGroupDao, SECURITY_GROUP_ID, groupIds, false);
+
+        Map<Long, List<SecurityGroupVO>> result = new HashMap<Long, List<SecurityGroupVO>>();
+        for (SecurityGroupVMMapVO map : maps) {
+            SecurityGroupVO group = groups.get(map.getSecurityGroupId());
+            if (group != null) {
+                addToList(result, map.getInstanceId(), group);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the rows with the given ids a batch at a time.
+     * @return the rows found by id.
+     */
+    private static <T> Map<Long, T> fetch(final GenericDao<T, Long> dao, RowId<T> rowId, Set<Long> ids, final boolean includingRemoved) {
+        Map<Long, T> rows = new HashMap<Long, T>();
+        if (ids.isEmpty()) {
+            return rows;
+        }
+
+        List<List<T>> batches = listInBatches(ids, new BatchLister<T>() {
+            @Override
+            public List<T> list(Collection<Long> batchIds) {
+                return includingRemoved ? dao.listByIdsIncludingRemoved(batchIds) : dao.listByIds(batchIds);
+            }
+        });
+        for (List<T> batch : batches) {
+            for (T row : batch) {
+                rows.put(rowId.getId(row), row);
+            }
+        }
+        return rows;
+    }
+
+    private static <T> List<List<T>> listInBatches(Collection<Long> ids, BatchLister<T> lister) {
+        List<List<T>> batches = new ArrayList<List<T>>();
+        List<Long> batch = new ArrayList<Long>(Math.min(ids.size(), BATCH_SIZE));
+        for (Iterator<Long> it = ids.iterator(); it.hasNext();) {
+            batch.add(it.next());
+            if (batch.size() == BATCH_SIZE || !it.hasNext()) {
+                batches.add(lister.list(batch));
+                batch = new ArrayList<Long>(BATCH_SIZE);
+            }
+        }
+        return batches;
+    }
+
+    private static <K, V> void addToList(Map<K, List<V>> map, K key, V value) {
+        List<V> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<V>();
+            map.put(key, list);
+        }
+        list.add(value);
+    }
+
+    private interface BatchLister<T> {
+        List<T> list(Collection<Long> ids);
+    }
+
+    // the VOs share no interface with getId()
+    private interface RowId<T> {
+        long getId(T row);
+    }
+
+    private static final RowId<AccountVO> ACCOUNT_ID = new RowId<AccountVO>() {
+        @Override
+        public long getId(AccountVO row) {
+            return row.getId();
+        }
+    };
+
+    private static final RowId<DomainVO> DOMAIN_ID = new RowId<DomainVO>() {
+        @Override
+        public long getId(DomainVO row) {
+            return row.getId();
+        }
+    };
+
+    private static final RowId<DataCenterVO> ZONE_ID = new RowId<DataCenterVO>() {
+        @Override
+        public long getId(DataCenterVO row) {
+            return row.getId();
+        }
+    };
+
+    private static final RowId<HostVO> HOST_ID = new RowId<HostVO>() {
+        @Override
+        public long getId(HostVO row) {
+            return row.getId();
+        }
+    };
+
+    private static final RowId<VMTemplateVO> TEMPLATE_ID = new RowId<VMTemplateVO>() {
+        @Override
+        public long getId(VMTemplateVO row) {
+            return row.getId();
+        }
+    };
+
+    private static final RowId<ServiceOfferingVO> OFFERING_ID = new RowId<ServiceOfferingVO>() {
+        @Override
+        public long getId(ServiceOfferingVO row) {
+            return row.getId();
+        }
+    };
+
+    private static final RowId<StoragePoolVO> POOL_ID = new RowId<StoragePoolVO>() {
+        @Override
+        public long getId(StoragePoolVO row) {
+            return row.getId();
+        }
+    };
+
+    private static final RowId<NetworkVO> NETWORK_ID = new RowId<NetworkVO>() {
+        @Override
+        public long getId(NetworkVO row) {
+            return row.getId();
+        }
+    };
+
+    private static final RowId<InstanceGroupVO> GROUP_ID = new RowId<InstanceGroupVO>() {
+        @Override
+        public long getId(InstanceGroupVO row) {
+            return row.getId();
+        }
+    };
+
+    private static final RowId<SecurityGroupVO> SECURITY_GROUP_ID = new RowId<SecurityGroupVO>() {
+        @Override
+        public long getId(SecurityGroupVO row) {
+            return row.getId();
+        }
+    };
+}
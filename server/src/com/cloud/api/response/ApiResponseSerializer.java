@@ -12,13 +12,22 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.api.response;
 
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -29,6 +38,7 @@ import com.cloud.api.ApiDBUtils;
 import com.cloud.api.ApiResponseGsonHelper;
 import com.cloud.api.ApiServer;
 import com.cloud.api.BaseCmd;
+import com.cloud.api.SerializationContext;
 import com.cloud.utils.IdentityProxy;
 import com.cloud.api.ResponseObject;
 import com.cloud.utils.encoding.URLEncoder;
@@ -41,11 +51,47 @@ import com.google.gson.annotations.SerializedName;
 public class ApiResponseSerializer {
     private static final Logger s_logger = Logger.getLogger(ApiResponseSerializer.class.getName());
 
+    private static final Map<Class<?>, ResponseField[]> s_responseFields = new ConcurrentHashMap<Class<?>, ResponseField[]>();
+    private static volatile IdentityDao s_identityDao;
+    private static volatile String s_version;
+
     public static String toSerializedString(ResponseObject result, String responseType) {
-        if (BaseCmd.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
-            return toJSONSerializedString(result);
-        } else {
-            return toXMLSerializedString(result);
+        if (result == null && BaseCmd.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
+            return null;
+        }
+
+        StringWriter out = new StringWriter();
+        try {
+            serialize(result, responseType, out);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to serialize " + result.getResponseName(), e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the response to out as it is serialized, the uuids of all the IdentityProxy fields are fetched up front
+     * with one query instead of one query per field.
+     */
+    public static void serialize(ResponseObject result, String responseType, Writer out) throws IOException {
+        boolean json = BaseCmd.RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType);
+        if (result == null && json) {
+            return;
+        }
+
+        SerializationContext context = SerializationContext.current();
+        Map<String, Map<Long, String>> saved = context.getIdentityUuids();
+        if (!json || context.getUuidTranslation()) {
+            context.setIdentityUuids(fetchIdentityUuids(result));
+        }
+        try {
+            if (json) {
+                writeJSON(result, out);
+            } else {
+                writeXML(result, out);
+            }
+        } finally {
+            context.setIdentityUuids(saved);
         }
     }
 
@@ -61,93 +107,85 @@ public class ApiResponseSerializer {
     }
 
     public static String toJSONSerializedString(ResponseObject result) {
-        if (result != null) {
-            Gson gson = ApiResponseGsonHelper.getBuilder().excludeFieldsWithModifiers(Modifier.TRANSIENT).create();
-            	
-            StringBuilder sb = new StringBuilder();
-
-            sb.append("{ \"" + result.getResponseName() + "\" : ");
-            if (result instanceof ListResponse) {
-                List<? extends ResponseObject> responses = ((ListResponse) result).getResponses();
-                if ((responses != null) && !responses.isEmpty()) {
-
-                    Integer count = ((ListResponse) result).getCount();
-                    String jsonStr = gson.toJson(responses.get(0));                    
-                    jsonStr = unescape(jsonStr);
-
-                    if (count != null && count != 0) {
-                        sb.append("{ \"" + ApiConstants.COUNT + "\":" + ((ListResponse) result).getCount() + " ,\"" + responses.get(0).getObjectName() + "\" : [  " + jsonStr);
-                    }
-                    for (int i = 1; i < count; i++) {
-                        jsonStr = gson.toJson(responses.get(i));
-                        jsonStr = unescape(jsonStr);
-                        sb.append(", " + jsonStr);
-                    }
-                    sb.append(" ] }");
-                } else {
-                    sb.append("{ }");
+        return toSerializedString(result, BaseCmd.RESPONSE_TYPE_JSON);
+    }
+
+    private static void writeJSON(ResponseObject result, Writer out) throws IOException {
+        Gson gson = ApiResponseGsonHelper.getGson();
+        UnescapingWriter unescaped = new UnescapingWriter(out);
+
+        out.write("{ \"" + result.getResponseName() + "\" : ");
+        if (result instanceof ListResponse) {
+            List<? extends ResponseObject> responses = ((ListResponse) result).getResponses();
+            if ((responses != null) && !responses.isEmpty()) {
+                Integer count = ((ListResponse) result).getCount();
+                if (count != null && count != 0) {
+                    out.write("{ \"" + ApiConstants.COUNT + "\":" + count + " ,\"" + responses.get(0).getObjectName() + "\" : [  ");
                 }
-            } else if (result instanceof SuccessResponse) {
-                sb.append("{ \"success\" : \"" + ((SuccessResponse) result).getSuccess() + "\"} ");
-            } else if (result instanceof ExceptionResponse) {            	
-            	String jsonErrorText = gson.toJson((ExceptionResponse) result);
-            	jsonErrorText = unescape(jsonErrorText);
-            	sb.append(jsonErrorText);            	
-            } else {
-                String jsonStr = gson.toJson(result);
-                if ((jsonStr != null) && !"".equals(jsonStr)) {
-                    jsonStr = unescape(jsonStr);
-                    if (result instanceof AsyncJobResponse || result instanceof CreateCmdResponse) {
-                        sb.append(jsonStr);
-                    } else {
-                        sb.append(" { \"" + result.getObjectName() + "\" : " + jsonStr + " } ");
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) {
+                        out.write(", ");
                     }
-                } else {
-                    sb.append("{ }");
+                    gson.toJson(responses.get(i), unescaped);
+                    unescaped.drain();
                 }
+                out.write(" ] }");
+            } else {
+                out.write("{ }");
+            }
+        } else if (result instanceof SuccessResponse) {
+            out.write("{ \"success\" : \"" + ((SuccessResponse) result).getSuccess() + "\"} ");
+        } else if (result instanceof ExceptionResponse) {
+            gson.toJson(result, unescaped);
+            unescaped.drain();
+        } else {
+            boolean wrapped = !(result instanceof AsyncJobResponse || result instanceof CreateCmdResponse);
+            if (wrapped) {
+                out.write(" { \"" + result.getObjectName() + "\" : ");
+            }
+            gson.toJson(result, unescaped);
+            unescaped.drain();
+            if (wrapped) {
+                out.write(" } ");
             }
-            sb.append(" }");            
-            return sb.toString();
         }
-        return null;
+        out.write(" }");
     }
 
-    private static String toXMLSerializedString(ResponseObject result) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>");
-        sb.append("<" + result.getResponseName() + " cloud-stack-version=\"" + ApiDBUtils.getVersion() + "\">");
+    private static void writeXML(ResponseObject result, Writer out) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>");
+        out.write("<" + result.getResponseName() + " cloud-stack-version=\"" + getVersion() + "\">");
 
         if (result instanceof ListResponse) {
             Integer count = ((ListResponse) result).getCount();
 
             if (count != null && count != 0) {
-                sb.append("<" + ApiConstants.COUNT + ">" + ((ListResponse) result).getCount() + "</" + ApiConstants.COUNT + ">");
+                out.write("<" + ApiConstants.COUNT + ">" + count + "</" + ApiConstants.COUNT + ">");
             }
             List<? extends ResponseObject> responses = ((ListResponse) result).getResponses();
             if ((responses != null) && !responses.isEmpty()) {
                 for (ResponseObject obj : responses) {
-                    serializeResponseObjXML(sb, obj);
+                    serializeResponseObjXML(out, obj);
                 }
             }
         } else {
             if (result instanceof CreateCmdResponse || result instanceof AsyncJobResponse) {
-                serializeResponseObjFieldsXML(sb, result);
+                serializeResponseObjFieldsXML(out, result);
             } else {
-                serializeResponseObjXML(sb, result);
+                serializeResponseObjXML(out, result);
             }
         }
 
-        sb.append("</" + result.getResponseName() + ">");
-        return sb.toString();
+        out.write("</" + result.getResponseName() + ">");
     }
 
-    private static void serializeResponseObjXML(StringBuilder sb, ResponseObject obj) {
+    private static void serializeResponseObjXML(Writer out, ResponseObject obj) throws IOException {
         if (!(obj instanceof SuccessResponse) && !(obj instanceof ExceptionResponse)) {
-            sb.append("<" + obj.getObjectName() + ">");
+            out.write("<" + obj.getObjectName() + ">");
         }
-        serializeResponseObjFieldsXML(sb, obj);
+        serializeResponseObjFieldsXML(out, obj);
         if (!(obj instanceof SuccessResponse) && !(obj instanceof ExceptionResponse)) {
-            sb.append("</" + obj.getObjectName() + ">");
+            out.write("</" + obj.getObjectName() + ">");
         }
     }
 
@@ -159,171 +197,211 @@ public class ApiResponseSerializer {
         }
         return fields.toArray(new Field[] {});
     }
-    
-    private static void serializeResponseObjFieldsXML(StringBuilder sb, ResponseObject obj) {
+
+    private static void serializeResponseObjFieldsXML(Writer out, ResponseObject obj) throws IOException {
         boolean isAsync = false;
         if (obj instanceof AsyncJobResponse)
             isAsync = true;
 
-        //Field[] fields = obj.getClass().getDeclaredFields();
-        Field[] fields = getFlattenFields(obj.getClass());
-        for (Field field : fields) {
-            if ((field.getModifiers() & Modifier.TRANSIENT) != 0) {
-                continue; // skip transient fields
-            }
-
-            SerializedName serializedName = field.getAnnotation(SerializedName.class);
-            if (serializedName == null) {
+        for (ResponseField field : getResponseFields(obj.getClass())) {
+            String name = field.getSerializedName();
+            if (name == null) {
                 continue; // skip fields w/o serialized name
             }
 
-            field.setAccessible(true);
-            Object fieldValue = null;
-            try {
-                fieldValue = field.get(obj);
-            } catch (IllegalArgumentException e) {
-                throw new CloudRuntimeException("how illegal is it?", e);
-            } catch (IllegalAccessException e) {
-                throw new CloudRuntimeException("come on...we set accessible already", e);
-            }
+            Object fieldValue = field.get(obj);
             if (fieldValue != null) {
                 if (fieldValue instanceof ResponseObject) {
                     ResponseObject subObj = (ResponseObject) fieldValue;
                     if (isAsync) {
-                        sb.append("<jobresult>");
+                        out.write("<jobresult>");
                     }
-                    serializeResponseObjXML(sb, subObj);
+                    serializeResponseObjXML(out, subObj);
                     if (isAsync) {
-                        sb.append("</jobresult>");
+                        out.write("</jobresult>");
                     }
                 } else if (fieldValue instanceof List<?>) {
-                    List<?> subResponseList = (List<Object>) fieldValue;                    
+                    List<?> subResponseList = (List<Object>) fieldValue;
                     boolean usedUuidList = false;
                     for (Object value : subResponseList) {
                         if (value instanceof ResponseObject) {
                             ResponseObject subObj = (ResponseObject) value;
-                            if (serializedName != null) {
-                                subObj.setObjectName(serializedName.value());
-                            }
-                            serializeResponseObjXML(sb, subObj);
+                            subObj.setObjectName(name);
+                            serializeResponseObjXML(out, subObj);
                         } else if (value instanceof IdentityProxy) {
                         	// Only exception reponses carry a list of IdentityProxy objects.
-                        	IdentityProxy idProxy = (IdentityProxy)value;                        	
+                        	IdentityProxy idProxy = (IdentityProxy)value;
                         	String id = (idProxy.getValue() != null ? String.valueOf(idProxy.getValue()) : "");
                         	if(!id.isEmpty()) {
-                        		IdentityDao identityDao = new IdentityDaoImpl();
-                        		id = identityDao.getIdentityUuid(idProxy.getTableName(), id);
-                        	}                        	
+                        		id = getIdentityUuid(idProxy.getTableName(), idProxy.getValue());
+                        	}
                         	if(id != null && !id.isEmpty()) {
                         		// If this is the first IdentityProxy field encountered, put in a uuidList tag.
                         		if (!usedUuidList) {
-                        			sb.append("<" + serializedName.value() + ">");
+                        			out.write("<" + name + ">");
                         			usedUuidList = true;
                         		}
-                        		sb.append("<" + "uuid" + ">" + id + "</" + "uuid" + ">");                        		
+                        		out.write("<" + "uuid" + ">" + id + "</" + "uuid" + ">");
                         	}
                         	// Append the new idFieldName property also.
                         	String idFieldName = idProxy.getidFieldName();
                         	if (idFieldName != null) {
-                        		sb.append("<" + "uuidProperty" + ">" + idFieldName + "</" + "uuidProperty" + ">");                        		
+                        		out.write("<" + "uuidProperty" + ">" + idFieldName + "</" + "uuidProperty" + ">");
                         	}
-                        }                        
+                        }
                     }
                     if (usedUuidList) {
                     	// close the uuidList.
-                    	sb.append("</" + serializedName.value() + ">");
+                    	out.write("</" + name + ">");
                     }
                 } else if (fieldValue instanceof Date) {
-                    sb.append("<" + serializedName.value() + ">" + BaseCmd.getDateString((Date) fieldValue) + "</" + serializedName.value() + ">");                
-                } else if (fieldValue instanceof IdentityProxy) {                	
+                    out.write("<" + name + ">" + BaseCmd.getDateString((Date) fieldValue) + "</" + name + ">");
+                } else if (fieldValue instanceof IdentityProxy) {
                 	IdentityProxy idProxy = (IdentityProxy)fieldValue;
                 	String id = (idProxy.getValue() != null ? String.valueOf(idProxy.getValue()) : "");
                 	if(!id.isEmpty()) {
-                		IdentityDao identityDao = new IdentityDaoImpl();
                 		if(idProxy.getTableName() != null) {
-                		    id = identityDao.getIdentityUuid(idProxy.getTableName(), id);
+                		    id = getIdentityUuid(idProxy.getTableName(), idProxy.getValue());
                 		} else {
                 		    s_logger.warn("IdentityProxy sanity check issue, invalid IdentityProxy table name found in class: " + obj.getClass().getName());
                 		}
                 	}
                 	if(id != null && !id.isEmpty())
-                		sb.append("<" + serializedName.value() + ">" + id + "</" + serializedName.value() + ">");
+                		out.write("<" + name + ">" + id + "</" + name + ">");
                 } else {
-                    String resultString = escapeSpecialXmlChars(fieldValue.toString());
-                    if (!(obj instanceof ExceptionResponse)) {
-                        resultString = encodeParam(resultString);
+                    out.write("<" + name + ">");
+                    if (!(obj instanceof ExceptionResponse) && ApiServer.encodeApiResponse) {
+                        out.write(encodeParam(escapeSpecialXmlChars(fieldValue.toString())));
+                    } else {
+                        writeEscapedXml(out, fieldValue.toString());
                     }
-                    
-                    sb.append("<" + serializedName.value() + ">" + resultString + "</" + serializedName.value() + ">");
+                    out.write("</" + name + ">");
                 }
             }
         }
     }
 
-    private static Method getGetMethod(Object o, String propName) {
-        Method method = null;
-        String methodName = getGetMethodName("get", propName);
-        try {
-            method = o.getClass().getMethod(methodName);
-        } catch (SecurityException e1) {
-            s_logger.error("Security exception in getting ResponseObject " + o.getClass().getName() + " get method for property: " + propName);
-        } catch (NoSuchMethodException e1) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("ResponseObject " + o.getClass().getName() + " does not have " + methodName + "() method for property: " + propName
-                        + ", will check is-prefixed method to see if it is boolean property");
+    /**
+     * @return the uuid of the row, fetched ahead by serialize() when it can be, otherwise looked up on its own.
+     */
+    public static String getIdentityUuid(String tableName, Long id) {
+        String uuid = SerializationContext.current().getIdentityUuid(tableName, id);
+        if (uuid == null) {
+            uuid = getIdentityDao().getIdentityUuid(tableName, String.valueOf(id));
+        }
+        return uuid;
+    }
+
+    private static Map<String, Map<Long, String>> fetchIdentityUuids(ResponseObject result) {
+        Map<String, Set<Long>> idsByTable = new HashMap<String, Set<Long>>();
+        collectIdentities(result, idsByTable);
+        if (idsByTable.isEmpty()) {
+            return null;
+        }
+
+        // a failed fetch leaves every uuid to be looked up on its own
+        return getIdentityDao().getIdentityUuids(idsByTable);
+    }
+
+    private static void collectIdentities(Object value, Map<String, Set<Long>> idsByTable) {
+        if (value instanceof ResponseObject) {
+            for (ResponseField field : getResponseFields(value.getClass())) {
+                collectIdentities(field.get(value), idsByTable);
+            }
+        } else if (value instanceof Collection<?>) {
+            for (Object element : (Collection<?>) value) {
+                collectIdentities(element, idsByTable);
+            }
+        } else if (value instanceof IdentityProxy) {
+            IdentityProxy idProxy = (IdentityProxy) value;
+            if (idProxy.getTableName() != null && idProxy.getValue() != null) {
+                Set<Long> ids = idsByTable.get(idProxy.getTableName());
+                if (ids == null) {
+                    ids = new HashSet<Long>();
+                    idsByTable.put(idProxy.getTableName(), ids);
+                }
+                ids.add(idProxy.getValue());
             }
         }
+    }
 
-        if (method != null)
-            return method;
+    private static ResponseField[] getResponseFields(Class<?> clz) {
+        ResponseField[] fields = s_responseFields.get(clz);
+        if (fields == null) {
+            List<ResponseField> list = new ArrayList<ResponseField>();
+            for (Field field : getFlattenFields(clz)) {
+                if ((field.getModifiers() & (Modifier.TRANSIENT | Modifier.STATIC)) != 0) {
+                    continue; // skip transient fields
+                }
+                list.add(new ResponseField(field));
+            }
+            fields = list.toArray(new ResponseField[list.size()]);
+            s_responseFields.put(clz, fields);
+        }
+        return fields;
+    }
 
-        methodName = getGetMethodName("is", propName);
-        try {
-            method = o.getClass().getMethod(methodName);
-        } catch (SecurityException e1) {
-            s_logger.error("Security exception in getting ResponseObject " + o.getClass().getName() + " get method for property: " + propName);
-        } catch (NoSuchMethodException e1) {
-            s_logger.warn("ResponseObject " + o.getClass().getName() + " does not have " + methodName + "() method for property: " + propName);
+    private static IdentityDao getIdentityDao() {
+        if (s_identityDao == null) {
+            s_identityDao = new IdentityDaoImpl();
         }
-        return method;
+        return s_identityDao;
     }
 
-    private static String getGetMethodName(String prefix, String fieldName) {
-        StringBuffer sb = new StringBuffer(prefix);
+    // for unit tests, which have no database to look uuids up in
+    static void setIdentityDao(IdentityDao identityDao) {
+        s_identityDao = identityDao;
+    }
 
-        if (fieldName.length() >= prefix.length() && fieldName.substring(0, prefix.length()).equals(prefix)) {
-            return fieldName;
-        } else {
-            sb.append(fieldName.substring(0, 1).toUpperCase());
-            sb.append(fieldName.substring(1));
+    private static String getVersion() {
+        // the version comes from the jar manifest and does not change while running
+        if (s_version == null) {
+            s_version = ApiDBUtils.getVersion();
         }
+        return s_version;
+    }
 
-        return sb.toString();
+    // for unit tests, which have no management server to ask the version
+    static void setVersion(String version) {
+        s_version = version;
     }
 
     private static String escapeSpecialXmlChars(String originalString) {
-        char[] origChars = originalString.toCharArray();
-        StringBuilder resultString = new StringBuilder();
+        StringWriter resultString = new StringWriter(originalString.length() + 16);
+        try {
+            writeEscapedXml(resultString, originalString);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("StringWriter does not throw", e);
+        }
+        return resultString.toString();
+    }
 
-        for (char singleChar : origChars) {
+    private static void writeEscapedXml(Writer out, String originalString) throws IOException {
+        int length = originalString.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            String entity;
+            char singleChar = originalString.charAt(i);
             if (singleChar == '"') {
-                resultString.append("&quot;");
+                entity = "&quot;";
             } else if (singleChar == '\'') {
-                resultString.append("&apos;");
+                entity = "&apos;";
             } else if (singleChar == '<') {
-                resultString.append("&lt;");
+                entity = "&lt;";
             } else if (singleChar == '>') {
-                resultString.append("&gt;");
+                entity = "&gt;";
             } else if (singleChar == '&') {
-                resultString.append("&amp;");
+                entity = "&amp;";
             } else {
-                resultString.append(singleChar);
+                continue;
             }
+            out.write(originalString, start, i - start);
+            out.write(entity);
+            start = i + 1;
         }
-        
-        return resultString.toString();
+        out.write(originalString, start, length - start);
     }
-    
+
     private static String encodeParam(String value) {
         if (!ApiServer.encodeApiResponse) {
             return value;
@@ -335,5 +413,122 @@ public class ApiResponseSerializer {
         }
         return value;
     }
-    
+
+    /**
+     * A serializable field of a response class, looked up once per class.
+     */
+    private static class ResponseField {
+        private final Field _field;
+        private final String _serializedName;
+
+        ResponseField(Field field) {
+            field.setAccessible(true);
+            _field = field;
+            SerializedName serializedName = field.getAnnotation(SerializedName.class);
+            _serializedName = serializedName != null ? serializedName.value() : null;
+        }
+
+        String getSerializedName() {
+            return _serializedName;
+        }
+
+        Object get(Object obj) {
+            try {
+                return _field.get(obj);
+            } catch (IllegalArgumentException e) {
+                throw new CloudRuntimeException("how illegal is it?", e);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException("come on...we set accessible already", e);
+            }
+        }
+    }
+
+    /**
+     * Turns the unicode escapes Gson writes back into characters as the text goes by, the same as unescape() does
+     * on a whole string.
+     */
+    private static class UnescapingWriter extends FilterWriter {
+        private final char[] _pending = new char[6];
+        private int _pendingLength = 0;
+
+        UnescapingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (_pendingLength == 0) {
+                if (c == '\\') {
+                    _pending[_pendingLength++] = (char) c;
+                } else {
+                    out.write(c);
+                }
+                return;
+            }
+
+            if (_pendingLength == 1 ? c == 'u' : isHexDigit(c)) {
+                _pending[_pendingLength++] = (char) c;
+                if (_pendingLength == _pending.length) {
+                    out.write(Integer.parseInt(new String(_pending, 2, 4), 16));
+                    _pendingLength = 0;
+                }
+                return;
+            }
+
+            // not an escape after all, the backslash goes out as is and the rest is looked at again
+            out.write('\\');
+            int length = _pendingLength;
+            _pendingLength = 0;
+            for (int i = 1; i < length; i++) {
+                write(_pending[i]);
+            }
+            write(c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            write(new String(cbuf, off, len), 0, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            // runs of plain text are passed on in one go, only escapes go through write(int)
+            int start = off;
+            for (int i = off; i < off + len; i++) {
+                char c = str.charAt(i);
+                if (_pendingLength > 0 || c == '\\') {
+                    out.write(str, start, i - start);
+                    write(c);
+                    start = i + 1;
+                }
+            }
+            out.write(str, start, off + len - start);
+        }
+
+        private static boolean isHexDigit(int c) {
+            return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+        }
+
+        /**
+         * Writes out what is held back waiting to see whether it is an escape.
+         */
+        void drain() throws IOException {
+            if (_pendingLength > 0) {
+                out.write(_pending, 0, _pendingLength);
+                _pendingLength = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+            super.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            drain();
+            super.close();
+        }
+    }
 }
@@ -30,4 +30,6 @@ public interface AsyncJobMBean {
 	public String getSyncQueueId();
 	public String getSyncQueueContentType();
 	public String getSyncQueueContentId();
+	public String getSyncQueueWaitTime();
+	public String getSyncQueueDepth();
 }
@@ -21,11 +21,15 @@ import com.cloud.utils.DateUtil;
 
 public class AsyncJobMBeanImpl extends StandardMBean implements AsyncJobMBean {
 	private AsyncJobVO _jobVo;
+	private SyncQueueManager _queueMgr;
+	private Date _startTime;
 	
-	public AsyncJobMBeanImpl(AsyncJobVO jobVo) {
+	public AsyncJobMBeanImpl(AsyncJobVO jobVo, SyncQueueManager queueMgr) {
 		super(AsyncJobMBean.class, false);
 		
 		_jobVo = jobVo;
+		_queueMgr = queueMgr;
+		_startTime = DateUtil.currentGMTTime();
 	}
 	
 	public long getAccountId() {
@@ -137,4 +141,21 @@ public class AsyncJobMBeanImpl extends StandardMBean implements AsyncJobMBean {
 		return "N/A";
 	}
 	
+	public String getSyncQueueWaitTime() {
+		// time in milliseconds the job stayed in its sync queue before it got dispatched
+		SyncQueueItemVO item = _jobVo.getSyncSource();
+		if(item != null && item.getCreated() != null) {
+			return String.valueOf(Math.max(0, _startTime.getTime() - item.getCreated().getTime()));
+		}
+		return "N/A";
+	}
+	
+	public String getSyncQueueDepth() {
+		// evaluated on read only, so that jobs do not pay a count query when nobody is watching
+		SyncQueueItemVO item = _jobVo.getSyncSource();
+		if(item != null && item.getQueueId() != null && _queueMgr != null) {
+			return String.valueOf(_queueMgr.getQueueDepth(item.getQueueId()));
+		}
+		return "N/A";
+	}
 }
@@ -43,6 +43,7 @@ import com.cloud.api.ApiGsonHelper;
 import com.cloud.api.ApiSerializerHelper;
 import com.cloud.api.BaseAsyncCmd;
 import com.cloud.api.BaseCmd;
+import com.cloud.api.CommandDescriptor;
 import com.cloud.api.ServerApiException;
 import com.cloud.api.commands.QueryAsyncJobResultCmd;
 import com.cloud.api.response.ExceptionResponse;
@@ -83,6 +84,8 @@ public class AsyncJobManagerImpl implements AsyncJobManager, ClusterManagerListe
     private static final int MAX_ONETIME_SCHEDULE_SIZE = 50;
     private static final int HEARTBEAT_INTERVAL = 2000;
     private static final int GC_INTERVAL = 10000;				// 10 seconds
+    private static final int QUEUE_RETRY_COUNT = 5;
+    private static final int QUEUE_RETRY_INTERVAL = 50;			// 50 milliseconds, doubled on each retry
     
     private String _name;
     
@@ -266,17 +269,18 @@ public class AsyncJobManagerImpl implements AsyncJobManager, ClusterManagerListe
     	SyncQueueVO queue = null;
 
 		// to deal with temporary DB exceptions like DB deadlock/Lock-wait time out cased rollbacks
-    	// we retry five times until we throw an exception
+    	// we retry five times with a short exponential backoff until we throw an exception, the job thread
+    	// is held while we wait, so keep the total wait well below a second or two
 		Random random = new Random();
 
-    	for(int i = 0; i < 5; i++) {
+    	for(int i = 0; i < QUEUE_RETRY_COUNT; i++) {
     		queue = _queueMgr.queue(syncObjType, syncObjId, "AsyncJob", job.getId());
     		if(queue != null) {
                 break;
             }
 
     		try {
-				Thread.sleep(1000 + random.nextInt(5000));
+				Thread.sleep((QUEUE_RETRY_INTERVAL << i) + random.nextInt(QUEUE_RETRY_INTERVAL));
 			} catch (InterruptedException e) {
 			}
     	}
@@ -390,7 +394,7 @@ public class AsyncJobManagerImpl implements AsyncJobManager, ClusterManagerListe
                     long jobId = 0;
                     
                     try {
-                    	JmxUtil.registerMBean("AsyncJobManager", "Active Job " + job.getId(), new AsyncJobMBeanImpl(job));
+                    	JmxUtil.registerMBean("AsyncJobManager", "Active Job " + job.getId(), new AsyncJobMBeanImpl(job, _queueMgr));
                     } catch(Exception e) {
                     	s_logger.warn("Unable to register active job " + job.getId() + " to JMX monitoring due to exception " + ExceptionUtil.toString(e));
                     }
@@ -405,8 +409,7 @@ public class AsyncJobManagerImpl implements AsyncJobManager, ClusterManagerListe
                             s_logger.debug("Executing " + job.getCmd() + " for job-" + jobId);
                         }
     
-                        Class<?> cmdClass = Class.forName(job.getCmd());
-                        cmdObj = (BaseAsyncCmd)cmdClass.newInstance();
+                        cmdObj = (BaseAsyncCmd)CommandDescriptor.forName(job.getCmd()).newInstance();
                         cmdObj.setJob(job);
     
                         Type mapType = new TypeToken<Map<String, String>>() {}.getType();
@@ -634,10 +637,10 @@ public class AsyncJobManagerImpl implements AsyncJobManager, ClusterManagerListe
 				            if(item.getContentType().equalsIgnoreCase("AsyncJob")) {
                                 completeAsyncJob(item.getContentId(), AsyncJobResult.STATUS_FAILED, 0, getResetResultResponse("Job is cancelled as it has been blocking others for too long"));
                             }
-				        
-				            // purge the item and resume queue processing
-				            _queueMgr.purgeItem(item.getId());
 				        }
+				        
+				        // purge the items and resume queue processing
+				        _queueMgr.purgeItems(blockItems);
 				    }
 					
 					s_logger.trace("End cleanup expired async-jobs");
@@ -673,8 +676,8 @@ public class AsyncJobManagerImpl implements AsyncJobManager, ClusterManagerListe
 						completeAsyncJob(jobId, AsyncJobResult.STATUS_FAILED, 0, getResetResultResponse("Execution was cancelled because of server shutdown"));
 					}
 				}
-				_queueMgr.purgeItem(item.getId());
 			}
+			_queueMgr.purgeItems(l);
 		}
 	}
     
@@ -21,9 +21,11 @@ public interface SyncQueueManager extends Manager {
     public SyncQueueItemVO dequeueFromOne(long queueId, Long msid);
     public List<SyncQueueItemVO> dequeueFromAny(Long msid, int maxItems);
     public void purgeItem(long queueItemId);
+    public void purgeItems(List<SyncQueueItemVO> items);
     public void returnItem(long queueItemId);
     
 	public List<SyncQueueItemVO> getActiveQueueItems(Long msid, boolean exclusive);
     public List<SyncQueueItemVO> getBlockedQueueItems(long thresholdMs, boolean exclusive);
+    public long getQueueDepth(long queueId);
 	public void resetQueueProcess(long msid);
 }
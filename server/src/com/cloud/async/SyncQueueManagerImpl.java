@@ -13,9 +13,12 @@
 package com.cloud.async;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import javax.ejb.Local;
 import javax.naming.ConfigurationException;
@@ -126,37 +129,19 @@ public class SyncQueueManagerImpl implements SyncQueueManager {
     @DB
     public List<SyncQueueItemVO> dequeueFromAny(Long msid, int maxItems) {
     	
-    	List<SyncQueueItemVO> resultList = new ArrayList<SyncQueueItemVO>();
     	Transaction txt = Transaction.currentTxn();
     	try {
     		txt.start();
     		
-    		List<SyncQueueItemVO> l = _syncQueueItemDao.getNextQueueItems(maxItems);
-    		if(l != null && l.size() > 0) {
-    			for(SyncQueueItemVO item : l) {
-    				SyncQueueVO queueVO = _syncQueueDao.lockRow(item.getQueueId(), true);
-	    			SyncQueueItemVO itemVO = _syncQueueItemDao.lockRow(item.getId(), true);
-    				if(queueVO.getLastProcessTime() == null && itemVO.getLastProcessNumber() == null) {
-		    			Long processNumber = queueVO.getLastProcessNumber();
-		    			if(processNumber == null)
-		    				processNumber = new Long(1);
-		    			else
-		    				processNumber = processNumber + 1;
-		    			
-		    			Date dt = DateUtil.currentGMTTime();
-		    			queueVO.setLastProcessMsid(msid);
-		    			queueVO.setLastProcessNumber(processNumber);
-		    			queueVO.setLastProcessTime(dt);
-		    			queueVO.setLastUpdated(dt);
-		    			_syncQueueDao.update(queueVO.getId(), queueVO);
-		    			
-		    			itemVO.setLastProcessMsid(msid);
-		    			itemVO.setLastProcessNumber(processNumber);
-		    			_syncQueueItemDao.update(item.getId(), itemVO);
-		    			
-		    			resultList.add(item);
-    				}
-    			}
+    		// claim up to maxItems idle queues with one UPDATE instead of locking candidate rows one by one,
+    		// the claimed queues carry our msid and the claim time so that their head items can be picked up afterwards
+    		Date dt = DateUtil.currentGMTTime();
+    		List<SyncQueueItemVO> resultList;
+    		if(_syncQueueDao.claimQueues(msid, dt, maxItems) > 0) {
+    			resultList = _syncQueueItemDao.getClaimedQueueItems(msid, dt);
+    			_syncQueueItemDao.markItemsInProcess(resultList);
+    		} else {
+    			resultList = new ArrayList<SyncQueueItemVO>();
     		}
     		txt.commit();
     		return resultList;
@@ -176,13 +161,9 @@ public class SyncQueueManagerImpl implements SyncQueueManager {
     		
 			SyncQueueItemVO itemVO = _syncQueueItemDao.findById(queueItemId);
 			if(itemVO != null) {
-				SyncQueueVO queueVO = _syncQueueDao.lockRow(itemVO.getQueueId(), true);
-				
+				// the queue row is updated before the item is removed to keep the queue -> item lock order
+				_syncQueueDao.resetQueueProcessTime(Collections.singletonList(itemVO.getQueueId()));
 				_syncQueueItemDao.expunge(itemVO.getId());
-				
-				queueVO.setLastProcessTime(null);
-				queueVO.setLastUpdated(DateUtil.currentGMTTime());
-				_syncQueueDao.update(queueVO.getId(), queueVO);
 			}
     		txt.commit();
     	} catch(Exception e) {
@@ -191,6 +172,31 @@ public class SyncQueueManagerImpl implements SyncQueueManager {
     	}
     }
     
+    @Override
+    @DB
+    public void purgeItems(List<SyncQueueItemVO> items) {
+    	if(items == null || items.isEmpty())
+    		return;
+    	
+    	Set<Long> queueIds = new TreeSet<Long>();
+    	List<Long> itemIds = new ArrayList<Long>(items.size());
+    	for(SyncQueueItemVO item : items) {
+    		queueIds.add(item.getQueueId());
+    		itemIds.add(item.getId());
+    	}
+    	
+    	Transaction txt = Transaction.currentTxn();
+    	try {
+    		txt.start();
+    		_syncQueueDao.resetQueueProcessTime(new ArrayList<Long>(queueIds));
+    		_syncQueueItemDao.expungeItems(itemIds);
+    		txt.commit();
+    	} catch(Exception e) {
+    		s_logger.error("Unexpected exception: ", e);
+    		txt.rollback();
+    	}
+    }
+    
     @Override
     @DB
     public void returnItem(long queueItemId) {
@@ -227,6 +233,11 @@ public class SyncQueueManagerImpl implements SyncQueueManager {
         return _syncQueueItemDao.getBlockedQueueItems(thresholdMs, exclusive);
     }
     
+    @Override
+    public long getQueueDepth(long queueId) {
+        return _syncQueueItemDao.getQueueItemCount(queueId);
+    }
+    
     @Override
 	public void resetQueueProcess(long msid) {
     	_syncQueueDao.resetQueueProcessing(msid);
@@ -12,6 +12,9 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.async.dao;
 
+import java.util.Date;
+import java.util.List;
+
 import com.cloud.async.SyncQueueVO;
 import com.cloud.utils.db.GenericDao;
 
@@ -19,4 +22,6 @@ public interface SyncQueueDao extends GenericDao<SyncQueueVO, Long>{
 	public void ensureQueue(String syncObjType, long syncObjId);
 	public SyncQueueVO find(String syncObjType, long syncObjId);
 	public void resetQueueProcessing(long msid);
+	public int claimQueues(long msid, Date claimTime, int maxQueues);
+	public void resetQueueProcessTime(List<Long> queueIds);
 }
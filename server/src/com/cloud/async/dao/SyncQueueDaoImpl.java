@@ -15,6 +15,7 @@ package com.cloud.async.dao;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
 
 import javax.ejb.Local;
@@ -28,6 +29,7 @@ import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.Transaction;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 @Local(value = { SyncQueueDao.class })
 public class SyncQueueDaoImpl extends GenericDaoBase<SyncQueueVO, Long> implements SyncQueueDao {
@@ -81,6 +83,60 @@ public class SyncQueueDaoImpl extends GenericDaoBase<SyncQueueVO, Long> implemen
         }
 	}
 	
+	@Override
+	public int claimQueues(long msid, Date claimTime, int maxQueues) {
+		// claim idle queues that have pending items in a single statement, the claimed queues are later identified
+		// by (msid, claimTime), this replaces the per-queue SELECT ... FOR UPDATE round trips
+		String sql = "UPDATE sync_queue SET queue_proc_msid=?, queue_proc_number=IFNULL(queue_proc_number, 0) + 1, queue_proc_time=?, last_updated=? " +
+					 " WHERE queue_proc_time IS NULL AND id IN (SELECT queue_id FROM sync_queue_item WHERE queue_proc_number IS NULL) " +
+					 " ORDER BY id LIMIT ?";
+
+		Transaction txn = Transaction.currentTxn();
+		PreparedStatement pstmt = null;
+		try {
+			String dt = DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), claimTime);
+			pstmt = txn.prepareAutoCloseStatement(sql);
+			pstmt.setLong(1, msid);
+			pstmt.setString(2, dt);
+			pstmt.setString(3, dt);
+			pstmt.setInt(4, maxQueues);
+			return pstmt.executeUpdate();
+		} catch (SQLException e) {
+			s_logger.warn("Unable to claim sync queues for management server " + msid, e);
+		} catch (Throwable e) {
+			s_logger.warn("Unable to claim sync queues for management server " + msid, e);
+		}
+		return 0;
+	}
+
+	@Override
+	public void resetQueueProcessTime(List<Long> queueIds) {
+		if(queueIds == null || queueIds.isEmpty())
+			return;
+
+		StringBuilder sql = new StringBuilder("UPDATE sync_queue SET queue_proc_time=NULL, last_updated=? WHERE id IN (");
+		for(int i = 0; i < queueIds.size(); i++) {
+			if(i > 0)
+				sql.append(",");
+			sql.append("?");
+		}
+		sql.append(")");
+
+		Transaction txn = Transaction.currentTxn();
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = txn.prepareAutoCloseStatement(sql.toString());
+			pstmt.setString(1, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), DateUtil.currentGMTTime()));
+			int i = 2;
+			for(Long queueId : queueIds) {
+				pstmt.setLong(i++, queueId);
+			}
+			pstmt.executeUpdate();
+		} catch (SQLException e) {
+			throw new CloudRuntimeException("Unable to reset process time of sync queues " + queueIds, e);
+		}
+	}
+
 	protected SyncQueueDaoImpl() {
 	    super();
 	    TypeIdSearch = createSearchBuilder();
@@ -12,6 +12,7 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.async.dao;
 
+import java.util.Date;
 import java.util.List;
 
 import com.cloud.async.SyncQueueItemVO;
@@ -22,4 +23,8 @@ public interface SyncQueueItemDao extends GenericDao<SyncQueueItemVO, Long> {
 	public List<SyncQueueItemVO> getNextQueueItems(int maxItems);
 	public List<SyncQueueItemVO> getActiveQueueItems(Long msid, boolean exclusive);
 	public List<SyncQueueItemVO> getBlockedQueueItems(long thresholdMs, boolean exclusive);
+	public List<SyncQueueItemVO> getClaimedQueueItems(long msid, Date claimTime);
+	public void markItemsInProcess(List<SyncQueueItemVO> items);
+	public int expungeItems(List<Long> itemIds);
+	public long getQueueItemCount(long queueId);
 }
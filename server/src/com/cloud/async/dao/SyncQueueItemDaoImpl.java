@@ -17,7 +17,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TimeZone;
 
 import javax.ejb.Local;
@@ -29,16 +31,33 @@ import com.cloud.async.SyncQueueVO;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.utils.db.GenericSearchBuilder;
 import com.cloud.utils.db.JoinBuilder;
 import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.SearchCriteria.Func;
 import com.cloud.utils.db.Transaction;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 @Local(value = { SyncQueueItemDao.class })
 public class SyncQueueItemDaoImpl extends GenericDaoBase<SyncQueueItemVO, Long> implements SyncQueueItemDao {
     private static final Logger s_logger = Logger.getLogger(SyncQueueItemDaoImpl.class);
     
     private final SyncQueueDao _syncQueueDao = new SyncQueueDaoImpl();
+    
+    protected final SearchBuilder<SyncQueueItemVO> IdSearch;
+    protected final GenericSearchBuilder<SyncQueueItemVO, Long> QueueCountSearch;
+    
+    protected SyncQueueItemDaoImpl() {
+        IdSearch = createSearchBuilder();
+        IdSearch.and("id", IdSearch.entity().getId(), SearchCriteria.Op.IN);
+        IdSearch.done();
+        
+        QueueCountSearch = createSearchBuilder(Long.class);
+        QueueCountSearch.select(null, Func.COUNT, null);
+        QueueCountSearch.and("queueId", QueueCountSearch.entity().getQueueId(), SearchCriteria.Op.EQ);
+        QueueCountSearch.done();
+    }
 
 	@Override
 	public SyncQueueItemVO getNextQueueItem(long queueId) {
@@ -134,4 +153,89 @@ public class SyncQueueItemDaoImpl extends GenericDaoBase<SyncQueueItemVO, Long>
             return lockRows(sc, null, true);
         return listBy(sc, null);
     }
+    
+    @Override
+    public List<SyncQueueItemVO> getClaimedQueueItems(long msid, Date claimTime) {
+        List<SyncQueueItemVO> l = new ArrayList<SyncQueueItemVO>();
+        
+        // head item of every queue claimed by (msid, claimTime), queues that already have an item in process
+        // (e.g. kicked through dequeueFromOne in the same second) are skipped
+        String sql = "SELECT i.id, i.queue_id, i.content_type, i.content_id, i.created, q.queue_proc_number " +
+                     " FROM sync_queue AS q JOIN sync_queue_item AS i ON q.id = i.queue_id " +
+                     " WHERE q.queue_proc_msid = ? AND q.queue_proc_time = ? AND i.queue_proc_number IS NULL " +
+                     " AND NOT EXISTS (SELECT 1 FROM sync_queue_item AS b WHERE b.queue_id = q.id AND b.queue_proc_number IS NOT NULL) " +
+                     " ORDER BY i.queue_id, i.id";
+        
+        Transaction txn = Transaction.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = txn.prepareAutoCloseStatement(sql);
+            pstmt.setLong(1, msid);
+            pstmt.setString(2, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), claimTime));
+            ResultSet rs = pstmt.executeQuery();
+            Set<Long> queues = new HashSet<Long>();
+            while(rs.next()) {
+                long queueId = rs.getLong(2);
+                if(!queues.add(queueId))
+                    continue;
+                
+                SyncQueueItemVO item = new SyncQueueItemVO();
+                item.setId(rs.getLong(1));
+                item.setQueueId(queueId);
+                item.setContentType(rs.getString(3));
+                item.setContentId(rs.getLong(4));
+                item.setCreated(DateUtil.parseDateString(TimeZone.getTimeZone("GMT"), rs.getString(5)));
+                item.setLastProcessMsid(msid);
+                item.setLastProcessNumber(rs.getLong(6));
+                l.add(item);
+            }
+        } catch (SQLException e) {
+            // let the caller roll back the claim, otherwise the claimed queues stay blocked
+            throw new CloudRuntimeException("Unable to find claimed sync queue items for management server " + msid, e);
+        }
+        return l;
+    }
+    
+    @Override
+    public void markItemsInProcess(List<SyncQueueItemVO> items) {
+        if(items == null || items.isEmpty())
+            return;
+        
+        String sql = "UPDATE sync_queue_item SET queue_proc_msid=?, queue_proc_number=? WHERE id=?";
+        
+        Transaction txn = Transaction.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = txn.prepareAutoCloseStatement(sql);
+            for(SyncQueueItemVO item : items) {
+                pstmt.setLong(1, item.getLastProcessMsid());
+                pstmt.setLong(2, item.getLastProcessNumber());
+                pstmt.setLong(3, item.getId());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to mark sync queue items in process", e);
+        }
+    }
+    
+    @Override
+    public int expungeItems(List<Long> itemIds) {
+        if(itemIds == null || itemIds.isEmpty())
+            return 0;
+        
+        SearchCriteria<SyncQueueItemVO> sc = IdSearch.create();
+        sc.setParameters("id", itemIds.toArray());
+        return expunge(sc);
+    }
+    
+    @Override
+    public long getQueueItemCount(long queueId) {
+        SearchCriteria<Long> sc = QueueCountSearch.create();
+        sc.setParameters("queueId", queueId);
+        List<Long> l = customSearch(sc, null);
+        if(l != null && l.size() > 0 && l.get(0) != null)
+            return l.get(0);
+        return 0;
+    }
 }
@@ -44,4 +44,31 @@ public interface CapacityManager extends Manager {
      * @return total allocated capacity for the storage pool
      */
     long getAllocatedPoolCapacity(StoragePoolVO pool, VMTemplateVO templateForVmCreation);
+
+    /**
+     * Reads the allocated capacity of a storage pool from its maintained counter in op_host_capacity.
+     * Falls back to getAllocatedPoolCapacity() if the pool has no counter yet.
+     * @param pool storage pool
+     * @return total allocated capacity for the storage pool
+     */
+    long getAllocatedPoolCapacityCounter(StoragePoolVO pool);
+
+    /**
+     * Moves the allocation of a volume or template between the counters of two pools.
+     * Pass a null oldPoolId for a new allocation, a null newPoolId for a release, and
+     * the same pool id on both sides for a resize.  Must be called in the transaction
+     * that changes the volume or template row.
+     * @param oldPoolId pool the allocation was on, or null
+     * @param oldSize size the allocation had
+     * @param newPoolId pool the allocation is on now, or null
+     * @param newSize size the allocation has now
+     */
+    void updateAllocatedPoolCapacity(Long oldPoolId, long oldSize, Long newPoolId, long newSize);
+
+    /**
+     * Rewrites the allocated capacity counter of a storage pool with getAllocatedPoolCapacity(), 0 included,
+     * and updates its total capacity.  Creates the counter if the pool has none yet.
+     * @param pool storage pool
+     */
+    void reconcileAllocatedPoolCapacity(StoragePoolVO pool);
 }
@@ -54,6 +54,7 @@ import com.cloud.storage.VMTemplateHostVO;
 import com.cloud.storage.VMTemplateStoragePoolVO;
 import com.cloud.storage.VMTemplateSwiftVO;
 import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.dao.StoragePoolDao;
 import com.cloud.storage.dao.VMTemplatePoolDao;
 import com.cloud.storage.dao.VolumeDao;
 import com.cloud.storage.swift.SwiftManager;
@@ -91,6 +92,8 @@ public class CapacityManagerImpl implements CapacityManager, StateListener<State
     @Inject 
     VMTemplatePoolDao _templatePoolDao;
     @Inject
+    StoragePoolDao _storagePoolDao;
+    @Inject
     AgentManager _agentManager;
     @Inject
     ResourceManager _resourceMgr;
@@ -479,7 +482,80 @@ public class CapacityManagerImpl implements CapacityManager, StateListener<State
         
         return totalAllocatedSize;
     }
-    
+
+    protected short getAllocatedCapacityType(StoragePoolVO pool) {
+        return pool.isShared() ? Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED : Capacity.CAPACITY_TYPE_LOCAL_STORAGE;
+    }
+
+    @Override
+    public long getAllocatedPoolCapacityCounter(StoragePoolVO pool) {
+        CapacityVO capacity = _capacityDao.findByHostIdType(pool.getId(), getAllocatedCapacityType(pool));
+        if (capacity == null) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("No allocated capacity counter for pool " + pool.getId() + ", computing it from volumes and templates");
+            }
+            return getAllocatedPoolCapacity(pool, null);
+        }
+        return capacity.getUsedCapacity();
+    }
+
+    @Override
+    @DB
+    public void updateAllocatedPoolCapacity(Long oldPoolId, long oldSize, Long newPoolId, long newSize) {
+        if (oldPoolId != null && oldPoolId.equals(newPoolId)) {
+            if (oldSize != newSize) {
+                updatePoolCounter(newPoolId, newSize - oldSize);
+            }
+            return;
+        }
+
+        Transaction txn = Transaction.currentTxn();
+        txn.start();
+        if (oldPoolId != null) {
+            updatePoolCounter(oldPoolId, -(oldSize + _extraBytesPerVolume));
+        }
+        if (newPoolId != null) {
+            updatePoolCounter(newPoolId, newSize + _extraBytesPerVolume);
+        }
+        txn.commit();
+    }
+
+    @Override
+    @DB
+    public void reconcileAllocatedPoolCapacity(StoragePoolVO pool) {
+        short capacityType = getAllocatedCapacityType(pool);
+        Transaction txn = Transaction.currentTxn();
+        txn.start();
+        CapacityVO capacity = _capacityDao.findByHostIdType(pool.getId(), capacityType);
+        if (capacity == null) {
+            _storageMgr.createCapacityEntry(pool, capacityType, getAllocatedPoolCapacity(pool, null));
+        } else {
+            // summed once the row is locked: an allocation committed before is in the sum, one committed after is added to it
+            capacity = _capacityDao.lockRow(capacity.getId(), true);
+            long allocated = getAllocatedPoolCapacity(pool, null);
+            if (capacity.getUsedCapacity() != allocated) {
+                s_logger.debug("Allocated capacity counter of pool " + pool.getId() + " was " + capacity.getUsedCapacity() + " instead of " + allocated + ", resetting it");
+                capacity.setUsedCapacity(allocated);
+                _capacityDao.update(capacity.getId(), capacity);
+            }
+            // an allocated capacity of 0 only updates the total capacity
+            _storageMgr.createCapacityEntry(pool, capacityType, 0);
+        }
+        txn.commit();
+    }
+
+    private void updatePoolCounter(long poolId, long delta) {
+        StoragePoolVO pool = _storagePoolDao.findByIdIncludingRemoved(poolId);
+        if (pool == null) {
+            return;
+        }
+        // a missing row is seeded by the next capacity recalculation in AlertManager, which also resets any drift
+        if (delta >= 0) {
+            _capacityDao.updateAllocated(poolId, delta, getAllocatedCapacityType(pool), true);
+        } else {
+            _capacityDao.updateAllocated(poolId, -delta, getAllocatedCapacityType(pool), false);
+        }
+    }
     
     @DB
     @Override
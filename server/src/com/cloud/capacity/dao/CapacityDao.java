@@ -37,4 +37,5 @@ public interface CapacityDao extends GenericDao<CapacityVO, Long> {
     List<SummedCapacity> listCapacitiesGroupedByLevelAndType(Integer capacityType, Long zoneId, Long podId, Long clusterId, int level, Long limit);  
     void updateCapacityState(Long dcId, Long podId, Long clusterId,
             Long hostId, String capacityState);
+    void updateAllocated(Long hostId, long allocatedAmount, short capacityType, boolean add);
 }
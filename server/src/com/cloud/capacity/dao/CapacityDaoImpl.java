@@ -301,6 +301,7 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
     	
     }
     
+    @Override
     public void updateAllocated(Long hostId, long allocatedAmount, short capacityType, boolean add) {
         Transaction txn = Transaction.currentTxn();
         PreparedStatement pstmt = null;
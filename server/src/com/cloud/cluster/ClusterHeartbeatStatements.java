@@ -0,0 +1,175 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.cluster;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Heartbeat and peer scan statements of the cluster manager. Statements are prepared once against
+ * the dedicated heartbeat connection and reused on every heartbeat, they are re-prepared whenever the
+ * underlying connection gets replaced.
+ */
+public class ClusterHeartbeatStatements {
+    private static final Logger s_logger = Logger.getLogger(ClusterHeartbeatStatements.class);
+    private static final TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
+
+    private static final String HEARTBEAT_SQL = "UPDATE mshost SET last_update=?, removed=NULL, alert_count=0 WHERE id=? AND runid=?";
+
+    // active peer list and the number of peers that have seen us down, fetched together in one round trip
+    private static final String PEER_SCAN_SQL =
+        "SELECT m.id, m.msid, m.runid, m.name, m.state, m.version, m.service_ip, m.service_port, m.last_update, m.alert_count, f.seen_down " +
+        "FROM (SELECT COUNT(*) AS seen_down FROM mshost_peer WHERE peer_mshost=? AND peer_runid=? AND peer_state=?) AS f " +
+        "LEFT JOIN mshost AS m ON m.last_update > ? AND m.removed IS NULL";
+
+    private Connection _conn;
+    private PreparedStatement _heartbeatStmt;
+    private PreparedStatement _peerScanStmt;
+
+    public static class PeerScanResult {
+        private final List<ManagementServerHostVO> _activeList;
+        private final int _seenDownCount;
+
+        public PeerScanResult(List<ManagementServerHostVO> activeList, int seenDownCount) {
+            _activeList = activeList;
+            _seenDownCount = seenDownCount;
+        }
+
+        public List<ManagementServerHostVO> getActiveList() {
+            return _activeList;
+        }
+
+        public int getSeenDownCount() {
+            return _seenDownCount;
+        }
+    }
+
+    public synchronized void heartbeat(Connection conn, long id, long runid, Date lastUpdate) {
+        try {
+            prepare(conn);
+
+            _heartbeatStmt.setString(1, DateUtil.getDateDisplayString(s_gmtTimeZone, lastUpdate));
+            _heartbeatStmt.setLong(2, id);
+            _heartbeatStmt.setLong(3, runid);
+            int count = _heartbeatStmt.executeUpdate();
+            if(!conn.getAutoCommit()) {
+                conn.commit();
+            }
+
+            if(count < 1) {
+                throw new CloudRuntimeException("Invalid cluster session detected", new ClusterInvalidSessionException("runid " + runid + " is no longer valid"));
+            }
+        } catch(SQLException e) {
+            close();
+            throw new CloudRuntimeException("DB exception on cluster heartbeat update", e);
+        }
+    }
+
+    public synchronized PeerScanResult peerScan(Connection conn, long id, long runid, Date cutTime) {
+        List<ManagementServerHostVO> activeList = new ArrayList<ManagementServerHostVO>();
+        int seenDownCount = 0;
+
+        ResultSet rs = null;
+        try {
+            prepare(conn);
+
+            _peerScanStmt.setLong(1, id);
+            _peerScanStmt.setLong(2, runid);
+            _peerScanStmt.setString(3, ManagementServerHost.State.Down.toString());
+            _peerScanStmt.setString(4, DateUtil.getDateDisplayString(s_gmtTimeZone, cutTime));
+
+            rs = _peerScanStmt.executeQuery();
+            while(rs.next()) {
+                seenDownCount = rs.getInt(11);
+
+                long mshostId = rs.getLong(1);
+                if(rs.wasNull()) {
+                    continue;
+                }
+
+                ManagementServerHostVO mshost = new ManagementServerHostVO();
+                mshost.setId(mshostId);
+                mshost.setMsid(rs.getLong(2));
+                mshost.setRunid(rs.getLong(3));
+                mshost.setName(rs.getString(4));
+                mshost.setState(ManagementServerHost.State.valueOf(rs.getString(5)));
+                mshost.setVersion(rs.getString(6));
+                mshost.setServiceIP(rs.getString(7));
+                mshost.setServicePort(rs.getInt(8));
+                String lastUpdate = rs.getString(9);
+                if(lastUpdate != null) {
+                    mshost.setLastUpdateTime(DateUtil.parseDateString(s_gmtTimeZone, lastUpdate));
+                }
+                mshost.setAlertCount(rs.getInt(10));
+                activeList.add(mshost);
+            }
+
+            if(!conn.getAutoCommit()) {
+                conn.commit();
+            }
+        } catch(SQLException e) {
+            close();
+            throw new CloudRuntimeException("DB exception on cluster peer scan", e);
+        } finally {
+            if(rs != null) {
+                try {
+                    rs.close();
+                } catch(SQLException e) {
+                }
+            }
+        }
+
+        return new PeerScanResult(activeList, seenDownCount);
+    }
+
+    public synchronized void close() {
+        closeStatement(_heartbeatStmt);
+        closeStatement(_peerScanStmt);
+        _heartbeatStmt = null;
+        _peerScanStmt = null;
+        _conn = null;
+    }
+
+    private void prepare(Connection conn) throws SQLException {
+        if(_conn != conn || _heartbeatStmt == null || _peerScanStmt == null) {
+            close();
+
+            if(s_logger.isDebugEnabled()) {
+                s_logger.debug("Preparing cluster heartbeat statements on connection " + conn);
+            }
+            _heartbeatStmt = conn.prepareStatement(HEARTBEAT_SQL);
+            _peerScanStmt = conn.prepareStatement(PEER_SCAN_SQL);
+            _conn = conn;
+        }
+    }
+
+    private static void closeStatement(PreparedStatement pstmt) {
+        if(pstmt != null) {
+            try {
+                pstmt.close();
+            } catch(SQLException e) {
+            }
+        }
+    }
+}
@@ -34,6 +34,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ejb.Local;
 import javax.naming.ConfigurationException;
@@ -64,6 +65,7 @@ import com.cloud.resource.ResourceManager;
 import com.cloud.resource.ResourceState;
 import com.cloud.serializer.GsonHelper;
 import com.cloud.utils.DateUtil;
+import com.cloud.utils.LatencyHistogram;
 import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Profiler;
 import com.cloud.utils.PropertiesUtil;
@@ -110,6 +112,10 @@ public class ClusterManagerImpl implements ClusterManager {
     private final ExecutorService _notificationExecutor = Executors.newFixedThreadPool(1, new NamedThreadFactory("Cluster-Notification"));
     private final List<ClusterManagerMessage> _notificationMsgs = new ArrayList<ClusterManagerMessage>();
     private ConnectionConcierge _heartbeatConnection = null;
+    private final ClusterHeartbeatStatements _heartbeatStatements = new ClusterHeartbeatStatements();
+    private final LatencyHistogram _heartbeatLatency = new LatencyHistogram();
+    private final LatencyHistogram _peerScanLatency = new LatencyHistogram();
+    private final AtomicLong _heartbeatOverrunCount = new AtomicLong();
 
     private final ExecutorService _executor;
 
@@ -524,16 +530,17 @@ public class ClusterManagerImpl implements ClusterManager {
 
     @Override
     public Answer[] execute(String strPeer, long agentId, Command [] cmds, boolean stopOnError) {
+        // serialize once, the same json is used for logging and for the pdu
+        String json = _gson.toJson(cmds, Command[].class);
         if(s_logger.isDebugEnabled()) {
-            s_logger.debug(getSelfPeerName() + " -> " + strPeer + "." + agentId + " " +
-                    _gson.toJson(cmds, Command[].class));
+            s_logger.debug(getSelfPeerName() + " -> " + strPeer + "." + agentId + " " + json);
         }
         
         ClusterServiceRequestPdu pdu = new ClusterServiceRequestPdu();
         pdu.setSourcePeer(getSelfPeerName());
         pdu.setDestPeer(strPeer);
         pdu.setAgentId(agentId);
-        pdu.setJsonPackage(_gson.toJson(cmds, Command[].class));
+        pdu.setJsonPackage(json);
         pdu.setStopOnError(stopOnError);
         registerRequestPdu(pdu);
         addOutgoingClusterPdu(pdu);
@@ -706,12 +713,13 @@ public class ClusterManagerImpl implements ClusterManager {
                         profiler.start();
                         
                         profilerHeartbeatUpdate.start();
-                        txn.transitToUserManagedConnection(getHeartbeatConnection());
+                        Connection conn = getHeartbeatConnection();
+                        txn.transitToUserManagedConnection(conn);
                         if(s_logger.isTraceEnabled()) {
                             s_logger.trace("Cluster manager heartbeat update, id:" + _mshostId);
                         }
     
-                        _mshostDao.update(_mshostId, getCurrentRunId(), DateUtil.currentGMTTime());
+                        _heartbeatStatements.heartbeat(conn, _mshostId, getCurrentRunId(), DateUtil.currentGMTTime());
                         profilerHeartbeatUpdate.stop();
     
                         profilerPeerScan.start();
@@ -724,8 +732,9 @@ public class ClusterManagerImpl implements ClusterManager {
                             initPeerScan();
                         }
                         
-                        peerScan();
+                        peerScan(conn);
                         profilerPeerScan.stop();
+                        _peerScanLatency.record(profilerPeerScan.getDuration());
                         
                         profilerAgentLB.start();
                         //initiate agent lb task will be scheduled and executed only once, and only when number of agents loaded exceeds _connectedAgentsThreshold
@@ -754,8 +763,10 @@ public class ClusterManagerImpl implements ClusterManager {
                         profilerAgentLB.stop();
                     } finally {
                         profiler.stop();
+                        _heartbeatLatency.record(profiler.getDuration());
                         
                         if(profiler.getDuration() >= _heartbeatInterval) {
+                            _heartbeatOverrunCount.incrementAndGet();
                             if(s_logger.isDebugEnabled())
                                 s_logger.debug("Management server heartbeat takes too long to finish. profiler: " + profiler.toString() + 
                                     ", profilerHeartbeatUpdate: " + profilerHeartbeatUpdate.toString() +
@@ -809,7 +820,10 @@ public class ClusterManagerImpl implements ClusterManager {
 
     private Connection getHeartbeatConnection() throws SQLException {
         if(_heartbeatConnection == null) {
+            // heartbeat runs on its own connection outside of the pool checkout path, in auto-commit mode so that
+            // each peer scan sees the latest heartbeat of its peers
             Connection conn = Transaction.getStandaloneConnectionWithException();
+            conn.setAutoCommit(true);
             _heartbeatConnection = new ConnectionConcierge("ClusterManagerHeartBeat", conn, false);
         }
 
@@ -817,6 +831,7 @@ public class ClusterManagerImpl implements ClusterManager {
     }
 
     private void invalidHeartbeatConnection() {
+        _heartbeatStatements.close();
         if(_heartbeatConnection != null) {
             Connection conn = Transaction.getStandaloneConnection();
             if (conn != null) {
@@ -983,7 +998,7 @@ public class ClusterManagerImpl implements ClusterManager {
         }
     }
 
-    private void peerScan() throws ActiveFencingException {
+    private void peerScan(Connection conn) throws ActiveFencingException {
         Date cutTime = DateUtil.currentGMTTime();
 
         Profiler profiler = new Profiler();
@@ -991,7 +1006,16 @@ public class ClusterManagerImpl implements ClusterManager {
         
         Profiler profilerQueryActiveList = new Profiler();
         profilerQueryActiveList.start();
-        List<ManagementServerHostVO> currentList = _mshostDao.getActiveList(new Date(cutTime.getTime() - _heartbeatThreshold));
+        List<ManagementServerHostVO> currentList;
+        int seenDownCount = 0;
+        if(_mshostId != null) {
+            // active list and fencing check in a single round trip
+            ClusterHeartbeatStatements.PeerScanResult result = _heartbeatStatements.peerScan(conn, _mshostId, _runId, new Date(cutTime.getTime() - _heartbeatThreshold));
+            currentList = result.getActiveList();
+            seenDownCount = result.getSeenDownCount();
+        } else {
+            currentList = _mshostDao.getActiveList(new Date(cutTime.getTime() - _heartbeatThreshold));
+        }
         profilerQueryActiveList.stop();
 
         Profiler profilerSyncClusterInfo = new Profiler();
@@ -1001,7 +1025,7 @@ public class ClusterManagerImpl implements ClusterManager {
 
         if(_mshostId != null) {
             
-            if(_mshostPeerDao.countStateSeenInPeers(_mshostId, _runId, ManagementServerHost.State.Down) > 0) {
+            if(seenDownCount > 0) {
                 String msg = "We have detected that at least one management server peer reports that this management server is down, perform active fencing to avoid split-brain situation";
                 s_logger.error(msg);
                 throw new ActiveFencingException(msg);
@@ -1416,6 +1440,18 @@ public class ClusterManagerImpl implements ClusterManager {
         return this._heartbeatInterval;
     }
 
+    public LatencyHistogram getHeartbeatLatency() {
+        return _heartbeatLatency;
+    }
+
+    public LatencyHistogram getPeerScanLatency() {
+        return _peerScanLatency;
+    }
+
+    public long getHeartbeatOverrunCount() {
+        return _heartbeatOverrunCount.get();
+    }
+
     public void setHeartbeatThreshold(int threshold) {
         _heartbeatThreshold = threshold;
     }
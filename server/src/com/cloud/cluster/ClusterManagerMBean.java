@@ -20,4 +20,10 @@ public interface ClusterManagerMBean {
 	public int getHeartbeatInterval();
 	public int getHeartbeatThreshold();
 	public void setHeartbeatThreshold(int threshold);
+	public long getHeartbeatCount();
+	public long getHeartbeatOverrunCount();
+	public long getHeartbeatMaxLatency();
+	public long getHeartbeatAverageLatency();
+	public String getHeartbeatLatencyHistogram();
+	public String getPeerScanLatencyHistogram();
 }
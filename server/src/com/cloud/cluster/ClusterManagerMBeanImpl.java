@@ -60,4 +60,29 @@ public class ClusterManagerMBeanImpl extends StandardMBean implements ClusterMan
     	if(threshold >= ClusterManager.DEFAULT_HEARTBEAT_THRESHOLD)
     		_clusterMgr.setHeartbeatThreshold(threshold);
 	}
+	
+	// heartbeat statistics are those of the local management server
+	public long getHeartbeatCount() {
+		return _clusterMgr.getHeartbeatLatency().getCount();
+	}
+	
+	public long getHeartbeatOverrunCount() {
+		return _clusterMgr.getHeartbeatOverrunCount();
+	}
+	
+	public long getHeartbeatMaxLatency() {
+		return _clusterMgr.getHeartbeatLatency().getMax();
+	}
+	
+	public long getHeartbeatAverageLatency() {
+		return _clusterMgr.getHeartbeatLatency().getAverage();
+	}
+	
+	public String getHeartbeatLatencyHistogram() {
+		return _clusterMgr.getHeartbeatLatency().toString();
+	}
+	
+	public String getPeerScanLatencyHistogram() {
+		return _clusterMgr.getPeerScanLatency().toString();
+	}
 }
@@ -0,0 +1,163 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary framing of cluster service PDUs carried over the persistent nio peer connection.
+ * Every frame starts with a version byte, a frame type and the request id that ties an
+ * acknowledgement back to the outstanding request, so that many requests can be pipelined
+ * on the same connection.
+ */
+public class ClusterServiceNioCodec {
+    public static final byte VERSION = 1;
+
+    public static final byte FRAME_TYPE_PDU = 1;
+    public static final byte FRAME_TYPE_ACK = 2;
+    public static final byte FRAME_TYPE_PING = 3;
+
+    public static class Frame {
+        private final byte _type;
+        private final long _requestId;
+        private final ClusterServicePdu _pdu;
+        private final boolean _result;
+        private final String _callingPeer;
+
+        public Frame(byte type, long requestId, ClusterServicePdu pdu, boolean result, String callingPeer) {
+            _type = type;
+            _requestId = requestId;
+            _pdu = pdu;
+            _result = result;
+            _callingPeer = callingPeer;
+        }
+
+        public byte getType() {
+            return _type;
+        }
+
+        public long getRequestId() {
+            return _requestId;
+        }
+
+        public ClusterServicePdu getPdu() {
+            return _pdu;
+        }
+
+        public boolean getResult() {
+            return _result;
+        }
+
+        public String getCallingPeer() {
+            return _callingPeer;
+        }
+    }
+
+    public static byte[] encodePdu(long requestId, ClusterServicePdu pdu) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256 + (pdu.getJsonPackage() != null ? pdu.getJsonPackage().length() : 0));
+        DataOutputStream out = new DataOutputStream(bos);
+        writeHeader(out, FRAME_TYPE_PDU, requestId);
+        out.writeInt(pdu.getPduType());
+        out.writeLong(pdu.getSequenceId());
+        out.writeLong(pdu.getAckSequenceId());
+        out.writeLong(pdu.getAgentId());
+        out.writeBoolean(pdu.isStopOnError());
+        writeString(out, pdu.getSourcePeer());
+        writeString(out, pdu.getDestPeer());
+        writeString(out, pdu.getJsonPackage());
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    public static byte[] encodeAck(long requestId, boolean result) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(16);
+        DataOutputStream out = new DataOutputStream(bos);
+        writeHeader(out, FRAME_TYPE_ACK, requestId);
+        out.writeBoolean(result);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    public static byte[] encodePing(long requestId, String callingPeer) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bos);
+        writeHeader(out, FRAME_TYPE_PING, requestId);
+        writeString(out, callingPeer);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    public static Frame decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported cluster frame version " + version);
+        }
+
+        byte type = in.readByte();
+        long requestId = in.readLong();
+        switch (type) {
+        case FRAME_TYPE_PDU:
+            ClusterServicePdu pdu = new ClusterServicePdu();
+            pdu.setPduType(in.readInt());
+            pdu.setSequenceId(in.readLong());
+            pdu.setAckSequenceId(in.readLong());
+            pdu.setAgentId(in.readLong());
+            pdu.setStopOnError(in.readBoolean());
+            pdu.setSourcePeer(readString(in));
+            pdu.setDestPeer(readString(in));
+            pdu.setJsonPackage(readString(in));
+            return new Frame(type, requestId, pdu, false, null);
+
+        case FRAME_TYPE_ACK:
+            return new Frame(type, requestId, null, in.readBoolean(), null);
+
+        case FRAME_TYPE_PING:
+            return new Frame(type, requestId, null, false, readString(in));
+
+        default:
+            throw new IOException("Unknown cluster frame type " + type);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, byte type, long requestId) throws IOException {
+        out.writeByte(VERSION);
+        out.writeByte(type);
+        out.writeLong(requestId);
+    }
+
+    // DataOutputStream.writeUTF() is limited to 64K, json packages of command batches can be larger
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,310 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.cluster;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioClient;
+import com.cloud.utils.nio.Task;
+
+/**
+ * Cluster service stub that keeps one persistent nio connection to a peer. Requests are tagged with
+ * a request id and pipelined on the connection, instead of paying a HTTP request/response per PDU.
+ * When the peer can not be reached through nio (e.g. an older peer without nio service), requests
+ * fall back to the servlet transport. Connecting is done in the background, senders never wait for
+ * it; a failed attempt is retried with an exponential backoff and requests go to the servlet
+ * transport in the meantime.
+ */
+public class ClusterServiceNioImpl implements ClusterService, HandlerFactory {
+    private static final Logger s_logger = Logger.getLogger(ClusterServiceNioImpl.class);
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final long MIN_RETRY_INTERVAL_MS = 5000;
+    private static final long MAX_RETRY_INTERVAL_MS = 300000;
+    private static final ExecutorService s_connectExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("ClusterNioConnect"));
+
+    private final String _peer;
+    private final String _peerIp;
+    private final int _port;
+    private final long _requestTimeoutMs;
+    private final ClusterService _fallback;
+
+    private final AtomicLong _nextRequestId = new AtomicLong(1);
+    private final Map<Long, PendingRequest> _pendingRequests = new HashMap<Long, PendingRequest>();
+
+    private NioClient _client;
+    private Link _link;
+    private boolean _connecting;
+    private long _nextConnectTime;
+    private long _retryInterval = MIN_RETRY_INTERVAL_MS;
+
+    public ClusterServiceNioImpl(String peer, String peerIp, int port, int requestTimeoutSeconds, ClusterService fallback) {
+        s_logger.info("Setup cluster service nio transport to peer " + peer + " at " + peerIp + ":" + port + ", request timeout: " + requestTimeoutSeconds + " seconds");
+
+        _peer = peer;
+        _peerIp = peerIp;
+        _port = port;
+        _requestTimeoutMs = requestTimeoutSeconds * 1000L;
+        _fallback = fallback;
+    }
+
+    @Override
+    public String execute(ClusterServicePdu pdu) throws RemoteException {
+        Link link = getLink();
+        if (link == null) {
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Nio transport to peer " + _peer + " is not available, fall back to servlet for pdu seq: " + pdu.getSequenceId());
+            }
+            return _fallback.execute(pdu);
+        }
+
+        long requestId = _nextRequestId.getAndIncrement();
+        byte[] data;
+        try {
+            data = ClusterServiceNioCodec.encodePdu(requestId, pdu);
+        } catch (IOException e) {
+            throw new RemoteException("Unable to encode cluster pdu to peer " + _peer, e);
+        }
+
+        Boolean result = sendAndWait(link, requestId, data);
+        return result.booleanValue() ? "true" : "false";
+    }
+
+    @Override
+    public boolean ping(String callingPeer) throws RemoteException {
+        Link link = getLink();
+        if (link == null) {
+            return _fallback.ping(callingPeer);
+        }
+
+        long requestId = _nextRequestId.getAndIncrement();
+        try {
+            return sendAndWait(link, requestId, ClusterServiceNioCodec.encodePing(requestId, callingPeer)).booleanValue();
+        } catch (IOException e) {
+            throw new RemoteException("Unable to ping peer " + _peer, e);
+        }
+    }
+
+    private Boolean sendAndWait(Link link, long requestId, byte[] data) throws RemoteException {
+        PendingRequest request = new PendingRequest();
+        synchronized (_pendingRequests) {
+            _pendingRequests.put(requestId, request);
+        }
+
+        long startTick = System.currentTimeMillis();
+        try {
+            link.send(data);
+
+            synchronized (request) {
+                while (!request.isDone()) {
+                    long remaining = _requestTimeoutMs - (System.currentTimeMillis() - startTick);
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    request.wait(remaining);
+                }
+            }
+        } catch (IOException e) {
+            disconnect();
+            throw new RemoteException("Unable to send cluster request to peer " + _peer, e);
+        } catch (InterruptedException e) {
+            s_logger.warn("Interrupted while waiting for cluster request " + requestId + " to peer " + _peer);
+        } finally {
+            synchronized (_pendingRequests) {
+                _pendingRequests.remove(requestId);
+            }
+        }
+
+        if (request.getResult() == null) {
+            disconnect();
+            throw new RemoteException("Cluster request " + requestId + " to peer " + _peer + " failed after " + (System.currentTimeMillis() - startTick) + " ms");
+        }
+
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Cluster request " + requestId + " to peer " + _peer + " acknowledged in " + (System.currentTimeMillis() - startTick) + " ms");
+        }
+        return request.getResult();
+    }
+
+    private Link getLink() {
+        synchronized (this) {
+            if (_link != null || _connecting || System.currentTimeMillis() < _nextConnectTime) {
+                return _link;
+            }
+            _connecting = true;
+        }
+
+        s_connectExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                connect();
+            }
+        });
+        return null;
+    }
+
+    private void connect() {
+        NioClient client = new NioClient("ClusterPeer-" + _peer, _peerIp, _port, 1, this);
+        client.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        client.start();
+
+        boolean connected = false;
+        synchronized (this) {
+            if (client.isStartup()) {
+                // the link is handed over to us through the CONNECT task which runs in the client worker
+                long startTick = System.currentTimeMillis();
+                long remaining = CONNECT_TIMEOUT_MS;
+                while (_link == null && remaining > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    remaining = CONNECT_TIMEOUT_MS - (System.currentTimeMillis() - startTick);
+                }
+                connected = _link != null;
+            }
+
+            _connecting = false;
+            if (connected) {
+                _client = client;
+                _retryInterval = MIN_RETRY_INTERVAL_MS;
+                _nextConnectTime = 0;
+            } else {
+                _nextConnectTime = System.currentTimeMillis() + _retryInterval;
+                _retryInterval = Math.min(_retryInterval * 2, MAX_RETRY_INTERVAL_MS);
+            }
+        }
+
+        if (connected) {
+            s_logger.info("Connected to peer " + _peer + " at " + _peerIp + ":" + _port + " through nio");
+        } else {
+            s_logger.info("Unable to connect to peer " + _peer + " at " + _peerIp + ":" + _port + " through nio, use servlet transport until next retry");
+            client.stop();
+        }
+    }
+
+    public String getPeerIp() {
+        return _peerIp;
+    }
+
+    public int getPort() {
+        return _port;
+    }
+
+    public synchronized boolean isConnected() {
+        return _link != null;
+    }
+
+    public void stop() {
+        disconnect();
+    }
+
+    private synchronized void onConnected(Link link) {
+        if (!_connecting) {
+            // the connect attempt has already been given up, the client is being stopped
+            return;
+        }
+        _link = link;
+        notifyAll();
+    }
+
+    private void disconnect() {
+        NioClient client;
+        synchronized (this) {
+            _link = null;
+            client = _client;
+            _client = null;
+        }
+        if (client != null) {
+            client.stop();
+        }
+
+        List<PendingRequest> pendings;
+        synchronized (_pendingRequests) {
+            pendings = new ArrayList<PendingRequest>(_pendingRequests.values());
+            _pendingRequests.clear();
+        }
+        for (PendingRequest request : pendings) {
+            request.complete(null);
+        }
+    }
+
+    @Override
+    public Task create(Task.Type type, Link link, byte[] data) {
+        return new ClientTask(type, link, data);
+    }
+
+    protected class ClientTask extends Task {
+        public ClientTask(Task.Type type, Link link, byte[] data) {
+            super(type, link, data);
+        }
+
+        @Override
+        protected void doTask(Task task) throws Exception {
+            if (task.getType() == Task.Type.CONNECT) {
+                onConnected(task.getLink());
+            } else if (task.getType() == Task.Type.DISCONNECT) {
+                s_logger.info("Nio connection to peer " + _peer + " is closed");
+                disconnect();
+            } else if (task.getType() == Task.Type.DATA) {
+                ClusterServiceNioCodec.Frame frame = ClusterServiceNioCodec.decode(task.getData());
+                if (frame.getType() != ClusterServiceNioCodec.FRAME_TYPE_ACK) {
+                    s_logger.warn("Unexpected cluster frame type " + frame.getType() + " from peer " + _peer);
+                    return;
+                }
+
+                PendingRequest request;
+                synchronized (_pendingRequests) {
+                    request = _pendingRequests.get(frame.getRequestId());
+                }
+                if (request != null) {
+                    request.complete(frame.getResult());
+                } else {
+                    s_logger.warn("Cluster request " + frame.getRequestId() + " to peer " + _peer + " has already been cancelled");
+                }
+            }
+        }
+    }
+
+    private static class PendingRequest {
+        private boolean _done;
+        private Boolean _result;
+
+        public synchronized void complete(Boolean result) {
+            _result = result;
+            _done = true;
+            notifyAll();
+        }
+
+        public synchronized boolean isDone() {
+            return _done;
+        }
+
+        public synchronized Boolean getResult() {
+            return _result;
+        }
+    }
+}
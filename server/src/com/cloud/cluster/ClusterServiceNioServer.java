@@ -0,0 +1,101 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.cluster;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.nio.HandlerFactory;
+import com.cloud.utils.nio.Link;
+import com.cloud.utils.nio.NioServer;
+import com.cloud.utils.nio.Task;
+
+/**
+ * Accepting side of the nio cluster transport, PDUs are handed to the cluster manager
+ * the same way ClusterServiceServletHttpHandler does it and acknowledged on the same link
+ */
+public class ClusterServiceNioServer implements HandlerFactory {
+    private static final Logger s_logger = Logger.getLogger(ClusterServiceNioServer.class);
+    private static final int DEFAULT_WORKERS = 5;
+
+    private final ClusterManager _manager;
+    private final NioServer _server;
+
+    public ClusterServiceNioServer(ClusterManager manager, int port) {
+        _manager = manager;
+        _server = new NioServer("ClusterServiceNio", port, DEFAULT_WORKERS, this);
+    }
+
+    public void start() {
+        _server.start();
+        if (!_server.isStartup()) {
+            s_logger.error("Unable to start cluster nio service, peers will fall back to servlet transport");
+        }
+    }
+
+    public void stop() {
+        _server.stop();
+    }
+
+    @Override
+    public Task create(Task.Type type, Link link, byte[] data) {
+        return new ServiceTask(type, link, data);
+    }
+
+    protected class ServiceTask extends Task {
+        public ServiceTask(Task.Type type, Link link, byte[] data) {
+            super(type, link, data);
+        }
+
+        @Override
+        protected void doTask(Task task) throws Exception {
+            if (task.getType() != Task.Type.DATA) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Cluster nio link " + task.getLink().getIpAddress() + " " + task.getType());
+                }
+                return;
+            }
+
+            ClusterServiceNioCodec.Frame frame;
+            try {
+                frame = ClusterServiceNioCodec.decode(task.getData());
+            } catch (IOException e) {
+                s_logger.warn("Drop invalid cluster frame from " + task.getLink().getIpAddress() + ", " + e.getMessage());
+                return;
+            }
+
+            switch (frame.getType()) {
+            case ClusterServiceNioCodec.FRAME_TYPE_PDU:
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Received cluster PDU " + frame.getPdu().getSourcePeer() + " -> " + frame.getPdu().getDestPeer()
+                            + ", request: " + frame.getRequestId() + ", pdu seq: " + frame.getPdu().getSequenceId());
+                }
+                _manager.OnReceiveClusterServicePdu(frame.getPdu());
+                task.getLink().send(ClusterServiceNioCodec.encodeAck(frame.getRequestId(), true));
+                break;
+
+            case ClusterServiceNioCodec.FRAME_TYPE_PING:
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Handle ping request from " + frame.getCallingPeer());
+                }
+                task.getLink().send(ClusterServiceNioCodec.encodeAck(frame.getRequestId(), true));
+                break;
+
+            default:
+                s_logger.warn("Unexpected cluster frame type " + frame.getType() + " from " + task.getLink().getIpAddress());
+                break;
+            }
+        }
+    }
+}
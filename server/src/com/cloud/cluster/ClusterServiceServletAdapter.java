@@ -17,6 +17,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.rmi.RemoteException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
@@ -37,6 +38,9 @@ public class ClusterServiceServletAdapter implements ClusterServiceAdapter {
 
     private static final Logger s_logger = Logger.getLogger(ClusterServiceServletAdapter.class);
     private static final int DEFAULT_SERVICE_PORT = 9090;
+    // nio service listens next to the servlet port, so a peer's nio port follows from its servlet port
+    private static final int NIO_SERVICE_PORT_OFFSET = 1;
+    private static final String TRANSPORT_NIO = "nio";
     private static final int DEFAULT_REQUEST_TIMEOUT = 300;			// 300 seconds
     
     private ClusterManager _manager;
@@ -46,9 +50,12 @@ public class ClusterServiceServletAdapter implements ClusterServiceAdapter {
     private ConfigurationDao _configDao;
     
     private ClusterServiceServletContainer _servletContainer;
+    private ClusterServiceNioServer _nioServer;
+    private final Map<String, ClusterServiceNioImpl> _nioPeers = new HashMap<String, ClusterServiceNioImpl>();
     
     private String _name;
     private int _clusterServicePort = DEFAULT_SERVICE_PORT;
+    private boolean _nioTransport = false;
     
     private int _clusterRequestTimeoutSeconds = DEFAULT_REQUEST_TIMEOUT;
     
@@ -61,13 +68,41 @@ public class ClusterServiceServletAdapter implements ClusterServiceAdapter {
     		throw new RemoteException("Unable to init ClusterServiceServletAdapter");
     	}
     	
-    	String serviceUrl = getServiceEndpointName(strPeer);
-    	if(serviceUrl == null)
+    	ManagementServerHostVO mshost = _mshostDao.findByMsid(Long.parseLong(strPeer));
+    	if(mshost == null)
     		return null;
     	
-    	return new ClusterServiceServletImpl(serviceUrl, _clusterRequestTimeoutSeconds);
+    	String serviceUrl = composeEndpointName(mshost.getServiceIP(), mshost.getServicePort());
+    	ClusterService servletService = new ClusterServiceServletImpl(serviceUrl, _clusterRequestTimeoutSeconds);
+    	if(!_nioTransport)
+    		return servletService;
+    	
+    	return getNioPeerService(strPeer, mshost.getServiceIP(), mshost.getServicePort() + NIO_SERVICE_PORT_OFFSET, servletService);
 	}
     
+    // nio stubs are kept across peer service invalidations, so that connect failure and backoff state
+    // of a peer survives and we don't keep probing a peer that has no nio service
+    private ClusterService getNioPeerService(String strPeer, String peerIp, int peerPort, ClusterService servletService) {
+    	ClusterServiceNioImpl stale = null;
+    	ClusterServiceNioImpl service;
+    	synchronized(_nioPeers) {
+    		service = _nioPeers.get(strPeer);
+    		if(service != null && (!service.getPeerIp().equals(peerIp) || service.getPort() != peerPort)) {
+    			stale = service;
+    			service = null;
+    		}
+    		
+    		if(service == null) {
+    			service = new ClusterServiceNioImpl(strPeer, peerIp, peerPort, _clusterRequestTimeoutSeconds, servletService);
+    			_nioPeers.put(strPeer, service);
+    		}
+    	}
+    	
+    	if(stale != null)
+    		stale.stop();
+    	return service;
+    }
+    
     @Override
 	public String getServiceEndpointName(String strPeer) {
     	try {
@@ -114,6 +149,12 @@ public class ClusterServiceServletAdapter implements ClusterServiceAdapter {
     public boolean start() {
     	_servletContainer = new ClusterServiceServletContainer();
     	_servletContainer.start(new ClusterServiceServletHttpHandler(_manager), _clusterServicePort);
+    	
+    	// servlet service is always kept running, it serves peers that are not on nio transport
+    	if(_nioTransport) {
+    		_nioServer = new ClusterServiceNioServer(_manager, _clusterServicePort + NIO_SERVICE_PORT_OFFSET);
+    		_nioServer.start();
+    	}
     	return true;
     }
     
@@ -121,6 +162,14 @@ public class ClusterServiceServletAdapter implements ClusterServiceAdapter {
     public boolean stop() {
     	if(_servletContainer != null)
     		_servletContainer.stop();
+    	if(_nioServer != null)
+    		_nioServer.stop();
+    	
+    	synchronized(_nioPeers) {
+    		for(ClusterServiceNioImpl service : _nioPeers.values())
+    			service.stop();
+    		_nioPeers.clear();
+    	}
     	return true;
     }
     
@@ -148,6 +197,9 @@ public class ClusterServiceServletAdapter implements ClusterServiceAdapter {
         String value = _configDao.getValue(Config.ClusterMessageTimeOutSeconds.key());
     	_clusterRequestTimeoutSeconds = NumbersUtil.parseInt(value, DEFAULT_REQUEST_TIMEOUT);
     	s_logger.info("Configure cluster request time out. timeout: " + _clusterRequestTimeoutSeconds + " seconds");
+    	
+    	_nioTransport = TRANSPORT_NIO.equalsIgnoreCase(_configDao.getValue(Config.ClusterServiceTransport.key()));
+    	s_logger.info("Configure cluster service transport: " + (_nioTransport ? "nio" : "servlet"));
         
         File dbPropsFile = PropertiesUtil.findConfigFile("db.properties");
         Properties dbProps = new Properties();
@@ -162,5 +214,7 @@ public class ClusterServiceServletAdapter implements ClusterServiceAdapter {
         _clusterServicePort = NumbersUtil.parseInt(dbProps.getProperty("cluster.servlet.port"), DEFAULT_SERVICE_PORT);
         if(s_logger.isInfoEnabled())
         	s_logger.info("Cluster servlet port : " + _clusterServicePort);
+        if(_nioTransport && s_logger.isInfoEnabled())
+        	s_logger.info("Cluster nio port : " + (_clusterServicePort + NIO_SERVICE_PORT_OFFSET));
     }
 }
@@ -128,6 +128,9 @@ public enum Config {
     SnapshotWeeklyMax("Snapshots", SnapshotManager.class, Integer.class, "snapshot.max.weekly", "8", "Maximum weekly snapshots for a volume", null),
     SnapshotMonthlyMax("Snapshots", SnapshotManager.class, Integer.class, "snapshot.max.monthly", "8", "Maximum monthly snapshots for a volume", null),
     SnapshotPollInterval("Snapshots", SnapshotManager.class, Integer.class, "snapshot.poll.interval", "300", "The time interval in seconds when the management server polls for snapshots to be scheduled.", null),
+    SnapshotPollJitterWindow("Snapshots", SnapshotManager.class, Integer.class, "snapshot.poll.jitter.window", "1800", "The window in seconds over which recurring snapshots scheduled at the same time are spread, each volume by a fixed offset.", null),
+    SnapshotMaxConcurrentPerPool("Snapshots", SnapshotManager.class, Integer.class, "snapshot.max.concurrent.per.pool", "4", "Maximum number of recurring snapshots backed up at the same time from a storage pool, 0 for no limit.", null),
+    SnapshotMaxConcurrentPerHost("Snapshots", SnapshotManager.class, Integer.class, "snapshot.max.concurrent.per.host", "2", "Maximum number of recurring snapshots backed up at the same time through a host, 0 for no limit.", null),
     SnapshotDeltaMax("Snapshots", SnapshotManager.class, Integer.class, "snapshot.delta.max", "16", "max delta snapshots between two full snapshots.", null),
     
 	// Advanced
@@ -137,6 +140,8 @@ public enum Config {
             "Advanced", ManagementServer.class, Boolean.class, "swift.enable", "false", "enable swift ", null),
 	
 	AccountCleanupInterval("Advanced", ManagementServer.class, Integer.class, "account.cleanup.interval", "86400", "The interval (in seconds) between cleanup for removed accounts", null),
+	ApiKeyCacheTtl("Advanced", ManagementServer.class, Integer.class, "api.key.cache.ttl", "30", "Time (in seconds) the user and account of an api key are cached for signed api requests. Key and state changes made on other management servers take up to this long to apply, 0 disables the cache", null),
+	ApiKeyCacheSize("Advanced", ManagementServer.class, Integer.class, "api.key.cache.size", "10000", "Maximum number of api keys cached for signed api requests", null),
 	AllowPublicUserTemplates("Advanced", ManagementServer.class, Integer.class, "allow.public.user.templates", "true", "If false, users will not be able to create public templates.", null),
 	InstanceName("Advanced", AgentManager.class, String.class, "instance.name", "VM", "Name of the deployment instance.", "instanceName"),
 	ExpungeDelay("Advanced", UserVmManager.class, Integer.class, "expunge.delay", "86400", "Determines how long (in seconds) to wait before actually expunging destroyed vm. The default value = the default value of expunge.interval", null),
@@ -294,6 +299,8 @@ public enum Config {
 	DefaultMaxAccountNetworks("Account Defaults", ManagementServer.class, Long.class, "max.account.networks", "20", "The default maximum number of networks that can be created for an account", null),
 	
 	ResourceCountCheckInterval("Advanced", ManagementServer.class, Long.class, "resourcecount.check.interval", "0", "Time (in seconds) to wait before retrying resource count check task. Default is 0 which is to never run the task", "Seconds"),
+	ResourceLimitCacheTtl("Advanced", ManagementServer.class, Integer.class, "resource.limit.cache.ttl", "60", "Time (in seconds) effective resource limits and resource count rows are cached for resource limit checks. Limit changes made on other management servers take up to this long to apply, 0 disables the cache", "Seconds"),
+	ResourceLimitCacheSize("Advanced", ManagementServer.class, Integer.class, "resource.limit.cache.size", "10000", "Maximum number of entries cached for resource limit checks", null),
 	DirectAgentLoadSize("Advanced", ManagementServer.class, Integer.class, "direct.agent.load.size", "16", "The number of direct agents to load each time", null),
 	
 	//disabling lb as cluster sync does not work with distributed cluster
@@ -304,6 +311,7 @@ public enum Config {
 	DnsBasicZoneUpdates("Advanced", NetworkManager.class, String.class, "network.dns.basiczone.updates", "all", "This parameter can take 2 values: all (default) and pod. It defines if DHCP/DNS requests have to be send to all dhcp servers in cloudstack, or only to the one in the same pod", "all,pod"),
 
 	ClusterMessageTimeOutSeconds("Advanced", ManagementServer.class, Integer.class, "cluster.message.timeout.seconds", "300", "Time (in seconds) to wait before a inter-management server message post times out.", null),
+	ClusterServiceTransport("Advanced", ManagementServer.class, String.class, "cluster.service.transport", "servlet", "Transport used for inter-management server messages. nio keeps one persistent connection per peer on cluster.servlet.port + 1 and falls back to servlet when the peer can not be reached", "servlet,nio"),
 	AgentLoadThreshold("Advanced", ManagementServer.class, Float.class, "agent.load.threshold", "0.7", "Percentage (as a value between 0 and 1) of connected agents after which agent load balancing will start happening", null),
 	
 	JavaScriptDefaultContentType("Advanced", ManagementServer.class, String.class, "json.content.type", "text/javascript", "Http response content type for .js files (default is text/javascript)", null),
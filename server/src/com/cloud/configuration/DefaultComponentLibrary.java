@@ -275,7 +275,9 @@ public class DefaultComponentLibrary extends ComponentLibraryBase implements Com
         addDao("DetailsDao", HostDetailsDaoImpl.class);
         addDao("SnapshotPolicyDao", SnapshotPolicyDaoImpl.class);
         addDao("SnapshotScheduleDao", SnapshotScheduleDaoImpl.class);
-        addDao("ClusterDao", ClusterDaoImpl.class);
+        info = addDao("ClusterDao", ClusterDaoImpl.class);
+        info.addParameter("cache.size", "50");
+        info.addParameter("cache.time.to.live", "600");
         addDao("CertificateDao", CertificateDaoImpl.class);
         addDao("NetworkConfigurationDao", NetworkDaoImpl.class);
         addDao("NetworkOfferingDao", NetworkOfferingDaoImpl.class);
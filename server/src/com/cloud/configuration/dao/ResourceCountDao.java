@@ -13,6 +13,7 @@
 package com.cloud.configuration.dao;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.cloud.configuration.Resource.ResourceOwnerType;
@@ -40,6 +41,13 @@ public interface ResourceCountDao extends GenericDao<ResourceCountVO, Long> {
 
     boolean updateById(long id, boolean increment, long delta);
 
+    /**
+     * Adds to the count of each row its delta, with one UPDATE per row, in id order.
+     * @param deltas delta of each row, by row id
+     * @return false if a row couldn't be updated.
+     */
+    boolean updateCounts(Map<Long, Long> deltas);
+
     void createResourceCounts(long ownerId, ResourceOwnerType ownerType);
     
     List<ResourceCountVO> listByOwnerId(long ownerId, ResourceOwnerType ownerType);
@@ -12,13 +12,19 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.configuration.dao;
 
+import java.sql.PreparedStatement;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import javax.ejb.Local;
 
+import org.apache.log4j.Logger;
+
 import com.cloud.configuration.Resource;
 import com.cloud.configuration.Resource.ResourceOwnerType;
 import com.cloud.configuration.Resource.ResourceType;
@@ -36,6 +42,9 @@ import com.cloud.utils.db.Transaction;
 
 @Local(value={ResourceCountDao.class})
 public class ResourceCountDaoImpl extends GenericDaoBase<ResourceCountVO, Long> implements ResourceCountDao {
+    private static final Logger s_logger = Logger.getLogger(ResourceCountDaoImpl.class);
+    private static final String UPDATE_COUNT_SQL = "UPDATE resource_count SET count = count + ? WHERE id = ?";
+
 	private SearchBuilder<ResourceCountVO> TypeSearch;
 	
 	private SearchBuilder<ResourceCountVO> AccountSearch;
@@ -113,6 +122,32 @@ public class ResourceCountDaoImpl extends GenericDaoBase<ResourceCountVO, Long>
 	    return update(resourceCountVO.getId(), resourceCountVO);
 	}
 	
+	@Override @DB
+	public boolean updateCounts(Map<Long, Long> deltas) {
+	    // update in id order: transactions updating rows of accounts in the same domain lock the shared rows in the same order
+	    SortedMap<Long, Long> sortedDeltas = new TreeMap<Long, Long>(deltas);
+	    boolean result = true;
+	    Transaction txn = Transaction.currentTxn();
+	    try {
+	        txn.start();
+	        PreparedStatement pstmt = txn.prepareAutoCloseStatement(UPDATE_COUNT_SQL);
+	        for (Map.Entry<Long, Long> delta : sortedDeltas.entrySet()) {
+	            pstmt.setLong(1, delta.getValue());
+	            pstmt.setLong(2, delta.getKey());
+	            if (pstmt.executeUpdate() != 1) {
+	                s_logger.trace("Unable to update resource count for the row " + delta.getKey());
+	                result = false;
+	            }
+	        }
+	        txn.commit();
+	    } catch (Exception e) {
+	        txn.rollback();
+	        s_logger.warn("Exception updating resource counts " + sortedDeltas, e);
+	        result = false;
+	    }
+	    return result;
+	}
+	
 	@Override
 	public Set<Long> listRowsToUpdateForDomain(long domainId, ResourceType type) {
 	    Set<Long> rowIds = new HashSet<Long>();
@@ -0,0 +1,307 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.dc.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.db.Transaction;
+
+/**
+ * Per management server free list of rows pre-claimed from an allocation table (op_dc_ip_address_alloc,
+ * op_dc_vnet_alloc). Instead of every allocation locking the first free row of the table, a small block of
+ * free rows is claimed with a single UPDATE ... LIMIT n and allocations are then served from memory.
+ * 
+ * A claimed row stays free (taken is null) and carries a claim marker in its reservation_id. The marker
+ * embeds the time the claim expires, after which any management server may claim the row again, so claims
+ * of a management server that went away do not leak. Serving a row is a conditional update on the marker,
+ * a row that was reclaimed or taken by someone else in the meantime is simply skipped.
+ * 
+ * Claims and unclaims are committed on their own connection, so the row locks of the claim UPDATE are not held
+ * until the transaction of the allocating caller commits.
+ */
+public class ClaimedFreeList<T> {
+    private static final Logger s_logger = Logger.getLogger(ClaimedFreeList.class);
+
+    public static final String MARKER_PREFIX = "c-";
+
+    /**
+     * Database operations of the free list, implemented by the dao owning the allocation table
+     */
+    public interface ClaimStore<T> {
+        /**
+         * claim up to count free rows of the scope that are neither taken nor under an unexpired claim.
+         * @return ids of the rows now carrying the marker
+         */
+        List<Long> claim(long scopeId, String marker, long now, int count);
+
+        /**
+         * give back rows still carrying the marker and not taken
+         */
+        void unclaim(List<Long> ids, String marker);
+
+        /**
+         * take a claimed row for good
+         * @return the row, null if it does not carry the marker any more or was taken
+         */
+        T take(long id, String marker, Object context);
+    }
+
+    private static class Claim {
+        final long id;
+        final String marker;
+        final long expiry;
+
+        Claim(long id, String marker, long expiry) {
+            this.id = id;
+            this.marker = marker;
+            this.expiry = expiry;
+        }
+    }
+
+    private final String _name;
+    private final ClaimStore<T> _store;
+    private final int _blockSize;
+    private final long _leaseSeconds;
+    private final String _markerBase;
+    private final AtomicLong _seq = new AtomicLong();
+    private final Map<Long, LinkedList<Claim>> _freeLists = new ConcurrentHashMap<Long, LinkedList<Claim>>();
+
+    /**
+     * @param msid management server the claims are made for
+     * @param blockSize number of rows claimed at once
+     * @param leaseSeconds how long a claimed row may stay unused before it goes back to everyone
+     */
+    public ClaimedFreeList(String name, ClaimStore<T> store, long msid, int blockSize, long leaseSeconds) {
+        _name = name;
+        _store = store;
+        _blockSize = blockSize;
+        _leaseSeconds = leaseSeconds;
+        _markerBase = MARKER_PREFIX + Long.toHexString(msid) + "-";
+    }
+
+    public static long getMarkerExpiry(String marker) {
+        return Long.parseLong(marker.substring(marker.lastIndexOf('-') + 1));
+    }
+
+    /**
+     * Takes a row of the scope from the free list, claiming a new block when the list runs dry.
+     * 
+     * @param context passed along to ClaimStore.take
+     * @return the row, null if no free row could be claimed for the scope
+     */
+    public T take(long scopeId, Object context) {
+        LinkedList<Claim> freeList = getFreeList(scopeId);
+        List<Claim> expired = new ArrayList<Claim>();
+        try {
+            boolean claimed = false;
+            while (true) {
+                Claim claim;
+                synchronized (freeList) {
+                    claim = freeList.poll();
+                }
+                if (claim == null) {
+                    if (claimed) {
+                        return null;
+                    }
+                    // claim outside of the free list lock, other allocations of the scope are served meanwhile
+                    List<Claim> block = claimBlock(scopeId);
+                    synchronized (freeList) {
+                        freeList.addAll(block);
+                    }
+                    claimed = true;
+                    continue;
+                }
+
+                // leave some margin so that the row is not reclaimed by someone else while we take it
+                if (claim.expiry <= now() + 1) {
+                    expired.add(claim);
+                    continue;
+                }
+
+                T row = _store.take(claim.id, claim.marker, context);
+                if (row != null) {
+                    return row;
+                }
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug(_name + ": claimed row " + claim.id + " was taken by someone else, skipping it");
+                }
+            }
+        } finally {
+            if (!expired.isEmpty()) {
+                unclaim(expired);
+            }
+        }
+    }
+
+    /**
+     * Gives all the rows still in the free lists back, called when the management server shuts down
+     */
+    public void releaseAll() {
+        List<Claim> claims = new ArrayList<Claim>();
+        for (LinkedList<Claim> freeList : _freeLists.values()) {
+            synchronized (freeList) {
+                claims.addAll(freeList);
+                freeList.clear();
+            }
+        }
+        unclaim(claims);
+    }
+
+    public int getFreeCount(long scopeId) {
+        LinkedList<Claim> freeList = _freeLists.get(scopeId);
+        if (freeList == null) {
+            return 0;
+        }
+        synchronized (freeList) {
+            return freeList.size();
+        }
+    }
+
+    protected long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private LinkedList<Claim> getFreeList(long scopeId) {
+        LinkedList<Claim> freeList = _freeLists.get(scopeId);
+        if (freeList == null) {
+            synchronized (_freeLists) {
+                freeList = _freeLists.get(scopeId);
+                if (freeList == null) {
+                    freeList = new LinkedList<Claim>();
+                    _freeLists.put(scopeId, freeList);
+                }
+            }
+        }
+        return freeList;
+    }
+
+    private List<Claim> claimBlock(long scopeId) {
+        long now = now();
+        long expiry = now + _leaseSeconds;
+        String marker = _markerBase + Long.toHexString(_seq.incrementAndGet()) + "-" + expiry;
+
+        List<Long> ids = _store.claim(scopeId, marker, now, _blockSize);
+        List<Claim> block = new ArrayList<Claim>(ids.size());
+        for (Long id : ids) {
+            block.add(new Claim(id, marker, expiry));
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug(_name + ": claimed " + ids.size() + " free rows for " + scopeId + " with " + marker);
+        }
+        return block;
+    }
+
+    /**
+     * Runs the claim UPDATE and lists the rows it marked, committed on a standalone connection.
+     * The claim sql takes marker, scope id, now and count; the list sql takes marker and scope id.
+     */
+    public static List<Long> claimRows(String claimSql, String listSql, long scopeId, String marker, long now, int count) throws SQLException {
+        List<Long> ids = new ArrayList<Long>(count);
+        Connection conn = Transaction.getStandaloneConnectionWithException();
+        try {
+            conn.setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepareStatement(claimSql);
+            try {
+                pstmt.setString(1, marker);
+                pstmt.setLong(2, scopeId);
+                pstmt.setLong(3, now);
+                pstmt.setInt(4, count);
+                if (pstmt.executeUpdate() == 0) {
+                    conn.commit();
+                    return ids;
+                }
+            } finally {
+                pstmt.close();
+            }
+
+            pstmt = conn.prepareStatement(listSql);
+            try {
+                pstmt.setString(1, marker);
+                pstmt.setLong(2, scopeId);
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            } finally {
+                pstmt.close();
+            }
+            conn.commit();
+            return ids;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Runs the unclaim UPDATE, taking row id and marker, for each of the rows on a standalone connection
+     */
+    public static void unclaimRows(String unclaimSql, List<Long> ids, String marker) throws SQLException {
+        Connection conn = Transaction.getStandaloneConnectionWithException();
+        try {
+            conn.setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepareStatement(unclaimSql);
+            try {
+                for (Long id : ids) {
+                    pstmt.setLong(1, id);
+                    pstmt.setString(2, marker);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            } finally {
+                pstmt.close();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.close();
+        }
+    }
+
+    private void unclaim(List<Claim> claims) {
+        Map<String, List<Long>> byMarker = new HashMap<String, List<Long>>();
+        for (Claim claim : claims) {
+            List<Long> ids = byMarker.get(claim.marker);
+            if (ids == null) {
+                ids = new ArrayList<Long>();
+                byMarker.put(claim.marker, ids);
+            }
+            ids.add(claim.id);
+        }
+
+        for (Map.Entry<String, List<Long>> entry : byMarker.entrySet()) {
+            try {
+                _store.unclaim(entry.getValue(), entry.getKey());
+            } catch (Exception e) {
+                // the claim expires by itself anyway
+                s_logger.warn(_name + ": unable to give back claimed rows " + entry.getValue() + ", they will be available again once " + entry.getKey() + " expires", e);
+            }
+        }
+    }
+}
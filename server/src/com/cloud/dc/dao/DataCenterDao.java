@@ -34,6 +34,11 @@ public interface DataCenterDao extends GenericDao<DataCenterVO, Long> {
     String allocateLinkLocalIpAddress(long id, long podId, long instanceId, String reservationId);
     String allocateVnet(long dcId, long physicalNetworkId, long accountId, String reservationId);
     
+    /**
+     * Gives the private ip addresses and vnets pre-claimed by this management server back, called on shutdown.
+     */
+    void releaseAllocationClaims();
+    
     void releaseVnet(String vnet, long dcId, long physicalNetworkId, long accountId, String reservationId);
     void releasePrivateIpAddress(String ipAddress, long dcId, Long instanceId);
     void releasePrivateIpAddress(long nicId, String reservationId);
@@ -267,6 +267,18 @@ public class DataCenterDaoImpl extends GenericDaoBase<DataCenterVO, Long> implem
     	_LinkLocalIpAllocDao.addIpRange(dcId, podId, start, end);
     }
 
+    @Override
+    public void releaseAllocationClaims() {
+        // called on shutdown, outside of any transaction context
+        Transaction txn = Transaction.open(Transaction.CLOUD_DB);
+        try {
+            _ipAllocDao.releaseClaims();
+            _vnetAllocDao.releaseClaims();
+        } finally {
+            txn.close();
+        }
+    }
+
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         if (!super.configure(name, params)) {
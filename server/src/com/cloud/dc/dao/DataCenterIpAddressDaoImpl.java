@@ -16,12 +16,19 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
 
 import javax.ejb.Local;
+import javax.naming.ConfigurationException;
 
 import org.apache.log4j.Logger;
 
+import com.cloud.cluster.ManagementServerNode;
 import com.cloud.dc.DataCenterIpAddressVO;
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GenericSearchBuilder;
@@ -40,8 +47,44 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
     private final GenericSearchBuilder<DataCenterIpAddressVO, Integer> AllIpCount;
     private final GenericSearchBuilder<DataCenterIpAddressVO, Integer> AllAllocatedIpCount;
     
+    private static final String CLAIM_SQL = "UPDATE `cloud`.`op_dc_ip_address_alloc` SET reservation_id=? WHERE pod_id=? AND taken IS NULL AND (reservation_id IS NULL OR (reservation_id LIKE '" + ClaimedFreeList.MARKER_PREFIX + "%' AND CAST(SUBSTRING_INDEX(reservation_id, '-', -1) AS UNSIGNED) < ?)) LIMIT ?";
+    private static final String LIST_CLAIMED_SQL = "SELECT id FROM `cloud`.`op_dc_ip_address_alloc` WHERE reservation_id=? AND pod_id=? AND taken IS NULL";
+    private static final String UNCLAIM_SQL = "UPDATE `cloud`.`op_dc_ip_address_alloc` SET reservation_id=NULL WHERE id=? AND reservation_id=? AND taken IS NULL";
+    private static final String TAKE_CLAIMED_SQL = "UPDATE `cloud`.`op_dc_ip_address_alloc` SET taken=?, nic_id=?, reservation_id=? WHERE id=? AND reservation_id=? AND taken IS NULL";
+    
+    private ClaimedFreeList<DataCenterIpAddressVO> _freeList;
+    
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        if (!super.configure(name, params)) {
+            return false;
+        }
+        
+        int blockSize = NumbersUtil.parseInt((String)params.get("private.ip.claim.size"), 8);
+        int lease = NumbersUtil.parseInt((String)params.get("private.ip.claim.lease"), 300);
+        _freeList = new ClaimedFreeList<DataCenterIpAddressVO>("Private ip", new IpAddressClaimStore(), ManagementServerNode.getManagementServerId(), blockSize, lease);
+        return true;
+    }
+    
+    /**
+     * Gives the private ip addresses claimed by this management server back
+     */
+    public void releaseClaims() {
+        if (_freeList != null) {
+            _freeList.releaseAll();
+        }
+    }
+    
     @DB
     public DataCenterIpAddressVO takeIpAddress(long dcId, long podId, long instanceId, String reservationId) {
+        if (_freeList != null) {
+            DataCenterIpAddressVO vo = _freeList.take(podId, new Pair<Long, String>(instanceId, reservationId));
+            if (vo != null) {
+                return vo;
+            }
+        }
+        
+        // nothing left to claim, there may still be rows claimed by other management servers
         SearchCriteria<DataCenterIpAddressVO> sc = AllFieldsSearch.create();
         sc.setParameters("pod", podId);
         sc.setParameters("taken", (Date)null);
@@ -192,6 +235,46 @@ public class DataCenterIpAddressDaoImpl extends GenericDaoBase<DataCenterIpAddre
         return count.get(0);
 	}
     
+    protected class IpAddressClaimStore implements ClaimedFreeList.ClaimStore<DataCenterIpAddressVO> {
+        @Override
+        public List<Long> claim(long podId, String marker, long now, int count) {
+            try {
+                return ClaimedFreeList.claimRows(CLAIM_SQL, LIST_CLAIMED_SQL, podId, marker, now, count);
+            } catch (SQLException e) {
+                throw new CloudRuntimeException("Unable to claim private ip addresses in pod " + podId, e);
+            }
+        }
+
+        @Override
+        public void unclaim(List<Long> ids, String marker) {
+            try {
+                ClaimedFreeList.unclaimRows(UNCLAIM_SQL, ids, marker);
+            } catch (SQLException e) {
+                throw new CloudRuntimeException("Unable to give back private ip addresses " + ids, e);
+            }
+        }
+
+        @Override @SuppressWarnings("unchecked") @DB
+        public DataCenterIpAddressVO take(long id, String marker, Object context) {
+            Pair<Long, String> nic = (Pair<Long, String>)context;
+            Transaction txn = Transaction.currentTxn();
+            try {
+                PreparedStatement pstmt = txn.prepareAutoCloseStatement(TAKE_CLAIMED_SQL);
+                pstmt.setString(1, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), new Date()));
+                pstmt.setLong(2, nic.first());
+                pstmt.setString(3, nic.second());
+                pstmt.setLong(4, id);
+                pstmt.setString(5, marker);
+                if (pstmt.executeUpdate() == 0) {
+                    return null;
+                }
+            } catch (SQLException e) {
+                throw new CloudRuntimeException("Unable to take private ip address " + id, e);
+            }
+            return findById(id);
+        }
+    }
+    
     protected DataCenterIpAddressDaoImpl() {
         super();
         
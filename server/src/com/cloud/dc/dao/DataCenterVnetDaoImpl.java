@@ -16,8 +16,16 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
 
+import javax.naming.ConfigurationException;
+
+import com.cloud.cluster.ManagementServerNode;
 import com.cloud.dc.DataCenterVnetVO;
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.Pair;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.GenericDao;
 import com.cloud.utils.db.GenericDaoBase;
@@ -42,6 +50,34 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
     private final GenericSearchBuilder<DataCenterVnetVO, Integer> countZoneVlans;
     private final GenericSearchBuilder<DataCenterVnetVO, Integer> countAllocatedZoneVlans;
     
+    private static final String CLAIM_SQL = "UPDATE `cloud`.`op_dc_vnet_alloc` SET reservation_id=? WHERE physical_network_id=? AND taken IS NULL AND (reservation_id IS NULL OR (reservation_id LIKE '" + ClaimedFreeList.MARKER_PREFIX + "%' AND CAST(SUBSTRING_INDEX(reservation_id, '-', -1) AS UNSIGNED) < ?)) LIMIT ?";
+    private static final String LIST_CLAIMED_SQL = "SELECT id FROM `cloud`.`op_dc_vnet_alloc` WHERE reservation_id=? AND physical_network_id=? AND taken IS NULL";
+    private static final String UNCLAIM_SQL = "UPDATE `cloud`.`op_dc_vnet_alloc` SET reservation_id=NULL WHERE id=? AND reservation_id=? AND taken IS NULL";
+    private static final String TAKE_CLAIMED_SQL = "UPDATE `cloud`.`op_dc_vnet_alloc` SET taken=?, account_id=?, reservation_id=? WHERE id=? AND reservation_id=? AND taken IS NULL";
+    
+    private ClaimedFreeList<DataCenterVnetVO> _freeList;
+    
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        if (!super.configure(name, params)) {
+            return false;
+        }
+        
+        int blockSize = NumbersUtil.parseInt((String)params.get("vnet.claim.size"), 8);
+        int lease = NumbersUtil.parseInt((String)params.get("vnet.claim.lease"), 300);
+        _freeList = new ClaimedFreeList<DataCenterVnetVO>("Vnet", new VnetClaimStore(), ManagementServerNode.getManagementServerId(), blockSize, lease);
+        return true;
+    }
+    
+    /**
+     * Gives the vnets claimed by this management server back
+     */
+    public void releaseClaims() {
+        if (_freeList != null) {
+            _freeList.releaseAll();
+        }
+    }
+    
     public List<DataCenterVnetVO> listAllocatedVnets(long physicalNetworkId) {
         SearchCriteria<DataCenterVnetVO> sc = DcSearchAllocated.create();
         sc.setParameters("physicalNetworkId", physicalNetworkId);       
@@ -99,6 +135,14 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
 
     @DB
     public DataCenterVnetVO take(long physicalNetworkId, long accountId, String reservationId) {
+        if (_freeList != null) {
+            DataCenterVnetVO vo = _freeList.take(physicalNetworkId, new Pair<Long, String>(accountId, reservationId));
+            if (vo != null) {
+                return vo;
+            }
+        }
+        
+        // nothing left to claim, there may still be vnets claimed by other management servers
         SearchCriteria<DataCenterVnetVO> sc = FreeVnetSearch.create();
         sc.setParameters("physicalNetworkId", physicalNetworkId);        
         Date now = new Date();
@@ -135,6 +179,46 @@ public class DataCenterVnetDaoImpl extends GenericDaoBase<DataCenterVnetVO, Long
         update(vo.getId(), vo);
     }
 
+    protected class VnetClaimStore implements ClaimedFreeList.ClaimStore<DataCenterVnetVO> {
+        @Override
+        public List<Long> claim(long physicalNetworkId, String marker, long now, int count) {
+            try {
+                return ClaimedFreeList.claimRows(CLAIM_SQL, LIST_CLAIMED_SQL, physicalNetworkId, marker, now, count);
+            } catch (SQLException e) {
+                throw new CloudRuntimeException("Unable to claim vnets in physical network " + physicalNetworkId, e);
+            }
+        }
+
+        @Override
+        public void unclaim(List<Long> ids, String marker) {
+            try {
+                ClaimedFreeList.unclaimRows(UNCLAIM_SQL, ids, marker);
+            } catch (SQLException e) {
+                throw new CloudRuntimeException("Unable to give back vnets " + ids, e);
+            }
+        }
+
+        @Override @SuppressWarnings("unchecked") @DB
+        public DataCenterVnetVO take(long id, String marker, Object context) {
+            Pair<Long, String> account = (Pair<Long, String>)context;
+            Transaction txn = Transaction.currentTxn();
+            try {
+                PreparedStatement pstmt = txn.prepareAutoCloseStatement(TAKE_CLAIMED_SQL);
+                pstmt.setString(1, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), new Date()));
+                pstmt.setLong(2, account.first());
+                pstmt.setString(3, account.second());
+                pstmt.setLong(4, id);
+                pstmt.setString(5, marker);
+                if (pstmt.executeUpdate() == 0) {
+                    return null;
+                }
+            } catch (SQLException e) {
+                throw new CloudRuntimeException("Unable to take vnet " + id, e);
+            }
+            return findById(id);
+        }
+    }
+
     protected DataCenterVnetDaoImpl() {
     	super();
         DcSearchAllocated = createSearchBuilder();
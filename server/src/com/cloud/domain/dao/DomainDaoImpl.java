@@ -15,16 +15,20 @@ package com.cloud.domain.dao;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.ejb.Local;
+import javax.naming.ConfigurationException;
 
 import org.apache.log4j.Logger;
 
 import com.cloud.domain.Domain;
 import com.cloud.domain.DomainVO;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.GlobalLock;
@@ -36,6 +40,10 @@ import com.cloud.utils.db.Transaction;
 public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements DomainDao {
     private static final Logger s_logger = Logger.getLogger(DomainDaoImpl.class);
     
+    // domains are never re-parented, so the row count, the highest id and the number of removed rows change whenever
+    // the hierarchy does; other management servers poll it to pick up domains created or removed elsewhere.
+    private static final String TREE_VERSION_SQL = "SELECT COUNT(*), MAX(id), COUNT(removed) FROM domain";
+
 	protected SearchBuilder<DomainVO> DomainNameLikeSearch;
 	protected SearchBuilder<DomainVO> ParentDomainNameLikeSearch;
 	protected SearchBuilder<DomainVO> DomainPairSearch;
@@ -43,6 +51,12 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
 	protected SearchBuilder<DomainVO> FindAllChildrenSearch;
 	protected SearchBuilder<DomainVO> AllFieldsSearch;
 	
+	private final Object _treeLock = new Object();
+	private volatile DomainTree _tree;
+	private String _treeVersion;
+	private volatile long _treeCheckedAt;
+	private long _treeCheckInterval = 2000;
+	
 	public DomainDaoImpl () {
 		DomainNameLikeSearch = createSearchBuilder();
 		DomainNameLikeSearch.and("name", DomainNameLikeSearch.entity().getName(), SearchCriteria.Op.LIKE);
@@ -76,6 +90,82 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
 
 	}
 	
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        if (!super.configure(name, params)) {
+            return false;
+        }
+        _treeCheckInterval = NumbersUtil.parseLong((String)params.get("domain.tree.check.interval"), 2000);
+        return true;
+    }
+
+    /**
+     * Returns the cached domain hierarchy, rebuilding it when it has been invalidated locally or when the domain table
+     * version changed on another management server.  The version is checked at most once per check interval unless
+     * force is set.
+     */
+    protected DomainTree getDomainTree(boolean force) {
+        DomainTree tree = _tree;
+        if (tree != null && !force && System.currentTimeMillis() - _treeCheckedAt < _treeCheckInterval) {
+            return tree;
+        }
+
+        synchronized (_treeLock) {
+            tree = _tree;
+            long now = System.currentTimeMillis();
+            if (tree != null && !force && now - _treeCheckedAt < _treeCheckInterval) {
+                return tree;
+            }
+
+            String version = getTreeVersion();
+            if (tree == null || version == null || !version.equals(_treeVersion)) {
+                tree = new DomainTree(listAll());
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Loaded domain tree with " + tree.size() + " domains, version " + version);
+                }
+                _treeVersion = version;
+                _tree = tree;
+            }
+            _treeCheckedAt = now;
+            return tree;
+        }
+    }
+
+    private String getTreeVersion() {
+        Transaction txn = Transaction.currentTxn();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(TREE_VERSION_SQL);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return rs.getLong(1) + "-" + rs.getLong(2) + "-" + rs.getLong(3);
+            }
+        } catch (SQLException e) {
+            s_logger.warn("Unable to read the domain table version", e);
+        }
+        return null;
+    }
+
+    protected void invalidateDomainTree() {
+        synchronized (_treeLock) {
+            _tree = null;
+            _treeVersion = null;
+        }
+    }
+
+    /**
+     * Looks up a domain in the cached tree, checking the domain table once more when it is not there so that domains
+     * just created on another management server are found.
+     */
+    private DomainTree getDomainTree(long... domainIds) {
+        DomainTree tree = getDomainTree(false);
+        for (long domainId : domainIds) {
+            if (!tree.contains(domainId)) {
+                return getDomainTree(true);
+            }
+        }
+        return tree;
+    }
+
     
     private static String allocPath(DomainVO parentDomain, String name) {
         String parentPath = parentDomain.getPath();
@@ -124,6 +214,7 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
             update(parentDomain.getId(), parentDomain);
             
     		txn.commit();
+    		invalidateDomainTree();
     		return domain;
     	} catch(Exception e) {
     		s_logger.error("Unable to create domain due to " + e.getMessage(), e);
@@ -180,6 +271,7 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
         	update(parentDomain.getId(), parentDomain);
             success = super.remove(id);
             txn.commit();
+            invalidateDomainTree();
         } catch (SQLException ex) {
             success = false;
             s_logger.error("error removing domain: " + id, ex);
@@ -188,6 +280,13 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
         return success;
     }
 
+    @Override
+    public boolean update(Long id, DomainVO domain) {
+        boolean updated = super.update(id, domain);
+        invalidateDomainTree();
+        return updated;
+    }
+
     @Override
     public DomainVO findDomainByPath(String domainPath) {
         SearchCriteria<DomainVO> sc = createSearchCriteria();
@@ -211,6 +310,18 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
 
     @Override
     public List<DomainVO> findAllChildren(String path, Long parentId){
+        if (parentId != null) {
+            List<Long> childIds = getDomainTree(parentId).getDescendantIds(parentId);
+            if (childIds != null) {
+                if (childIds.isEmpty()) {
+                    return new ArrayList<DomainVO>();
+                }
+                SearchCriteria<DomainVO> sc = DomainPairSearch.create();
+                sc.setParameters("id", childIds.toArray());
+                return listBy(sc);
+            }
+        }
+
     	SearchCriteria<DomainVO> sc = FindAllChildrenSearch.create();
     	sc.setParameters("path", "%"+path+"%");
     	sc.setParameters("id", parentId);
@@ -227,6 +338,11 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
             return true;
         }
 
+        DomainTree tree = getDomainTree(parentId, childId);
+        if (tree.contains(parentId) && tree.contains(childId)) {
+            return tree.isAncestor(parentId, childId);
+        }
+
         boolean result = false;
         SearchCriteria<DomainVO> sc = DomainPairSearch.create();
         sc.setParameters("id", parentId, childId);
@@ -255,6 +371,11 @@ public class DomainDaoImpl extends GenericDaoBase<DomainVO, Long> implements Dom
     
     @Override
     public Set<Long> getDomainParentIds(long domainId) {
+        List<Long> ancestorIds = getDomainTree(domainId).getAncestorIds(domainId);
+        if (ancestorIds != null) {
+            return new HashSet<Long>(ancestorIds);
+        }
+
         Set<Long> parentDomains = new HashSet<Long>();
         Domain domain = findById(domainId);
         parentDomains.add(domain.getId());
@@ -0,0 +1,144 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.domain.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cloud.domain.Domain;
+
+/**
+ * Immutable snapshot of the domain hierarchy used to answer ancestor and subtree questions without going to the database.
+ * 
+ * Every domain is numbered in a depth first walk: enter is its position in the walk and exit is the position of the
+ * last domain of its subtree, so a domain is within the subtree of another when its enter number falls in the other's
+ * [enter, exit] interval and the subtree of a domain is the slice of the walk between its enter and exit numbers.
+ * Domains whose parent is not part of the snapshot are treated as roots.
+ */
+public class DomainTree {
+    private final Map<Long, Node> _nodes;
+    private final long[] _walk;
+
+    private static class Node {
+        final long id;
+        final Long parentId;
+        final List<Node> children = new ArrayList<Node>();
+        int enter;
+        int exit;
+
+        Node(long id, Long parentId) {
+            this.id = id;
+            this.parentId = parentId;
+        }
+    }
+
+    public DomainTree(Collection<? extends Domain> domains) {
+        _nodes = new HashMap<Long, Node>(domains.size() * 2);
+        for (Domain domain : domains) {
+            _nodes.put(domain.getId(), new Node(domain.getId(), domain.getParent()));
+        }
+
+        List<Node> roots = new ArrayList<Node>();
+        for (Node node : _nodes.values()) {
+            Node parent = node.parentId != null ? _nodes.get(node.parentId) : null;
+            if (parent != null && parent != node) {
+                parent.children.add(node);
+            } else {
+                roots.add(node);
+            }
+        }
+
+        // walk iteratively, a deep hierarchy must not exhaust the stack
+        _walk = new long[_nodes.size()];
+        int position = 0;
+        List<Node> stack = new ArrayList<Node>();
+        List<Integer> next = new ArrayList<Integer>();
+        for (Node root : roots) {
+            root.enter = position;
+            _walk[position++] = root.id;
+            stack.add(root);
+            next.add(0);
+            while (!stack.isEmpty()) {
+                int top = stack.size() - 1;
+                Node node = stack.get(top);
+                int childIndex = next.get(top);
+                if (childIndex < node.children.size()) {
+                    next.set(top, childIndex + 1);
+                    Node child = node.children.get(childIndex);
+                    child.enter = position;
+                    _walk[position++] = child.id;
+                    stack.add(child);
+                    next.add(0);
+                } else {
+                    node.exit = position - 1;
+                    stack.remove(top);
+                    next.remove(top);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return _nodes.size();
+    }
+
+    public boolean contains(long domainId) {
+        return _nodes.containsKey(domainId);
+    }
+
+    /**
+     * @return true if domainId is ancestorId itself or lies in its subtree, false if either one is unknown.
+     */
+    public boolean isAncestor(long ancestorId, long domainId) {
+        Node ancestor = _nodes.get(ancestorId);
+        Node node = _nodes.get(domainId);
+        if (ancestor == null || node == null) {
+            return false;
+        }
+        return ancestor.enter <= node.enter && node.enter <= ancestor.exit;
+    }
+
+    /**
+     * @return ids of all domains below domainId, not including domainId, or null if the domain is unknown.
+     */
+    public List<Long> getDescendantIds(long domainId) {
+        Node node = _nodes.get(domainId);
+        if (node == null) {
+            return null;
+        }
+        List<Long> ids = new ArrayList<Long>(node.exit - node.enter);
+        for (int i = node.enter + 1; i <= node.exit; i++) {
+            ids.add(_walk[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * @return domainId followed by the ids of its ancestors up to the root, or null if the domain is unknown.
+     */
+    public List<Long> getAncestorIds(long domainId) {
+        Node node = _nodes.get(domainId);
+        if (node == null) {
+            return null;
+        }
+        List<Long> ids = new ArrayList<Long>();
+        while (node != null && ids.size() < _nodes.size()) {
+            ids.add(node.id);
+            node = node.parentId != null ? _nodes.get(node.parentId) : null;
+        }
+        return ids;
+    }
+}
@@ -12,6 +12,7 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.host.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -62,6 +63,8 @@ public interface HostDao extends GenericDao<HostVO, Long>, StateDao<Status, Stat
     boolean updateResourceState(ResourceState oldState, ResourceState.Event event, ResourceState newState, Host vo);
 
 	HostVO findByGuid(String guid);
+
+	List<HostVO> listByGuids(Collection<String> guids);
 	
 	HostVO findByTypeNameAndZoneId(long zoneId, String name, Host.Type type);
 
@@ -16,6 +16,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -74,6 +75,7 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
     protected final SearchBuilder<HostVO> DcStorageIpAddressSearch;
 
     protected final SearchBuilder<HostVO> GuidSearch;
+    protected final SearchBuilder<HostVO> GuidsSearch;
     protected final SearchBuilder<HostVO> DcSearch;
     protected final SearchBuilder<HostVO> PodSearch;
     protected final SearchBuilder<HostVO> TypeSearch;
@@ -173,6 +175,10 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
         GuidSearch.and("guid", GuidSearch.entity().getGuid(), SearchCriteria.Op.EQ);
         GuidSearch.done();
 
+        GuidsSearch = createSearchBuilder();
+        GuidsSearch.and("guids", GuidsSearch.entity().getGuid(), SearchCriteria.Op.IN);
+        GuidsSearch.done();
+
         DcSearch = createSearchBuilder();
         DcSearch.and("dc", DcSearch.entity().getDataCenterId(), SearchCriteria.Op.EQ);
         DcSearch.done();
@@ -322,6 +328,17 @@ public class HostDaoImpl extends GenericDaoBase<HostVO, Long> implements HostDao
         SearchCriteria<HostVO> sc = GuidSearch.create("guid", guid);
         return findOneBy(sc);
     }
+
+    @Override
+    public List<HostVO> listByGuids(Collection<String> guids) {
+        if (guids.isEmpty()) {
+            return new ArrayList<HostVO>();
+        }
+
+        SearchCriteria<HostVO> sc = GuidsSearch.create();
+        sc.setParameters("guids", guids.toArray());
+        return listBy(sc);
+    }
     
     @Override @DB
     public List<HostVO> findAndUpdateDirectAgentToLoad(long lastPingSecondsAfter, Long limit, long managementServerId) {
@@ -27,7 +27,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -185,6 +184,7 @@ import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.Ip;
+import com.cloud.utils.net.IpAddressBitmap;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicProfile;
@@ -1394,6 +1394,7 @@ public class NetworkManagerImpl implements NetworkManager, NetworkService, Manag
 
     @Override
     public boolean stop() {
+        _dcDao.releaseAllocationClaims();
         return true;
     }
 
@@ -4262,8 +4263,7 @@ public class NetworkManagerImpl implements NetworkManager, NetworkService, Manag
     public String acquireGuestIpAddress(Network network, String requestedIp) {
         List<String> ips = _nicDao.listIpAddressInNetwork(network.getId());
         String[] cidr = network.getCidr().split("/");
-        Set<Long> allPossibleIps = NetUtils.getAllIpsFromCidr(cidr[0], Integer.parseInt(cidr[1]));
-        Set<Long> usedIps = new TreeSet<Long>();
+        IpAddressBitmap freeIps = new IpAddressBitmap(cidr[0], Integer.parseInt(cidr[1]));
 
         if (requestedIp != null && requestedIp.equals(network.getGateway())) {
             s_logger.warn("Requested ip address " + requestedIp + " is used as a gateway address in network " + network);
@@ -4276,20 +4276,15 @@ public class NetworkManagerImpl implements NetworkManager, NetworkService, Manag
                 return null;
             }
 
-            usedIps.add(NetUtils.ip2Long(ip));
+            freeIps.markUsed(NetUtils.ip2Long(ip));
         }
-        if (usedIps.size() != 0) {
-            allPossibleIps.removeAll(usedIps);
-        }
-        if (allPossibleIps.isEmpty()) {
+        if (freeIps.isFull()) {
             return null;
         }
 
-        Long[] array = allPossibleIps.toArray(new Long[allPossibleIps.size()]);
-
         if (requestedIp != null) {
             // check that requested ip has the same cidr
-            boolean isSameCidr = NetUtils.sameSubnetCIDR(requestedIp, NetUtils.long2Ip(array[0]), Integer.parseInt(cidr[1]));
+            boolean isSameCidr = NetUtils.sameSubnetCIDR(requestedIp, NetUtils.long2Ip(freeIps.getStart()), Integer.parseInt(cidr[1]));
             if (!isSameCidr) {
                 s_logger.warn("Requested ip address " + requestedIp + " doesn't belong to the network " + network + " cidr");
                 return null;
@@ -4298,11 +4293,11 @@ public class NetworkManagerImpl implements NetworkManager, NetworkService, Manag
             }
         }
 
-        String result;
-        do {
-            result = NetUtils.long2Ip(array[_rand.nextInt(array.length)]);
-        } while (result.split("\\.")[3].equals("1"));
-        return result;
+        long ip = freeIps.pickRandomFree(_rand);
+        if (ip < 0) {
+            return null;
+        }
+        return NetUtils.long2Ip(ip);
     }
 
     private String getZoneNetworkDomain(long zoneId) {
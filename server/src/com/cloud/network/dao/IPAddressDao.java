@@ -12,6 +12,7 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.network.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.cloud.dc.Vlan.VlanType;
@@ -49,6 +50,8 @@ public interface IPAddressDao extends GenericDao<IPAddressVO, Long> {
 	
 	IPAddressVO findByAssociatedVmId(long vmId);
 	
+	List<IPAddressVO> listByAssociatedVmIds(Collection<Long> vmIds);
+	
 	IPAddressVO findByIpAndSourceNetworkId(long networkId, String ipAddress);
 
 	public IPAddressVO findByIpAndDcId(long dcId, String ipAddress);
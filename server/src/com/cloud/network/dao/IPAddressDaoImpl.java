@@ -14,6 +14,7 @@ package com.cloud.network.dao;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -44,6 +45,7 @@ public class IPAddressDaoImpl extends GenericDaoBase<IPAddressVO, Long> implemen
     private static final Logger s_logger = Logger.getLogger(IPAddressDaoImpl.class);
 
     protected final SearchBuilder<IPAddressVO> AllFieldsSearch;
+    protected final SearchBuilder<IPAddressVO> AssociatedVmsSearch;
     protected final SearchBuilder<IPAddressVO> VlanDbIdSearchUnallocated;
     protected final GenericSearchBuilder<IPAddressVO, Integer> AllIpCount;
     protected final GenericSearchBuilder<IPAddressVO, Integer> AllocatedIpCount;
@@ -69,6 +71,10 @@ public class IPAddressDaoImpl extends GenericDaoBase<IPAddressVO, Long> implemen
         AllFieldsSearch.and("physicalNetworkId", AllFieldsSearch.entity().getPhysicalNetworkId(), Op.EQ);
         AllFieldsSearch.done();
 
+        AssociatedVmsSearch = createSearchBuilder();
+        AssociatedVmsSearch.and("associatedWithVmIds", AssociatedVmsSearch.entity().getAssociatedWithVmId(), Op.IN);
+        AssociatedVmsSearch.done();
+
         VlanDbIdSearchUnallocated = createSearchBuilder();
         VlanDbIdSearchUnallocated.and("allocated", VlanDbIdSearchUnallocated.entity().getAllocatedTime(), Op.NULL);
         VlanDbIdSearchUnallocated.and("vlanDbId", VlanDbIdSearchUnallocated.entity().getVlanId(), Op.EQ);
@@ -217,6 +223,13 @@ public class IPAddressDaoImpl extends GenericDaoBase<IPAddressVO, Long> implemen
         return findOneBy(sc);
     }
 
+    @Override
+    public List<IPAddressVO> listByAssociatedVmIds(Collection<Long> vmIds) {
+        SearchCriteria<IPAddressVO> sc = AssociatedVmsSearch.create();
+        sc.setParameters("associatedWithVmIds", vmIds.toArray());
+        return listBy(sc);
+    }
+
     @Override
     public int countIPs(long dcId, long vlanId, boolean onlyCountAllocated) {
         SearchCriteria<Integer> sc = onlyCountAllocated ? AllocatedIpCount.create() : AllIpCount.create();
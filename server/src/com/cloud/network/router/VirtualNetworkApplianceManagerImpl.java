@@ -53,6 +53,7 @@ import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.api.StopAnswer;
 import com.cloud.agent.api.check.CheckSshAnswer;
 import com.cloud.agent.api.check.CheckSshCommand;
+import com.cloud.agent.api.routing.DhcpEntryBatchCommand;
 import com.cloud.agent.api.routing.DhcpEntryCommand;
 import com.cloud.agent.api.routing.IpAssocCommand;
 import com.cloud.agent.api.routing.LoadBalancerConfigCommand;
@@ -62,6 +63,7 @@ import com.cloud.agent.api.routing.SavePasswordCommand;
 import com.cloud.agent.api.routing.SetFirewallRulesCommand;
 import com.cloud.agent.api.routing.SetPortForwardingRulesCommand;
 import com.cloud.agent.api.routing.SetStaticNatRulesCommand;
+import com.cloud.agent.api.routing.VmDataBatchCommand;
 import com.cloud.agent.api.routing.VmDataCommand;
 import com.cloud.agent.api.routing.VpnUsersCfgCommand;
 import com.cloud.agent.api.to.FirewallRuleTO;
@@ -2493,15 +2495,34 @@ public class VirtualNetworkApplianceManagerImpl implements VirtualNetworkApplian
     }
     
     private void createVmDataCommand(VirtualRouter router, UserVm vm, NicVO nic, String publicKey, Commands cmds) {
+        cmds.addCommand("vmdata", generateVmDataCommand(router, vm, nic, publicKey));
+    }
+
+    private VmDataCommand generateVmDataCommand(VirtualRouter router, UserVm vm, NicVO nic, String publicKey) {
         String serviceOffering = _serviceOfferingDao.findByIdIncludingRemoved(vm.getServiceOfferingId()).getDisplayText();
         String zoneName = _dcDao.findById(router.getDataCenterIdToDeployIn()).getName();
-        cmds.addCommand("vmdata",
-                generateVmDataCommand(router, nic.getIp4Address(), vm.getUserData(), serviceOffering, zoneName, nic.getIp4Address(),
-                        vm.getHostName(), vm.getInstanceName(), vm.getId(), publicKey));
-        
+        return generateVmDataCommand(router, nic.getIp4Address(), vm.getUserData(), serviceOffering, zoneName, nic.getIp4Address(),
+                vm.getHostName(), vm.getInstanceName(), vm.getId(), publicKey);
+    }
+
+    /**
+     * Only the routers driven through VirtualRoutingResource know how to apply the dhcp and vm data batches,
+     * everybody else gets the entries one command at a time.
+     */
+    private boolean supportsBatchUpdates(VirtualRouter router) {
+        return router.getHypervisorType() == HypervisorType.KVM;
+    }
+
+    private void setBatchAccessDetails(VirtualRouter router, NetworkElementCommand cmd) {
+        DataCenterVO dcVo = _dcDao.findById(router.getDataCenterIdToDeployIn());
+        cmd.setAccessDetail(NetworkElementCommand.ROUTER_IP, getRouterControlIp(router.getId()));
+        cmd.setAccessDetail(NetworkElementCommand.ROUTER_NAME, router.getInstanceName());
+        cmd.setAccessDetail(NetworkElementCommand.ROUTER_GUEST_IP, router.getGuestIpAddress());
+        cmd.setAccessDetail(NetworkElementCommand.ZONE_NETWORK_TYPE, dcVo.getNetworkType().toString());
     }
 
     private void createVmDataCommandForVMs(DomainRouterVO router, Commands cmds) {
+        List<VmDataCommand> vmDataCmds = new ArrayList<VmDataCommand>();
         long networkId = router.getNetworkId();
         List<UserVmVO> vms = _userVmDao.listByNetworkIdAndStates(networkId, State.Running, State.Migrating, State.Stopping);
         DataCenterVO dc = _dcDao.findById(router.getDataCenterIdToDeployIn());
@@ -2515,13 +2536,27 @@ public class VirtualNetworkApplianceManagerImpl implements VirtualNetworkApplian
                 NicVO nic = _nicDao.findByInstanceIdAndNetworkId(networkId, vm.getId());
                 if (nic != null) {
                     s_logger.debug("Creating user data entry for vm " + vm + " on domR " + router);
-                    createVmDataCommand(router, vm, nic, null, cmds);
+                    vmDataCmds.add(generateVmDataCommand(router, vm, nic, null));
                 }
             }
         }
+
+        if (supportsBatchUpdates(router) && !vmDataCmds.isEmpty()) {
+            VmDataBatchCommand batchCmd = new VmDataBatchCommand(vmDataCmds);
+            setBatchAccessDetails(router, batchCmd);
+            cmds.addCommand("vmdata", batchCmd);
+        } else {
+            for (VmDataCommand vmDataCmd : vmDataCmds) {
+                cmds.addCommand("vmdata", vmDataCmd);
+            }
+        }
     }
     
     private void createDhcpEntryCommand(VirtualRouter router, UserVm vm, NicVO nic, Commands cmds) {
+        cmds.addCommand("dhcp", generateDhcpEntryCommand(router, vm, nic));
+    }
+
+    private DhcpEntryCommand generateDhcpEntryCommand(VirtualRouter router, UserVm vm, NicVO nic) {
         DhcpEntryCommand dhcpCommand = new DhcpEntryCommand(nic.getMacAddress(), nic.getIp4Address(), vm.getHostName());
         DataCenterVO dcVo = _dcDao.findById(router.getDataCenterIdToDeployIn());
         String gatewayIp = findGatewayIp(vm.getId());
@@ -2541,10 +2576,11 @@ public class VirtualNetworkApplianceManagerImpl implements VirtualNetworkApplian
         dhcpCommand.setAccessDetail(NetworkElementCommand.ROUTER_GUEST_IP, router.getGuestIpAddress());
         dhcpCommand.setAccessDetail(NetworkElementCommand.ZONE_NETWORK_TYPE, dcVo.getNetworkType().toString());
 
-        cmds.addCommand("dhcp", dhcpCommand);
+        return dhcpCommand;
     }
 
     private void createDhcpEntryCommandsForVMs(DomainRouterVO router, Commands cmds) {
+        List<DhcpEntryCommand> dhcpCmds = new ArrayList<DhcpEntryCommand>();
         long networkId = router.getNetworkId();
         List<UserVmVO> vms = _userVmDao.listByNetworkIdAndStates(networkId, State.Running, State.Migrating, State.Stopping);
         DataCenterVO dc = _dcDao.findById(router.getDataCenterIdToDeployIn());
@@ -2557,10 +2593,20 @@ public class VirtualNetworkApplianceManagerImpl implements VirtualNetworkApplian
                 NicVO nic = _nicDao.findByInstanceIdAndNetworkId(networkId, vm.getId());
                 if (nic != null) {
                     s_logger.debug("Creating dhcp entry for vm " + vm + " on domR " + router + ".");
-                    createDhcpEntryCommand(router, vm, nic, cmds);
+                    dhcpCmds.add(generateDhcpEntryCommand(router, vm, nic));
                 }
             }
         }
+
+        if (supportsBatchUpdates(router) && !dhcpCmds.isEmpty()) {
+            DhcpEntryBatchCommand batchCmd = new DhcpEntryBatchCommand(dhcpCmds);
+            setBatchAccessDetails(router, batchCmd);
+            cmds.addCommand("dhcp", batchCmd);
+        } else {
+            for (DhcpEntryCommand dhcpCmd : dhcpCmds) {
+                cmds.addCommand("dhcp", dhcpCmd);
+            }
+        }
     }
 
     private boolean sendCommandsToRouter(final VirtualRouter router, Commands cmds) throws AgentUnavailableException {
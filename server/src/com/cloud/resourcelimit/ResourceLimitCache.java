@@ -0,0 +1,149 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.resourcelimit;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cloud.configuration.Resource.ResourceOwnerType;
+import com.cloud.configuration.Resource.ResourceType;
+
+/**
+ * Bounded cache of what resource limit checks read on every call: the limits set on accounts and domains, the domain
+ * path up to ROOT and the resource_count rows an account's count change has to update.  Entries expire after ttl
+ * milliseconds; this bounds how long a limit changed on another management server goes unnoticed here.  Limit changes
+ * made on this management server invalidate the affected entries right away.
+ */
+public class ResourceLimitCache {
+    /**
+     * Cached for owners that have no limit of the type set.
+     */
+    public static final long NOT_SET = Long.MIN_VALUE;
+
+    private final long _ttl;
+    private final int _maxSize;
+    private final LinkedHashMap<String, Entry> _entries;
+
+    private long _hits;
+    private long _misses;
+
+    private static class Entry {
+        final Object value;
+        final long expiresAt;
+
+        Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public ResourceLimitCache(long ttl, final int maxSize) {
+        _ttl = ttl;
+        _maxSize = maxSize;
+        _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > _maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return _ttl > 0 && _maxSize > 0;
+    }
+
+    /**
+     * @return the limit set on the owner, NOT_SET if there is none, or null if it is not cached.
+     */
+    public Long getLimit(ResourceOwnerType ownerType, long ownerId, ResourceType type) {
+        return (Long)get(limitKey(ownerType, ownerId, type));
+    }
+
+    public void putLimit(ResourceOwnerType ownerType, long ownerId, ResourceType type, long max) {
+        put(limitKey(ownerType, ownerId, type), max);
+    }
+
+    public void invalidateLimit(ResourceOwnerType ownerType, long ownerId, ResourceType type) {
+        invalidate(limitKey(ownerType, ownerId, type));
+    }
+
+    /**
+     * @return ids of the domain and its parents up to ROOT, or null if not cached.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Long> getDomainPath(long domainId) {
+        return (List<Long>)get("path-" + domainId);
+    }
+
+    public void putDomainPath(long domainId, List<Long> path) {
+        put("path-" + domainId, path);
+    }
+
+    /**
+     * @return ids of the resource_count rows of the account and of its domain path in ascending order, or null if not cached.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Long> getCountRows(long accountId, ResourceType type) {
+        return (List<Long>)get("rows-" + accountId + "-" + type);
+    }
+
+    public void putCountRows(long accountId, ResourceType type, List<Long> rowIds) {
+        put("rows-" + accountId + "-" + type, rowIds);
+    }
+
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private synchronized Object get(String key) {
+        Entry entry = _entries.get(key);
+        if (entry != null && entry.expiresAt > now()) {
+            _hits++;
+            return entry.value;
+        }
+        if (entry != null) {
+            _entries.remove(key);
+        }
+        _misses++;
+        return null;
+    }
+
+    private synchronized void put(String key, Object value) {
+        if (isEnabled() && value != null) {
+            _entries.put(key, new Entry(value, now() + _ttl));
+        }
+    }
+
+    private synchronized void invalidate(String key) {
+        _entries.remove(key);
+    }
+
+    private static String limitKey(ResourceOwnerType ownerType, long ownerId, ResourceType type) {
+        return "limit-" + ownerType + "-" + ownerId + "-" + type;
+    }
+}
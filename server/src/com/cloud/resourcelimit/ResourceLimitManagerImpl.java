@@ -13,10 +13,14 @@
 package com.cloud.resourcelimit;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -119,6 +123,7 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
     protected SearchBuilder<ResourceCountVO> ResourceCountSearch;
     ScheduledExecutorService _rcExecutor;
     long _resourceCountCheckInterval = 0;
+    ResourceLimitCache _limitCache;
     Map<ResourceType, Long> accountResourceLimitMap = new EnumMap<ResourceType, Long>(ResourceType.class);
     Map<ResourceType, Long> projectResourceLimitMap = new EnumMap<ResourceType, Long>(ResourceType.class);
 
@@ -155,6 +160,10 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
             _rcExecutor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("ResourceCountChecker"));
         }
 
+        int limitCacheTtl = NumbersUtil.parseInt(_configDao.getValue(Config.ResourceLimitCacheTtl.key()), 60);
+        int limitCacheSize = NumbersUtil.parseInt(_configDao.getValue(Config.ResourceLimitCacheSize.key()), 10000);
+        _limitCache = new ResourceLimitCache(limitCacheTtl * 1000L, limitCacheSize);
+
         projectResourceLimitMap.put(Resource.ResourceType.public_ip, Long.parseLong(_configDao.getValue(Config.DefaultMaxProjectPublicIPs.key())));
         projectResourceLimitMap.put(Resource.ResourceType.snapshot, Long.parseLong(_configDao.getValue(Config.DefaultMaxProjectSnapshots.key())));
         projectResourceLimitMap.put(Resource.ResourceType.template, Long.parseLong(_configDao.getValue(Config.DefaultMaxProjectTemplates.key())));
@@ -212,11 +221,11 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
             return max;
         }
         
-        ResourceLimitVO limit = _resourceLimitDao.findByOwnerIdAndType(account.getId(), ResourceOwnerType.Account, type);
+        long limit = getLimit(account.getId(), ResourceOwnerType.Account, type);
 
         // Check if limit is configured for account
-        if (limit != null) {
-            max = limit.getMax().longValue();
+        if (limit != ResourceLimitCache.NOT_SET) {
+            max = limit;
         } else {
             // If the account has an no limit set, then return global default account limits
             Long value = null;
@@ -241,26 +250,15 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
         if (domain.getId() == Domain.ROOT_DOMAIN) {
             return Resource.RESOURCE_UNLIMITED;
         }
-        // Check account
-        ResourceLimitVO limit = _resourceLimitDao.findByOwnerIdAndType(domain.getId(), ResourceOwnerType.Domain, type);
-
-        if (limit != null) {
-            max = limit.getMax().longValue();
-        } else {
-            // check domain hierarchy
-            Long domainId = domain.getParent();
-            while ((domainId != null) && (limit == null)) {
-
-                if (domainId == Domain.ROOT_DOMAIN) {
-                    return Resource.RESOURCE_UNLIMITED;
-                }
-                limit = _resourceLimitDao.findByOwnerIdAndType(domainId, ResourceOwnerType.Domain, type);
-                DomainVO tmpDomain = _domainDao.findById(domainId);
-                domainId = tmpDomain.getParent();
+        // Check the domain, then the domain hierarchy
+        for (Long domainId : getDomainPath(domain.getId())) {
+            if (domainId.longValue() == Domain.ROOT_DOMAIN) {
+                break;
             }
-
-            if (limit != null) {
-                max = limit.getMax().longValue();
+            long limit = getLimit(domainId, ResourceOwnerType.Domain, type);
+            if (limit != ResourceLimitCache.NOT_SET) {
+                max = limit;
+                break;
             }
         }
 
@@ -285,15 +283,31 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
         Transaction txn = Transaction.currentTxn();
         txn.start();
         try {
-            // Lock all rows first so nobody else can read it
-            Set<Long> rowIdsToLock = _resourceCountDao.listAllRowsToUpdate(account.getId(), ResourceOwnerType.Account, type);
+            // Lock all rows first so nobody else can read it; id order is the order updateResourceCountForAccount updates them in
+            List<Long> rowIdsToLock = getResourceCountRows(account.getId(), type);
             SearchCriteria<ResourceCountVO> sc = ResourceCountSearch.create();
             sc.setParameters("id", rowIdsToLock.toArray());
-            _resourceCountDao.lockRows(sc, null, true);
+            List<ResourceCountVO> lockedRows = _resourceCountDao.lockRows(sc, new Filter(ResourceCountVO.class, "id", true, null, null), true);
+            // changes the transaction hasn't written yet count as well
+            PendingCountUpdates pending = Transaction.getBeforeCommitTask(PendingCountUpdates.class);
+
+            Long accountCount = null;
+            Map<Long, Long> domainCounts = new HashMap<Long, Long>();
+            for (ResourceCountVO row : lockedRows) {
+                long rowCount = row.getCount() + (pending != null ? pending.getDelta(row.getId()) : 0);
+                if (row.getResourceOwnerType() == ResourceOwnerType.Account) {
+                    accountCount = rowCount;
+                } else {
+                    domainCounts.put(row.getDomainId(), rowCount);
+                }
+            }
+            if (accountCount == null) {
+                accountCount = _resourceCountDao.getResourceCount(account.getId(), ResourceOwnerType.Account, type);
+            }
 
             // Check account limits
             long accountLimit = findCorrectResourceLimitForAccount(account, type);
-            long potentialCount = _resourceCountDao.getResourceCount(account.getId(), ResourceOwnerType.Account, type) + numResources;
+            long potentialCount = accountCount + numResources;
             if (accountLimit != Resource.RESOURCE_UNLIMITED && potentialCount > accountLimit) {
                 String message = "Maximum number of resources of type '" + type + "' for account name=" + account.getAccountName()
                         + " in domain id=" + account.getDomainId() + " has been exceeded.";
@@ -312,19 +326,20 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
                 domainId = account.getDomainId();
             }
 
-            while (domainId != null) {
-                DomainVO domain = _domainDao.findById(domainId);
+            for (Long pathDomainId : getDomainPath(domainId)) {
                 // no limit check if it is ROOT domain
-                if (domainId != Domain.ROOT_DOMAIN) {
-                    ResourceLimitVO domainLimit = _resourceLimitDao.findByOwnerIdAndType(domainId, ResourceOwnerType.Domain, type);
-                    if (domainLimit != null && domainLimit.getMax().longValue() != Resource.RESOURCE_UNLIMITED) {
-                        long domainCount = _resourceCountDao.getResourceCount(domainId, ResourceOwnerType.Domain, type);
-                        if ((domainCount + numResources) > domainLimit.getMax().longValue()) {
-                            throw new ResourceAllocationException("Maximum number of resources of type '" + type + "' for domain id=" + domainId + " has been exceeded.", type);
+                if (pathDomainId.longValue() != Domain.ROOT_DOMAIN) {
+                    long domainLimit = getLimit(pathDomainId, ResourceOwnerType.Domain, type);
+                    if (domainLimit != ResourceLimitCache.NOT_SET && domainLimit != Resource.RESOURCE_UNLIMITED) {
+                        Long domainCount = domainCounts.get(pathDomainId);
+                        if (domainCount == null) {
+                            domainCount = _resourceCountDao.getResourceCount(pathDomainId, ResourceOwnerType.Domain, type);
+                        }
+                        if ((domainCount + numResources) > domainLimit) {
+                            throw new ResourceAllocationException("Maximum number of resources of type '" + type + "' for domain id=" + pathDomainId + " has been exceeded.", type);
                         }
                     }
                 }
-                domainId = domain.getParent();
             }
         } finally {
             txn.commit();
@@ -552,13 +567,27 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
         }
 
         ResourceLimitVO limit = _resourceLimitDao.findByOwnerIdAndType(ownerId, ownerType, resourceType);
+        ResourceLimitVO result;
         if (limit != null) {
             // Update the existing limit
             _resourceLimitDao.update(limit.getId(), max);
-            return _resourceLimitDao.findById(limit.getId());
+            result = _resourceLimitDao.findById(limit.getId());
         } else {
-            return _resourceLimitDao.persist(new ResourceLimitVO(resourceType, max, ownerId, ownerType));
+            result = _resourceLimitDao.persist(new ResourceLimitVO(resourceType, max, ownerId, ownerType));
         }
+        invalidateLimit(ownerType, ownerId, resourceType);
+        return result;
+    }
+
+    protected void invalidateLimit(final ResourceOwnerType ownerType, final long ownerId, final ResourceType type) {
+        _limitCache.invalidateLimit(ownerType, ownerId, type);
+        // a reader may cache the old limit until the new one is committed
+        Transaction.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                _limitCache.invalidateLimit(ownerType, ownerId, type);
+            }
+        });
     }
 
     @Override
@@ -618,19 +647,14 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
             Transaction txn = Transaction.currentTxn();
             txn.start();
 
-            Set<Long> rowsToLock = _resourceCountDao.listAllRowsToUpdate(accountId, ResourceOwnerType.Account, type);
-
-            // Lock rows first
-            SearchCriteria<ResourceCountVO> sc = ResourceCountSearch.create();
-            sc.setParameters("id", rowsToLock.toArray());
-            List<ResourceCountVO> rowsToUpdate = _resourceCountDao.lockRows(sc, null, true);
-
-            for (ResourceCountVO rowToUpdate : rowsToUpdate) {
-                if (!_resourceCountDao.updateById(rowToUpdate.getId(), increment, delta)) {
-                    s_logger.trace("Unable to update resource count for the row " + rowToUpdate);
-                    result = false;
-                }
+            // Summed with the other changes of the transaction and written right before it commits, one in-place UPDATE
+            // per row in id order; the UPDATE locks the row, so there is no need to lock and read it first
+            PendingCountUpdates pending = Transaction.getBeforeCommitTask(PendingCountUpdates.class);
+            if (pending == null) {
+                pending = new PendingCountUpdates();
+                Transaction.runBeforeCommit(pending);
             }
+            pending.add(accountId, getResourceCountRows(accountId, type), increment ? delta : -delta);
 
             txn.commit();
         } catch (Exception ex) {
@@ -640,6 +664,59 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
         return result;
     }
 
+    protected void writePendingCounts() {
+        PendingCountUpdates pending = Transaction.getBeforeCommitTask(PendingCountUpdates.class);
+        if (pending != null) {
+            pending.run();
+        }
+    }
+
+    /**
+     * @return the limit set on the owner, or ResourceLimitCache.NOT_SET if there is none.
+     */
+    protected long getLimit(long ownerId, ResourceOwnerType ownerType, ResourceType type) {
+        Long max = _limitCache.getLimit(ownerType, ownerId, type);
+        if (max == null) {
+            ResourceLimitVO limit = _resourceLimitDao.findByOwnerIdAndType(ownerId, ownerType, type);
+            max = (limit != null) ? limit.getMax() : ResourceLimitCache.NOT_SET;
+            _limitCache.putLimit(ownerType, ownerId, type, max);
+        }
+        return max;
+    }
+
+    /**
+     * @return ids of the domain and its parents up to ROOT.
+     */
+    protected List<Long> getDomainPath(long domainId) {
+        List<Long> path = _limitCache.getDomainPath(domainId);
+        if (path == null) {
+            path = new ArrayList<Long>();
+            Long parentId = domainId;
+            while (parentId != null) {
+                path.add(parentId);
+                DomainVO domain = _domainDao.findById(parentId);
+                parentId = (domain != null) ? domain.getParent() : null;
+            }
+            path = Collections.unmodifiableList(path);
+            _limitCache.putDomainPath(domainId, path);
+        }
+        return path;
+    }
+
+    /**
+     * @return ids of the resource_count rows of the account and of its domain path, in ascending order.
+     */
+    protected List<Long> getResourceCountRows(long accountId, ResourceType type) {
+        List<Long> rowIds = _limitCache.getCountRows(accountId, type);
+        if (rowIds == null) {
+            rowIds = new ArrayList<Long>(_resourceCountDao.listAllRowsToUpdate(accountId, ResourceOwnerType.Account, type));
+            Collections.sort(rowIds);
+            rowIds = Collections.unmodifiableList(rowIds);
+            _limitCache.putCountRows(accountId, type, rowIds);
+        }
+        return rowIds;
+    }
+
     @DB
     protected long recalculateDomainResourceCount(long domainId, ResourceType type) {
         long newCount = 0;
@@ -648,6 +725,9 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
         txn.start();
 
         try {
+            // the recalculated counts replace the changes the transaction hasn't written yet
+            writePendingCounts();
+
             // Lock all rows first so nobody else can read it
             Set<Long> rowIdsToLock = _resourceCountDao.listAllRowsToUpdate(domainId, ResourceOwnerType.Domain, type);
             SearchCriteria<ResourceCountVO> sc = ResourceCountSearch.create();
@@ -701,6 +781,9 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
         Transaction txn = Transaction.currentTxn();
         txn.start();
 
+        // the recalculated counts replace the changes the transaction hasn't written yet
+        writePendingCounts();
+
         // this lock guards against the updates to user_vm, volume, snapshot, public _ip and template table
         // as any resource creation precedes with the resourceLimitExceeded check which needs this lock too
         SearchCriteria<ResourceCountVO> sc = ResourceCountSearch.create();
@@ -745,6 +828,53 @@ public class ResourceLimitManagerImpl implements ResourceLimitService, Manager {
         return _resourceCountDao.getResourceCount(account.getId(), ResourceOwnerType.Account, type);
     }
 
+    /**
+     * Count changes of a transaction, summed per resource_count row.  Run right before the transaction commits, it
+     * writes them with one UPDATE per row, however many resources the transaction added or removed.
+     */
+    protected class PendingCountUpdates implements Runnable {
+        private final Map<Long, Long> _deltas = new TreeMap<Long, Long>();
+        private final Set<Long> _accountIds = new HashSet<Long>();
+        private boolean _increments = false;
+
+        public void add(long accountId, List<Long> rowIds, long delta) {
+            for (Long rowId : rowIds) {
+                _deltas.put(rowId, getDelta(rowId) + delta);
+            }
+            _accountIds.add(accountId);
+            _increments |= delta > 0;
+        }
+
+        public long getDelta(long rowId) {
+            Long delta = _deltas.get(rowId);
+            return delta != null ? delta : 0;
+        }
+
+        @Override
+        public void run() {
+            Map<Long, Long> deltas = new TreeMap<Long, Long>();
+            for (Map.Entry<Long, Long> delta : _deltas.entrySet()) {
+                if (delta.getValue() != 0) {
+                    deltas.put(delta.getKey(), delta.getValue());
+                }
+            }
+            Set<Long> accountIds = new HashSet<Long>(_accountIds);
+            boolean increments = _increments;
+            _deltas.clear();
+            _accountIds.clear();
+            _increments = false;
+
+            if (!deltas.isEmpty() && !_resourceCountDao.updateCounts(deltas)) {
+                if (increments) {
+                    // rolls the transaction back, so that no resource is created without being counted
+                    throw new CloudRuntimeException("Failed to update resource counts for account ids=" + accountIds);
+                }
+                _alertMgr.sendAlert(AlertManager.ALERT_TYPE_UPDATE_RESOURCE_COUNT, 0L, 0L, "Failed to decrement resource counts for account ids=" + accountIds,
+                        "Failed to decrement resource counts for account ids=" + accountIds + "; use updateResourceCount API to recalculate/fix the problem");
+            }
+        }
+    }
+
     protected class ResourceCountCheckTask implements Runnable {
         public ResourceCountCheckTask() {
 
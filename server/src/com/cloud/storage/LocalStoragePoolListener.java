@@ -25,6 +25,7 @@ import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.api.StartupStorageCommand;
 import com.cloud.agent.api.StoragePoolInfo;
 import com.cloud.capacity.Capacity;
+import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.CapacityVO;
 import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.exception.ConnectionException;
@@ -44,6 +45,7 @@ public class LocalStoragePoolListener implements Listener {
     @Inject StoragePoolHostDao _storagePoolHostDao;
     @Inject CapacityDao _capacityDao;
     @Inject StorageManager _storageMgr;
+    @Inject CapacityManager _capacityMgr;
 
     @Override
     public int getTimeout() {
@@ -107,7 +109,7 @@ public class LocalStoragePoolListener implements Listener {
                 _storagePoolDao.persist(pool, pInfo.getDetails());
                 StoragePoolHostVO poolHost = new StoragePoolHostVO(pool.getId(), host.getId(), pInfo.getLocalPath());
                 _storagePoolHostDao.persist(poolHost);
-                _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_LOCAL_STORAGE, pool.getCapacityBytes() - pool.getAvailableBytes());
+                _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_LOCAL_STORAGE, 0);
                 
                 txn.commit();
             } else {
@@ -126,7 +128,7 @@ public class LocalStoragePoolListener implements Listener {
                     _storagePoolHostDao.persist(poolHost);
                 }
                 
-                _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_LOCAL_STORAGE, pool.getCapacityBytes() - pool.getAvailableBytes());
+                _capacityMgr.reconcileAllocatedPoolCapacity(pool);
                 
                 txn.commit();
             }
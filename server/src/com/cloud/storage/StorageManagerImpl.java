@@ -75,6 +75,7 @@ import com.cloud.api.commands.UpdateStoragePoolCmd;
 import com.cloud.api.commands.UploadVolumeCmd;
 import com.cloud.async.AsyncJobManager;
 import com.cloud.capacity.Capacity;
+import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.CapacityState;
 import com.cloud.capacity.CapacityVO;
 import com.cloud.capacity.dao.CapacityDao;
@@ -220,6 +221,8 @@ public class StorageManagerImpl implements StorageManager, Manager, ClusterManag
     @Inject
     protected ConfigurationManager _configMgr;
     @Inject
+    protected CapacityManager _capacityMgr;
+    @Inject
     protected ConsoleProxyManager _consoleProxyMgr;
     @Inject
     protected SecondaryStorageVmManager _secStorageMgr;
@@ -613,8 +616,38 @@ public class StorageManagerImpl implements StorageManager, Manager, ClusterManag
     }
 
     @Override
+    @DB
     public boolean stateTransitTo(Volume vol, Volume.Event event) throws NoTransitionException {
-        return _volStateMachine.transitTo(vol, event, null, _volsDao);
+        // the pool and size stored before this transition, so the pool allocated capacity counters can follow the volume
+        VolumeVO dbVol = _volsDao.findById(vol.getId());
+
+        Transaction txn = Transaction.currentTxn();
+        txn.start();
+        boolean transited = _volStateMachine.transitTo(vol, event, null, _volsDao);
+        if (transited && dbVol != null) {
+            Long oldPoolId = dbVol.getPoolId();
+            Long newPoolId = vol.getPoolId();
+            boolean poolChanged = (oldPoolId == null) ? (newPoolId != null) : !oldPoolId.equals(newPoolId);
+            if (poolChanged || (newPoolId != null && dbVol.getSize() != vol.getSize())) {
+                _capacityMgr.updateAllocatedPoolCapacity(oldPoolId, dbVol.getSize(), newPoolId, vol.getSize());
+            }
+        }
+        txn.commit();
+        return transited;
+    }
+
+    @DB
+    protected void removeVolume(long volumeId) {
+        Transaction txn = Transaction.currentTxn();
+        txn.start();
+        VolumeVO vol = _volsDao.lockRow(volumeId, true);
+        if (vol != null) {
+            _volsDao.remove(volumeId);
+            if (vol.getPoolId() != null) {
+                _capacityMgr.updateAllocatedPoolCapacity(vol.getPoolId(), vol.getSize(), null, 0);
+            }
+        }
+        txn.commit();
     }
 
     protected VolumeVO createVolumeFromSnapshot(VolumeVO volume, long snapshotId) {
@@ -3258,14 +3291,14 @@ public class StorageManagerImpl implements StorageManager, Manager, ClusterManag
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Marking volume that was never created as destroyed: " + vol);
             }
-            _volsDao.remove(vol.getId());
+            removeVolume(vol.getId());
             return;
         }
 
         StoragePoolVO pool = _storagePoolDao.findById(poolId);
         if (pool == null) {
             s_logger.debug("Removing volume as storage pool is gone: " + poolId);
-            _volsDao.remove(vol.getId());
+            removeVolume(vol.getId());
             return;
         }
 
@@ -3295,7 +3328,7 @@ public class StorageManagerImpl implements StorageManager, Manager, ClusterManag
             }
         } finally {
             if (removeVolume) {
-                _volsDao.remove(vol.getId());
+                removeVolume(vol.getId());
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Volume successfully expunged from " + poolId);
                 }
@@ -210,7 +210,7 @@ public abstract class AbstractStoragePoolAllocator extends AdapterBase implement
 			}
 		}
 		
-		long totalAllocatedSize  = _capacityMgr.getAllocatedPoolCapacity(pool, null);
+		long totalAllocatedSize  = _capacityMgr.getAllocatedPoolCapacityCounter(pool);
 		long askingSize = dskCh.getSize();
 		
 		long totalOverProvCapacity;
@@ -29,6 +29,11 @@ public interface SnapshotScheduleDao extends GenericDao<SnapshotScheduleVO, Long
 
     List<SnapshotScheduleVO> getSchedulesToExecute(Date currentTimestamp);
 
+    /**
+     * @return the schedules which have submitted a snapshot job that hasn't been seen to finish yet.
+     */
+    List<SnapshotScheduleVO> getExecutingSchedules();
+
     SnapshotScheduleVO getCurrentSchedule(Long volumeId, Long policyId, boolean executing);
 
     SnapshotScheduleVO findOneByVolume(long volumeId);
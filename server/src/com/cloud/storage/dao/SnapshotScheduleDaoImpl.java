@@ -28,6 +28,7 @@ import com.cloud.utils.db.SearchCriteria;
 public class SnapshotScheduleDaoImpl extends GenericDaoBase<SnapshotScheduleVO, Long> implements SnapshotScheduleDao {
 	protected final SearchBuilder<SnapshotScheduleVO> executableSchedulesSearch;
 	protected final SearchBuilder<SnapshotScheduleVO> coincidingSchedulesSearch;
+	protected final SearchBuilder<SnapshotScheduleVO> executingSchedulesSearch;
     private final SearchBuilder<SnapshotScheduleVO> VolumeIdSearch;
     private final SearchBuilder<SnapshotScheduleVO> VolumeIdPolicyIdSearch;
 	
@@ -38,6 +39,10 @@ public class SnapshotScheduleDaoImpl extends GenericDaoBase<SnapshotScheduleVO,
         executableSchedulesSearch.and("scheduledTimestamp", executableSchedulesSearch.entity().getScheduledTimestamp(), SearchCriteria.Op.LT);
         executableSchedulesSearch.and("asyncJobId", executableSchedulesSearch.entity().getAsyncJobId(), SearchCriteria.Op.NULL);
         executableSchedulesSearch.done();
+
+        executingSchedulesSearch = createSearchBuilder();
+        executingSchedulesSearch.and("asyncJobId", executingSchedulesSearch.entity().getAsyncJobId(), SearchCriteria.Op.NNULL);
+        executingSchedulesSearch.done();
         
         coincidingSchedulesSearch = createSearchBuilder();
         coincidingSchedulesSearch.and("volumeId", coincidingSchedulesSearch.entity().getVolumeId(), SearchCriteria.Op.EQ);
@@ -94,6 +99,14 @@ public class SnapshotScheduleDaoImpl extends GenericDaoBase<SnapshotScheduleVO,
         sc.setParameters("scheduledTimestamp", currentTimestamp);
         return listBy(sc);
     }
+
+    /**
+     * {@inheritDoc} 
+     */
+    @Override
+    public List<SnapshotScheduleVO> getExecutingSchedules() {
+        return listBy(executingSchedulesSearch.create());
+    }
     
     /**
      * {@inheritDoc} 
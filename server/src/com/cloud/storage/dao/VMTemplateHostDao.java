@@ -43,6 +43,8 @@ public interface VMTemplateHostDao extends GenericDao<VMTemplateHostVO, Long> {
 
     List<VMTemplateHostVO> listDestroyed(long hostId);
 
+    List<VMTemplateHostVO> listNotDestroyed(long hostId);
+
     boolean templateAvailable(long templateId, long hostId);
 
     List<VMTemplateHostVO> listByZoneTemplate(long dcId, long templateId, boolean readyOnly);
@@ -327,6 +327,14 @@ public class VMTemplateHostDaoImpl extends GenericDaoBase<VMTemplateHostVO, Long
 		return listIncludingRemovedBy(sc);
 	}
 
+	@Override
+	public List<VMTemplateHostVO> listNotDestroyed(long hostId) {
+		SearchCriteria<VMTemplateHostVO> sc = HostDestroyedSearch.create();
+		sc.setParameters("host_id", hostId);
+		sc.setParameters("destroyed", false);
+		return listIncludingRemovedBy(sc);
+	}
+
 	@Override
 	public VMTemplateHostVO findByHostTemplate(long hostId, long templateId, boolean lock) {
 		SearchCriteria<VMTemplateHostVO> sc = HostTemplateSearch.create();
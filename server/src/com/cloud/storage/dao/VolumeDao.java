@@ -12,6 +12,7 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.storage.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
@@ -36,6 +37,8 @@ public interface VolumeDao extends GenericDao<VolumeVO, Long>, StateDao<Volume.S
     
     List<VolumeVO> findByInstanceAndType(long id, Volume.Type vType);
     
+    List<VolumeVO> listByInstancesAndType(Collection<Long> ids, Volume.Type vType);
+    
     List<VolumeVO> findByInstanceIdDestroyed(long vmId);
     
     List<VolumeVO> findByAccountAndPod(long accountId, long podId);
@@ -16,6 +16,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -51,6 +52,7 @@ public class VolumeDaoImpl extends GenericDaoBase<VolumeVO, Long> implements Vol
     protected final GenericSearchBuilder<VolumeVO, Long> ActiveTemplateSearch;
     protected final SearchBuilder<VolumeVO> InstanceStatesSearch;
     protected final SearchBuilder<VolumeVO> AllFieldsSearch;
+    protected final SearchBuilder<VolumeVO> InstancesAndTypeSearch;
     protected GenericSearchBuilder<VolumeVO, Long> CountByAccount;
     
     protected static final String SELECT_VM_SQL = "SELECT DISTINCT instance_id from volumes v where v.host_id = ? and v.mirror_state = ?";
@@ -125,6 +127,14 @@ public class VolumeDaoImpl extends GenericDaoBase<VolumeVO, Long> implements Vol
 	    return listBy(sc);
 	}
 	
+	@Override
+	public List<VolumeVO> listByInstancesAndType(Collection<Long> ids, Type vType) {
+        SearchCriteria<VolumeVO> sc = InstancesAndTypeSearch.create();
+        sc.setParameters("instanceIds", ids.toArray());
+        sc.setParameters("vType", vType.toString());
+	    return listBy(sc);
+	}
+	
 	@Override
 	public List<VolumeVO> findByInstanceIdDestroyed(long vmId) {
 		SearchCriteria<VolumeVO> sc = AllFieldsSearch.create();
@@ -253,6 +263,11 @@ public class VolumeDaoImpl extends GenericDaoBase<VolumeVO, Long> implements Vol
         AllFieldsSearch.and("updatedCount", AllFieldsSearch.entity().getUpdatedCount(), Op.EQ);
         AllFieldsSearch.done();
         
+        InstancesAndTypeSearch = createSearchBuilder();
+        InstancesAndTypeSearch.and("instanceIds", InstancesAndTypeSearch.entity().getInstanceId(), Op.IN);
+        InstancesAndTypeSearch.and("vType", InstancesAndTypeSearch.entity().getVolumeType(), Op.EQ);
+        InstancesAndTypeSearch.done();
+        
         DetachedAccountIdSearch = createSearchBuilder();
         DetachedAccountIdSearch.and("accountId", DetachedAccountIdSearch.entity().getAccountId(), Op.EQ);
         DetachedAccountIdSearch.and("destroyed", DetachedAccountIdSearch.entity().getState(), Op.NEQ);
@@ -16,7 +16,9 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -97,6 +99,7 @@ import com.cloud.vm.dao.SecondaryStorageVmDao;
 @Local(value={DownloadMonitor.class})
 public class DownloadMonitorImpl implements  DownloadMonitor {
     static final Logger s_logger = Logger.getLogger(DownloadMonitorImpl.class);
+    private static final int TEMPLATE_SYNC_BATCH_SIZE = 500;
 	
     @Inject 
     VMTemplateHostDao _vmTemplateHostDao;
@@ -319,10 +322,11 @@ public class DownloadMonitorImpl implements  DownloadMonitor {
 	}
 
 	private void downloadTemplateToStorage(VMTemplateVO template, HostVO sserver) {
-		boolean downloadJobExists = false;
-        VMTemplateHostVO vmTemplateHost = null;
+	    downloadTemplateToStorage(template, sserver, _vmTemplateHostDao.findByHostTemplate(sserver.getId(), template.getId()));
+	}
 
-        vmTemplateHost = _vmTemplateHostDao.findByHostTemplate(sserver.getId(), template.getId());
+	void downloadTemplateToStorage(VMTemplateVO template, HostVO sserver, VMTemplateHostVO vmTemplateHost) {
+		boolean downloadJobExists = false;
         if (vmTemplateHost == null) {
             vmTemplateHost = new VMTemplateHostVO(sserver.getId(), template.getId(), new Date(), 0, VMTemplateStorageResourceAssoc.Status.NOT_DOWNLOADED, null, null, "jobid0000", null, template.getUrl());
             _vmTemplateHostDao.persist(vmTemplateHost);
@@ -561,32 +565,35 @@ public class DownloadMonitorImpl implements  DownloadMonitor {
             return;
         }
 
-        Set<VMTemplateVO> toBeDownloaded = new HashSet<VMTemplateVO>();
-        List<VMTemplateVO> allTemplates = _templateDao.listAllInZone(zoneId);
-        List<VMTemplateVO> rtngTmplts = _templateDao.listAllSystemVMTemplates();
-        List<VMTemplateVO> defaultBuiltin = _templateDao.listDefaultBuiltinTemplates();
+        // templates are equal by unique name, keep the first one found for each
+        Map<String, VMTemplateVO> allTemplates = new LinkedHashMap<String, VMTemplateVO>();
+        addTemplates(allTemplates, _templateDao.listAllInZone(zoneId));
+        addTemplates(allTemplates, _templateDao.listAllSystemVMTemplates());
+        addTemplates(allTemplates, _templateDao.listDefaultBuiltinTemplates());
 
-        if (rtngTmplts != null) {
-            for (VMTemplateVO rtngTmplt : rtngTmplts) {
-                if (!allTemplates.contains(rtngTmplt)) {
-                    allTemplates.add(rtngTmplt);
-                }
+        Map<Long, VMTemplateHostVO> tmpltHosts = new HashMap<Long, VMTemplateHostVO>();
+        for (VMTemplateHostVO tmpltHost : _vmTemplateHostDao.listNotDestroyed(sserverId)) {
+            if (!tmpltHosts.containsKey(tmpltHost.getTemplateId())) {
+                tmpltHosts.put(tmpltHost.getTemplateId(), tmpltHost);
             }
         }
-
-        if (defaultBuiltin != null) {
-            for (VMTemplateVO builtinTmplt : defaultBuiltin) {
-                if (!allTemplates.contains(builtinTmplt)) {
-                    allTemplates.add(builtinTmplt);
-                }
+        Map<Long, VMTemplateZoneVO> tmpltZones = new HashMap<Long, VMTemplateZoneVO>();
+        for (VMTemplateZoneVO tmpltZone : _vmTemplateZoneDao.listByZoneId(zoneId)) {
+            if (!tmpltZones.containsKey(tmpltZone.getTemplateId())) {
+                tmpltZones.put(tmpltZone.getTemplateId(), tmpltZone);
             }
         }
 
-        toBeDownloaded.addAll(allTemplates);
+        List<VMTemplateHostVO> tmpltHostsToPersist = new ArrayList<VMTemplateHostVO>();
+        List<VMTemplateHostVO> tmpltHostsToUpdate = new ArrayList<VMTemplateHostVO>();
+        List<VMTemplateZoneVO> tmpltZonesToPersist = new ArrayList<VMTemplateZoneVO>();
+        List<VMTemplateZoneVO> tmpltZonesToUpdate = new ArrayList<VMTemplateZoneVO>();
+
+        Set<VMTemplateVO> toBeDownloaded = new HashSet<VMTemplateVO>(allTemplates.values());
 
-        for (VMTemplateVO tmplt : allTemplates) {
+        for (VMTemplateVO tmplt : allTemplates.values()) {
             String uniqueName = tmplt.getUniqueName();
-            VMTemplateHostVO tmpltHost = _vmTemplateHostDao.findByHostTemplate(sserverId, tmplt.getId());
+            VMTemplateHostVO tmpltHost = tmpltHosts.get(tmplt.getId());
             if (templateInfos.containsKey(uniqueName)) {
                 TemplateInfo tmpltInfo = templateInfos.remove(uniqueName);
                 toBeDownloaded.remove(tmplt);
@@ -615,21 +622,14 @@ public class DownloadMonitorImpl implements  DownloadMonitor {
                         tmpltHost.setPhysicalSize(tmpltInfo.getPhysicalSize());
                         tmpltHost.setLastUpdated(new Date());
                     }
-                    _vmTemplateHostDao.update(tmpltHost.getId(), tmpltHost);
+                    tmpltHostsToUpdate.add(tmpltHost);
                 } else {
                     tmpltHost = new VMTemplateHostVO(sserverId, tmplt.getId(), new Date(), 100, Status.DOWNLOADED, null, null, null, tmpltInfo.getInstallPath(), tmplt.getUrl());
                     tmpltHost.setSize(tmpltInfo.getSize());
                     tmpltHost.setPhysicalSize(tmpltInfo.getPhysicalSize());
-                    _vmTemplateHostDao.persist(tmpltHost);
-                    VMTemplateZoneVO tmpltZoneVO = _vmTemplateZoneDao.findByZoneTemplate(zoneId, tmplt.getId());
-                    if (tmpltZoneVO == null) {
-                        tmpltZoneVO = new VMTemplateZoneVO(zoneId, tmplt.getId(), new Date());
-                        _vmTemplateZoneDao.persist(tmpltZoneVO);
-                    } else {
-                        tmpltZoneVO.setLastUpdated(new Date());
-                        _vmTemplateZoneDao.update(tmpltZoneVO.getId(), tmpltZoneVO);
-                    }
-
+                    tmpltHosts.put(tmplt.getId(), tmpltHost);
+                    tmpltHostsToPersist.add(tmpltHost);
+                    syncTemplateZone(zoneId, tmplt.getId(), tmpltZones, tmpltZonesToPersist, tmpltZonesToUpdate);
                 }
 
                 continue;
@@ -640,19 +640,15 @@ public class DownloadMonitorImpl implements  DownloadMonitor {
             } else if (tmpltHost == null) {
                 s_logger.info("Template Sync did not find " + uniqueName + " on the server " + sserverId + ", will request download shortly");
                 VMTemplateHostVO templtHost = new VMTemplateHostVO(sserverId, tmplt.getId(), new Date(), 0, Status.NOT_DOWNLOADED, null, null, null, null, tmplt.getUrl());
-                _vmTemplateHostDao.persist(templtHost);
-                VMTemplateZoneVO tmpltZoneVO = _vmTemplateZoneDao.findByZoneTemplate(zoneId, tmplt.getId());
-                if (tmpltZoneVO == null) {
-                    tmpltZoneVO = new VMTemplateZoneVO(zoneId, tmplt.getId(), new Date());
-                    _vmTemplateZoneDao.persist(tmpltZoneVO);
-                } else {
-                    tmpltZoneVO.setLastUpdated(new Date());
-                    _vmTemplateZoneDao.update(tmpltZoneVO.getId(), tmpltZoneVO);
-                }
+                tmpltHosts.put(tmplt.getId(), templtHost);
+                tmpltHostsToPersist.add(templtHost);
+                syncTemplateZone(zoneId, tmplt.getId(), tmpltZones, tmpltZonesToPersist, tmpltZonesToUpdate);
             }
 
         }
 
+        persistTemplateSync(tmpltHostsToPersist, tmpltHostsToUpdate, tmpltZonesToPersist, tmpltZonesToUpdate);
+
         if (toBeDownloaded.size() > 0) {
             /* Only download templates whose hypervirsor type is in the zone */
             List<HypervisorType> availHypers = _clusterDao.getAvailableHypervisorInZone(zoneId);
@@ -675,8 +671,7 @@ public class DownloadMonitorImpl implements  DownloadMonitor {
                 // if this is private template, and there is no record for this
                 // template in this sHost, skip
                 if (!tmplt.isPublicTemplate() && !tmplt.isFeatured()) {
-                    VMTemplateHostVO tmpltHost = _vmTemplateHostDao.findByHostTemplate(sserverId, tmplt.getId());
-                    if (tmpltHost == null) {
+                    if (tmpltHosts.get(tmplt.getId()) == null) {
                         continue;
                     }
                 }
@@ -687,7 +682,7 @@ public class DownloadMonitorImpl implements  DownloadMonitor {
                         }
                     }
                     s_logger.debug("Template " + tmplt.getName() + " needs to be downloaded to " + ssHost.getName());
-                    downloadTemplateToStorage(tmplt, ssHost);
+                    downloadTemplateToStorage(tmplt, ssHost, tmpltHosts.get(tmplt.getId()));
                 }
             }
         }
@@ -708,6 +703,66 @@ public class DownloadMonitorImpl implements  DownloadMonitor {
         }
     }
 
+    private static void addTemplates(Map<String, VMTemplateVO> allTemplates, List<VMTemplateVO> templates) {
+        if (templates != null) {
+            for (VMTemplateVO template : templates) {
+                if (!allTemplates.containsKey(template.getUniqueName())) {
+                    allTemplates.put(template.getUniqueName(), template);
+                }
+            }
+        }
+    }
+
+    private static void syncTemplateZone(long zoneId, long templateId, Map<Long, VMTemplateZoneVO> tmpltZones, List<VMTemplateZoneVO> tmpltZonesToPersist, List<VMTemplateZoneVO> tmpltZonesToUpdate) {
+        VMTemplateZoneVO tmpltZoneVO = tmpltZones.get(templateId);
+        if (tmpltZoneVO == null) {
+            tmpltZoneVO = new VMTemplateZoneVO(zoneId, templateId, new Date());
+            tmpltZones.put(templateId, tmpltZoneVO);
+            tmpltZonesToPersist.add(tmpltZoneVO);
+        } else {
+            tmpltZoneVO.setLastUpdated(new Date());
+            tmpltZonesToUpdate.add(tmpltZoneVO);
+        }
+    }
+
+    /**
+     * Writes the template host and zone refs a template sync produced, committing every TEMPLATE_SYNC_BATCH_SIZE rows
+     * instead of once per row.
+     */
+    @DB
+    protected void persistTemplateSync(List<VMTemplateHostVO> tmpltHostsToPersist, List<VMTemplateHostVO> tmpltHostsToUpdate,
+            List<VMTemplateZoneVO> tmpltZonesToPersist, List<VMTemplateZoneVO> tmpltZonesToUpdate) {
+        Transaction txn = Transaction.currentTxn();
+        int pending = 0;
+        txn.start();
+        for (VMTemplateHostVO tmpltHost : tmpltHostsToPersist) {
+            _vmTemplateHostDao.persist(tmpltHost);
+            pending = commitTemplateSyncBatch(txn, pending);
+        }
+        for (VMTemplateHostVO tmpltHost : tmpltHostsToUpdate) {
+            _vmTemplateHostDao.update(tmpltHost.getId(), tmpltHost);
+            pending = commitTemplateSyncBatch(txn, pending);
+        }
+        for (VMTemplateZoneVO tmpltZone : tmpltZonesToPersist) {
+            _vmTemplateZoneDao.persist(tmpltZone);
+            pending = commitTemplateSyncBatch(txn, pending);
+        }
+        for (VMTemplateZoneVO tmpltZone : tmpltZonesToUpdate) {
+            _vmTemplateZoneDao.update(tmpltZone.getId(), tmpltZone);
+            pending = commitTemplateSyncBatch(txn, pending);
+        }
+        txn.commit();
+    }
+
+    private static int commitTemplateSyncBatch(Transaction txn, int pending) {
+        if (++pending < TEMPLATE_SYNC_BATCH_SIZE) {
+            return pending;
+        }
+        txn.commit();
+        txn.start();
+        return 0;
+    }
+
 	@Override
 	public void cancelAllDownloads(Long templateId) {
 		List<VMTemplateHostVO> downloadsInProgress =
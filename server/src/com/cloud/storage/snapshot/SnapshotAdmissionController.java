@@ -0,0 +1,119 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.storage.snapshot;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides when a due snapshot schedule may start its backup.
+ * 
+ * Policies tend to share schedules (on the hour, at midnight), so every volume is given a deterministic offset into
+ * a jitter window and only becomes due that long after its scheduled time.  On top of that each storage pool and each
+ * host has a bucket of tokens, sized by the maximum number of concurrent backups allowed on it.  A backup holds one
+ * token of its pool and one of its host until its job finishes; a schedule that can't get both waits for a later poll.
+ * 
+ * The buckets are refilled by the caller at each poll, by calling reset() and then reserve() for every backup still
+ * running, so they always reflect the snapshot_schedule table and nothing is lost across management server restarts.
+ */
+public class SnapshotAdmissionController {
+    private final long _windowMillis;
+    private final int _maxPerPool;
+    private final int _maxPerHost;
+    private final Map<Long, Integer> _poolTokens = new HashMap<Long, Integer>();
+    private final Map<Long, Integer> _hostTokens = new HashMap<Long, Integer>();
+
+    /**
+     * @param windowSeconds width of the jitter window, 0 to run schedules at their scheduled time.
+     * @param maxPerPool maximum concurrent backups per storage pool, 0 or less for no limit.
+     * @param maxPerHost maximum concurrent backups per host, 0 or less for no limit.
+     */
+    public SnapshotAdmissionController(int windowSeconds, int maxPerPool, int maxPerHost) {
+        _windowMillis = Math.max(windowSeconds, 0) * 1000L;
+        _maxPerPool = maxPerPool;
+        _maxPerHost = maxPerHost;
+    }
+
+    /**
+     * @return the offset into the jitter window of a volume, the same for every poll and every management server.
+     */
+    public long getJitter(long volumeId) {
+        if (_windowMillis == 0) {
+            return 0;
+        }
+        // spread consecutive volume ids over the whole window
+        long hash = volumeId * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 31;
+        return (hash & Long.MAX_VALUE) % _windowMillis;
+    }
+
+    /**
+     * @return the time at which a schedule of the volume becomes due.
+     */
+    public long getDueTime(long volumeId, Date scheduledTimestamp) {
+        return scheduledTimestamp.getTime() + getJitter(volumeId);
+    }
+
+    /**
+     * Fills every bucket up again.
+     */
+    public void reset() {
+        _poolTokens.clear();
+        _hostTokens.clear();
+    }
+
+    /**
+     * Takes a token for a backup which is already running, even if the bucket is empty.
+     */
+    public void reserve(Long poolId, Long hostId) {
+        take(_poolTokens, _maxPerPool, poolId);
+        take(_hostTokens, _maxPerHost, hostId);
+    }
+
+    /**
+     * Takes a token from the bucket of both the pool and the host, if both have one left.
+     * 
+     * @return true if the backup may start.
+     */
+    public boolean tryAcquire(Long poolId, Long hostId) {
+        if (getAvailable(_poolTokens, _maxPerPool, poolId) <= 0 || getAvailable(_hostTokens, _maxPerHost, hostId) <= 0) {
+            return false;
+        }
+        reserve(poolId, hostId);
+        return true;
+    }
+
+    public int getAvailablePoolTokens(Long poolId) {
+        return getAvailable(_poolTokens, _maxPerPool, poolId);
+    }
+
+    public int getAvailableHostTokens(Long hostId) {
+        return getAvailable(_hostTokens, _maxPerHost, hostId);
+    }
+
+    private static int getAvailable(Map<Long, Integer> tokens, int max, Long id) {
+        if (max <= 0 || id == null) {
+            return Integer.MAX_VALUE;
+        }
+        Integer available = tokens.get(id);
+        return available == null ? max : available;
+    }
+
+    private static void take(Map<Long, Integer> tokens, int max, Long id) {
+        if (max <= 0 || id == null) {
+            return;
+        }
+        tokens.put(id, getAvailable(tokens, max, id) - 1);
+    }
+}
@@ -12,10 +12,15 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.storage.snapshot;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -31,6 +36,7 @@ import com.cloud.async.AsyncJobManager;
 import com.cloud.async.AsyncJobResult;
 import com.cloud.async.AsyncJobVO;
 import com.cloud.async.dao.AsyncJobDao;
+import com.cloud.configuration.Config;
 import com.cloud.configuration.dao.ConfigurationDao;
 import com.cloud.event.EventTypes;
 import com.cloud.event.EventUtils;
@@ -54,7 +60,8 @@ import com.cloud.utils.component.Inject;
 import com.cloud.utils.concurrency.TestClock;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.GlobalLock;
-import com.cloud.utils.db.SearchCriteria;
+import com.cloud.vm.VMInstanceVO;
+import com.cloud.vm.dao.VMInstanceDao;
 
 /**
  *
@@ -72,12 +79,14 @@ public class SnapshotSchedulerImpl implements SnapshotScheduler {
     @Inject protected SnapshotManager         _snapshotManager;
     @Inject protected StoragePoolHostDao      _poolHostDao;
     @Inject protected VolumeDao               _volsDao;
+    @Inject protected VMInstanceDao           _vmDao;
 
     private static final int ACQUIRE_GLOBAL_LOCK_TIMEOUT_FOR_COOPERATION = 5;    // 5 seconds
     private int        _snapshotPollInterval;
     private Timer      _testClockTimer;
-    private Date       _currentTimestamp;
+    protected Date     _currentTimestamp;
     private TestClock  _testTimerTask;
+    private SnapshotAdmissionController _admission;
 
     private Date getNextScheduledTime(long policyId, Date currentTimestamp) {
         SnapshotPolicyVO policy = _snapshotPolicyDao.findById(policyId);
@@ -130,10 +139,8 @@ public class SnapshotSchedulerImpl implements SnapshotScheduler {
         }
     }
 
-    private void checkStatusOfCurrentlyExecutingSnapshots() {
-        SearchCriteria<SnapshotScheduleVO> sc = _snapshotScheduleDao.createSearchCriteria();
-        sc.addAnd("asyncJobId", SearchCriteria.Op.NNULL);
-        List<SnapshotScheduleVO> snapshotSchedules = _snapshotScheduleDao.search(sc, null);
+    protected void checkStatusOfCurrentlyExecutingSnapshots() {
+        List<SnapshotScheduleVO> snapshotSchedules = _snapshotScheduleDao.getExecutingSchedules();
         for (SnapshotScheduleVO snapshotSchedule : snapshotSchedules) {
             Long asyncJobId = snapshotSchedule.getAsyncJobId();
             AsyncJobVO asyncJob = _asyncJobDao.findById(asyncJobId);
@@ -201,24 +208,15 @@ public class SnapshotSchedulerImpl implements SnapshotScheduler {
         String displayTime = DateUtil.displayDateInTimezone(DateUtil.GMT_TIMEZONE, _currentTimestamp);
         s_logger.debug("Snapshot scheduler.poll is being called at " + displayTime);
 
-        List<SnapshotScheduleVO> snapshotsToBeExecuted = _snapshotScheduleDao.getSchedulesToExecute(_currentTimestamp);
+        List<SnapshotScheduleVO> snapshotsToBeExecuted = admitSnapshots(_snapshotScheduleDao.getSchedulesToExecute(_currentTimestamp));
         s_logger.debug("Got " + snapshotsToBeExecuted.size() + " snapshots to be executed at " + displayTime);
 
-        // This is done for recurring snapshots, which are executed by the system automatically
-        // Hence set user id to that of system
-        long userId = 1;
-
         for (SnapshotScheduleVO snapshotToBeExecuted : snapshotsToBeExecuted) {
             SnapshotScheduleVO tmpSnapshotScheduleVO = null;
             long snapshotScheId = snapshotToBeExecuted.getId();
             long policyId = snapshotToBeExecuted.getPolicyId();
             long volumeId = snapshotToBeExecuted.getVolumeId();
             try {
-                VolumeVO volume = _volsDao.findById(volumeId);
-                if ( volume.getPoolId() == null) {
-                    // this volume is not attached
-                    continue;
-                }
                 if ( _snapshotPolicyDao.findById(policyId) == null ) {
                     _snapshotScheduleDao.remove(snapshotToBeExecuted.getId());
                 }
@@ -232,31 +230,7 @@ public class SnapshotSchedulerImpl implements SnapshotScheduler {
 
 
                 tmpSnapshotScheduleVO = _snapshotScheduleDao.acquireInLockTable(snapshotScheId);
-                Long eventId = EventUtils.saveScheduledEvent(User.UID_SYSTEM, Account.ACCOUNT_ID_SYSTEM,
-                        EventTypes.EVENT_SNAPSHOT_CREATE, "creating snapshot for volume Id:"+volumeId,0);
-
-                Map<String, String> params = new HashMap<String, String>();
-                params.put("volumeid", ""+volumeId);
-                params.put("policyid", ""+policyId);
-                params.put("ctxUserId", "1");
-                params.put("ctxAccountId", "1");
-                params.put("ctxStartEventId", String.valueOf(eventId));
-
-                CreateSnapshotCmd cmd = new CreateSnapshotCmd();
-                ApiDispatcher.getInstance().dispatchCreateCmd(cmd, params);
-                params.put("id", ""+cmd.getEntityId());
-                params.put("ctxStartEventId", "1");
-
-                AsyncJobVO job = new AsyncJobVO();
-                job.setUserId(userId);
-                // Just have SYSTEM own the job for now.  Users won't be able to see this job, but
-                // it's an internal job so probably not a huge deal.
-                job.setAccountId(1L);
-                job.setCmd(CreateSnapshotCmd.class.getName());
-                job.setInstanceId(cmd.getEntityId());
-                job.setCmdInfo(ApiGsonHelper.getBuilder().create().toJson(params));
-
-                long jobId = _asyncMgr.submitAsyncJob(job);
+                long jobId = submitSnapshotJob(volumeId, policyId);
 
                 tmpSnapshotScheduleVO.setAsyncJobId(jobId);
                 _snapshotScheduleDao.update(snapshotScheId, tmpSnapshotScheduleVO);
@@ -270,6 +244,125 @@ public class SnapshotSchedulerImpl implements SnapshotScheduler {
         }
     }
 
+    /**
+     * Picks the due schedules which may start their backup at this poll, most overdue first.  A schedule becomes due
+     * its volume's jitter after its scheduled time, and is only admitted while the pool and the host of the volume
+     * have tokens left once the running backups have taken theirs.  The others stay in the table until a later poll.
+     */
+    protected List<SnapshotScheduleVO> admitSnapshots(List<SnapshotScheduleVO> schedules) {
+        final Map<Long, Long> dueTimes = new HashMap<Long, Long>();
+        List<SnapshotScheduleVO> dueSchedules = new ArrayList<SnapshotScheduleVO>();
+        for (SnapshotScheduleVO schedule : schedules) {
+            long dueTime = _admission.getDueTime(schedule.getVolumeId(), schedule.getScheduledTimestamp());
+            if (dueTime <= _currentTimestamp.getTime()) {
+                dueTimes.put(schedule.getId(), dueTime);
+                dueSchedules.add(schedule);
+            }
+        }
+        Collections.sort(dueSchedules, new Comparator<SnapshotScheduleVO>() {
+            @Override
+            public int compare(SnapshotScheduleVO s1, SnapshotScheduleVO s2) {
+                int result = dueTimes.get(s1.getId()).compareTo(dueTimes.get(s2.getId()));
+                return result != 0 ? result : Long.valueOf(s1.getId()).compareTo(s2.getId());
+            }
+        });
+
+        List<SnapshotScheduleVO> executingSchedules = _snapshotScheduleDao.getExecutingSchedules();
+
+        // the volumes of this poll and their vms, in one query each rather than one per schedule
+        Set<Long> volumeIds = new HashSet<Long>();
+        for (SnapshotScheduleVO schedule : executingSchedules) {
+            volumeIds.add(schedule.getVolumeId());
+        }
+        for (SnapshotScheduleVO schedule : dueSchedules) {
+            volumeIds.add(schedule.getVolumeId());
+        }
+        Map<Long, VolumeVO> volumes = new HashMap<Long, VolumeVO>();
+        Set<Long> vmIds = new HashSet<Long>();
+        for (VolumeVO volume : _volsDao.listByIds(volumeIds)) {
+            volumes.put(volume.getId(), volume);
+            if (volume.getInstanceId() != null) {
+                vmIds.add(volume.getInstanceId());
+            }
+        }
+        Map<Long, Long> vmHostIds = new HashMap<Long, Long>();
+        for (VMInstanceVO vm : _vmDao.listByIds(vmIds)) {
+            vmHostIds.put(vm.getId(), vm.getHostId());
+        }
+
+        _admission.reset();
+        for (SnapshotScheduleVO executing : executingSchedules) {
+            VolumeVO volume = volumes.get(executing.getVolumeId());
+            if (volume != null) {
+                _admission.reserve(volume.getPoolId(), getSnapshotHostId(volume, vmHostIds));
+            }
+        }
+
+        List<SnapshotScheduleVO> admitted = new ArrayList<SnapshotScheduleVO>();
+        for (SnapshotScheduleVO schedule : dueSchedules) {
+            VolumeVO volume = volumes.get(schedule.getVolumeId());
+            if (volume == null || volume.getPoolId() == null) {
+                // this volume is not attached
+                continue;
+            }
+            if (_admission.tryAcquire(volume.getPoolId(), getSnapshotHostId(volume, vmHostIds))) {
+                admitted.add(schedule);
+            }
+        }
+        if (s_logger.isDebugEnabled() && admitted.size() < dueSchedules.size()) {
+            s_logger.debug("Deferring " + (dueSchedules.size() - admitted.size()) + " due snapshots to a later poll");
+        }
+        return admitted;
+    }
+
+    /**
+     * @param vmHostIds host ids of the vms the volumes of this poll are attached to, keyed by vm id
+     * @return the host the snapshot of the volume will go through, null if it isn't known before it is taken.
+     */
+    private static Long getSnapshotHostId(VolumeVO volume, Map<Long, Long> vmHostIds) {
+        if (volume.getInstanceId() == null) {
+            return null;
+        }
+        return vmHostIds.get(volume.getInstanceId());
+    }
+
+    /**
+     * Submits the async job creating the recurring snapshot of a volume.
+     * 
+     * @return the id of the job.
+     */
+    protected long submitSnapshotJob(long volumeId, long policyId) {
+        // This is done for recurring snapshots, which are executed by the system automatically
+        // Hence set user id to that of system
+        long userId = 1;
+
+        Long eventId = EventUtils.saveScheduledEvent(User.UID_SYSTEM, Account.ACCOUNT_ID_SYSTEM,
+                EventTypes.EVENT_SNAPSHOT_CREATE, "creating snapshot for volume Id:"+volumeId,0);
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("volumeid", ""+volumeId);
+        params.put("policyid", ""+policyId);
+        params.put("ctxUserId", "1");
+        params.put("ctxAccountId", "1");
+        params.put("ctxStartEventId", String.valueOf(eventId));
+
+        CreateSnapshotCmd cmd = new CreateSnapshotCmd();
+        ApiDispatcher.getInstance().dispatchCreateCmd(cmd, params);
+        params.put("id", ""+cmd.getEntityId());
+        params.put("ctxStartEventId", "1");
+
+        AsyncJobVO job = new AsyncJobVO();
+        job.setUserId(userId);
+        // Just have SYSTEM own the job for now.  Users won't be able to see this job, but
+        // it's an internal job so probably not a huge deal.
+        job.setAccountId(1L);
+        job.setCmd(CreateSnapshotCmd.class.getName());
+        job.setInstanceId(cmd.getEntityId());
+        job.setCmdInfo(ApiGsonHelper.getBuilder().create().toJson(params));
+
+        return _asyncMgr.submitAsyncJob(job);
+    }
+
     private Date scheduleNextSnapshotJob(SnapshotScheduleVO snapshotSchedule) {
         if ( snapshotSchedule == null ) {
             return null;
@@ -347,6 +440,10 @@ public class SnapshotSchedulerImpl implements SnapshotScheduler {
             return false;
         }
         _snapshotPollInterval = NumbersUtil.parseInt(configDao.getValue("snapshot.poll.interval"), 300);
+        int jitterWindow = NumbersUtil.parseInt(configDao.getValue(Config.SnapshotPollJitterWindow.key()), 1800);
+        int maxPerPool = NumbersUtil.parseInt(configDao.getValue(Config.SnapshotMaxConcurrentPerPool.key()), 4);
+        int maxPerHost = NumbersUtil.parseInt(configDao.getValue(Config.SnapshotMaxConcurrentPerHost.key()), 2);
+        _admission = new SnapshotAdmissionController(jitterWindow, maxPerPool, maxPerHost);
         boolean snapshotsRecurringTest = Boolean.parseBoolean(configDao.getValue("snapshot.recurring.test"));
         if (snapshotsRecurringTest) {
             // look for some test values in the configuration table so that snapshots can be taken more frequently (QA test code)
@@ -17,6 +17,7 @@ import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.sql.Savepoint;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -56,6 +57,7 @@ import com.cloud.api.commands.UpdateTemplateOrIsoPermissionsCmd;
 import com.cloud.api.commands.UpdateTemplatePermissionsCmd;
 import com.cloud.async.AsyncJobManager;
 import com.cloud.async.AsyncJobVO;
+import com.cloud.capacity.CapacityManager;
 import com.cloud.configuration.Config;
 import com.cloud.configuration.Resource.ResourceType;
 import com.cloud.configuration.dao.ConfigurationDao;
@@ -184,6 +186,7 @@ public class TemplateManagerImpl implements TemplateManager, Manager, TemplateSe
     @Inject UploadDao _uploadDao;
     long _routerTemplateId = -1;
     @Inject StorageManager _storageMgr;
+    @Inject CapacityManager _capacityMgr;
     @Inject AsyncJobManager _asyncMgr;
     @Inject UserVmManager _vmMgr;
     @Inject UsageEventDao _usageEventDao;
@@ -608,11 +611,29 @@ public class TemplateManagerImpl implements TemplateManager, Manager, TemplateSe
                 s_logger.debug("Downloading template " + templateId + " to pool " + poolId);
             }
             templateStoragePoolRef = new VMTemplateStoragePoolVO(poolId, templateId);
+            // losing the insert race must only undo this insert, not a transaction the caller already has open
+            Transaction txn = Transaction.currentTxn();
+            Savepoint sp = null;
             try {
+                if (txn.dbTxnStarted()) {
+                    sp = txn.setSavepoint();
+                } else {
+                    txn.start();
+                }
                 templateStoragePoolRef = _tmpltPoolDao.persist(templateStoragePoolRef);
                 templateStoragePoolRefId =  templateStoragePoolRef.getId();
-                
+                _capacityMgr.updateAllocatedPoolCapacity(null, 0, poolId, templateStoragePoolRef.getTemplateSize());
+                if (sp != null) {
+                    txn.releaseSavepoint(sp);
+                } else {
+                    txn.commit();
+                }
             } catch (Exception e) {
+                if (sp != null) {
+                    txn.rollback(sp);
+                } else {
+                    txn.rollback();
+                }
                 s_logger.debug("Assuming we're in a race condition: " + e.getMessage());
                 templateStoragePoolRef = _tmpltPoolDao.findByPoolTemplate(poolId, templateId);
                 if (templateStoragePoolRef == null) {
@@ -663,8 +684,13 @@ public class TemplateManagerImpl implements TemplateManager, Manager, TemplateSe
 	        		templateStoragePoolRef.setDownloadState(Status.DOWNLOADED);
 	        		templateStoragePoolRef.setLocalDownloadPath(answer.getInstallPath());
 	        		templateStoragePoolRef.setInstallPath(answer.getInstallPath());
+	        		long oldTemplateSize = templateStoragePoolRef.getTemplateSize();
 	        		templateStoragePoolRef.setTemplateSize(answer.getTemplateSize());
+	        		Transaction txn = Transaction.currentTxn();
+	        		txn.start();
 	        		_tmpltPoolDao.update(templateStoragePoolRef.getId(), templateStoragePoolRef);
+	        		_capacityMgr.updateAllocatedPoolCapacity(poolId, oldTemplateSize, poolId, answer.getTemplateSize());
+	        		txn.commit();
 	        		if (s_logger.isDebugEnabled()) {
 	        			s_logger.debug("Template " + templateId + " is downloaded via " + vo.getHostId());
 	        		}
@@ -899,6 +925,7 @@ public class TemplateManagerImpl implements TemplateManager, Manager, TemplateSe
 	}
     
     @Override
+    @DB
     public void evictTemplateFromStoragePool(VMTemplateStoragePoolVO templatePoolVO) {
 		StoragePoolVO pool = _poolDao.findById(templatePoolVO.getPoolId());
 		VMTemplateVO template = _tmpltDao.findByIdIncludingRemoved(templatePoolVO.getTemplateId());
@@ -919,9 +946,13 @@ public class TemplateManagerImpl implements TemplateManager, Manager, TemplateSe
 		
     	if (answer != null && answer.getResult()) {
     		// Remove the templatePoolVO
+    		Transaction txn = Transaction.currentTxn();
+    		txn.start();
     		if (_tmpltPoolDao.remove(templatePoolVO.getId())) {
+    			_capacityMgr.updateAllocatedPoolCapacity(pool.getId(), templatePoolVO.getTemplateSize(), null, 0);
     			s_logger.debug("Successfully evicted template: " + template.getName() + " from storage pool: " + pool.getName());
     		}
+    		txn.commit();
     	}
 	}
     
@@ -209,6 +209,7 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
     @Inject(adapter = SecurityChecker.class)
     Adapters<SecurityChecker> _securityCheckers;
     int _cleanupInterval;
+    ApiKeyCache _apiKeyCache;
 
     @Override
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -231,6 +232,10 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
         String value = configs.get(Config.AccountCleanupInterval.key());
         _cleanupInterval = NumbersUtil.parseInt(value, 60 * 60 * 24); // 1 hour.
 
+        int apiKeyCacheTtl = NumbersUtil.parseInt(configs.get(Config.ApiKeyCacheTtl.key()), 30);
+        int apiKeyCacheSize = NumbersUtil.parseInt(configs.get(Config.ApiKeyCacheSize.key()), 10000);
+        _apiKeyCache = new ApiKeyCache(apiKeyCacheTtl * 1000L, apiKeyCacheSize);
+
         _userAuthenticators = locator.getAdapters(UserAuthenticator.class);
         if (_userAuthenticators == null || !_userAuthenticators.isSet()) {
             s_logger.error("Unable to find an user authenticator.");
@@ -399,10 +404,36 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
 
     }
 
+    /**
+     * Drops the cached api key lookups of the user now and again once the transaction in progress commits,
+     * a lookup running before the commit would otherwise cache the old user row again
+     */
+    protected void invalidateUserApiKeys(final long userId) {
+        _apiKeyCache.invalidateUser(userId);
+        Transaction.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                _apiKeyCache.invalidateUser(userId);
+            }
+        });
+    }
+
+    protected void invalidateAccountApiKeys(final long accountId) {
+        _apiKeyCache.invalidateAccount(accountId);
+        Transaction.runAfterCommit(new Runnable() {
+            @Override
+            public void run() {
+                _apiKeyCache.invalidateAccount(accountId);
+            }
+        });
+    }
+
     private boolean doSetUserStatus(long userId, State state) {
         UserVO userForUpdate = _userDao.createForUpdate();
         userForUpdate.setState(state);
-        return _userDao.update(Long.valueOf(userId), userForUpdate);
+        boolean success = _userDao.update(Long.valueOf(userId), userForUpdate);
+        invalidateUserApiKeys(userId);
+        return success;
     }
 
     @Override
@@ -412,6 +443,7 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
         acctForUpdate.setState(State.enabled);
         acctForUpdate.setNeedsCleanup(false);
         success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+        invalidateAccountApiKeys(accountId);
         return success;
     }
 
@@ -426,6 +458,7 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
                 AccountVO acctForUpdate = _accountDao.createForUpdate();
                 acctForUpdate.setState(State.locked);
                 success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+                invalidateAccountApiKeys(accountId);
             } else {
                 if (s_logger.isInfoEnabled()) {
                     s_logger.info("Attempting to lock a non-enabled account, current state is " + account.getState() + " (accountId: " + accountId + "), locking failed.");
@@ -468,6 +501,7 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
                     accountCleanupNeeded = true;
                 }
             }
+            invalidateAccountApiKeys(accountId);
             
             //delete the account from project accounts
             _projectAccountDao.removeAccountFromProjects(accountId);
@@ -627,6 +661,7 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
             AccountVO acctForUpdate = _accountDao.createForUpdate();
             acctForUpdate.setState(State.disabled);
             success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+            invalidateAccountApiKeys(accountId);
 
             if (success) {
                 boolean disableAccountResult = false;
@@ -875,6 +910,7 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
             }
 
             _userDao.update(id, user);
+            invalidateUserApiKeys(id);
         } catch (Throwable th) {
             s_logger.error("error updating user", th);
             throw new CloudRuntimeException("Unable to update user " + id);
@@ -1216,6 +1252,7 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
         txn.start();
 
         success = _accountDao.update(account.getId(), acctForUpdate);
+        invalidateAccountApiKeys(account.getId());
 
         if (details != null && success) {
             _accountDetailsDao.update(account.getId(), details);
@@ -1253,7 +1290,9 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
         }
 
         checkAccess(UserContext.current().getCaller(), null, true, account);
-        return _userDao.remove(id);
+        boolean success = _userDao.remove(id);
+        invalidateUserApiKeys(id);
+        return success;
     }
 
     public class ResourceCountCalculateTask implements Runnable {
@@ -1774,7 +1813,15 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
 
     @Override
     public Pair<User, Account> findUserByApiKey(String apiKey) {
-        return _accountDao.findUserAccountByApiKey(apiKey);
+        if (!_apiKeyCache.isEnabled()) {
+            return _accountDao.findUserAccountByApiKey(apiKey);
+        }
+        Pair<User, Account> userAcct = _apiKeyCache.get(apiKey);
+        if (userAcct == null) {
+            userAcct = _accountDao.findUserAccountByApiKey(apiKey);
+            _apiKeyCache.put(apiKey, userAcct);
+        }
+        return userAcct;
     }
 
     @Override @DB
@@ -1792,6 +1839,7 @@ public class AccountManagerImpl implements AccountManager, AccountService, Manag
         keys[0] = createUserApiKey(userId);
         keys[1] = createUserSecretKey(userId);
         txn.commit();
+        invalidateUserApiKeys(userId);
 
         return keys;
     }
@@ -0,0 +1,118 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.user;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.cloud.utils.Pair;
+
+/**
+ * Bounded cache of the user and account an api key belongs to, so that signed api requests do not have to go to the
+ * database for every call.  Entries expire after ttl milliseconds; this bounds how long a key regenerated or a user or
+ * account disabled on another management server keeps working here.  Changes made on this management server
+ * invalidate the affected entries right away.
+ */
+public class ApiKeyCache {
+    private final long _ttl;
+    private final int _maxSize;
+    private final LinkedHashMap<String, Entry> _entries;
+
+    private long _hits;
+    private long _misses;
+
+    private static class Entry {
+        final Pair<User, Account> userAccount;
+        final long expiresAt;
+
+        Entry(Pair<User, Account> userAccount, long expiresAt) {
+            this.userAccount = userAccount;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public ApiKeyCache(long ttl, final int maxSize) {
+        _ttl = ttl;
+        _maxSize = maxSize;
+        _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > _maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return _ttl > 0 && _maxSize > 0;
+    }
+
+    public synchronized Pair<User, Account> get(String apiKey) {
+        Entry entry = _entries.get(apiKey);
+        if (entry != null && entry.expiresAt > now()) {
+            _hits++;
+            return entry.userAccount;
+        }
+        if (entry != null) {
+            _entries.remove(apiKey);
+        }
+        _misses++;
+        return null;
+    }
+
+    public synchronized void put(String apiKey, Pair<User, Account> userAccount) {
+        if (isEnabled() && apiKey != null && userAccount != null) {
+            _entries.put(apiKey, new Entry(userAccount, now() + _ttl));
+        }
+    }
+
+    public synchronized void invalidateUser(long userId) {
+        Iterator<Entry> it = _entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().userAccount.first().getId() == userId) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAccount(long accountId) {
+        Iterator<Entry> it = _entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().userAccount.second().getId() == accountId) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        _entries.clear();
+    }
+
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
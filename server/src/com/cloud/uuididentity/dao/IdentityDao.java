@@ -12,12 +12,25 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.uuididentity.dao;
 
+import java.util.Map;
+import java.util.Set;
+
 import com.cloud.api.IdentityMapper;
 import com.cloud.utils.db.GenericDao;
 
 public interface IdentityDao extends GenericDao<IdentityVO, Long> {
 	Long getIdentityId(IdentityMapper mapper, String identityString);
     Long getIdentityId(String tableName, String identityString);
+    /**
+     * Resolves uuids, or ids, of several tables with one query.
+     * @return id by table name and token for every token found, with an entry for every table, null on database errors.
+     */
+    Map<String, Map<String, Long>> getIdentityIds(Map<String, Set<String>> tokensByTable);
 	String getIdentityUuid(String tableName, String identityString);
+    /**
+     * Fetches the uuids of rows of several tables with one query.
+     * @return uuid by table name and id for every id asked for, the id itself where the row has no uuid, null on database errors.
+     */
+    Map<String, Map<Long, String>> getIdentityUuids(Map<String, Set<Long>> idsByTable);
 	void initializeDefaultUuid(String tableName);
 }
@@ -16,7 +16,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.ejb.Local;
@@ -32,6 +35,7 @@ import com.cloud.utils.db.Transaction;
 @Local(value={IdentityDao.class})
 public class IdentityDaoImpl extends GenericDaoBase<IdentityVO, Long> implements IdentityDao {
     private static final Logger s_logger = Logger.getLogger(IdentityDaoImpl.class);
+    private static final int UUID_BATCH_SIZE = 500;
     
     public IdentityDaoImpl() {
     }
@@ -87,6 +91,89 @@ public class IdentityDaoImpl extends GenericDaoBase<IdentityVO, Long> implements
 		return null;
     }
 	
+    @DB
+    public Map<String, Map<String, Long>> getIdentityIds(Map<String, Set<String>> tokensByTable) {
+        // one SELECT per table glued together with UNION ALL, the first column tells the tables apart
+        List<String> tables = new ArrayList<String>(tokensByTable.keySet());
+        List<Object> values = new ArrayList<Object>();
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < tables.size(); i++) {
+            List<Long> ids = new ArrayList<Long>();
+            Set<String> tokens = tokensByTable.get(tables.get(i));
+            for (String token : tokens) {
+                long id = parseId(token);
+                if (id != 0) {
+                    ids.add(id);
+                }
+            }
+
+            if (sql.length() > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append(String.format("SELECT %d, id, uuid FROM `%s` WHERE uuid IN (", i, tables.get(i)));
+            appendPlaceholders(sql, tokens.size());
+            values.addAll(tokens);
+            if (!ids.isEmpty()) {
+                sql.append(") OR id IN (");
+                appendPlaceholders(sql, ids.size());
+                values.addAll(ids);
+            }
+            sql.append(")");
+        }
+
+        Map<String, Map<String, Long>> result = new HashMap<String, Map<String, Long>>();
+        for (String table : tables) {
+            result.put(table, new HashMap<String, Long>());
+        }
+
+        Transaction txn = Transaction.open(Transaction.CLOUD_DB);
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(sql.toString());
+            for (int i = 0; i < values.size(); i++) {
+                pstmt.setObject(i + 1, values.get(i));
+            }
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                String table = tables.get(rs.getInt(1));
+                long id = rs.getLong(2);
+                String uuid = rs.getString(3);
+                Map<String, Long> ids = result.get(table);
+                for (String token : tokensByTable.get(table)) {
+                    // uuids compare case-insensitively, as in the default collation of the uuid columns
+                    if (!token.equalsIgnoreCase(uuid) && parseId(token) != id) {
+                        continue;
+                    }
+                    // when a token matches one row by id and another by uuid, the lowest id wins as with getIdentityId()
+                    Long found = ids.get(token);
+                    if (found == null || found > id) {
+                        ids.put(token, id);
+                    }
+                }
+            }
+            return result;
+        } catch (SQLException e) {
+            s_logger.error("Unexpected exception ", e);
+            return null;
+        } finally {
+            txn.close();
+        }
+    }
+
+    private static long parseId(String token) {
+        try {
+            return Long.parseLong(token);
+        } catch (NumberFormatException e) {
+            // a uuid
+            return 0;
+        }
+    }
+
+    private static void appendPlaceholders(StringBuilder sql, int count) {
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+    }
+
     @DB
 	public String getIdentityUuid(String tableName, String identityString) {
 		assert(tableName != null);
@@ -129,6 +216,72 @@ public class IdentityDaoImpl extends GenericDaoBase<IdentityVO, Long> implements
 		return identityString;
 	}
     
+    @DB
+    public Map<String, Map<Long, String>> getIdentityUuids(Map<String, Set<Long>> idsByTable) {
+        Map<String, Map<Long, String>> result = new HashMap<String, Map<Long, String>>();
+        for (Map.Entry<String, Set<Long>> entry : idsByTable.entrySet()) {
+            // like getIdentityUuid(), rows without a uuid, or missing rows, answer with the id itself
+            Map<Long, String> uuids = new HashMap<Long, String>();
+            for (Long id : entry.getValue()) {
+                uuids.put(id, String.valueOf(id));
+            }
+            result.put(entry.getKey(), uuids);
+        }
+
+        // one SELECT per table glued together with UNION ALL, the first column tells the tables apart.
+        // Statements are cut at UUID_BATCH_SIZE ids so that large list responses stay within the packet limit
+        List<String> tables = new ArrayList<String>(idsByTable.keySet());
+        List<Long> values = new ArrayList<Long>();
+        StringBuilder sql = new StringBuilder();
+        Transaction txn = Transaction.open(Transaction.CLOUD_DB);
+        try {
+            for (int i = 0; i < tables.size(); i++) {
+                List<Long> ids = new ArrayList<Long>(idsByTable.get(tables.get(i)));
+                int from = 0;
+                while (from < ids.size()) {
+                    int to = Math.min(ids.size(), from + UUID_BATCH_SIZE - values.size());
+                    if (sql.length() > 0) {
+                        sql.append(" UNION ALL ");
+                    }
+                    sql.append(String.format("SELECT %d, id, uuid FROM `%s` WHERE id IN (", i, tables.get(i)));
+                    appendPlaceholders(sql, to - from);
+                    sql.append(")");
+                    values.addAll(ids.subList(from, to));
+                    from = to;
+
+                    if (values.size() >= UUID_BATCH_SIZE) {
+                        fetchUuids(txn, sql.toString(), values, tables, result);
+                        sql.setLength(0);
+                        values.clear();
+                    }
+                }
+            }
+            if (!values.isEmpty()) {
+                fetchUuids(txn, sql.toString(), values, tables, result);
+            }
+            return result;
+        } catch (SQLException e) {
+            s_logger.error("Unexpected exception ", e);
+            return null;
+        } finally {
+            txn.close();
+        }
+    }
+
+    private static void fetchUuids(Transaction txn, String sql, List<Long> values, List<String> tables, Map<String, Map<Long, String>> result) throws SQLException {
+        PreparedStatement pstmt = txn.prepareAutoCloseStatement(sql);
+        for (int i = 0; i < values.size(); i++) {
+            pstmt.setLong(i + 1, values.get(i));
+        }
+        ResultSet rs = pstmt.executeQuery();
+        while (rs.next()) {
+            String uuid = rs.getString(3);
+            if (uuid != null && !uuid.isEmpty()) {
+                result.get(tables.get(rs.getInt(1))).put(rs.getLong(2), uuid);
+            }
+        }
+    }
+
     @DB
     public void initializeDefaultUuid(String tableName) {
         assert(tableName != null);
@@ -12,6 +12,7 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.vm;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.cloud.utils.db.GenericDao;
@@ -27,6 +28,14 @@ public interface ItWorkDao extends GenericDao<ItWorkVO, String> {
      * @return ItWorkVO if found; null if not.
      */
     ItWorkVO findByOutstandingWork(long instanceId, State state);
+
+    /**
+     * list the work items that are not yet done for a set of vm instances.
+     * 
+     * @param instanceIds vm instance ids
+     * @return outstanding work items of all the given instances, regardless of their state.
+     */
+    List<ItWorkVO> listOutstandingWork(Collection<Long> instanceIds);
     
     /**
      * cleanup rows that are either Done or Cancelled and been that way 
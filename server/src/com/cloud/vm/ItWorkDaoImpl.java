@@ -12,6 +12,8 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.vm;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import javax.ejb.Local;
@@ -30,6 +32,7 @@ public class ItWorkDaoImpl extends GenericDaoBase<ItWorkVO, String> implements I
     protected final SearchBuilder<ItWorkVO> CleanupSearch;
     protected final SearchBuilder<ItWorkVO> OutstandingWorkSearch;
     protected final SearchBuilder<ItWorkVO> WorkInProgressSearch;
+    protected final SearchBuilder<ItWorkVO> OutstandingWorksSearch;
     
     protected ItWorkDaoImpl() {
         super();
@@ -51,6 +54,11 @@ public class ItWorkDaoImpl extends GenericDaoBase<ItWorkVO, String> implements I
         OutstandingWorkSearch.and("step", OutstandingWorkSearch.entity().getStep(), Op.NEQ);
         OutstandingWorkSearch.done();
         
+        OutstandingWorksSearch = createSearchBuilder();
+        OutstandingWorksSearch.and("instances", OutstandingWorksSearch.entity().getInstanceId(), Op.IN);
+        OutstandingWorksSearch.and("step", OutstandingWorksSearch.entity().getStep(), Op.NEQ);
+        OutstandingWorksSearch.done();
+        
         WorkInProgressSearch = createSearchBuilder();
         WorkInProgressSearch.and("server", WorkInProgressSearch.entity().getManagementServerId(), Op.EQ);
         WorkInProgressSearch.and("step", WorkInProgressSearch.entity().getStep(), Op.NIN);
@@ -67,6 +75,19 @@ public class ItWorkDaoImpl extends GenericDaoBase<ItWorkVO, String> implements I
         return findOneBy(sc);
     }
     
+    @Override
+    public List<ItWorkVO> listOutstandingWork(Collection<Long> instanceIds) {
+        if (instanceIds.isEmpty()) {
+            return new ArrayList<ItWorkVO>();
+        }
+        
+        SearchCriteria<ItWorkVO> sc = OutstandingWorksSearch.create();
+        sc.setParameters("instances", instanceIds.toArray());
+        sc.setParameters("step", Step.Done);
+        
+        return listBy(sc);
+    }
+    
     @Override
     public void cleanup(long wait) {
         SearchCriteria<ItWorkVO> sc = CleanupSearch.create();
@@ -985,7 +985,9 @@ public class UserVmManagerImpl implements UserVmManager, UserVmService, Manager
             vmNames.add(vm.getInstanceName());
         }
 
-        Answer answer = _agentMgr.easySend(hostId, new GetVmStatsCommand(vmNames, _hostDao.findById(hostId).getGuid(), hostName));
+        GetVmStatsCommand cmd = new GetVmStatsCommand(vmNames, _hostDao.findById(hostId).getGuid(), hostName);
+        cmd.setColumnarStats(true);
+        Answer answer = _agentMgr.easySend(hostId, cmd);
         if (answer == null || !answer.getResult()) {
             s_logger.warn("Unable to obtain VM statistics.");
             return null;
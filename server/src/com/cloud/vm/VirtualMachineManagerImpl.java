@@ -25,7 +25,9 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ejb.Local;
 import javax.naming.ConfigurationException;
@@ -130,6 +132,7 @@ import com.cloud.uservm.UserVm;
 import com.cloud.utils.Journal;
 import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Pair;
+import com.cloud.utils.Profiler;
 import com.cloud.utils.Ternary;
 import com.cloud.utils.component.Adapters;
 import com.cloud.utils.component.ComponentLocator;
@@ -142,6 +145,7 @@ import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExecutionException;
 import com.cloud.utils.fsm.NoTransitionException;
 import com.cloud.utils.fsm.StateMachine2;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.vm.ItWorkVO.Step;
 import com.cloud.vm.VirtualMachine.Event;
 import com.cloud.vm.VirtualMachine.State;
@@ -233,6 +237,12 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
     ScheduledExecutorService _executor = null;
     protected int _operationTimeout;
 
+    // digest of the last VM state report processed per host (pings) and per cluster (cluster sync answers)
+    protected final Map<Long, String> _hostSyncDigests = new ConcurrentHashMap<Long, String>();
+    protected final Map<Long, String> _clusterSyncDigests = new ConcurrentHashMap<Long, String>();
+    protected final AtomicLong _processedSyncCount = new AtomicLong();
+    protected final AtomicLong _skippedSyncCount = new AtomicLong();
+
     protected int _retry;
     protected long _nodeId;
     protected long _cleanupWait;
@@ -438,6 +448,12 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
 
         _agentMgr.registerForHostEvents(this, true, true, true);
 
+        try {
+            JmxUtil.registerMBean("VirtualMachineManager", "VirtualMachineSync", new VirtualMachineSyncMBeanImpl(this));
+        } catch (Exception e) {
+            s_logger.warn("Unable to register VM sync into JMX monitoring due to exception " + e.toString());
+        }
+
         return true;
     }
 
@@ -1652,12 +1668,13 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
 
     public Commands deltaHostSync(long hostId, Map<String, State> newStates) {
         Map<Long, AgentVmInfo> states = convertDeltaToInfos(newStates);
+        Map<Long, VMInstanceVO> vms = findTypedVms(states.values());
         Commands commands = new Commands(OnError.Continue);
 
         for (Map.Entry<Long, AgentVmInfo> entry : states.entrySet()) {
             AgentVmInfo info = entry.getValue();
 
-            VMInstanceVO vm = info.vm;
+            VMInstanceVO vm = info.vm != null ? vms.get(info.vm.getId()) : null;
 
             Command command = null;
             if (vm != null) {
@@ -1681,18 +1698,26 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
 
 
     public void deltaSync(Map<String, Pair<String, State>> newStates) {
+        Profiler profiler = new Profiler();
+        profiler.start();
+
         Map<Long, AgentVmInfo> states = convertToInfos(newStates);
+        Map<String, HostVO> hosts = findHostsByGuids(states.values());
+        Map<Long, VMInstanceVO> vms = findTypedVms(states.values());
 
         for (Map.Entry<Long, AgentVmInfo> entry : states.entrySet()) {
             AgentVmInfo info = entry.getValue();
-            VMInstanceVO vm = info.vm;
+            VMInstanceVO vm = info.vm != null ? vms.get(info.vm.getId()) : null;
+            Host host = info.getHostUuid() != null ? hosts.get(info.getHostUuid()) : null;
             Command command = null;
             if (vm != null) {
-                Host host = _resourceMgr.findHostByGuid(info.getHostUuid());
-                long hId = host.getId();
+                if (host == null) {
+                    s_logger.warn("Skipping state sync of " + info.name + " as its reporting host " + info.getHostUuid() + " is not found <deltaSync>");
+                    continue;
+                }
 
                 HypervisorGuru hvGuru = _hvGuruMgr.getGuru(vm.getHypervisorType());
-                command = compareState(hId, vm, info, false, hvGuru.trackVmHostChange());
+                command = compareState(host.getId(), vm, info, false, hvGuru.trackVmHostChange());
             } else {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Cleaning up a VM that is no longer found <deltaSync>: " + info.name);
@@ -1701,7 +1726,6 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
             }
             if (command != null){
                 try {
-                    Host host = _resourceMgr.findHostByGuid(info.getHostUuid());
                     if (host != null){
                         Answer answer = _agentMgr.send(host.getId(), cleanup(info.name));
                         if (!answer.getResult()) {
@@ -1713,28 +1737,53 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
                 }
             }
         }
+
+        profiler.stop();
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Delta sync of " + states.size() + " VM state changes took " + profiler.getDuration() + " ms");
+        }
     }
 
 
     public void fullSync(final long clusterId, Map<String, Pair<String, State>> newStates) {
     	if (newStates==null)return;
+        Profiler profiler = new Profiler();
+        profiler.start();
+
         Map<Long, AgentVmInfo> infos = convertToInfos(newStates);
+        Map<String, HostVO> hosts = findHostsByGuids(infos.values());
         Set<VMInstanceVO> set_vms = Collections.synchronizedSet(new HashSet<VMInstanceVO>());
         set_vms.addAll(_vmDao.listByClusterId(clusterId));
         set_vms.addAll(_vmDao.listLHByClusterId(clusterId));
 
+        // compute the inconsistent VMs up front so that their outstanding work items are fetched in one go
+        List<Long> inconsistentVmIds = new ArrayList<Long>();
+        for (VMInstanceVO vm : set_vms) {
+            if (isInconsistentOnFullSync(vm, infos.get(vm.getId()))) {
+                inconsistentVmIds.add(vm.getId());
+            }
+        }
+        Map<Long, List<ItWorkVO>> outstandingWorks = new HashMap<Long, List<ItWorkVO>>();
+        for (ItWorkVO work : _workDao.listOutstandingWork(inconsistentVmIds)) {
+            List<ItWorkVO> works = outstandingWorks.get(work.getInstanceId());
+            if (works == null) {
+                works = new ArrayList<ItWorkVO>();
+                outstandingWorks.put(work.getInstanceId(), works);
+            }
+            works.add(work);
+        }
+
         for (VMInstanceVO vm : set_vms) {
             if (vm.isRemoved() || vm.getState() == State.Destroyed  || vm.getState() == State.Expunging) continue;
             AgentVmInfo info =  infos.remove(vm.getId());
             VMInstanceVO castedVm = null;
-            if ((info == null && (vm.getState() == State.Running || vm.getState() == State.Starting))  
-            		||  (info != null && (info.state == State.Running && vm.getState() == State.Starting))) 
+            if (isInconsistentOnFullSync(vm, info)) 
             {
             	s_logger.info("Found vm " + vm.getInstanceName() + " in inconsistent state. " + vm.getState() + " on CS while " +  (info == null ? "Stopped" : "Running") + " on agent");
                 info = new AgentVmInfo(vm.getInstanceName(), getVmGuru(vm), vm, State.Stopped);
            		
                 // Bug 13850- grab outstanding work item if any for this VM state so that we mark it as DONE after we change VM state, else it will remain pending
-                ItWorkVO work = _workDao.findByOutstandingWork(vm.getId(), vm.getState());
+                ItWorkVO work = findOutstandingWork(outstandingWorks.get(vm.getId()), vm.getState());
                 if (work != null) {
                     if (s_logger.isDebugEnabled()) {
                         s_logger.debug("Found an outstanding work item for this vm " + vm + " in state:" + vm.getState() + ", work id:" + work.getId());
@@ -1753,7 +1802,7 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
            		
                 castedVm = info.guru.findById(vm.getId());
                 try {
-                    Host host = _hostDao.findByGuid(info.getHostUuid());
+                    Host host = info.getHostUuid() != null ? hosts.get(info.getHostUuid()) : null;
                     long hostId = host == null ? (vm.getHostId() == null ? vm.getLastHostId() : vm.getHostId()) : host.getId();
                     HypervisorGuru hvGuru = _hvGuruMgr.getGuru(castedVm.getHypervisorType());
                     Command command = compareState(hostId, castedVm, info, true, hvGuru.trackVmHostChange());
@@ -1769,7 +1818,7 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
                 }
             }
             else if (info != null && (vm.getState() == State.Stopped || vm.getState() == State.Stopping)) {
-            	 Host host = _hostDao.findByGuid(info.getHostUuid());
+            	 Host host = info.getHostUuid() != null ? hosts.get(info.getHostUuid()) : null;
                  if (host != null){
                     s_logger.warn("Stopping a VM which is stopped/stopping " + info.name);
                     vm.setState(State.Stopped); // set it as stop and clear it from host
@@ -1790,7 +1839,7 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
             // host id can change
 	        if (info != null && vm.getState() == State.Running){
 	           // check for host id changes
-	           Host host = _hostDao.findByGuid(info.getHostUuid());
+	           Host host = info.getHostUuid() != null ? hosts.get(info.getHostUuid()) : null;
 	            if (host != null && (vm.getHostId() == null || host.getId() != vm.getHostId())){
     	        	s_logger.info("Found vm " + vm.getInstanceName() + " with inconsistent host in db, new host is " +  host.getId());
         			try {
@@ -1806,7 +1855,7 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
         for (final AgentVmInfo left : infos.values()) {
         	if (VirtualMachineName.isValidVmName(left.name)) continue;  // if the vm follows cloudstack naming ignore it for stopping
             try {
-                Host host = _hostDao.findByGuid(left.getHostUuid());
+                Host host = left.getHostUuid() != null ? hosts.get(left.getHostUuid()) : null;
                 if (host != null){
                     s_logger.warn("Stopping a VM which we do not have any record of " + left.name);
                     Answer answer = _agentMgr.send(host.getId(), cleanup(left.name));
@@ -1819,6 +1868,144 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
             }
         }
 
+        profiler.stop();
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Full sync of cluster " + clusterId + " with " + newStates.size() + " reported VMs and " + set_vms.size() + " known VMs took " + profiler.getDuration() + " ms");
+        }
+    }
+
+    private static boolean isInconsistentOnFullSync(VMInstanceVO vm, AgentVmInfo info) {
+        if (vm.isRemoved() || vm.getState() == State.Destroyed || vm.getState() == State.Expunging) {
+            return false;
+        }
+        return (info == null && (vm.getState() == State.Running || vm.getState() == State.Starting))
+                || (info != null && (info.state == State.Running && vm.getState() == State.Starting));
+    }
+
+    private static ItWorkVO findOutstandingWork(List<ItWorkVO> works, State state) {
+        if (works != null) {
+            for (ItWorkVO work : works) {
+                if (work.getType() == state) {
+                    return work;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fetches all the hosts the given VM reports came from with a single query
+     */
+    protected Map<String, HostVO> findHostsByGuids(Collection<AgentVmInfo> infos) {
+        Set<String> guids = new HashSet<String>();
+        for (AgentVmInfo info : infos) {
+            if (info.getHostUuid() != null) {
+                guids.add(info.getHostUuid());
+            }
+        }
+
+        Map<String, HostVO> hosts = new HashMap<String, HostVO>();
+        for (HostVO host : _hostDao.listByGuids(guids)) {
+            hosts.put(host.getGuid(), host);
+        }
+        return hosts;
+    }
+
+    /**
+     * Fetches all the VMs known by the given instance names with a single query
+     */
+    protected Map<String, VMInstanceVO> findVmsByInstanceNames(Collection<String> names) {
+        Map<String, VMInstanceVO> vms = new HashMap<String, VMInstanceVO>();
+        for (VMInstanceVO vm : _vmDao.listByInstanceNames(names)) {
+            vms.put(vm.getInstanceName(), vm);
+        }
+        return vms;
+    }
+
+    /**
+     * Fetches the typed VOs (UserVmVO, DomainRouterVO etc.) of the given VM reports with one query per
+     * VM type, as stop and state transitions need the VO of the guru the VM belongs to
+     */
+    protected Map<Long, VMInstanceVO> findTypedVms(Collection<AgentVmInfo> infos) {
+        Map<VirtualMachine.Type, List<Long>> idsByType = new HashMap<VirtualMachine.Type, List<Long>>();
+        for (AgentVmInfo info : infos) {
+            if (info.vm != null) {
+                List<Long> ids = idsByType.get(info.vm.getType());
+                if (ids == null) {
+                    ids = new ArrayList<Long>();
+                    idsByType.put(info.vm.getType(), ids);
+                }
+                ids.add(info.vm.getId());
+            }
+        }
+
+        Map<Long, VMInstanceVO> vms = new HashMap<Long, VMInstanceVO>();
+        for (Map.Entry<VirtualMachine.Type, List<Long>> entry : idsByType.entrySet()) {
+            List<? extends VMInstanceVO> typedVms;
+            switch (entry.getKey()) {
+            case User:
+                typedVms = _userVmDao.listByIds(entry.getValue());
+                break;
+            case DomainRouter:
+            case ElasticLoadBalancerVm:
+                typedVms = _routerDao.listByIds(entry.getValue());
+                break;
+            case ConsoleProxy:
+                typedVms = _consoleDao.listByIds(entry.getValue());
+                break;
+            case SecondaryStorageVm:
+                typedVms = _secondaryDao.listByIds(entry.getValue());
+                break;
+            default:
+                VirtualMachineGuru<? extends VMInstanceVO> guru = _vmGurus.get(entry.getKey());
+                List<VMInstanceVO> found = new ArrayList<VMInstanceVO>();
+                for (Long id : entry.getValue()) {
+                    VMInstanceVO vm = guru != null ? guru.findById(id) : null;
+                    if (vm != null) {
+                        found.add(vm);
+                    }
+                }
+                typedVms = found;
+                break;
+            }
+
+            for (VMInstanceVO vm : typedVms) {
+                vms.put(vm.getId(), vm);
+            }
+        }
+        return vms;
+    }
+
+    /**
+     * Resolves a VM reported by an agent and adds it to the map. VMs found by the bulk lookup carry their
+     * VMInstanceVO, callers which need the typed VO get it from the guru. Names that the bulk lookup does not
+     * know go through the gurus as before.
+     * 
+     * @return false if none of the gurus recognizes the VM
+     */
+    private boolean addAgentVmInfo(Map<Long, AgentVmInfo> map, Map<String, VMInstanceVO> vms, String name, State state, String host) {
+        VMInstanceVO vm = vms.get(name);
+        if (vm != null) {
+            VirtualMachineGuru<? extends VMInstanceVO> vmGuru = _vmGurus.get(vm.getType());
+            if (vmGuru != null) {
+                map.put(vm.getId(), new AgentVmInfo(name, vmGuru, vm, state, host));
+                return true;
+            }
+        }
+
+        for (VirtualMachineGuru<? extends VMInstanceVO> vmGuru : _vmGurus.values()) {
+            vm = vmGuru.findByName(name);
+            if (vm != null) {
+                map.put(vm.getId(), new AgentVmInfo(name, vmGuru, vm, state, host));
+                return true;
+            }
+            Long id = vmGuru.convertToId(name);
+            if (id != null) {
+                map.put(id, new AgentVmInfo(name, vmGuru, null, state, host));
+                return true;
+            }
+        }
+        return false;
     }
 
 
@@ -1828,28 +2015,11 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
         if (newStates == null) {
             return map;
         }
-        Collection<VirtualMachineGuru<? extends VMInstanceVO>> vmGurus = _vmGurus.values();
-        boolean is_alien_vm = true;
+        Map<String, VMInstanceVO> vms = findVmsByInstanceNames(newStates.keySet());
         long alien_vm_count = -1;
         for (Map.Entry<String, Pair<String, State>> entry : newStates.entrySet()) {
-        	is_alien_vm = true;
-            for (VirtualMachineGuru<? extends VMInstanceVO> vmGuru : vmGurus) {
-                String name = entry.getKey();
-                VMInstanceVO vm = vmGuru.findByName(name);
-                if (vm != null) {
-                    map.put(vm.getId(), new AgentVmInfo(entry.getKey(), vmGuru, vm, entry.getValue().second(), entry.getValue().first()));
-                    is_alien_vm = false;
-                    break;
-                }
-                Long id = vmGuru.convertToId(name);
-                if (id != null) {
-                    map.put(id, new AgentVmInfo(entry.getKey(), vmGuru, null, entry.getValue().second(), entry.getValue().first()));
-                    is_alien_vm = false;
-                    break;
-                }
-            }
-            // alien VMs
-            if (is_alien_vm){
+            if (!addAgentVmInfo(map, vms, entry.getKey(), entry.getValue().second(), entry.getValue().first())) {
+            	// alien VMs
             	map.put(alien_vm_count--, new AgentVmInfo(entry.getKey(), null, null, entry.getValue().second(), entry.getValue().first()));
             	s_logger.warn("Found an alien VM " + entry.getKey());
             }
@@ -1863,22 +2033,10 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
         if (states == null) {
             return map;
         }
-        Collection<VirtualMachineGuru<? extends VMInstanceVO>> vmGurus = _vmGurus.values();
+        Map<String, VMInstanceVO> vms = findVmsByInstanceNames(states.keySet());
 
         for (Map.Entry<String, VmState> entry : states.entrySet()) {
-            for (VirtualMachineGuru<? extends VMInstanceVO> vmGuru : vmGurus) {
-                String name = entry.getKey();
-                VMInstanceVO vm = vmGuru.findByName(name);
-                if (vm != null) {
-                    map.put(vm.getId(), new AgentVmInfo(entry.getKey(), vmGuru, vm, entry.getValue().getState(), entry.getValue().getHost() ));
-                    break;
-                }
-                Long id = vmGuru.convertToId(name);
-                if (id != null) {
-                    map.put(id, new AgentVmInfo(entry.getKey(), vmGuru, null,entry.getValue().getState(), entry.getValue().getHost() ));
-                    break;
-                }
-            }
+            addAgentVmInfo(map, vms, entry.getKey(), entry.getValue().getState(), entry.getValue().getHost());
         }
 
         return map;
@@ -1891,25 +2049,10 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
             return map;
         }
 
-        Collection<VirtualMachineGuru<? extends VMInstanceVO>> vmGurus = _vmGurus.values();
+        Map<String, VMInstanceVO> vms = findVmsByInstanceNames(states.keySet());
 
         for (Map.Entry<String, State> entry : states.entrySet()) {
-            for (VirtualMachineGuru<? extends VMInstanceVO> vmGuru : vmGurus) {
-                String name = entry.getKey();
-
-                VMInstanceVO vm = vmGuru.findByName(name);
-
-                if (vm != null) {
-                    map.put(vm.getId(), new AgentVmInfo(entry.getKey(), vmGuru, vm, entry.getValue()));
-                    break;
-                }
-
-                Long id = vmGuru.convertToId(name);
-                if (id != null) {
-                    map.put(id, new AgentVmInfo(entry.getKey(), vmGuru, null,entry.getValue()));
-                    break;
-                }
-            }
+            addAgentVmInfo(map, vms, entry.getKey(), entry.getValue(), null);
         }
 
         return map;
@@ -2163,7 +2306,21 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
             if (answer instanceof ClusterSyncAnswer) {
                 ClusterSyncAnswer hs = (ClusterSyncAnswer) answer;
                 if (!hs.isExceuted()){
-                    deltaSync(hs.getNewStates());
+                    String digest = hs.getVmStatesDigest();
+                    if (hs.getNewStates() == null || hs.getNewStates().isEmpty()) {
+                        _skippedSyncCount.incrementAndGet();
+                        if (s_logger.isTraceEnabled()) {
+                            s_logger.trace("Skipping cluster sync of cluster " + hs.getClusterId() + " as it reports no VM state changes");
+                        }
+                    } else {
+                        // an unchanged digest only means the VMs changed state and back, the DB may still have to follow
+                        if (isSyncUnchanged(_clusterSyncDigests, hs.getClusterId(), digest) && s_logger.isDebugEnabled()) {
+                            s_logger.debug("VM states of cluster " + hs.getClusterId() + " changed and back since its last sync, digest " + digest);
+                        }
+                        deltaSync(hs.getNewStates());
+                        _processedSyncCount.incrementAndGet();
+                    }
+                    updateSyncDigest(_clusterSyncDigests, hs.getClusterId(), digest);
                     hs.setExecuted();
                 }
             }
@@ -2187,8 +2344,13 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
         for (Command cmd : cmds) {
             if (cmd instanceof PingRoutingCommand) {
                 PingRoutingCommand ping = (PingRoutingCommand) cmd;
+                String digest = ping.getVmStatesDigest();
                 if (ping.getNewStates() != null && ping.getNewStates().size() > 0) {
+                    if (isSyncUnchanged(_hostSyncDigests, agentId, digest) && s_logger.isDebugEnabled()) {
+                        s_logger.debug("VM states of host " + agentId + " changed and back since its last ping, digest " + digest);
+                    }
                     Commands commands = deltaHostSync(agentId, ping.getNewStates());
+                    _processedSyncCount.incrementAndGet();
                     if (commands.size() > 0) {
                         try {
                             _agentMgr.send(agentId, commands, this);
@@ -2196,7 +2358,11 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
                             s_logger.warn("Agent is now unavailable", e);
                         }
                     }
+                } else {
+                    _skippedSyncCount.incrementAndGet();
                 }
+                // a ping without changes still tells us the agent view we are in sync with
+                updateSyncDigest(_hostSyncDigests, agentId, digest);
                 processed = true;
             }
         }
@@ -2210,9 +2376,30 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
 
     @Override
     public boolean processDisconnect(long agentId, Status state) {
+        _hostSyncDigests.remove(agentId);
         return true;
     }
 
+    private static boolean isSyncUnchanged(Map<Long, String> digests, long id, String digest) {
+        return digest != null && digest.equals(digests.get(id));
+    }
+
+    private static void updateSyncDigest(Map<Long, String> digests, long id, String digest) {
+        if (digest != null) {
+            digests.put(id, digest);
+        } else {
+            digests.remove(id);
+        }
+    }
+
+    public long getProcessedSyncCount() {
+        return _processedSyncCount.get();
+    }
+
+    public long getSkippedSyncCount() {
+        return _skippedSyncCount.get();
+    }
+
     @Override
     public void processConnect(HostVO agent, StartupCommand cmd, boolean forRebalance) throws ConnectionException {
         if (!(cmd instanceof StartupRoutingCommand)) {
@@ -2231,6 +2418,11 @@ public class VirtualMachineManagerImpl implements VirtualMachineManager, Listene
 
         Long clusterId = agent.getClusterId();
         long agentId = agent.getId();
+        // a connecting agent gets a full sync, the next periodic report must be compared again
+        _hostSyncDigests.remove(agentId);
+        if (clusterId != null) {
+            _clusterSyncDigests.remove(clusterId);
+        }
         if (agent.getHypervisorType() == HypervisorType.XenServer) { // only for Xen
         	StartupRoutingCommand startup = (StartupRoutingCommand) cmd;
         	HashMap<String, Pair<String, State>> allStates = startup.getClusterVMStateChanges();
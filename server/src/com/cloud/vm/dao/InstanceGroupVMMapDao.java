@@ -12,6 +12,7 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.cloud.utils.db.GenericDao;
@@ -19,6 +20,7 @@ import com.cloud.vm.InstanceGroupVMMapVO;
 
 public interface InstanceGroupVMMapDao extends GenericDao<InstanceGroupVMMapVO, Long>{
 	List<InstanceGroupVMMapVO> listByInstanceId(long instanceId);
+	List<InstanceGroupVMMapVO> listByInstanceIds(Collection<Long> instanceIds);
 	List<InstanceGroupVMMapVO> listByGroupId(long groupId);
 	InstanceGroupVMMapVO findByVmIdGroupId(long instanceId, long groupId);
 }
@@ -12,6 +12,7 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import javax.ejb.Local;
@@ -25,6 +26,7 @@ import com.cloud.vm.InstanceGroupVMMapVO;
 public class InstanceGroupVMMapDaoImpl extends GenericDaoBase<InstanceGroupVMMapVO, Long> implements InstanceGroupVMMapDao{
 	
 	private SearchBuilder<InstanceGroupVMMapVO> ListByVmId;
+	private SearchBuilder<InstanceGroupVMMapVO> ListByVmIds;
 	private SearchBuilder<InstanceGroupVMMapVO> ListByGroupId;
     private SearchBuilder<InstanceGroupVMMapVO> ListByVmIdGroupId;
 	
@@ -33,6 +35,10 @@ public class InstanceGroupVMMapDaoImpl extends GenericDaoBase<InstanceGroupVMMap
 		ListByVmId.and("instanceId", ListByVmId.entity().getInstanceId(), SearchCriteria.Op.EQ);
 		ListByVmId.done();
 		
+		ListByVmIds  = createSearchBuilder();
+		ListByVmIds.and("instanceIds", ListByVmIds.entity().getInstanceId(), SearchCriteria.Op.IN);
+		ListByVmIds.done();
+		
 		ListByGroupId  = createSearchBuilder();
 		ListByGroupId.and("groupId", ListByGroupId.entity().getGroupId(), SearchCriteria.Op.EQ);
 		ListByGroupId.done();
@@ -50,6 +56,13 @@ public class InstanceGroupVMMapDaoImpl extends GenericDaoBase<InstanceGroupVMMap
         return listBy(sc);
     }
     
+    @Override
+    public List<InstanceGroupVMMapVO> listByInstanceIds(Collection<Long> vmIds) {
+        SearchCriteria<InstanceGroupVMMapVO> sc = ListByVmIds.create();
+        sc.setParameters("instanceIds", vmIds.toArray());
+        return listBy(sc);
+    }
+    
     @Override
     public List<InstanceGroupVMMapVO> listByGroupId(long groupId) {
         SearchCriteria<InstanceGroupVMMapVO> sc = ListByGroupId.create();
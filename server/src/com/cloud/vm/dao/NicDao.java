@@ -12,6 +12,7 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.cloud.utils.db.GenericDao;
@@ -21,6 +22,8 @@ import com.cloud.vm.VirtualMachine;
 public interface NicDao extends GenericDao<NicVO, Long> {
     List<NicVO> listByVmId(long instanceId);
     
+    List<NicVO> listByVmIds(Collection<Long> instanceIds);
+    
     List<String> listIpAddressInNetwork(long networkConfigId);
     List<NicVO> listByVmIdIncludingRemoved(long instanceId);
     
@@ -12,6 +12,7 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import javax.ejb.Local;
@@ -28,6 +29,7 @@ import com.cloud.vm.VirtualMachine;
 @Local(value=NicDao.class)
 public class NicDaoImpl extends GenericDaoBase<NicVO, Long> implements NicDao {
     private final SearchBuilder<NicVO> AllFieldsSearch;
+    private final SearchBuilder<NicVO> InstancesSearch;
     private final GenericSearchBuilder<NicVO, String> IpSearch;
     
     protected NicDaoImpl() {
@@ -41,6 +43,10 @@ public class NicDaoImpl extends GenericDaoBase<NicVO, Long> implements NicDao {
         AllFieldsSearch.and("isDefault", AllFieldsSearch.entity().isDefaultNic(), Op.EQ);
         AllFieldsSearch.done();
         
+        InstancesSearch = createSearchBuilder();
+        InstancesSearch.and("instances", InstancesSearch.entity().getInstanceId(), Op.IN);
+        InstancesSearch.done();
+        
         IpSearch = createSearchBuilder(String.class);
         IpSearch.select(null, Func.DISTINCT, IpSearch.entity().getIp4Address());
         IpSearch.and("network", IpSearch.entity().getNetworkId(), Op.EQ);
@@ -62,6 +68,13 @@ public class NicDaoImpl extends GenericDaoBase<NicVO, Long> implements NicDao {
         return listBy(sc);
     }
     
+    @Override
+    public List<NicVO> listByVmIds(Collection<Long> instanceIds) {
+        SearchCriteria<NicVO> sc = InstancesSearch.create();
+        sc.setParameters("instances", instanceIds.toArray());
+        return listBy(sc);
+    }
+    
     @Override
     public List<NicVO> listByVmIdIncludingRemoved(long instanceId) {
         SearchCriteria<NicVO> sc = AllFieldsSearch.create();
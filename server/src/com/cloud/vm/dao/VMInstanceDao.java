@@ -12,6 +12,7 @@
 // Automatically generated by addcopyright.py at 04/03/2012
 package com.cloud.vm.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -79,6 +80,11 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     List<VMInstanceVO> listByClusterId(long clusterId);  // this does not pull up VMs which are starting
     List<VMInstanceVO> listLHByClusterId(long clusterId);  // get all the VMs even starting one on this cluster
+
+    /**
+     * Bulk lookup of VMs by their instance names, used when syncing the VM states reported by an agent
+     */
+    List<VMInstanceVO> listByInstanceNames(Collection<String> instanceNames);
     
     List<VMInstanceVO> listVmsMigratingFromHost(Long hostId);
     
@@ -17,6 +17,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -58,6 +59,7 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     protected final SearchBuilder<VMInstanceVO> AllFieldsSearch;
     protected final SearchBuilder<VMInstanceVO> ZoneTemplateNonExpungedSearch;
     protected final SearchBuilder<VMInstanceVO> NameLikeSearch;
+    protected final SearchBuilder<VMInstanceVO> InstanceNamesSearch;
     protected final SearchBuilder<VMInstanceVO> StateChangeSearch;
     protected final SearchBuilder<VMInstanceVO> TransitionSearch;
     protected final SearchBuilder<VMInstanceVO> TypesSearch;
@@ -122,6 +124,10 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         NameLikeSearch.and("name", NameLikeSearch.entity().getHostName(), Op.LIKE);
         NameLikeSearch.done();
 
+        InstanceNamesSearch = createSearchBuilder();
+        InstanceNamesSearch.and("instanceNames", InstanceNamesSearch.entity().getInstanceName(), Op.IN);
+        InstanceNamesSearch.done();
+
         StateChangeSearch = createSearchBuilder();
         StateChangeSearch.and("id", StateChangeSearch.entity().getId(), Op.EQ);
         StateChangeSearch.and("states", StateChangeSearch.entity().getState(), Op.EQ);
@@ -226,6 +232,17 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         sc.setJoinParameters("hostSearch1", "clusterId", clusterId);
         return listBy(sc);
     }
+
+    @Override
+    public List<VMInstanceVO> listByInstanceNames(Collection<String> instanceNames) {
+        if (instanceNames.isEmpty()) {
+            return new ArrayList<VMInstanceVO>();
+        }
+
+        SearchCriteria<VMInstanceVO> sc = InstanceNamesSearch.create();
+        sc.setParameters("instanceNames", instanceNames.toArray());
+        return listBy(sc);
+    }
     
     @Override
     public List<VMInstanceVO> listByZoneIdAndType(long zoneId, VirtualMachine.Type type) {
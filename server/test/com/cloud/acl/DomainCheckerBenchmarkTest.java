@@ -0,0 +1,135 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.acl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.domain.dao.DomainTree;
+import com.cloud.domain.dao.DomainTreeTest;
+import com.cloud.exception.PermissionDeniedException;
+import com.cloud.user.Account;
+import com.cloud.user.AccountVO;
+
+/**
+ * Runs DomainChecker.checkAccess for domain admins across a 5,000 domain hierarchy, once with isChildDomain answered
+ * from the domain tree and once the way it used to be, loading both domains and comparing their paths.  Every domain
+ * load is counted as a database query; the tree must not issue any.
+ */
+public class DomainCheckerBenchmarkTest extends TestCase {
+    private static final Logger s_logger = Logger.getLogger(DomainCheckerBenchmarkTest.class);
+
+    private static class DomainDaoStub implements InvocationHandler {
+        final Map<Long, DomainVO> domains = new HashMap<Long, DomainVO>();
+        final DomainTree tree;
+        final boolean useTree;
+        long queries;
+
+        DomainDaoStub(List<DomainVO> list, boolean useTree) {
+            for (DomainVO domain : list) {
+                domains.put(domain.getId(), domain);
+            }
+            this.tree = new DomainTree(list);
+            this.useTree = useTree;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("isChildDomain")) {
+                long parentId = (Long)args[0];
+                long childId = (Long)args[1];
+                if (parentId == childId) {
+                    return true;
+                }
+                if (useTree) {
+                    return tree.isAncestor(parentId, childId);
+                }
+                queries++;
+                DomainVO parent = domains.get(parentId);
+                DomainVO child = domains.get(childId);
+                return parent != null && child != null && child.getPath().startsWith(parent.getPath());
+            }
+            if (method.getName().equals("findById")) {
+                queries++;
+                return domains.get(args[0]);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private long run(DomainDaoStub stub, List<DomainVO> domains, Account[] callers, int iterations) {
+        DomainChecker checker = new DomainChecker();
+        checker._domainDao = (DomainDao)Proxy.newProxyInstance(DomainDao.class.getClassLoader(), new Class<?>[] { DomainDao.class }, stub);
+
+        Random random = new Random(11);
+        long granted = 0;
+        for (int i = 0; i < iterations; i++) {
+            Account caller = callers[i % callers.length];
+            DomainVO domain = domains.get(random.nextInt(domains.size()));
+            try {
+                checker.checkAccess(caller, domain);
+                granted++;
+            } catch (PermissionDeniedException e) {
+            }
+        }
+        return granted;
+    }
+
+    @Test
+    public void testCheckAccessBenchmark() {
+        List<DomainVO> domains = DomainTreeTest.createHierarchy(5000, 42);
+        Random random = new Random(3);
+        Account[] callers = new Account[100];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = new AccountVO("admin" + i, domains.get(random.nextInt(200)).getId(), null, Account.ACCOUNT_TYPE_DOMAIN_ADMIN);
+        }
+
+        int iterations = 500000;
+        DomainDaoStub legacy = new DomainDaoStub(domains, false);
+        DomainDaoStub cached = new DomainDaoStub(domains, true);
+
+        // warm up both paths before timing
+        run(legacy, domains, callers, iterations / 10);
+        run(cached, domains, callers, iterations / 10);
+        legacy.queries = 0;
+        cached.queries = 0;
+
+        long start = System.nanoTime();
+        long legacyGranted = run(legacy, domains, callers, iterations);
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long cachedGranted = run(cached, domains, callers, iterations);
+        long cachedNanos = System.nanoTime() - start;
+
+        s_logger.info("checkAccess over " + domains.size() + " domains, " + iterations + " checks: path comparison " + legacyNanos / 1000000 + "ms with "
+                + legacy.queries + " queries, domain tree " + cachedNanos / 1000000 + "ms with " + cached.queries + " queries");
+
+        assertEquals(legacyGranted, cachedGranted);
+        assertTrue(cachedGranted > 0 && cachedGranted < iterations);
+        assertTrue(legacy.queries > 0);
+        assertEquals(0, cached.queries);
+    }
+}
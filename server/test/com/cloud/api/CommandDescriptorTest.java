@@ -0,0 +1,329 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.api;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import com.cloud.api.commands.ListEventsCmd;
+import com.cloud.api.commands.ListVMsCmd;
+import com.cloud.utils.DateUtil;
+
+/**
+ * Binds generated parameters into every command registered in client/tomcatconf/*commands*.properties.in, once with
+ * the reflective field walk ApiDispatcher used to do for every request and once through CommandDescriptor, and
+ * compares the resulting field values.
+ */
+public class CommandDescriptorTest extends TestCase {
+    private static final Logger s_logger = Logger.getLogger(CommandDescriptorTest.class);
+
+    private static class CountingResolver implements CommandDescriptor.IdentityResolver {
+        int calls;
+        int tokens;
+
+        static long idOf(String token) {
+            return (token.hashCode() & 0xffff) + 1;
+        }
+
+        @Override
+        public Map<String, Map<String, Long>> getIdentityIds(Map<String, Set<String>> tokensByTable) {
+            calls++;
+            Map<String, Map<String, Long>> result = new HashMap<String, Map<String, Long>>();
+            for (Map.Entry<String, Set<String>> entry : tokensByTable.entrySet()) {
+                Map<String, Long> ids = new HashMap<String, Long>();
+                for (String token : entry.getValue()) {
+                    tokens++;
+                    if (!token.startsWith("missing")) {
+                        ids.put(token, idOf(token));
+                    }
+                }
+                result.put(entry.getKey(), ids);
+            }
+            return result;
+        }
+    }
+
+    private List<Class<? extends BaseCmd>> loadCommands() throws Exception {
+        List<Class<? extends BaseCmd>> commands = new ArrayList<Class<? extends BaseCmd>>();
+        int missing = 0;
+        for (File file : new File("client/tomcatconf").listFiles()) {
+            if (!file.getName().contains("commands") || !file.getName().endsWith(".properties.in")) {
+                continue;
+            }
+            Properties properties = new Properties();
+            FileInputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            for (Object value : properties.values()) {
+                String className = value.toString().split(";")[0].trim();
+                try {
+                    commands.add(Class.forName(className).asSubclass(BaseCmd.class));
+                } catch (ClassNotFoundException e) {
+                    // commands of plugins not on the test classpath
+                    missing++;
+                }
+            }
+        }
+        s_logger.info("Loaded " + commands.size() + " commands, " + missing + " not on the classpath");
+        return commands;
+    }
+
+    private static String valueFor(Field field, Parameter parameter) {
+        boolean identity = field.getAnnotation(IdentityMapper.class) != null;
+        switch (parameter.type()) {
+        case BOOLEAN:
+            return "true";
+        case DATE:
+            return "2012-03-04";
+        case FLOAT:
+            return "1.5";
+        case INTEGER:
+            return "3";
+        case SHORT:
+            return "2";
+        case LONG:
+            return identity ? "uuid-" + parameter.name() : "7";
+        case LIST:
+            switch (parameter.collectionType()) {
+            case LONG:
+                return identity ? "uuid-a-" + parameter.name() + ",uuid-b-" + parameter.name() : "5,6";
+            case INTEGER:
+            case SHORT:
+                return "1,2";
+            default:
+                return "a,b";
+            }
+        case TZDATE:
+            return "2012-03-04T10:11:12Z+0000";
+        case MAP:
+            return null;
+        default:
+            return "value-" + parameter.name();
+        }
+    }
+
+    /**
+     * The binding ApiDispatcher.setupParameters() did before command descriptors, resolving every identity token on
+     * its own.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static void legacyBind(BaseCmd cmd, Map<String, Object> params, CountingResolver resolver) throws Exception {
+        List<Field> fields = new ArrayList<Field>();
+        for (Class<?> clazz = cmd.getClass(); BaseCmd.class.isAssignableFrom(clazz); clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                fields.add(field);
+            }
+        }
+        for (Field field : fields) {
+            Parameter annotation = field.getAnnotation(Parameter.class);
+            if (annotation == null || !annotation.expose()) {
+                continue;
+            }
+            IdentityMapper identityMapper = field.getAnnotation(IdentityMapper.class);
+            Object paramObj = params.get(annotation.name());
+            if (paramObj == null) {
+                continue;
+            }
+            field.setAccessible(true);
+            switch (annotation.type()) {
+            case BOOLEAN:
+                field.set(cmd, Boolean.valueOf(paramObj.toString()));
+                break;
+            case DATE:
+                Date date;
+                synchronized (BaseCmd.INPUT_FORMAT) {
+                    date = BaseCmd.INPUT_FORMAT.parse(paramObj.toString());
+                }
+                if (cmd instanceof ListEventsCmd && field.getName().equals("endDate")) {
+                    Calendar cal = Calendar.getInstance();
+                    cal.setTime(date);
+                    cal.set(Calendar.HOUR_OF_DAY, 23);
+                    cal.set(Calendar.MINUTE, 59);
+                    cal.set(Calendar.SECOND, 59);
+                    date = cal.getTime();
+                }
+                field.set(cmd, date);
+                break;
+            case FLOAT:
+                field.set(cmd, Float.valueOf(paramObj.toString()));
+                break;
+            case INTEGER:
+                field.set(cmd, Integer.valueOf(paramObj.toString()));
+                break;
+            case LIST:
+                List listParam = new ArrayList();
+                StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                while (st.hasMoreTokens()) {
+                    String token = st.nextToken();
+                    switch (annotation.collectionType()) {
+                    case INTEGER:
+                        listParam.add(Integer.valueOf(token));
+                        break;
+                    case LONG:
+                        listParam.add(identityMapper != null ? legacyResolve(resolver, identityMapper, token) : Long.valueOf(token));
+                        break;
+                    case SHORT:
+                        listParam.add(Short.valueOf(token));
+                    case STRING:
+                        listParam.add(token);
+                        break;
+                    }
+                }
+                field.set(cmd, listParam);
+                break;
+            case LONG:
+                field.set(cmd, identityMapper != null ? legacyResolve(resolver, identityMapper, paramObj.toString()) : Long.valueOf(paramObj.toString()));
+                break;
+            case SHORT:
+                field.set(cmd, Short.valueOf(paramObj.toString()));
+                break;
+            case STRING:
+                field.set(cmd, paramObj.toString());
+                break;
+            case TZDATE:
+                field.set(cmd, DateUtil.parseTZDateString(paramObj.toString()));
+                break;
+            default:
+                field.set(cmd, paramObj);
+                break;
+            }
+        }
+    }
+
+    private static Long legacyResolve(CountingResolver resolver, IdentityMapper mapper, String token) {
+        Map<String, Set<String>> request = new HashMap<String, Set<String>>();
+        request.put(mapper.entityTableName(), Collections.singleton(token));
+        return resolver.getIdentityIds(request).get(mapper.entityTableName()).get(token);
+    }
+
+    private static Map<String, Object> paramsFor(CommandDescriptor descriptor) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        for (CommandDescriptor.ParameterField parameter : descriptor.getParameters()) {
+            String value = valueFor(parameter.getField(), parameter.getField().getAnnotation(Parameter.class));
+            if (value != null) {
+                params.put(parameter.getName(), value);
+            }
+        }
+        return params;
+    }
+
+    @Test
+    public void testBindingMatchesForAllCommands() throws Exception {
+        List<Class<? extends BaseCmd>> commands = loadCommands();
+        assertTrue(commands.size() > 200);
+
+        int bound = 0;
+        for (Class<? extends BaseCmd> cmdClass : commands) {
+            CommandDescriptor descriptor = CommandDescriptor.get(cmdClass);
+            assertSame(descriptor, CommandDescriptor.forName(cmdClass.getName()));
+            Map<String, Object> params = paramsFor(descriptor);
+
+            BaseCmd expected = cmdClass.newInstance();
+            CountingResolver legacyResolver = new CountingResolver();
+            legacyBind(expected, params, legacyResolver);
+
+            BaseCmd actual = descriptor.newInstance();
+            CountingResolver resolver = new CountingResolver();
+            descriptor.bind(actual, params, resolver);
+
+            for (CommandDescriptor.ParameterField parameter : descriptor.getParameters()) {
+                Field field = parameter.getField();
+                assertEquals(cmdClass.getSimpleName() + "." + field.getName(), field.get(expected), field.get(actual));
+            }
+            assertTrue(cmdClass.getSimpleName(), resolver.calls <= 1);
+            assertEquals(cmdClass.getSimpleName(), legacyResolver.tokens, resolver.tokens);
+            bound++;
+        }
+        s_logger.info("Compared parameter binding of " + bound + " commands");
+    }
+
+    @Test
+    public void testMissingIdentity() throws Exception {
+        CommandDescriptor descriptor = CommandDescriptor.get(ListVMsCmd.class);
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("zoneid", "missing-zone");
+        try {
+            descriptor.bind(descriptor.newInstance(), params, new CountingResolver());
+            fail("an unknown uuid must be rejected");
+        } catch (ServerApiException e) {
+            assertEquals(BaseCmd.PARAM_ERROR, e.getErrorCode());
+            assertTrue(e.getDescription(), e.getDescription().contains("data_center(uuid: missing-zone) does not exist"));
+        }
+
+        params.put("zoneid", "-1");
+        BaseCmd cmd = descriptor.newInstance();
+        descriptor.bind(cmd, params, new CountingResolver() {
+            @Override
+            public Map<String, Map<String, Long>> getIdentityIds(Map<String, Set<String>> tokensByTable) {
+                Map<String, Map<String, Long>> result = new HashMap<String, Map<String, Long>>();
+                result.put("data_center", new HashMap<String, Long>());
+                return result;
+            }
+        });
+        assertEquals(Long.valueOf(-1), ((ListVMsCmd)cmd).getZoneId());
+    }
+
+    @Test
+    public void testPerRequestCost() throws Exception {
+        List<Class<? extends BaseCmd>> commands = loadCommands();
+        List<Map<String, Object>> params = new ArrayList<Map<String, Object>>();
+        for (Class<? extends BaseCmd> cmdClass : commands) {
+            params.add(paramsFor(CommandDescriptor.get(cmdClass)));
+        }
+
+        int rounds = 50;
+        CountingResolver legacyResolver = new CountingResolver();
+        CountingResolver resolver = new CountingResolver();
+        long legacyNanos = 0;
+        long descriptorNanos = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < commands.size(); i++) {
+                BaseCmd cmd = (BaseCmd)Class.forName(commands.get(i).getName()).newInstance();
+                legacyBind(cmd, params.get(i), legacyResolver);
+            }
+            legacyNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < commands.size(); i++) {
+                CommandDescriptor descriptor = CommandDescriptor.forName(commands.get(i).getName());
+                descriptor.bind(descriptor.newInstance(), params.get(i), resolver);
+            }
+            descriptorNanos += System.nanoTime() - start;
+        }
+
+        int requests = rounds * commands.size();
+        s_logger.info("Per request binding cost over " + requests + " requests: field walk " + legacyNanos / requests + "ns with " + legacyResolver.calls
+                + " identity lookups, descriptor " + descriptorNanos / requests + "ns with " + resolver.calls + " identity lookups");
+        assertTrue(resolver.calls <= legacyResolver.calls);
+    }
+}
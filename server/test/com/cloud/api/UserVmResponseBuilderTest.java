@@ -0,0 +1,193 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.api;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.api.ApiConstants.VMDetails;
+import com.cloud.api.response.UserVmResponse;
+import com.cloud.dc.DataCenter.NetworkType;
+import com.cloud.dc.DataCenterVO;
+import com.cloud.dc.dao.DataCenterDao;
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.network.dao.IPAddressDao;
+import com.cloud.network.dao.NetworkDao;
+import com.cloud.network.security.dao.SecurityGroupVMMapDao;
+import com.cloud.user.Account;
+import com.cloud.user.AccountVO;
+import com.cloud.user.dao.AccountDao;
+import com.cloud.uservm.UserVm;
+import com.cloud.utils.component.ComponentLocator;
+import com.cloud.utils.db.GenericDao;
+import com.cloud.vm.NicVO;
+import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.dao.NicDao;
+
+/**
+ * Counts the queries building the responses of a page of vms takes.  Every DAO call is one query, and the page sizes
+ * asked for are within one batch, so the count must not grow with the number of vms.
+ */
+public class UserVmResponseBuilderTest extends TestCase {
+    private final Map<String, Integer> _queries = new HashMap<String, Integer>();
+    private int _queryCount;
+
+    @Test
+    public void testQueriesPerPage() {
+        UserVmResponseBuilder builder = new UserVmResponseBuilder(createLocator());
+        Account caller = new AccountVO(2);
+        ((AccountVO) caller).setType(Account.ACCOUNT_TYPE_ADMIN);
+
+        int queriesForTen = -1;
+        for (int vmCount : new int[] { 10, 100, 500 }) {
+            _queries.clear();
+            _queryCount = 0;
+            List<UserVmResponse> responses = builder.createUserVmResponses("virtualmachine", EnumSet.of(VMDetails.all), caller, createVms(vmCount));
+
+            assertEquals(vmCount, responses.size());
+            for (int i = 0; i < vmCount; i++) {
+                UserVmResponse response = responses.get(i);
+                assertEquals(Long.valueOf(1000 + i), response.getId());
+                assertEquals("virtualmachine", response.getObjectName());
+            }
+            System.out.println(vmCount + " vms: " + _queryCount + " queries " + _queries);
+            assertTrue(_queryCount <= 15);
+            if (queriesForTen < 0) {
+                queriesForTen = _queryCount;
+            }
+            assertEquals("queries for " + vmCount + " vms", queriesForTen, _queryCount);
+            for (Integer count : _queries.values()) {
+                assertEquals("one query per table", Integer.valueOf(1), count);
+            }
+        }
+    }
+
+    @Test
+    public void testDetailsLimitQueries() {
+        UserVmResponseBuilder builder = new UserVmResponseBuilder(createLocator());
+        Account caller = new AccountVO(2);
+        List<UserVmResponse> responses = builder.createUserVmResponses("virtualmachine", EnumSet.of(VMDetails.min), caller, createVms(100));
+
+        // account, domain, zone, host and public ip
+        assertEquals(_queries.toString(), 5, _queryCount);
+        assertEquals("admin-2", getField(responses.get(0), "accountName"));
+        assertEquals("ROOT", getField(responses.get(0), "domainName"));
+        assertEquals("zone-1", getField(responses.get(0), "zoneName"));
+        assertNull(getField(responses.get(0), "nics"));
+    }
+
+    @Test
+    public void testNicsByVm() {
+        UserVmResponseBuilder builder = new UserVmResponseBuilder(createLocator());
+        Account caller = new AccountVO(2);
+        List<UserVmResponse> responses = builder.createUserVmResponses("virtualmachine", EnumSet.of(VMDetails.nics), caller, createVms(3));
+
+        for (int i = 0; i < 3; i++) {
+            List<?> nics = (List<?>) getField(responses.get(i), "nics");
+            assertEquals("vm " + i, i == 1 ? 0 : 2, nics.size());
+        }
+    }
+
+    private UserVm[] createVms(int count) {
+        UserVm[] vms = new UserVm[count];
+        for (int i = 0; i < count; i++) {
+            final Map<String, Object> values = new HashMap<String, Object>();
+            values.put("getId", 1000L + i);
+            values.put("getAccountId", 2L);
+            values.put("getDataCenterIdToDeployIn", 1L);
+            values.put("getHostId", (long) (i % 4));
+            values.put("getTemplateId", 201L);
+            values.put("getServiceOfferingId", 1L);
+            values.put("getHostName", "vm-" + i);
+            values.put("getCreated", new Date(1333000000000L));
+            values.put("getState", VirtualMachine.State.Running);
+            values.put("getGuestOSId", 12L);
+            vms[i] = (UserVm) Proxy.newProxyInstance(UserVm.class.getClassLoader(), new Class<?>[] { UserVm.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    Object value = values.get(method.getName());
+                    if (value == null && method.getReturnType() == boolean.class) {
+                        return false;
+                    }
+                    return value;
+                }
+            });
+        }
+        return vms;
+    }
+
+    private ComponentLocator createLocator() {
+        return new ComponentLocator("test") {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T extends GenericDao<?, ? extends Serializable>> T getDao(final Class<T> clazz) {
+                return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String query = clazz.getSimpleName() + "." + method.getName();
+                        Integer count = _queries.get(query);
+                        _queries.put(query, count == null ? 1 : count + 1);
+                        _queryCount++;
+                        return list(clazz, (Collection<Long>) args[0]);
+                    }
+                });
+            }
+        };
+    }
+
+    private static List<Object> list(Class<?> dao, Collection<Long> ids) {
+        List<Object> rows = new ArrayList<Object>();
+        for (Long id : ids) {
+            if (dao == AccountDao.class) {
+                AccountVO account = new AccountVO(id);
+                account.setAccountName("admin-" + id);
+                account.setDomainId(1L);
+                rows.add(account);
+            } else if (dao == DomainDao.class) {
+                rows.add(new DomainVO(id, "ROOT", 2L, null, null));
+            } else if (dao == DataCenterDao.class) {
+                DataCenterVO zone = new DataCenterVO(id, "zone-" + id, null, null, null, null, null, null, null, null, NetworkType.Basic, null, null);
+                zone.setSecurityGroupEnabled(true);
+                rows.add(zone);
+            } else if (dao == NicDao.class && id % 3 != 1001 % 3) {
+                rows.add(new NicVO("guru", id, 200L, VirtualMachine.Type.User));
+                rows.add(new NicVO("guru", id, 201L, VirtualMachine.Type.User));
+            }
+        }
+        return rows;
+    }
+
+    private static Object getField(Object obj, String name) {
+        try {
+            java.lang.reflect.Field field = obj.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(obj);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
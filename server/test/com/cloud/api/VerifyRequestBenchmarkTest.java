@@ -0,0 +1,217 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.api;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import com.cloud.user.Account;
+import com.cloud.user.AccountVO;
+import com.cloud.user.ApiKeyCache;
+import com.cloud.user.User;
+import com.cloud.user.UserVO;
+import com.cloud.utils.Pair;
+import com.cloud.utils.encoding.Base64;
+
+/**
+ * Measures the per request work of ApiServer.verifyRequest for signed requests from a set of api keys, in the manner
+ * of a JMH benchmark: each scenario runs warmup iterations followed by measured iterations and reports the median
+ * operations per second.
+ * 
+ * The old implementation looked the api key up in the database, created a new Mac and concatenated the canonical
+ * request for every call; it is measured next to the api key cache and ApiServer's canonical request building and
+ * signing.  Database lookups are counted instead of timed, a map stands in for the user table.
+ */
+public class VerifyRequestBenchmarkTest extends TestCase {
+    private static final Logger s_logger = Logger.getLogger(VerifyRequestBenchmarkTest.class);
+
+    private static final int KEYS = 50;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final int OPS_PER_ITERATION = 20000;
+
+    private interface Operation {
+        boolean run(int i) throws Exception;
+    }
+
+    private final List<TreeMap<String, String>> _requests = new ArrayList<TreeMap<String, String>>();
+    private final List<String> _signatures = new ArrayList<String>();
+    private final Map<String, Pair<User, Account>> _users = new HashMap<String, Pair<User, Account>>();
+    private long _lookups;
+
+    @Override
+    protected void setUp() throws Exception {
+        for (int i = 0; i < KEYS; i++) {
+            String apiKey = "apikey-" + i;
+            String secretKey = "secret-" + i + "-" + Long.toHexString(Double.doubleToLongBits(Math.random()));
+            TreeMap<String, String> params = new TreeMap<String, String>();
+            params.put("command", "listVirtualMachines");
+            params.put("apiKey", apiKey);
+            params.put("response", "json");
+            params.put("listAll", "true");
+            params.put("keyword", "web server " + i);
+            params.put("pagesize", "500");
+            _requests.add(params);
+
+            UserVO user = new UserVO(i + 10);
+            user.setSecretKey(secretKey);
+            AccountVO account = new AccountVO(i + 100);
+            account.setType(Account.ACCOUNT_TYPE_NORMAL);
+            account.setState(Account.State.enabled);
+            _users.put(apiKey, new Pair<User, Account>(user, account));
+            _signatures.add(legacyVerify(i, null));
+        }
+    }
+
+    private Pair<User, Account> lookup(String apiKey) {
+        _lookups++;
+        return _users.get(apiKey);
+    }
+
+    private String legacyVerify(int i, Pair<User, Account> userAcct) throws Exception {
+        TreeMap<String, String> params = _requests.get(i % KEYS);
+        String unsignedRequest = null;
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (unsignedRequest == null) {
+                unsignedRequest = param.getKey() + "=" + URLEncoder.encode(param.getValue(), "UTF-8").replaceAll("\\+", "%20");
+            } else {
+                unsignedRequest = unsignedRequest + "&" + param.getKey() + "=" + URLEncoder.encode(param.getValue(), "UTF-8").replaceAll("\\+", "%20");
+            }
+        }
+        if (userAcct == null) {
+            userAcct = _users.get(params.get("apiKey"));
+        }
+        unsignedRequest = unsignedRequest.toLowerCase();
+
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(userAcct.first().getSecretKey().getBytes(), "HmacSHA1"));
+        mac.update(unsignedRequest.getBytes());
+        return Base64.encodeBytes(mac.doFinal());
+    }
+
+    private String verify(int i, ApiKeyCache cache) throws Exception {
+        TreeMap<String, String> params = _requests.get(i % KEYS);
+        StringBuilder unsignedRequest = new StringBuilder(256);
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (unsignedRequest.length() > 0) {
+                unsignedRequest.append('&');
+            }
+            unsignedRequest.append(param.getKey()).append('=');
+            ApiServer.appendEncodedParameterValue(unsignedRequest, param.getValue());
+        }
+        String apiKey = params.get("apiKey");
+        Pair<User, Account> userAcct = cache.get(apiKey);
+        if (userAcct == null) {
+            userAcct = lookup(apiKey);
+            cache.put(apiKey, userAcct);
+        }
+        return ApiServer.computeSignature(userAcct.first().getSecretKey(), unsignedRequest.toString().toLowerCase());
+    }
+
+    private double measure(String name, Operation op) throws Exception {
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++) {
+            for (int i = 0; i < OPS_PER_ITERATION; i++) {
+                assertTrue(op.run(i));
+            }
+        }
+
+        List<Double> results = new ArrayList<Double>();
+        for (int iteration = 0; iteration < MEASURED_ITERATIONS; iteration++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < OPS_PER_ITERATION; i++) {
+                assertTrue(op.run(i));
+            }
+            results.add(OPS_PER_ITERATION * 1000000000.0 / (System.nanoTime() - start));
+        }
+        Collections.sort(results);
+        double median = results.get(results.size() / 2);
+        s_logger.info(String.format("%-24s %12.0f ops/s (min %.0f, max %.0f)", name, median, results.get(0), results.get(results.size() - 1)));
+        return median;
+    }
+
+    @Test
+    public void testVerifyRequestThroughput() throws Exception {
+        _lookups = 0;
+        measure("legacy", new Operation() {
+            @Override
+            public boolean run(int i) throws Exception {
+                return legacyVerify(i, lookup(_requests.get(i % KEYS).get("apiKey"))).equals(_signatures.get(i % KEYS));
+            }
+        });
+        long legacyLookups = _lookups;
+
+        _lookups = 0;
+        final ApiKeyCache cache = new ApiKeyCache(60000, 1000);
+        measure("cached key and mac", new Operation() {
+            @Override
+            public boolean run(int i) throws Exception {
+                return verify(i, cache).equals(_signatures.get(i % KEYS));
+            }
+        });
+
+        s_logger.info("api key lookups: " + legacyLookups + " legacy, " + _lookups + " with the api key cache");
+        assertEquals((long)(WARMUP_ITERATIONS + MEASURED_ITERATIONS) * OPS_PER_ITERATION, legacyLookups);
+        assertEquals(KEYS, _lookups);
+    }
+
+    @Test
+    public void testApiKeyCache() {
+        final long[] now = new long[] { 1000 };
+        ApiKeyCache cache = new ApiKeyCache(30000, 2) {
+            @Override
+            protected long now() {
+                return now[0];
+            }
+        };
+        cache.put("apikey-0", _users.get("apikey-0"));
+        cache.put("apikey-1", _users.get("apikey-1"));
+        assertNotNull(cache.get("apikey-0"));
+
+        // bounded, the least recently used key goes first
+        cache.put("apikey-2", _users.get("apikey-2"));
+        assertEquals(2, cache.size());
+        assertNull(cache.get("apikey-1"));
+        assertNotNull(cache.get("apikey-0"));
+
+        cache.invalidateUser(_users.get("apikey-0").first().getId());
+        assertNull(cache.get("apikey-0"));
+        cache.put("apikey-1", _users.get("apikey-1"));
+        cache.invalidateAccount(_users.get("apikey-2").second().getId());
+        assertNull(cache.get("apikey-2"));
+        assertNotNull(cache.get("apikey-1"));
+        cache.invalidateAll();
+
+        cache.put("apikey-3", _users.get("apikey-3"));
+        now[0] += 30000;
+        assertNull(cache.get("apikey-3"));
+        assertEquals(0, cache.size());
+
+        ApiKeyCache disabled = new ApiKeyCache(0, 100);
+        assertFalse(disabled.isEnabled());
+        disabled.put("apikey-0", _users.get("apikey-0"));
+        assertEquals(0, disabled.size());
+    }
+}
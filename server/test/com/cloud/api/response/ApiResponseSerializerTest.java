@@ -0,0 +1,363 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.api.response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.api.ApiResponseGsonHelper;
+import com.cloud.api.ApiServer;
+import com.cloud.api.BaseCmd;
+import com.cloud.api.ResponseObject;
+import com.cloud.api.SerializationContext;
+import com.cloud.uuididentity.dao.IdentityDao;
+
+/**
+ * Serializes a set of sample responses and compares them byte for byte with server/test/resources/response, which
+ * were written by the serializer that built a Gson per response, unescaped every object with a regular expression
+ * and looked every uuid up on its own.
+ */
+public class ApiResponseSerializerTest extends TestCase {
+    static {
+        // dates in the golden files are in GMT, the formatters pick the zone up when they are created
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+    }
+
+    static final String GOLDEN_DIR = "server/test/resources/response";
+    static final String VERSION = "4.0-golden";
+    static final String[] SAMPLES = { "listvirtualmachines", "listvirtualmachines-empty", "listvirtualmachines-encoded", "deployvirtualmachine",
+            "deployvirtualmachine-raw", "createcmd", "success", "error", "securitygroup" };
+
+    private int _batchQueries;
+    private int _singleQueries;
+
+    @Override
+    protected void setUp() {
+        ApiResponseSerializer.setVersion(VERSION);
+        ApiResponseSerializer.setIdentityDao(createIdentityDao());
+    }
+
+    @Override
+    protected void tearDown() {
+        ApiResponseSerializer.setVersion(null);
+        ApiResponseSerializer.setIdentityDao(null);
+        ApiServer.encodeApiResponse = false;
+        SerializationContext.current().setUuidTranslation(false);
+    }
+
+    @Test
+    public void testJsonMatchesGoldenFiles() throws IOException {
+        for (String name : SAMPLES) {
+            checkGolden(name, BaseCmd.RESPONSE_TYPE_JSON);
+        }
+    }
+
+    @Test
+    public void testXmlMatchesGoldenFiles() throws IOException {
+        for (String name : SAMPLES) {
+            checkGolden(name, BaseCmd.RESPONSE_TYPE_XML);
+        }
+    }
+
+    @Test
+    public void testUnescapeWhileWriting() {
+        // strings made of the characters that make up unicode escapes, and the ones Gson escapes that way
+        char[] alphabet = { '\\', 'u', '0', '0', '3', 'd', 'D', 'a', 'F', 'g', '<', '=', '&', '\'', '"', '\u0001', '\u00e9' };
+        Random random = new Random(38);
+        ApiResponseGsonHelper.getGson();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(24);
+            for (int j = 0; j < length; j++) {
+                text.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+
+            SecurityGroupResponse group = new SecurityGroupResponse();
+            group.setResponseName("createsecuritygroupresponse");
+            group.setObjectName("securitygroup");
+            group.setName(text.toString());
+            String expected = "{ \"createsecuritygroupresponse\" :  { \"securitygroup\" : "
+                    + ApiResponseSerializer.unescape(ApiResponseGsonHelper.getGson().toJson(group)) + " }  }";
+            assertEquals("name " + text, expected, ApiResponseSerializer.toSerializedString(group, BaseCmd.RESPONSE_TYPE_JSON));
+        }
+    }
+
+    @Test
+    public void testListVirtualMachines() {
+        int vmCount = 10000;
+        ListResponse<UserVmResponse> response = new ListResponse<UserVmResponse>();
+        List<UserVmResponse> vms = new ArrayList<UserVmResponse>();
+        for (int i = 0; i < vmCount; i++) {
+            vms.add(createVm(1000 + i, "vm-" + i));
+        }
+        response.setResponses(vms);
+        response.setResponseName("listvirtualmachinesresponse");
+        SerializationContext.current().setUuidTranslation(true);
+
+        // the way responses used to be written: a Gson per response, a regular expression over every object and a
+        // query for every IdentityProxy
+        long start = System.currentTimeMillis();
+        StringBuilder legacy = new StringBuilder();
+        for (UserVmResponse vm : vms) {
+            legacy.append(ApiResponseSerializer.unescape(ApiResponseGsonHelper.getBuilder().create().toJson(vm)));
+        }
+        long legacyMs = System.currentTimeMillis() - start;
+        int legacyQueries = _singleQueries;
+
+        for (int round = 0; round < 3; round++) {
+            _batchQueries = 0;
+            _singleQueries = 0;
+            start = System.currentTimeMillis();
+            String json = ApiResponseSerializer.toSerializedString(response, BaseCmd.RESPONSE_TYPE_JSON);
+            long jsonMs = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            String xml = ApiResponseSerializer.toSerializedString(response, BaseCmd.RESPONSE_TYPE_XML);
+            long xmlMs = System.currentTimeMillis() - start;
+
+            assertEquals("one query per response", 2, _batchQueries);
+            assertEquals("no uuid looked up on its own", 0, _singleQueries);
+            assertTrue(json.contains("uuid-vm_instance-" + (1000 + vmCount - 1)));
+            assertTrue(xml.contains("<id>uuid-vm_instance-" + (1000 + vmCount - 1) + "</id>"));
+            System.out.println("listVirtualMachines of " + vmCount + " vms: json " + jsonMs + " ms (" + json.length() + " chars), xml " + xmlMs + " ms ("
+                    + xml.length() + " chars), " + _batchQueries + " queries for both; json with a Gson and a regular expression per object: " + legacyMs + " ms, "
+                    + legacyQueries + " queries");
+        }
+    }
+
+    private void checkGolden(String name, String responseType) throws IOException {
+        ApiServer.encodeApiResponse = name.endsWith("-encoded");
+        SerializationContext.current().setUuidTranslation(!name.endsWith("-raw"));
+        _batchQueries = 0;
+        _singleQueries = 0;
+
+        String actual = ApiResponseSerializer.toSerializedString(createSample(name), responseType);
+        String expected = readGolden(name + "." + responseType);
+        assertEquals(name + "." + responseType, expected, actual);
+        assertTrue(name + "." + responseType + " queried " + _batchQueries + " times", _batchQueries <= 1);
+        assertEquals(name + "." + responseType, 0, _singleQueries);
+    }
+
+    private static String readGolden(String fileName) throws IOException {
+        InputStream in = new FileInputStream(new File(GOLDEN_DIR, fileName));
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The uuid of a row is "uuid-<table>-<id>", except row 7 which has none and row 404 which does not exist.
+     */
+    static String getUuid(String tableName, String id) {
+        if ("7".equals(id) || "404".equals(id)) {
+            return id;
+        }
+        return "uuid-" + tableName + "-" + id;
+    }
+
+    private IdentityDao createIdentityDao() {
+        return (IdentityDao) Proxy.newProxyInstance(IdentityDao.class.getClassLoader(), new Class<?>[] { IdentityDao.class }, new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getIdentityUuid")) {
+                    _singleQueries++;
+                    return getUuid((String) args[0], (String) args[1]);
+                } else if (method.getName().equals("getIdentityUuids")) {
+                    _batchQueries++;
+                    Map<String, Map<Long, String>> result = new HashMap<String, Map<Long, String>>();
+                    for (Map.Entry<String, Set<Long>> entry : ((Map<String, Set<Long>>) args[0]).entrySet()) {
+                        Map<Long, String> uuids = new HashMap<Long, String>();
+                        for (Long id : entry.getValue()) {
+                            uuids.put(id, getUuid(entry.getKey(), String.valueOf(id)));
+                        }
+                        result.put(entry.getKey(), uuids);
+                    }
+                    return result;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Builds the sample response of the given name, afresh as serializing to xml renames nested objects.
+     */
+    static ResponseObject createSample(String name) {
+        if (name.startsWith("listvirtualmachines")) {
+            ListResponse<UserVmResponse> response = new ListResponse<UserVmResponse>();
+            List<UserVmResponse> vms = new ArrayList<UserVmResponse>();
+            if (!name.endsWith("-empty")) {
+                vms.add(createVm(42, "web-01"));
+                UserVmResponse vm = createVm(7, "db \"primary\" <eu> & 'west' = 1");
+                vm.setDisplayName("caf\u00e9 \u2603 C:\\u0041dir\\\\u003d tab\there \u0001 end\\");
+                vm.setHostId(null);
+                vm.setHostName(null);
+                vm.setNics(new ArrayList<NicResponse>());
+                vms.add(vm);
+                vm = createVm(404, "stopped");
+                vm.setState("Stopped");
+                vm.setSecurityGroupList(null);
+                vm.setJobId(9L);
+                vm.setJobStatus(0);
+                vms.add(vm);
+            }
+            response.setResponses(vms);
+            response.setResponseName("listvirtualmachinesresponse");
+            return response;
+        } else if (name.startsWith("deployvirtualmachine")) {
+            AsyncJobResponse response = new AsyncJobResponse();
+            response.setAccountId(2L);
+            response.setUserId(2L);
+            response.setCmd("com.cloud.api.commands.DeployVMCmd");
+            response.setJobStatus(1);
+            response.setJobProcStatus(0);
+            response.setJobResultCode(0);
+            response.setJobResultType("object");
+            UserVmResponse vm = createVm(42, "web-01");
+            vm.setResponseName("deployvirtualmachineresponse");
+            response.setJobResult(vm);
+            response.setJobInstanceType("VirtualMachine");
+            response.setJobInstanceId(42L);
+            response.setCreated(new Date(1334000000000L));
+            response.setResponseName("queryasyncjobresultresponse");
+            return response;
+        } else if (name.equals("createcmd")) {
+            CreateCmdResponse response = new CreateCmdResponse();
+            response.setId(42L);
+            response.setIdEntityTable("vm_instance");
+            response.setJobId(15L);
+            response.setResponseName("deployvirtualmachineresponse");
+            return response;
+        } else if (name.equals("success")) {
+            SuccessResponse response = new SuccessResponse("deletesecuritygroupresponse");
+            response.setSuccess(true);
+            response.setDisplayText("deleted <group>");
+            return response;
+        } else if (name.equals("error")) {
+            ExceptionResponse response = new ExceptionResponse();
+            response.setErrorCode(431);
+            response.setCSErrorCode(4350);
+            response.setErrorText("Unable to find \"host\" <404> & 'vm' = stopped");
+            response.addProxyObject("vm_instance", 42L, "virtualMachineId");
+            response.addProxyObject("host", 404L, "hostId");
+            response.setResponseName("errorresponse");
+            return response;
+        } else if (name.equals("securitygroup")) {
+            SecurityGroupResponse response = createSecurityGroup(3, "default & <more>");
+            response.setResponseName("createsecuritygroupresponse");
+            return response;
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    static UserVmResponse createVm(long id, String name) {
+        UserVmResponse vm = new UserVmResponse();
+        vm.setId(id);
+        vm.setName(name);
+        vm.setDisplayName(name);
+        vm.setAccountName("admin");
+        vm.setProjectId(id % 2 == 0 ? 5L : null);
+        vm.setProjectName(id % 2 == 0 ? "project-5" : null);
+        vm.setDomainId(1L);
+        vm.setDomainName("ROOT");
+        vm.setCreated(new Date(1333000000000L + id * 1000));
+        vm.setState("Running");
+        vm.setHaEnable(false);
+        vm.setGroupId(3L);
+        vm.setGroup("web");
+        vm.setZoneId(1L);
+        vm.setZoneName("zone1");
+        vm.setHostId(id % 4);
+        vm.setHostName("host-" + id % 4);
+        vm.setTemplateId(201L);
+        vm.setTemplateName("CentOS 5.6(64-bit) no GUI (XenServer)");
+        vm.setTemplateDisplayText("CentOS 5.6(64-bit) no GUI (XenServer)");
+        vm.setPasswordEnabled(false);
+        vm.setServiceOfferingId(1L);
+        vm.setServiceOfferingName("Small Instance");
+        vm.setCpuNumber(1);
+        vm.setCpuSpeed(500);
+        vm.setMemory(512);
+        vm.setCpuUsed("0.12%");
+        vm.setNetworkKbsRead(id * 3);
+        vm.setNetworkKbsWrite(id * 5);
+        vm.setGuestOsId(12L);
+        vm.setRootDeviceId(0L);
+        vm.setRootDeviceType("NetworkFilesystem");
+        vm.setHypervisor("XenServer");
+        vm.setInstanceName("i-2-" + id + "-VM");
+
+        List<NicResponse> nics = new ArrayList<NicResponse>();
+        for (int i = 0; i < 2; i++) {
+            NicResponse nic = new NicResponse();
+            nic.setId(id * 10 + i);
+            nic.setNetworkid(200L + i);
+            nic.setNetmask("255.255.255.0");
+            nic.setGateway("10.1." + i + ".1");
+            nic.setIpaddress("10.1." + i + "." + (id % 250 + 2));
+            nic.setIsolationUri("vlan://" + (100 + i));
+            nic.setBroadcastUri("vlan://" + (100 + i));
+            nic.setTrafficType("Guest");
+            nic.setType("Isolated");
+            nic.setIsDefault(i == 0);
+            nic.setMacAddress(String.format("02:00:%02x:%02x:00:%02x", (id >> 8) & 0xff, id & 0xff, i));
+            nic.setObjectName("nic");
+            nics.add(nic);
+        }
+        vm.setNics(nics);
+
+        List<SecurityGroupResponse> groups = new ArrayList<SecurityGroupResponse>();
+        groups.add(createSecurityGroup(3, "default"));
+        vm.setSecurityGroupList(groups);
+        vm.setObjectName("virtualmachine");
+        return vm;
+    }
+
+    static SecurityGroupResponse createSecurityGroup(long id, String name) {
+        SecurityGroupResponse group = new SecurityGroupResponse();
+        group.setId(id);
+        group.setName(name);
+        group.setDescription("Default Security Group");
+        group.setAccountName("admin");
+        group.setDomainId(1L);
+        group.setDomainName("ROOT");
+        group.setObjectName("securitygroup");
+        return group;
+    }
+}
@@ -0,0 +1,472 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.capacity;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.persistence.EntityExistsException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.agent.AgentManager;
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.storage.PrimaryStorageDownloadAnswer;
+import com.cloud.agent.api.storage.PrimaryStorageDownloadCommand;
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.host.HostVO;
+import com.cloud.host.dao.HostDao;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.hypervisor.HypervisorGuruManager;
+import com.cloud.storage.Storage.ImageFormat;
+import com.cloud.storage.Storage.StoragePoolType;
+import com.cloud.storage.Storage.TemplateType;
+import com.cloud.storage.StorageManager;
+import com.cloud.storage.StorageManagerImpl;
+import com.cloud.storage.StoragePoolHostVO;
+import com.cloud.storage.StoragePoolVO;
+import com.cloud.storage.VMTemplateHostVO;
+import com.cloud.storage.VMTemplateStorageResourceAssoc.Status;
+import com.cloud.storage.VMTemplateStoragePoolVO;
+import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.Volume;
+import com.cloud.storage.VolumeVO;
+import com.cloud.storage.dao.StoragePoolDao;
+import com.cloud.storage.dao.StoragePoolHostDao;
+import com.cloud.storage.dao.VMTemplateDao;
+import com.cloud.storage.dao.VMTemplatePoolDao;
+import com.cloud.storage.dao.VolumeDao;
+import com.cloud.template.TemplateManagerImpl;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.Transaction;
+import com.cloud.utils.testcase.FakeComponents;
+
+/**
+ * Replays volume transitions and expunges through StorageManagerImpl, and template downloads and evictions through
+ * TemplateManagerImpl, against in-memory tables.  Checks that the allocated capacity counters those calls keep match
+ * what the aggregate over volumes and template_spool_ref adds up to.
+ */
+public class PoolAllocatedCapacityTest extends TestCase {
+    private static final int POOL_COUNT = 40;
+    private static final int TEMPLATE_COUNT = 20;
+    private static final long HOST_ID = 5;
+    private static final long EXTRA_BYTES_PER_VOLUME = 4096;
+
+    private final Map<Long, StoragePoolVO> _pools = new HashMap<Long, StoragePoolVO>();
+    private final Map<String, CapacityVO> _capacities = new HashMap<String, CapacityVO>();
+    // the volumes table, and the volumes the test holds on to as the callers of the storage manager would
+    private final Map<Long, VolumeVO> _volumeRows = new HashMap<Long, VolumeVO>();
+    private final Map<Long, VolumeVO> _volumes = new LinkedHashMap<Long, VolumeVO>();
+    private final List<VMTemplateStoragePoolVO> _templatePools = new ArrayList<VMTemplateStoragePoolVO>();
+    private final Map<Long, VMTemplateVO> _templates = new HashMap<Long, VMTemplateVO>();
+    private long _nextId = 1;
+    // a template_spool_ref another management server inserts right before ours
+    private VMTemplateStoragePoolVO _racingTemplatePool;
+    private Random _random = new Random(42);
+
+    private CapacityManagerImpl _capacityMgr;
+    private StorageManagerImpl _storageMgr;
+    private TemplateManagerImpl _templateMgr;
+    private Transaction _txn;
+
+    @Override
+    protected void setUp() {
+        _txn = Transaction.open("PoolAllocatedCapacityTest");
+
+        for (long poolId = 1; poolId <= POOL_COUNT; poolId++) {
+            StoragePoolType type = poolId % 4 == 0 ? StoragePoolType.Filesystem : StoragePoolType.NetworkFilesystem;
+            StoragePoolVO pool = new StoragePoolVO(poolId, "pool-" + poolId, "uuid-" + poolId, type, 1, 1L, 0, 1L << 42, "10.1.1." + poolId, 0, "/export/" + poolId);
+            _pools.put(poolId, pool);
+            short capacityType = pool.isShared() ? Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED : Capacity.CAPACITY_TYPE_LOCAL_STORAGE;
+            addCapacity(pool, capacityType, 0);
+        }
+        for (long templateId = 1; templateId <= TEMPLATE_COUNT; templateId++) {
+            _templates.put(templateId, new VMTemplateVO(templateId, "template-" + templateId, "template-" + templateId, ImageFormat.QCOW2, true, false,
+                    TemplateType.USER, "http://templates/" + templateId, new Date(), false, 64, 2, null, "template " + templateId, false, 1, true, HypervisorType.KVM));
+        }
+
+        VolumeDao volumeDao = createVolumeDao();
+        StoragePoolDao poolDao = FakeComponents.create(StoragePoolDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertTrue(method.getName(), method.getName().startsWith("findById"));
+                return _pools.get(args[0]);
+            }
+        });
+        VMTemplatePoolDao templatePoolDao = createTemplatePoolDao();
+
+        _capacityMgr = new CapacityManagerImpl();
+        _capacityMgr._extraBytesPerVolume = EXTRA_BYTES_PER_VOLUME;
+        _capacityMgr._storagePoolDao = poolDao;
+        _capacityMgr._volumeDao = volumeDao;
+        _capacityMgr._templatePoolDao = templatePoolDao;
+        _capacityMgr._capacityDao = FakeComponents.create(CapacityDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("findByHostIdType")) {
+                    return _capacities.get(args[0] + "/" + args[1]);
+                } else if (method.getName().equals("lockRow")) {
+                    for (CapacityVO capacity : _capacities.values()) {
+                        if (capacity.getId() == (Long) args[0]) {
+                            return capacity;
+                        }
+                    }
+                    return null;
+                } else if (method.getName().equals("update")) {
+                    // the row is the locked entity itself
+                    return true;
+                }
+                assertEquals("updateAllocated", method.getName());
+                CapacityVO capacity = _capacities.get(args[0] + "/" + args[2]);
+                if (capacity != null) {
+                    long amount = (Long) args[1];
+                    capacity.setUsedCapacity(capacity.getUsedCapacity() + ((Boolean) args[3] ? amount : -amount));
+                }
+                return null;
+            }
+        });
+        _capacityMgr._storageMgr = FakeComponents.create(StorageManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("createCapacityEntry", method.getName());
+                StoragePoolVO pool = (StoragePoolVO) args[0];
+                if (!_capacities.containsKey(pool.getId() + "/" + args[1])) {
+                    addCapacity(pool, (Short) args[1], (Long) args[2]);
+                }
+                return null;
+            }
+        });
+
+        // the managers' constructors are protected, ComponentLocator normally creates them
+        _storageMgr = new StorageManagerImpl() {
+        };
+        FakeComponents.inject(_storageMgr, "_volsDao", volumeDao);
+        FakeComponents.inject(_storageMgr, "_storagePoolDao", poolDao);
+        FakeComponents.inject(_storageMgr, "_capacityMgr", _capacityMgr);
+        FakeComponents.inject(_storageMgr, "_volStateMachine", Volume.State.getStateMachine());
+
+        _templateMgr = new TemplateManagerImpl() {
+        };
+        FakeComponents.inject(_templateMgr, "_poolDao", poolDao);
+        FakeComponents.inject(_templateMgr, "_tmpltPoolDao", templatePoolDao);
+        FakeComponents.inject(_templateMgr, "_capacityMgr", _capacityMgr);
+        FakeComponents.inject(_templateMgr, "_tmpltDao", FakeComponents.create(VMTemplateDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertTrue(method.getName(), method.getName().startsWith("findById"));
+                return _templates.get(args[0]);
+            }
+        }));
+        FakeComponents.inject(_templateMgr, "_storageMgr", FakeComponents.create(StorageManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("findVmTemplateHost", method.getName());
+                VMTemplateHostVO templateHost = new VMTemplateHostVO(HOST_ID, (Long) args[0]);
+                templateHost.setDownloadState(Status.DOWNLOADED);
+                templateHost.setInstallPath("template/tmpl/2/" + args[0]);
+                return templateHost;
+            }
+        }));
+        final HostVO secondaryStorage = new HostVO("secondary");
+        secondaryStorage.setStorageUrl("nfs://10.1.1.100/export/secondary");
+        FakeComponents.inject(_templateMgr, "_hostDao", FakeComponents.create(HostDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("findById", method.getName());
+                return secondaryStorage;
+            }
+        }));
+        FakeComponents.inject(_templateMgr, "_poolHostDao", FakeComponents.create(StoragePoolHostDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertTrue(method.getName(), method.getName().equals("listByHostStatus") || method.getName().equals("listByPoolId"));
+                List<StoragePoolHostVO> poolHosts = new ArrayList<StoragePoolHostVO>();
+                poolHosts.add(new StoragePoolHostVO((Long) args[0], HOST_ID, "/mnt/" + args[0]));
+                return poolHosts;
+            }
+        }));
+        FakeComponents.inject(_templateMgr, "_hvGuruMgr", FakeComponents.create(HypervisorGuruManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return args[0];
+            }
+        }));
+        FakeComponents.inject(_templateMgr, "_agentMgr", FakeComponents.create(AgentManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("easySend", method.getName());
+                if (args[1] instanceof PrimaryStorageDownloadCommand) {
+                    return new PrimaryStorageDownloadAnswer("/mnt/" + _nextId++, randomSize());
+                }
+                return new Answer((Command) args[1]);
+            }
+        }));
+    }
+
+    @Override
+    protected void tearDown() {
+        _txn.close();
+    }
+
+    @Test
+    public void testCountersMatchAggregate() throws Exception {
+        for (int i = 0; i < 20000; i++) {
+            int op = _random.nextInt(10);
+            if (op < 3 || _volumes.isEmpty()) {
+                createVolume();
+            } else if (op < 8) {
+                changeVolume(randomVolume());
+            } else if (op < 9) {
+                VolumeVO volume = randomVolume();
+                _volumes.remove(volume.getId());
+                _storageMgr.expungeVolume(volume, false);
+            } else {
+                changeTemplate(_pools.get(randomPool()), _templates.get((long) _random.nextInt(TEMPLATE_COUNT) + 1));
+            }
+        }
+
+        assertTrue(_volumeRows.size() > 1000);
+        assertFalse(_templatePools.isEmpty());
+        assertCountersMatchAggregate();
+    }
+
+    @Test
+    public void testLostTemplateInsertRaceKeepsCounter() {
+        StoragePoolVO pool = _pools.get(1L);
+        _racingTemplatePool = new VMTemplateStoragePoolVO(pool.getId(), 1L);
+
+        VMTemplateStoragePoolVO templatePool = _templateMgr.prepareTemplateForCreate(_templates.get(1L), pool);
+        assertSame(_racingTemplatePool, templatePool);
+        assertEquals(1, _templatePools.size());
+        assertTrue(templatePool.getTemplateSize() > 0);
+        assertFalse("the failed insert left a transaction open", Transaction.currentTxn().dbTxnStarted());
+        assertCountersMatchAggregate();
+    }
+
+    @Test
+    public void testMissingCounterFallsBackToAggregate() throws Exception {
+        StoragePoolVO pool = _pools.get(1L);
+        _capacities.remove(1L + "/" + Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED);
+        VolumeVO volume = createVolume();
+        volume.setPoolId(pool.getId());
+        volume.setSize(1000L);
+        _storageMgr.stateTransitTo(volume, Volume.Event.CreateRequested);
+
+        assertEquals(1000L + EXTRA_BYTES_PER_VOLUME, _capacityMgr.getAllocatedPoolCapacityCounter(pool));
+    }
+
+    @Test
+    public void testReconcileResetsDriftedCounters() throws Exception {
+        VolumeVO volume = createVolume();
+        StoragePoolVO allocated = _pools.get(volume.getPoolId());
+        StoragePoolVO empty = _pools.get(allocated.getId() % POOL_COUNT + 1);
+        StoragePoolVO missing = _pools.get(empty.getId() % POOL_COUNT + 1);
+        getCounter(allocated).setUsedCapacity(-EXTRA_BYTES_PER_VOLUME);
+        getCounter(empty).setUsedCapacity(1L << 30);
+        _capacities.remove(missing.getId() + "/" + _capacityMgr.getAllocatedCapacityType(missing));
+
+        for (StoragePoolVO pool : _pools.values()) {
+            _capacityMgr.reconcileAllocatedPoolCapacity(pool);
+        }
+        assertEquals(0, getCounter(empty).getUsedCapacity());
+        assertNotNull(getCounter(missing));
+        assertCountersMatchAggregate();
+    }
+
+    private void assertCountersMatchAggregate() {
+        for (StoragePoolVO pool : _pools.values()) {
+            assertEquals("pool " + pool.getId(), _capacityMgr.getAllocatedPoolCapacity(pool, null), _capacityMgr.getAllocatedPoolCapacityCounter(pool));
+        }
+    }
+
+    private CapacityVO getCounter(StoragePoolVO pool) {
+        return _capacities.get(pool.getId() + "/" + _capacityMgr.getAllocatedCapacityType(pool));
+    }
+
+    private void addCapacity(StoragePoolVO pool, short capacityType, long allocated) {
+        CapacityVO capacity = new CapacityVO(pool.getId(), 1L, 1L, 1L, allocated, pool.getCapacityBytes(), capacityType);
+        FakeComponents.inject(capacity, "id", _nextId++);
+        _capacities.put(pool.getId() + "/" + capacityType, capacity);
+    }
+
+    private VolumeVO createVolume() throws Exception {
+        VolumeVO volume = new VolumeVO(Volume.Type.DATADISK, "volume", 1, 1, 2, 1, 0);
+        volume.setPodId(1L);
+        FakeComponents.inject(volume, "id", _nextId++);
+        _volumeRows.put(volume.getId(), copy(volume));
+        _volumes.put(volume.getId(), volume);
+        changeVolume(volume);
+        return volume;
+    }
+
+    private void changeVolume(VolumeVO volume) throws Exception {
+        switch (volume.getState()) {
+        case Allocated:
+            volume.setPoolId(randomPool());
+            volume.setSize(randomSize());
+            _storageMgr.stateTransitTo(volume, Volume.Event.CreateRequested);
+            break;
+        case Creating:
+            if (_random.nextBoolean()) {
+                // the size the primary storage reports back may differ from the requested one
+                volume.setSize(randomSize());
+                _storageMgr.stateTransitTo(volume, Volume.Event.OperationSucceeded);
+            } else {
+                volume.setPoolId(null);
+                _storageMgr.stateTransitTo(volume, Volume.Event.OperationFailed);
+            }
+            break;
+        case Ready:
+            _storageMgr.stateTransitTo(volume, Volume.Event.MigrationRequested);
+            volume.setPoolId(randomPool());
+            _storageMgr.stateTransitTo(volume, Volume.Event.OperationSucceeded);
+            break;
+        default:
+            fail("unexpected state " + volume.getState());
+        }
+    }
+
+    private void changeTemplate(StoragePoolVO pool, VMTemplateVO template) {
+        VMTemplateStoragePoolVO existing = findTemplatePool(pool.getId(), template.getId());
+        if (existing == null) {
+            assertNotNull(_templateMgr.prepareTemplateForCreate(template, pool));
+        } else {
+            _templateMgr.evictTemplateFromStoragePool(existing);
+        }
+    }
+
+    private VMTemplateStoragePoolVO findTemplatePool(long poolId, long templateId) {
+        for (VMTemplateStoragePoolVO ref : _templatePools) {
+            if (ref.getPoolId() == poolId && ref.getTemplateId() == templateId) {
+                return ref;
+            }
+        }
+        return null;
+    }
+
+    private VolumeDao createVolumeDao() {
+        return FakeComponents.create(VolumeDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("findById") || name.equals("lockRow")) {
+                    VolumeVO row = _volumeRows.get(args[0]);
+                    return row == null ? null : copy(row);
+                }
+                if (name.equals("updateState")) {
+                    VolumeVO volume = (VolumeVO) args[3];
+                    VolumeVO row = _volumeRows.get(volume.getId());
+                    assertEquals(row.getState(), args[0]);
+                    FakeComponents.inject(volume, "state", args[2]);
+                    _volumeRows.put(volume.getId(), copy(volume));
+                    return true;
+                }
+                if (name.equals("remove")) {
+                    return _volumeRows.remove(args[0]) != null;
+                }
+                assertEquals("getCountAndTotalByPool", name);
+                long count = 0;
+                long total = 0;
+                for (VolumeVO row : _volumeRows.values()) {
+                    if (args[0].equals(row.getPoolId())) {
+                        count++;
+                        total += row.getSize();
+                    }
+                }
+                return new Pair<Long, Long>(count, total);
+            }
+        });
+    }
+
+    private VMTemplatePoolDao createTemplatePoolDao() {
+        return FakeComponents.create(VMTemplatePoolDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("findByPoolTemplate")) {
+                    return findTemplatePool((Long) args[0], (Long) args[1]);
+                }
+                if (name.equals("persist")) {
+                    if (_racingTemplatePool != null) {
+                        // the winner counts its own insert, the loser must not count it again
+                        FakeComponents.inject(_racingTemplatePool, "id", _nextId++);
+                        _templatePools.add(_racingTemplatePool);
+                        _capacityMgr.updateAllocatedPoolCapacity(null, 0, _racingTemplatePool.getPoolId(), _racingTemplatePool.getTemplateSize());
+                        throw new EntityExistsException("Entity already exists");
+                    }
+                    VMTemplateStoragePoolVO ref = (VMTemplateStoragePoolVO) args[0];
+                    FakeComponents.inject(ref, "id", _nextId++);
+                    _templatePools.add(ref);
+                    return ref;
+                }
+                if (name.equals("acquireInLockTable")) {
+                    for (VMTemplateStoragePoolVO ref : _templatePools) {
+                        if (ref.getId() == (Long) args[0]) {
+                            return ref;
+                        }
+                    }
+                    return null;
+                }
+                if (name.equals("update") || name.equals("releaseFromLockTable")) {
+                    return true;
+                }
+                if (name.equals("remove")) {
+                    for (VMTemplateStoragePoolVO ref : _templatePools) {
+                        if (ref.getId() == (Long) args[0]) {
+                            return _templatePools.remove(ref);
+                        }
+                    }
+                    return false;
+                }
+                assertEquals("listByPoolId", name);
+                List<VMTemplateStoragePoolVO> refs = new ArrayList<VMTemplateStoragePoolVO>();
+                for (VMTemplateStoragePoolVO ref : _templatePools) {
+                    if (ref.getPoolId() == (Long) args[0]) {
+                        refs.add(ref);
+                    }
+                }
+                return Collections.unmodifiableList(refs);
+            }
+        });
+    }
+
+    private static VolumeVO copy(VolumeVO volume) {
+        VolumeVO copy = new VolumeVO(volume);
+        FakeComponents.inject(copy, "id", volume.getId());
+        return copy;
+    }
+
+    private long randomPool() {
+        return _random.nextInt(POOL_COUNT) + 1;
+    }
+
+    private long randomSize() {
+        return (_random.nextInt(200) + 1) * (1L << 27);
+    }
+
+    private VolumeVO randomVolume() {
+        VolumeVO[] volumes = _volumes.values().toArray(new VolumeVO[_volumes.size()]);
+        return volumes[_random.nextInt(volumes.length)];
+    }
+}
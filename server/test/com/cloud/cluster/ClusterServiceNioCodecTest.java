@@ -0,0 +1,90 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.cluster;
+
+import java.rmi.RemoteException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class ClusterServiceNioCodecTest extends TestCase {
+
+    @Test
+    public void testPduRoundTrip() throws Exception {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setPduType(ClusterServicePdu.PDU_TYPE_REQUEST);
+        pdu.setSourcePeer("1234");
+        pdu.setDestPeer("5678");
+        pdu.setAgentId(42);
+        pdu.setAckSequenceId(7);
+        pdu.setStopOnError(true);
+
+        // larger than what DataOutputStream.writeUTF() can carry
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 100000) {
+            sb.append("{\"com.cloud.agent.api.CheckHealthCommand\":{\"wait\":50}},");
+        }
+        pdu.setJsonPackage(sb.toString());
+
+        ClusterServiceNioCodec.Frame frame = ClusterServiceNioCodec.decode(ClusterServiceNioCodec.encodePdu(99, pdu));
+        assertEquals(ClusterServiceNioCodec.FRAME_TYPE_PDU, frame.getType());
+        assertEquals(99, frame.getRequestId());
+
+        ClusterServicePdu decoded = frame.getPdu();
+        assertEquals(pdu.getPduType(), decoded.getPduType());
+        assertEquals(pdu.getSequenceId(), decoded.getSequenceId());
+        assertEquals(pdu.getAckSequenceId(), decoded.getAckSequenceId());
+        assertEquals(pdu.getAgentId(), decoded.getAgentId());
+        assertEquals(pdu.isStopOnError(), decoded.isStopOnError());
+        assertEquals(pdu.getSourcePeer(), decoded.getSourcePeer());
+        assertEquals(pdu.getDestPeer(), decoded.getDestPeer());
+        assertEquals(pdu.getJsonPackage(), decoded.getJsonPackage());
+    }
+
+    @Test
+    public void testAckAndPingRoundTrip() throws Exception {
+        ClusterServiceNioCodec.Frame ack = ClusterServiceNioCodec.decode(ClusterServiceNioCodec.encodeAck(5, true));
+        assertEquals(ClusterServiceNioCodec.FRAME_TYPE_ACK, ack.getType());
+        assertEquals(5, ack.getRequestId());
+        assertTrue(ack.getResult());
+
+        ClusterServiceNioCodec.Frame ping = ClusterServiceNioCodec.decode(ClusterServiceNioCodec.encodePing(6, "1234"));
+        assertEquals(ClusterServiceNioCodec.FRAME_TYPE_PING, ping.getType());
+        assertEquals("1234", ping.getCallingPeer());
+    }
+
+    @Test
+    public void testFallbackWhenPeerIsNotListening() throws Exception {
+        final ClusterServicePdu[] delivered = new ClusterServicePdu[1];
+        ClusterService fallback = new ClusterService() {
+            @Override
+            public String execute(ClusterServicePdu pdu) throws RemoteException {
+                delivered[0] = pdu;
+                return "true";
+            }
+
+            @Override
+            public boolean ping(String callingPeer) throws RemoteException {
+                return true;
+            }
+        };
+
+        // nothing listens on port 1 of the loopback interface
+        ClusterServiceNioImpl service = new ClusterServiceNioImpl("5678", "127.0.0.1", 1, 1, fallback);
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setJsonPackage("[]");
+        assertEquals("true", service.execute(pdu));
+        assertSame(pdu, delivered[0]);
+    }
+}
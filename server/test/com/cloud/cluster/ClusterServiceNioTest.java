@@ -0,0 +1,150 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.cluster;
+
+import java.net.ServerSocket;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.cluster.CheckPointManagerTest.MockClusterManager;
+
+public class ClusterServiceNioTest extends TestCase {
+
+    @Override
+    @Before
+    public void setUp() {
+        // Link's SSL handling predates TLSv1.3 post-handshake messages, newer JDKs negotiate it by default
+        System.setProperty("jdk.tls.client.protocols", "TLSv1.2");
+    }
+
+    @Test
+    public void testPdusGoThroughNioOnceConnected() throws Exception {
+        int port = getFreePort();
+        RecordingClusterManager manager = new RecordingClusterManager();
+        ClusterServiceNioServer server = new ClusterServiceNioServer(manager, port);
+        server.start();
+
+        CountingService fallback = new CountingService();
+        ClusterServiceNioImpl service = new ClusterServiceNioImpl("2", "127.0.0.1", port, 30, fallback);
+        try {
+            // the first request kicks off the connect in background and goes through the servlet transport
+            assertEquals("true", service.execute(createPdu(1)));
+            assertEquals(1, fallback.getCount());
+
+            waitForConnected(service);
+
+            for (int i = 2; i <= 10; i++) {
+                assertEquals("true", service.execute(createPdu(i)));
+            }
+            assertTrue(service.ping("1"));
+            assertEquals(1, fallback.getCount());
+
+            List<ClusterServicePdu> received = manager.getReceived();
+            assertEquals(9, received.size());
+            for (int i = 0; i < received.size(); i++) {
+                assertEquals("1", received.get(i).getSourcePeer());
+                assertEquals("2", received.get(i).getDestPeer());
+                assertEquals("{\"seq\":" + (i + 2) + "}", received.get(i).getJsonPackage());
+            }
+        } finally {
+            service.stop();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testUnreachablePeerFallsBackWithoutWaiting() throws Exception {
+        int port = getFreePort();
+
+        CountingService fallback = new CountingService();
+        ClusterServiceNioImpl service = new ClusterServiceNioImpl("2", "127.0.0.1", port, 30, fallback);
+        try {
+            long startTick = System.currentTimeMillis();
+            for (int i = 1; i <= 20; i++) {
+                assertEquals("true", service.execute(createPdu(i)));
+                Thread.sleep(50);
+            }
+            assertTrue(service.ping("1"));
+
+            assertTrue("senders must not wait for the nio connect", System.currentTimeMillis() - startTick < 5000);
+            assertEquals(21, fallback.getCount());
+            assertFalse(service.isConnected());
+        } finally {
+            service.stop();
+        }
+    }
+
+    private static void waitForConnected(ClusterServiceNioImpl service) throws InterruptedException {
+        for (int i = 0; i < 100 && !service.isConnected(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(service.isConnected());
+    }
+
+    private static int getFreePort() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static ClusterServicePdu createPdu(int seq) {
+        ClusterServicePdu pdu = new ClusterServicePdu();
+        pdu.setPduType(ClusterServicePdu.PDU_TYPE_REQUEST);
+        pdu.setSourcePeer("1");
+        pdu.setDestPeer("2");
+        pdu.setJsonPackage("{\"seq\":" + seq + "}");
+        return pdu;
+    }
+
+    public static class RecordingClusterManager extends MockClusterManager {
+        private final List<ClusterServicePdu> _received = new ArrayList<ClusterServicePdu>();
+
+        @Override
+        public synchronized void OnReceiveClusterServicePdu(ClusterServicePdu pdu) {
+            _received.add(pdu);
+        }
+
+        public synchronized List<ClusterServicePdu> getReceived() {
+            return new ArrayList<ClusterServicePdu>(_received);
+        }
+    }
+
+    private static class CountingService implements ClusterService {
+        private int _count;
+
+        @Override
+        public synchronized String execute(ClusterServicePdu pdu) throws RemoteException {
+            _count++;
+            return "true";
+        }
+
+        @Override
+        public synchronized boolean ping(String callingPeer) throws RemoteException {
+            _count++;
+            return true;
+        }
+
+        public synchronized int getCount() {
+            return _count;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.dc.dao;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Runs the free list against an in-memory allocation table that follows the semantics of the claim and
+ * conditional take statements used by DataCenterIpAddressDaoImpl and DataCenterVnetDaoImpl.
+ */
+public class ClaimedFreeListTest extends TestCase {
+    static final int ROWS = 2000;
+    static final int THREADS = 50;
+
+    static class MemoryStore implements ClaimedFreeList.ClaimStore<Long> {
+        final Map<Long, String> reservations = new HashMap<Long, String>();
+        final Map<Long, Object> taken = new HashMap<Long, Object>();
+        final AtomicInteger statements = new AtomicInteger();
+
+        MemoryStore(int rows) {
+            for (long id = 1; id <= rows; id++) {
+                reservations.put(id, null);
+            }
+        }
+
+        @Override
+        public synchronized List<Long> claim(long scopeId, String marker, long now, int count) {
+            statements.addAndGet(2);
+            List<Long> ids = new ArrayList<Long>();
+            for (Map.Entry<Long, String> row : reservations.entrySet()) {
+                if (ids.size() == count) {
+                    break;
+                }
+                String reservation = row.getValue();
+                if (taken.containsKey(row.getKey())) {
+                    continue;
+                }
+                if (reservation == null || (reservation.startsWith(ClaimedFreeList.MARKER_PREFIX) && ClaimedFreeList.getMarkerExpiry(reservation) < now)) {
+                    row.setValue(marker);
+                    ids.add(row.getKey());
+                }
+            }
+            return ids;
+        }
+
+        @Override
+        public synchronized void unclaim(List<Long> ids, String marker) {
+            statements.incrementAndGet();
+            for (Long id : ids) {
+                if (!taken.containsKey(id) && marker.equals(reservations.get(id))) {
+                    reservations.put(id, null);
+                }
+            }
+        }
+
+        @Override
+        public synchronized Long take(long id, String marker, Object context) {
+            statements.incrementAndGet();
+            if (taken.containsKey(id) || !marker.equals(reservations.get(id))) {
+                return null;
+            }
+            taken.put(id, context);
+            reservations.put(id, (String)context);
+            return id;
+        }
+
+        synchronized int countClaimed() {
+            int count = 0;
+            for (Map.Entry<Long, String> row : reservations.entrySet()) {
+                if (!taken.containsKey(row.getKey()) && row.getValue() != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    static class TestFreeList extends ClaimedFreeList<Long> {
+        long now = 1000;
+
+        TestFreeList(MemoryStore store, long msid, int blockSize, long lease) {
+            super("Test", store, msid, blockSize, lease);
+        }
+
+        @Override
+        protected long now() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testConcurrentAllocators() throws Exception {
+        final MemoryStore store = new MemoryStore(ROWS);
+        // two management servers sharing the table
+        final TestFreeList[] lists = new TestFreeList[] { new TestFreeList(store, 1, 8, 300), new TestFreeList(store, 2, 8, 300) };
+        final Map<Long, String> allocated = new ConcurrentHashMap<Long, String>();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        ClaimedFreeList<Long> list = lists[thread % lists.length];
+                        for (int n = 0; ; n++) {
+                            String reservation = "thread-" + thread + "-" + n;
+                            Long id = list.take(1, reservation);
+                            if (id == null) {
+                                break;
+                            }
+                            if (allocated.put(id, reservation) != null) {
+                                duplicates.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = (System.nanoTime() - begin) / 1000000;
+
+        System.out.println(ROWS + " rows allocated by " + THREADS + " threads in " + elapsed + "ms with " + store.statements.get() + " statements");
+        assertEquals(0, duplicates.get());
+        assertEquals(ROWS, allocated.size());
+        for (Map.Entry<Long, String> entry : allocated.entrySet()) {
+            assertEquals(entry.getValue(), store.taken.get(entry.getKey()));
+        }
+        assertEquals(0, store.countClaimed());
+    }
+
+    @Test
+    public void testReleaseAndLeaseExpiry() {
+        MemoryStore store = new MemoryStore(20);
+        TestFreeList first = new TestFreeList(store, 1, 8, 300);
+        TestFreeList second = new TestFreeList(store, 2, 8, 300);
+
+        assertNotNull(first.take(1, "a"));
+        assertEquals(7, first.getFreeCount(1));
+        assertEquals(7, store.countClaimed());
+
+        // the first management server goes away without giving its claims back
+        second.now = first.now + 301;
+        int count = 0;
+        while (second.take(1, "b" + count) != null) {
+            count++;
+        }
+        assertEquals(19, count);
+
+        // what the first one still holds was reclaimed, it must not be handed out again
+        assertNull(first.take(1, "c"));
+        assertEquals(0, first.getFreeCount(1));
+
+        MemoryStore other = new MemoryStore(20);
+        TestFreeList third = new TestFreeList(other, 3, 8, 300);
+        assertNotNull(third.take(1, "d"));
+        assertEquals(7, other.countClaimed());
+        third.releaseAll();
+        assertEquals(0, other.countClaimed());
+        assertEquals(0, third.getFreeCount(1));
+    }
+}
@@ -0,0 +1,112 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.domain.dao;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.domain.DomainVO;
+
+public class DomainTreeTest extends TestCase {
+
+    /**
+     * Builds a random hierarchy below ROOT with the paths DomainDaoImpl.create() assigns.
+     */
+    public static List<DomainVO> createHierarchy(int size, long seed) {
+        Random random = new Random(seed);
+        List<DomainVO> domains = new ArrayList<DomainVO>(size);
+        DomainVO root = new DomainVO(DomainVO.ROOT_DOMAIN, "ROOT", 2, null, null);
+        root.setPath("/");
+        domains.add(root);
+        for (long id = DomainVO.ROOT_DOMAIN + 1; domains.size() < size; id++) {
+            // favour recent domains as parents so the hierarchy gets deep as well as wide
+            int bound = domains.size();
+            int index = random.nextBoolean() ? random.nextInt(bound) : bound - 1 - random.nextInt(Math.min(bound, 10));
+            DomainVO parent = domains.get(index);
+            DomainVO domain = new DomainVO(id, "d" + id, 2, parent.getId(), null);
+            domain.setPath(parent.getPath() + domain.getName() + "/");
+            domains.add(domain);
+        }
+        return domains;
+    }
+
+    @Test
+    public void testMatchesPaths() {
+        List<DomainVO> domains = createHierarchy(5000, 42);
+        DomainTree tree = new DomainTree(domains);
+        assertEquals(5000, tree.size());
+
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            DomainVO parent = domains.get(random.nextInt(domains.size()));
+            DomainVO child = domains.get(random.nextInt(domains.size()));
+            assertEquals(child.getPath().startsWith(parent.getPath()), tree.isAncestor(parent.getId(), child.getId()));
+        }
+
+        for (int i = 0; i < 200; i++) {
+            DomainVO parent = domains.get(random.nextInt(domains.size()));
+            Set<Long> expected = new HashSet<Long>();
+            for (DomainVO domain : domains) {
+                if (domain.getId() != parent.getId() && domain.getPath().startsWith(parent.getPath())) {
+                    expected.add(domain.getId());
+                }
+            }
+            List<Long> descendants = tree.getDescendantIds(parent.getId());
+            assertEquals(expected.size(), descendants.size());
+            assertEquals(expected, new HashSet<Long>(descendants));
+
+            List<Long> ancestors = tree.getAncestorIds(parent.getId());
+            assertEquals(parent.getId(), ancestors.get(0).longValue());
+            assertEquals(DomainVO.ROOT_DOMAIN, ancestors.get(ancestors.size() - 1).longValue());
+            assertEquals(parent.getPath().split("/").length, ancestors.size());
+        }
+
+        assertFalse(tree.contains(100000));
+        assertFalse(tree.isAncestor(DomainVO.ROOT_DOMAIN, 100000));
+        assertNull(tree.getDescendantIds(100000));
+        assertNull(tree.getAncestorIds(100000));
+    }
+
+    @Test
+    public void testDeepHierarchy() {
+        List<DomainVO> domains = new ArrayList<DomainVO>();
+        domains.add(new DomainVO(DomainVO.ROOT_DOMAIN, "ROOT", 2, null, null));
+        for (long id = DomainVO.ROOT_DOMAIN + 1; id <= 100000; id++) {
+            domains.add(new DomainVO(id, "d" + id, 2, id - 1, null));
+        }
+        DomainTree tree = new DomainTree(domains);
+        assertTrue(tree.isAncestor(DomainVO.ROOT_DOMAIN, 100000));
+        assertFalse(tree.isAncestor(100000, 99999));
+        assertEquals(99999, tree.getDescendantIds(DomainVO.ROOT_DOMAIN).size());
+        assertEquals(100000, tree.getAncestorIds(100000).size());
+    }
+
+    @Test
+    public void testMissingParent() {
+        List<DomainVO> domains = new ArrayList<DomainVO>();
+        domains.add(new DomainVO(DomainVO.ROOT_DOMAIN, "ROOT", 2, null, null));
+        domains.add(new DomainVO(2, "orphan", 2, 3L, null));
+        domains.add(new DomainVO(4, "child", 2, 2L, null));
+        DomainTree tree = new DomainTree(domains);
+        assertFalse(tree.isAncestor(DomainVO.ROOT_DOMAIN, 2));
+        assertTrue(tree.isAncestor(2, 4));
+        assertEquals(1, tree.getAncestorIds(2).size());
+    }
+}
@@ -0,0 +1,378 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.resourcelimit;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.configuration.Resource;
+import com.cloud.configuration.Resource.ResourceOwnerType;
+import com.cloud.configuration.Resource.ResourceType;
+import com.cloud.configuration.ResourceCountVO;
+import com.cloud.configuration.ResourceLimitVO;
+import com.cloud.configuration.dao.ConfigurationDao;
+import com.cloud.configuration.dao.ResourceCountDao;
+import com.cloud.configuration.dao.ResourceLimitDao;
+import com.cloud.domain.Domain;
+import com.cloud.domain.DomainVO;
+import com.cloud.domain.dao.DomainDao;
+import com.cloud.exception.ResourceAllocationException;
+import com.cloud.user.Account;
+import com.cloud.user.AccountManager;
+import com.cloud.user.AccountVO;
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.Filter;
+import com.cloud.utils.db.GenericDaoBase;
+import com.cloud.utils.db.SearchCriteria;
+import com.cloud.utils.db.Transaction;
+import com.cloud.utils.testcase.FakeComponents;
+
+/**
+ * Deploys for many accounts of the same domain in parallel against in-memory resource_count and resource_limit tables,
+ * and checks the counts of the accounts and of the shared parent domains, the order rows are locked and updated in,
+ * and that limit lookups do not grow with the number of deployments.
+ */
+public class ResourceLimitConcurrencyTest extends TestCase {
+    private static final int ACCOUNTS = 64;
+    private static final int DEPLOYS = 40;
+    private static final long DEFAULT_ACCOUNT_LIMIT = 50;
+    private static final long TTL = 60000;
+    // ROOT <- 2 <- 3 <- 4, all accounts are in domain 4
+    private static final long[] DOMAIN_PARENTS = { 0, 0, Domain.ROOT_DOMAIN, 2, 3 };
+    private static final long ACCOUNT_DOMAIN = 4;
+
+    private final Map<Long, DomainVO> _domains = new HashMap<Long, DomainVO>();
+    private final Map<Long, AccountVO> _accounts = new HashMap<Long, AccountVO>();
+    private final Map<Long, ResourceCountVO> _counts = new HashMap<Long, ResourceCountVO>();
+    private final Map<String, ResourceCountVO> _countsByOwner = new HashMap<String, ResourceCountVO>();
+    private final Map<String, ResourceLimitVO> _limits = new ConcurrentHashMap<String, ResourceLimitVO>();
+    private final List<String> _errors = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger _limitLookups = new AtomicInteger();
+    private final AtomicInteger _domainLookups = new AtomicInteger();
+    private final AtomicInteger _rowListings = new AtomicInteger();
+    private final AtomicInteger _updateCalls = new AtomicInteger();
+    private final AtomicInteger _rowUpdates = new AtomicInteger();
+    private ResourceLimitManagerImpl _limitMgr;
+    private Transaction _txn;
+
+    @Override
+    protected void setUp() throws Exception {
+        _txn = Transaction.open("ResourceLimitConcurrencyTest");
+
+        // row ids in random order, so that the shared domain rows are not always first or last
+        List<Long> rowIds = new ArrayList<Long>();
+        for (long i = 1; i <= (ACCOUNTS + DOMAIN_PARENTS.length) * ResourceType.values().length; i++) {
+            rowIds.add(i);
+        }
+        Collections.shuffle(rowIds, new Random(7));
+        int nextRow = 0;
+        for (long domainId = Domain.ROOT_DOMAIN; domainId < DOMAIN_PARENTS.length; domainId++) {
+            Long parentId = DOMAIN_PARENTS[(int) domainId] == 0 ? null : DOMAIN_PARENTS[(int) domainId];
+            _domains.put(domainId, new DomainVO(domainId, "domain-" + domainId, 2, parentId, null));
+            for (ResourceType type : ResourceType.values()) {
+                addCountRow(rowIds.get(nextRow++), type, domainId, ResourceOwnerType.Domain);
+            }
+        }
+        for (long accountId = 100; accountId < 100 + ACCOUNTS; accountId++) {
+            AccountVO account = new AccountVO("account-" + accountId, ACCOUNT_DOMAIN, null, Account.ACCOUNT_TYPE_NORMAL);
+            FakeComponents.inject(account, "id", accountId);
+            _accounts.put(accountId, account);
+            for (ResourceType type : ResourceType.values()) {
+                addCountRow(rowIds.get(nextRow++), type, accountId, ResourceOwnerType.Account);
+            }
+        }
+        // a limit on a shared domain that the parallel deployments stay under
+        addLimit(3, ResourceOwnerType.Domain, ResourceType.user_vm, ACCOUNTS * DEPLOYS);
+
+        _limitMgr = new ResourceLimitManagerImpl();
+        FakeComponents.inject(_limitMgr, "_configDao", FakeComponents.create(ConfigurationDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String key = (String) args[0];
+                return key.startsWith("max.account.") || key.startsWith("max.project.") ? String.valueOf(DEFAULT_ACCOUNT_LIMIT) : null;
+            }
+        }));
+        FakeComponents.inject(_limitMgr, "_accountMgr", FakeComponents.create(AccountManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("isAdmin")) {
+                    return (Short) args[0] != Account.ACCOUNT_TYPE_NORMAL;
+                }
+                return null;
+            }
+        }));
+        FakeComponents.inject(_limitMgr, "_domainDao", FakeComponents.create(DomainDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("findById", method.getName());
+                _domainLookups.incrementAndGet();
+                return _domains.get(args[0]);
+            }
+        }));
+        FakeComponents.inject(_limitMgr, "_resourceLimitDao", FakeComponents.create(ResourceLimitDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("findByOwnerIdAndType", method.getName());
+                _limitLookups.incrementAndGet();
+                return _limits.get(key((Long) args[0], (ResourceOwnerType) args[1], (ResourceType) args[2]));
+            }
+        }));
+
+        final GenericDaoBase<ResourceCountVO, Long> searchDao = new GenericDaoBase<ResourceCountVO, Long>() {
+        };
+        FakeComponents.inject(_limitMgr, "_resourceCountDao", FakeComponents.create(ResourceCountDao.class, new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("createSearchBuilder")) {
+                    return searchDao.createSearchBuilder();
+                } else if (name.equals("listAllRowsToUpdate")) {
+                    _rowListings.incrementAndGet();
+                    return listAllRowsToUpdate((Long) args[0], (ResourceType) args[2]);
+                } else if (name.equals("lockRows")) {
+                    Filter filter = (Filter) args[1];
+                    if (filter == null || !filter.getOrderBy().contains("resource_count.id ASC")) {
+                        _errors.add("rows locked without ordering by id: " + (filter == null ? null : filter.getOrderBy()));
+                    }
+                    List<Long> ids = new ArrayList<Long>();
+                    for (Pair<?, Object> value : ((SearchCriteria<ResourceCountVO>) args[0]).getValues()) {
+                        ids.add((Long) value.second());
+                    }
+                    Collections.sort(ids);
+                    List<ResourceCountVO> rows = new ArrayList<ResourceCountVO>();
+                    for (Long id : ids) {
+                        rows.add(_counts.get(id));
+                    }
+                    return rows;
+                } else if (name.equals("updateCounts")) {
+                    updateCounts((Map<Long, Long>) args[0]);
+                    return true;
+                } else if (name.equals("getResourceCount")) {
+                    return getCount((Long) args[0], (ResourceOwnerType) args[1], (ResourceType) args[2]);
+                }
+                fail("unexpected " + name);
+                return null;
+            }
+        }));
+        _limitMgr.configure("ResourceLimitManager", new HashMap<String, Object>());
+    }
+
+    @Override
+    protected void tearDown() {
+        _txn.close();
+    }
+
+    @Test
+    public void testParallelDeploymentsUnderSharedDomain() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final AccountVO account : _accounts.values()) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Transaction txn = Transaction.open("deploy-" + account.getId());
+                    try {
+                        start.await();
+                        for (int i = 0; i < DEPLOYS; i++) {
+                            deploy(account);
+                        }
+                    } catch (Exception e) {
+                        _errors.add(account.getAccountName() + ": " + e);
+                    } finally {
+                        txn.close();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(_errors.toString(), 0, _errors.size());
+
+        for (AccountVO account : _accounts.values()) {
+            assertEquals(DEPLOYS, getCount(account.getId(), ResourceOwnerType.Account, ResourceType.user_vm));
+            assertEquals(DEPLOYS, getCount(account.getId(), ResourceOwnerType.Account, ResourceType.volume));
+        }
+        for (long domainId = Domain.ROOT_DOMAIN; domainId <= ACCOUNT_DOMAIN; domainId++) {
+            assertEquals(ACCOUNTS * DEPLOYS, getCount(domainId, ResourceOwnerType.Domain, ResourceType.user_vm));
+            assertEquals(ACCOUNTS * DEPLOYS, getCount(domainId, ResourceOwnerType.Domain, ResourceType.volume));
+        }
+
+        // one UPDATE per row, the account's and each ancestor's, for every increment, as each one is its own transaction here
+        int increments = ACCOUNTS * DEPLOYS * 2;
+        assertEquals(increments, _updateCalls.get());
+        assertEquals(increments * (1 + ACCOUNT_DOMAIN), _rowUpdates.get());
+
+        // lookups depend on the number of accounts, domains and types, not on the number of deployments
+        assertEquals(ACCOUNTS * 2, _rowListings.get());
+        assertTrue("limit lookups " + _limitLookups.get(), _limitLookups.get() <= (ACCOUNTS + DOMAIN_PARENTS.length) * 2);
+        assertTrue("domain lookups " + _domainLookups.get(), _domainLookups.get() <= DOMAIN_PARENTS.length * ACCOUNTS);
+    }
+
+    @Test
+    public void testLimitsAreEnforcedAndExpireFromCache() throws Exception {
+        final long[] now = { 0 };
+        _limitMgr._limitCache = new ResourceLimitCache(TTL, 1000) {
+            @Override
+            protected long now() {
+                return now[0];
+            }
+        };
+        AccountVO account = _accounts.get(100L);
+        for (int i = 0; i < DEFAULT_ACCOUNT_LIMIT; i++) {
+            deploy(account);
+        }
+        assertAllocationFails(account, ResourceType.user_vm);
+
+        // a limit changed on another management server applies once the cached one expires
+        addLimit(account.getId(), ResourceOwnerType.Account, ResourceType.user_vm, DEFAULT_ACCOUNT_LIMIT + 1);
+        assertAllocationFails(account, ResourceType.user_vm);
+        now[0] += TTL;
+        _limitMgr.checkResourceLimit(account, ResourceType.user_vm);
+        _limitMgr.incrementResourceCount(account.getId(), ResourceType.user_vm);
+        assertEquals(DEFAULT_ACCOUNT_LIMIT + 1, getCount(account.getId(), ResourceOwnerType.Account, ResourceType.user_vm));
+
+        // limits of the parent domains apply to every account below them
+        addLimit(2, ResourceOwnerType.Domain, ResourceType.volume, DEFAULT_ACCOUNT_LIMIT + 1);
+        now[0] += TTL;
+        AccountVO other = _accounts.get(101L);
+        deploy(other);
+        assertAllocationFails(other, ResourceType.volume);
+        assertEquals(DEFAULT_ACCOUNT_LIMIT + 1, _limitMgr.findCorrectResourceLimitForDomain(_domains.get(ACCOUNT_DOMAIN), ResourceType.volume));
+        assertEquals(DEFAULT_ACCOUNT_LIMIT + 1, getCount(2, ResourceOwnerType.Domain, ResourceType.volume));
+
+        // the limit on domain 3 is closer to the accounts than the one on domain 2
+        addLimit(2, ResourceOwnerType.Domain, ResourceType.user_vm, ACCOUNTS * DEPLOYS * 2);
+        now[0] += TTL;
+        assertEquals(ACCOUNTS * DEPLOYS, _limitMgr.findCorrectResourceLimitForDomain(_domains.get(ACCOUNT_DOMAIN), ResourceType.user_vm));
+        assertEquals(Resource.RESOURCE_UNLIMITED, _limitMgr.findCorrectResourceLimitForDomain(_domains.get(ACCOUNT_DOMAIN), ResourceType.snapshot));
+    }
+
+    @Test
+    public void testCountsOfOneTransactionAreWrittenOnceBeforeItCommits() throws Exception {
+        AccountVO account = _accounts.get(100L);
+        Transaction txn = Transaction.currentTxn();
+        txn.start();
+        for (int i = 0; i < DEFAULT_ACCOUNT_LIMIT; i++) {
+            _limitMgr.checkResourceLimit(account, ResourceType.volume);
+            _limitMgr.incrementResourceCount(account.getId(), ResourceType.volume);
+        }
+        _limitMgr.incrementResourceCount(account.getId(), ResourceType.user_vm);
+        _limitMgr.decrementResourceCount(account.getId(), ResourceType.user_vm);
+        // the check sees the counts the transaction hasn't written yet
+        assertAllocationFails(account, ResourceType.volume);
+        assertEquals(0, _updateCalls.get());
+        assertEquals(0, getCount(account.getId(), ResourceOwnerType.Account, ResourceType.volume));
+
+        // one UPDATE per volume row, none for the user_vm rows whose changes cancel out
+        txn.commit();
+        assertEquals(1, _updateCalls.get());
+        assertEquals(1 + ACCOUNT_DOMAIN, _rowUpdates.get());
+        assertEquals(DEFAULT_ACCOUNT_LIMIT, getCount(account.getId(), ResourceOwnerType.Account, ResourceType.volume));
+        assertEquals(DEFAULT_ACCOUNT_LIMIT, getCount(ACCOUNT_DOMAIN, ResourceOwnerType.Domain, ResourceType.volume));
+        assertEquals(0, getCount(account.getId(), ResourceOwnerType.Account, ResourceType.user_vm));
+        assertEquals(0, _errors.size());
+
+        // changes of a transaction that rolls back are never written
+        txn.start();
+        _limitMgr.decrementResourceCount(account.getId(), ResourceType.volume);
+        txn.rollback();
+        txn.start();
+        txn.commit();
+        assertEquals(1, _updateCalls.get());
+        assertEquals(DEFAULT_ACCOUNT_LIMIT, getCount(account.getId(), ResourceOwnerType.Account, ResourceType.volume));
+    }
+
+    private void assertAllocationFails(Account account, ResourceType type) {
+        try {
+            _limitMgr.checkResourceLimit(account, type);
+            fail("limit of " + type + " exceeded");
+        } catch (ResourceAllocationException e) {
+        }
+    }
+
+    private void deploy(Account account) throws ResourceAllocationException {
+        _limitMgr.checkResourceLimit(account, ResourceType.user_vm);
+        _limitMgr.incrementResourceCount(account.getId(), ResourceType.user_vm);
+        _limitMgr.checkResourceLimit(account, ResourceType.volume);
+        _limitMgr.incrementResourceCount(account.getId(), ResourceType.volume);
+    }
+
+    private Set<Long> listAllRowsToUpdate(long accountId, ResourceType type) {
+        Set<Long> rowIds = new HashSet<Long>();
+        rowIds.add(_countsByOwner.get(key(accountId, ResourceOwnerType.Account, type)).getId());
+        Long domainId = _accounts.get(accountId).getDomainId();
+        while (domainId != null) {
+            rowIds.add(_countsByOwner.get(key(domainId, ResourceOwnerType.Domain, type)).getId());
+            domainId = _domains.get(domainId).getParent();
+        }
+        return rowIds;
+    }
+
+    private void updateCounts(Map<Long, Long> deltas) {
+        _updateCalls.incrementAndGet();
+        long lastId = 0;
+        for (Map.Entry<Long, Long> delta : deltas.entrySet()) {
+            if (delta.getKey() <= lastId) {
+                _errors.add("rows updated out of order: " + deltas.keySet());
+            }
+            lastId = delta.getKey();
+            ResourceCountVO row = _counts.get(delta.getKey());
+            synchronized (row) {
+                row.setCount(row.getCount() + delta.getValue());
+            }
+            _rowUpdates.incrementAndGet();
+        }
+    }
+
+    private long getCount(long ownerId, ResourceOwnerType ownerType, ResourceType type) {
+        ResourceCountVO row = _countsByOwner.get(key(ownerId, ownerType, type));
+        synchronized (row) {
+            return row.getCount();
+        }
+    }
+
+    private void addCountRow(long id, ResourceType type, long ownerId, ResourceOwnerType ownerType) {
+        ResourceCountVO row = new ResourceCountVO(type, 0, ownerId, ownerType);
+        row.setId(id);
+        _counts.put(id, row);
+        _countsByOwner.put(key(ownerId, ownerType, type), row);
+    }
+
+    private void addLimit(long ownerId, ResourceOwnerType ownerType, ResourceType type, long max) {
+        _limits.put(key(ownerId, ownerType, type), new ResourceLimitVO(type, max, ownerId, ownerType));
+    }
+
+    private static String key(long ownerId, ResourceOwnerType ownerType, ResourceType type) {
+        return ownerType + "/" + ownerId + "/" + type;
+    }
+}
@@ -0,0 +1,325 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.storage.download;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.agent.AgentManager;
+import com.cloud.agent.api.storage.DeleteTemplateCommand;
+import com.cloud.agent.api.storage.ListTemplateAnswer;
+import com.cloud.dc.dao.ClusterDao;
+import com.cloud.host.Host;
+import com.cloud.host.HostVO;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.storage.Storage.ImageFormat;
+import com.cloud.storage.Storage.TemplateType;
+import com.cloud.storage.VMTemplateHostVO;
+import com.cloud.storage.VMTemplateStorageResourceAssoc.Status;
+import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.VMTemplateZoneVO;
+import com.cloud.storage.dao.VMTemplateDao;
+import com.cloud.storage.dao.VMTemplateHostDao;
+import com.cloud.storage.dao.VMTemplateZoneDao;
+import com.cloud.storage.swift.SwiftManager;
+import com.cloud.storage.template.TemplateInfo;
+import com.cloud.utils.db.Transaction;
+import com.cloud.utils.testcase.FakeComponents;
+
+/**
+ * Runs a template sync of a secondary storage host against in-memory tables.  Templates cycle through the cases the
+ * sync distinguishes (on storage or not, with or without a template host ref, corrupted, private, hypervisor not in
+ * the zone) and the test checks the resulting refs, downloads and deletes, and that the number of reads does not
+ * grow with the number of templates, counting calls at the DAO boundary.
+ */
+public class TemplateSyncTest extends TestCase {
+    private static final long HOST_ID = 7;
+    private static final long ZONE_ID = 3;
+
+    private final Map<String, Integer> _calls = new HashMap<String, Integer>();
+    private final Map<Long, VMTemplateHostVO> _tmpltHosts = new HashMap<Long, VMTemplateHostVO>();
+    private final Map<Long, VMTemplateZoneVO> _tmpltZones = new HashMap<Long, VMTemplateZoneVO>();
+    private final List<VMTemplateVO> _templates = new ArrayList<VMTemplateVO>();
+    private final Map<String, TemplateInfo> _templateInfos = new HashMap<String, TemplateInfo>();
+    private final List<Long> _downloads = new ArrayList<Long>();
+    private final List<String> _deletes = new ArrayList<String>();
+    private long _nextId = 1000000;
+    private Transaction _txn;
+
+    @Override
+    protected void setUp() {
+        _txn = Transaction.open("TemplateSyncTest");
+    }
+
+    @Override
+    protected void tearDown() {
+        _txn.close();
+    }
+
+    @Test
+    public void testSyncOutcome() throws Exception {
+        int count = 10000;
+        createFixture(count);
+        createMonitor().handleTemplateSync(createHost());
+
+        int downloads = 0;
+        for (int i = 0; i < count; i++) {
+            long templateId = i + 1;
+            VMTemplateHostVO tmpltHost = _tmpltHosts.get(templateId);
+            assertNotNull("template " + templateId, tmpltHost);
+            boolean vmware = i % 7 == 0;
+            switch (i % 6) {
+            case 0:
+                assertEquals(Status.DOWNLOADED, tmpltHost.getDownloadState());
+                assertEquals(100, tmpltHost.getDownloadPercent());
+                assertEquals("path/" + templateId, tmpltHost.getInstallPath());
+                assertEquals(templateId * 10, tmpltHost.getSize());
+                assertFalse(_downloads.contains(templateId));
+                break;
+            case 1:
+                assertEquals(Status.DOWNLOAD_ERROR, tmpltHost.getDownloadState());
+                assertTrue(tmpltHost.getErrorString().contains("is corrupted"));
+                assertEquals(!vmware, _downloads.contains(templateId));
+                downloads += vmware ? 0 : 1;
+                break;
+            case 2:
+                assertEquals(Status.DOWNLOADED, tmpltHost.getDownloadState());
+                assertEquals("path/" + templateId, tmpltHost.getInstallPath());
+                assertEquals(templateId * 10 + 1, tmpltHost.getPhysicalSize());
+                assertNotNull(_tmpltZones.get(templateId));
+                assertFalse(_downloads.contains(templateId));
+                break;
+            case 3:
+                assertEquals(Status.NOT_DOWNLOADED, tmpltHost.getDownloadState());
+                assertEquals("jobid", tmpltHost.getJobId());
+                assertEquals(!vmware, _downloads.contains(templateId));
+                downloads += vmware ? 0 : 1;
+                break;
+            default:
+                // 4 is public, 5 private, both get a NOT_DOWNLOADED ref and then a download
+                assertEquals(Status.NOT_DOWNLOADED, tmpltHost.getDownloadState());
+                assertEquals(0, tmpltHost.getDownloadPercent());
+                assertNotNull(_tmpltZones.get(templateId));
+                assertEquals(!vmware, _downloads.contains(templateId));
+                downloads += vmware ? 0 : 1;
+            }
+        }
+        // the system vm template duplicates template 4 and must not be synced twice
+        assertEquals(downloads + 1, _downloads.size());
+        assertTrue(_downloads.contains(count + 1L));
+        assertEquals(count + 1, _tmpltHosts.size());
+        assertEquals(50, _deletes.size());
+        for (String path : _deletes) {
+            assertTrue(path, path.startsWith("stale/"));
+        }
+    }
+
+    @Test
+    public void testReadsDoNotGrowWithTemplates() throws Exception {
+        Map<String, Integer> reads = null;
+        for (int count : new int[] { 100, 10000 }) {
+            tearDown();
+            clear();
+            setUp();
+            createFixture(count);
+            createMonitor().handleTemplateSync(createHost());
+
+            Map<String, Integer> countReads = new HashMap<String, Integer>();
+            int writes = 0;
+            for (Map.Entry<String, Integer> call : _calls.entrySet()) {
+                if (call.getKey().endsWith(".persist") || call.getKey().endsWith(".update")) {
+                    writes += call.getValue();
+                } else {
+                    countReads.put(call.getKey(), call.getValue());
+                }
+            }
+            System.out.println(count + " templates: reads " + countReads + ", " + writes + " writes");
+            for (Integer calls : countReads.values()) {
+                assertEquals(countReads.toString(), Integer.valueOf(1), calls);
+            }
+            if (reads != null) {
+                assertEquals(reads, countReads);
+            }
+            reads = countReads;
+            // one write per template host ref, plus the zone refs of new template host refs
+            assertTrue(writes <= count * 3 / 2 + 1);
+        }
+    }
+
+    private void clear() {
+        _calls.clear();
+        _tmpltHosts.clear();
+        _tmpltZones.clear();
+        _templates.clear();
+        _templateInfos.clear();
+        _downloads.clear();
+        _deletes.clear();
+    }
+
+    private void createFixture(int count) {
+        for (int i = 0; i < count; i++) {
+            long templateId = i + 1;
+            boolean isPublic = i % 6 != 5;
+            HypervisorType hyperType = i % 7 == 0 ? HypervisorType.VMware : HypervisorType.XenServer;
+            VMTemplateVO template = new VMTemplateVO(templateId, "tmpl-" + templateId, ImageFormat.VHD, isPublic, false, true, TemplateType.USER,
+                    "http://templates/" + templateId, false, 64, 2, null, "template " + templateId, false, 1, true, hyperType, null);
+            _templates.add(template);
+
+            switch (i % 6) {
+            case 0:
+                putTmpltHost(templateId, Status.DOWNLOADED, null);
+                putTemplateInfo(template, false);
+                break;
+            case 1:
+                putTmpltHost(templateId, Status.DOWNLOADED, null);
+                putTemplateInfo(template, true);
+                break;
+            case 2:
+                putTemplateInfo(template, false);
+                if (i % 12 == 2) {
+                    VMTemplateZoneVO tmpltZone = new VMTemplateZoneVO(ZONE_ID, templateId, null);
+                    tmpltZone.setId(_nextId++);
+                    _tmpltZones.put(templateId, tmpltZone);
+                }
+                break;
+            case 3:
+                putTmpltHost(templateId, Status.NOT_DOWNLOADED, "jobid");
+                break;
+            default:
+                break;
+            }
+        }
+        for (int i = 0; i < 50; i++) {
+            _templateInfos.put("stale-" + i, new TemplateInfo("stale-" + i, "stale/" + i, 1, 1, true, false));
+        }
+    }
+
+    private void putTmpltHost(long templateId, Status state, String jobId) {
+        VMTemplateHostVO tmpltHost = new VMTemplateHostVO(HOST_ID, templateId, null, 0, state, null, null, jobId, null, null);
+        FakeComponents.inject(tmpltHost, "id", _nextId++);
+        _tmpltHosts.put(templateId, tmpltHost);
+    }
+
+    private void putTemplateInfo(VMTemplateVO template, boolean corrupted) {
+        long id = template.getId();
+        _templateInfos.put(template.getUniqueName(), new TemplateInfo(template.getUniqueName(), "path/" + id, id * 10, id * 10 + 1, true, corrupted));
+    }
+
+    private HostVO createHost() {
+        HostVO host = new HostVO("ss-guid");
+        FakeComponents.inject(host, "id", HOST_ID);
+        host.setType(Host.Type.SecondaryStorage);
+        host.setDataCenterId(ZONE_ID);
+        host.setStorageUrl("nfs://secondary/export");
+        return host;
+    }
+
+    private DownloadMonitorImpl createMonitor() {
+        DownloadMonitorImpl monitor = new DownloadMonitorImpl() {
+            @Override
+            void downloadTemplateToStorage(VMTemplateVO template, HostVO sserver, VMTemplateHostVO vmTemplateHost) {
+                assertNotNull(vmTemplateHost);
+                _downloads.add(template.getId());
+            }
+        };
+        monitor._templateDao = fakeDao(VMTemplateDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("listAllInZone")) {
+                    return new ArrayList<VMTemplateVO>(_templates);
+                }
+                List<VMTemplateVO> templates = new ArrayList<VMTemplateVO>();
+                if (method.getName().equals("listAllSystemVMTemplates")) {
+                    // same unique name as a template of the zone, and a new one
+                    templates.add(_templates.get(3));
+                    templates.add(new VMTemplateVO(_templates.size() + 1L, "systemvm", ImageFormat.VHD, true, false, false, TemplateType.SYSTEM,
+                            "http://templates/systemvm", false, 64, 1, null, "systemvm", false, 1, true, HypervisorType.XenServer, null));
+                }
+                return templates;
+            }
+        });
+        monitor._vmTemplateHostDao = fakeDao(VMTemplateHostDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("listNotDestroyed")) {
+                    assertEquals(HOST_ID, args[0]);
+                    return new ArrayList<VMTemplateHostVO>(_tmpltHosts.values());
+                } else if (method.getName().equals("persist")) {
+                    VMTemplateHostVO tmpltHost = (VMTemplateHostVO) args[0];
+                    FakeComponents.inject(tmpltHost, "id", _nextId++);
+                    assertNull(_tmpltHosts.put(tmpltHost.getTemplateId(), tmpltHost));
+                    return tmpltHost;
+                }
+                assertEquals("update", method.getName());
+                assertTrue(_tmpltHosts.containsValue(args[1]));
+                return true;
+            }
+        });
+        monitor._vmTemplateZoneDao = fakeDao(VMTemplateZoneDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("listByZoneId")) {
+                    return new ArrayList<VMTemplateZoneVO>(_tmpltZones.values());
+                } else if (method.getName().equals("persist")) {
+                    VMTemplateZoneVO tmpltZone = (VMTemplateZoneVO) args[0];
+                    tmpltZone.setId(_nextId++);
+                    assertNull(_tmpltZones.put(tmpltZone.getTemplateId(), tmpltZone));
+                    return tmpltZone;
+                }
+                assertEquals("update", method.getName());
+                return true;
+            }
+        });
+        monitor._swiftMgr = FakeComponents.create(SwiftManager.class, null);
+        FakeComponents.inject(monitor, "_clusterDao", fakeDao(ClusterDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                List<HypervisorType> hypers = new ArrayList<HypervisorType>();
+                hypers.add(HypervisorType.XenServer);
+                return hypers;
+            }
+        }));
+        FakeComponents.inject(monitor, "_agentMgr", FakeComponents.create(AgentManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (args[1] instanceof DeleteTemplateCommand) {
+                    _deletes.add(((DeleteTemplateCommand) args[1]).getTemplatePath());
+                    return null;
+                }
+                return new ListTemplateAnswer("nfs://secondary/export", new HashMap<String, TemplateInfo>(_templateInfos));
+            }
+        }));
+        return monitor;
+    }
+
+    // counts the calls made on the DAO by method so a sync can be checked for the queries it issues
+    private <T> T fakeDao(final Class<T> clazz, final InvocationHandler handler) {
+        return FakeComponents.create(clazz, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String call = clazz.getSimpleName() + "." + method.getName();
+                Integer calls = _calls.get(call);
+                _calls.put(call, calls == null ? 1 : calls + 1);
+                return handler.invoke(proxy, method, args);
+            }
+        });
+    }
+}
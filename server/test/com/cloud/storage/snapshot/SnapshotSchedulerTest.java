@@ -0,0 +1,322 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.storage.snapshot;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.async.AsyncJobResult;
+import com.cloud.async.AsyncJobVO;
+import com.cloud.async.dao.AsyncJobDao;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.storage.SnapshotPolicyVO;
+import com.cloud.storage.SnapshotScheduleVO;
+import com.cloud.storage.Volume;
+import com.cloud.storage.VolumeVO;
+import com.cloud.storage.dao.SnapshotPolicyDao;
+import com.cloud.storage.dao.SnapshotScheduleDao;
+import com.cloud.storage.dao.VolumeDao;
+import com.cloud.utils.DateUtil.IntervalType;
+import com.cloud.utils.concurrency.TestClock;
+import com.cloud.utils.testcase.FakeComponents;
+import com.cloud.vm.VMInstanceVO;
+import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.dao.VMInstanceDao;
+
+/**
+ * Drives the snapshot scheduler with a TestClock against in-memory tables.  Every tick of the clock is a minute and
+ * polls the scheduler; a snapshot job finishes a few ticks after it was submitted.
+ */
+public class SnapshotSchedulerTest extends TestCase {
+    private static final int POOLS = 20;
+    private static final int HOSTS = 50;
+    private static final int MAX_PER_POOL = 4;
+    private static final int MAX_PER_HOST = 2;
+    private static final int WINDOW = 1800;
+
+    private final Map<Long, SnapshotScheduleVO> _schedules = new LinkedHashMap<Long, SnapshotScheduleVO>();
+    private final Map<Long, SnapshotPolicyVO> _policies = new HashMap<Long, SnapshotPolicyVO>();
+    private final Map<Long, VolumeVO> _volumes = new HashMap<Long, VolumeVO>();
+    private final Map<Long, Integer> _jobEnds = new HashMap<Long, Integer>();
+    private final Map<Long, Long> _jobVolumes = new HashMap<Long, Long>();
+    private final List<List<Long>> _submitted = new ArrayList<List<Long>>();
+    private final Map<Long, Date> _submitTimes = new HashMap<Long, Date>();
+    private int _tick;
+    private long _nextId = 1;
+    private int _volumeQueries;
+    private int _vmQueries;
+
+    @Test
+    public void testConcurrencyLimitsWithTenThousandPolicies() throws Exception {
+        int count = 10000;
+        SnapshotSchedulerImpl scheduler = createScheduler(new SnapshotAdmissionController(WINDOW, MAX_PER_POOL, MAX_PER_HOST));
+        TestClock clock = new TestClock(scheduler, 60, 24, 7, 1000, 4, 12);
+
+        // every volume has a daily policy at the start of the next hour
+        Calendar cal = Calendar.getInstance();
+        cal.set(clock.getYear(), clock.getMonth(), clock.getDay(), clock.getHour(), clock.getMinute());
+        cal.add(Calendar.HOUR_OF_DAY, 1);
+        Calendar gmt = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        gmt.setTime(cal.getTime());
+        String schedule = "0:" + gmt.get(Calendar.HOUR_OF_DAY);
+        scheduler._currentTimestamp = new Date(cal.getTimeInMillis() - 3600 * 1000L);
+        for (int i = 0; i < count; i++) {
+            long volumeId = i + 1;
+            VolumeVO volume = new VolumeVO(Volume.Type.ROOT, "vol-" + volumeId, 1, 1, 1, 1, 1024);
+            FakeComponents.inject(volume, "id", volumeId);
+            volume.setPoolId((long) (i % POOLS));
+            volume.setInstanceId((long) (i % HOSTS));
+            _volumes.put(volumeId, volume);
+            SnapshotPolicyVO policy = new SnapshotPolicyVO(volumeId, schedule, "GMT", IntervalType.DAILY, 7);
+            FakeComponents.inject(policy, "id", volumeId + 100);
+            _policies.put(policy.getId(), policy);
+            scheduler.scheduleNextSnapshotJob(policy);
+        }
+        assertEquals(count, _schedules.size());
+        Map<Long, Date> scheduledTimes = new HashMap<Long, Date>();
+        for (SnapshotScheduleVO sched : _schedules.values()) {
+            scheduledTimes.put(sched.getVolumeId(), sched.getScheduledTimestamp());
+        }
+
+        SnapshotAdmissionController admission = new SnapshotAdmissionController(WINDOW, MAX_PER_POOL, MAX_PER_HOST);
+        int[] peakPerPool = new int[POOLS];
+        int ticksWithSubmits = 0;
+        for (_tick = 0; _tick < 360; _tick++) {
+            _submitted.add(new ArrayList<Long>());
+            clock.run();
+
+            Map<Long, Integer> perPool = new HashMap<Long, Integer>();
+            Map<Long, Integer> perHost = new HashMap<Long, Integer>();
+            for (SnapshotScheduleVO sched : _schedules.values()) {
+                if (sched.getAsyncJobId() != null) {
+                    VolumeVO volume = _volumes.get(sched.getVolumeId());
+                    increment(perPool, volume.getPoolId());
+                    increment(perHost, volume.getInstanceId());
+                }
+            }
+            for (Map.Entry<Long, Integer> entry : perPool.entrySet()) {
+                assertTrue("pool " + entry.getKey() + " at tick " + _tick, entry.getValue() <= MAX_PER_POOL);
+                int pool = entry.getKey().intValue();
+                peakPerPool[pool] = Math.max(peakPerPool[pool], entry.getValue());
+            }
+            for (Map.Entry<Long, Integer> entry : perHost.entrySet()) {
+                assertTrue("host " + entry.getKey() + " at tick " + _tick, entry.getValue() <= MAX_PER_HOST);
+            }
+
+            // the most overdue go first
+            List<Long> submitted = _submitted.get(_tick);
+            long lastDueTime = 0;
+            for (Long volumeId : submitted) {
+                long dueTime = admission.getDueTime(volumeId, scheduledTimes.get(volumeId));
+                assertTrue(dueTime >= lastDueTime);
+                assertTrue(dueTime <= _submitTimes.get(volumeId).getTime());
+                lastDueTime = dueTime;
+            }
+            ticksWithSubmits += submitted.isEmpty() ? 0 : 1;
+        }
+
+        // every volume got exactly one snapshot, and the next ones are scheduled for tomorrow
+        assertEquals(count, _submitTimes.size());
+        assertEquals(count, _jobVolumes.size());
+        for (SnapshotScheduleVO sched : _schedules.values()) {
+            assertNull(sched.getAsyncJobId());
+            assertTrue(sched.getScheduledTimestamp().after(scheduledTimes.get(sched.getVolumeId())));
+        }
+        for (int peak : peakPerPool) {
+            assertEquals(MAX_PER_POOL, peak);
+        }
+        assertTrue(ticksWithSubmits > WINDOW / 60);
+    }
+
+    @Test
+    public void testJitterIsDeterministicAndSpread() {
+        SnapshotAdmissionController admission = new SnapshotAdmissionController(WINDOW, 0, 0);
+        SnapshotAdmissionController other = new SnapshotAdmissionController(WINDOW, 0, 0);
+        int[] minutes = new int[WINDOW / 60];
+        for (long volumeId = 1; volumeId <= 10000; volumeId++) {
+            long jitter = admission.getJitter(volumeId);
+            assertEquals(jitter, other.getJitter(volumeId));
+            assertTrue(jitter >= 0 && jitter < WINDOW * 1000L);
+            minutes[(int) (jitter / 60000)]++;
+        }
+        for (int scheduled : minutes) {
+            // 333 on average
+            assertTrue(String.valueOf(scheduled), scheduled > 250 && scheduled < 420);
+        }
+        assertEquals(0, new SnapshotAdmissionController(0, 0, 0).getJitter(42));
+    }
+
+    @Test
+    public void testMostOverdueFirst() throws Exception {
+        SnapshotSchedulerImpl scheduler = createScheduler(new SnapshotAdmissionController(0, 2, 0));
+        long now = System.currentTimeMillis();
+        scheduler._currentTimestamp = new Date(now);
+        List<SnapshotScheduleVO> due = new ArrayList<SnapshotScheduleVO>();
+        for (int i = 0; i < 4; i++) {
+            long volumeId = i + 1;
+            VolumeVO volume = new VolumeVO(Volume.Type.DATADISK, "vol-" + volumeId, 1, 1, 1, 1, 1024);
+            FakeComponents.inject(volume, "id", volumeId);
+            volume.setPoolId(i == 3 ? 2L : 1L);
+            volume.setInstanceId(volumeId);
+            _volumes.put(volumeId, volume);
+            SnapshotScheduleVO sched = new SnapshotScheduleVO(volumeId, volumeId + 100, new Date(now - (i + 1) * 60000L));
+            FakeComponents.inject(sched, "id", volumeId);
+            due.add(sched);
+        }
+        // a job of the pool of volume 4 is still running, and volume 1 isn't due yet
+        SnapshotScheduleVO running = new SnapshotScheduleVO(4, 104, new Date(now - 3600000L));
+        running.setAsyncJobId(1L);
+        _schedules.put(5L, running);
+        due.get(0).setScheduledTimestamp(new Date(now + 60000L));
+
+        List<SnapshotScheduleVO> admitted = scheduler.admitSnapshots(due);
+        assertEquals(1, _volumeQueries);
+        assertEquals(1, _vmQueries);
+        assertEquals(3, admitted.size());
+        assertEquals(4, admitted.get(0).getVolumeId().longValue());
+        assertEquals(3, admitted.get(1).getVolumeId().longValue());
+        assertEquals(2, admitted.get(2).getVolumeId().longValue());
+
+        // the pool of volume 4 had one token left
+        _schedules.put(6L, running);
+        admitted = scheduler.admitSnapshots(due);
+        assertEquals(2, admitted.size());
+        assertEquals(3, admitted.get(0).getVolumeId().longValue());
+    }
+
+    private static void increment(Map<Long, Integer> counts, Long id) {
+        Integer count = counts.get(id);
+        counts.put(id, count == null ? 1 : count + 1);
+    }
+
+    private SnapshotSchedulerImpl createScheduler(SnapshotAdmissionController admission) {
+        SnapshotSchedulerImpl scheduler = new SnapshotSchedulerImpl() {
+            @Override
+            public void poll(Date currentTimestamp) {
+                // a single management server, no need for the global lock
+                _currentTimestamp = currentTimestamp;
+                checkStatusOfCurrentlyExecutingSnapshots();
+                scheduleSnapshots();
+            }
+
+            @Override
+            protected long submitSnapshotJob(long volumeId, long policyId) {
+                long jobId = _nextId++;
+                _jobEnds.put(jobId, _tick + 1 + (int) (volumeId % 3));
+                assertNull(_jobVolumes.put(jobId, volumeId));
+                assertNull(_submitTimes.put(volumeId, _currentTimestamp));
+                _submitted.get(_tick).add(volumeId);
+                return jobId;
+            }
+        };
+        FakeComponents.inject(scheduler, "_admission", admission);
+        scheduler._snapshotScheduleDao = FakeComponents.create(SnapshotScheduleDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getSchedulesToExecute")) {
+                    List<SnapshotScheduleVO> schedules = new ArrayList<SnapshotScheduleVO>();
+                    for (SnapshotScheduleVO sched : _schedules.values()) {
+                        if (sched.getAsyncJobId() == null && sched.getScheduledTimestamp().before((Date) args[0])) {
+                            schedules.add(sched);
+                        }
+                    }
+                    return schedules;
+                } else if (name.equals("getExecutingSchedules")) {
+                    List<SnapshotScheduleVO> schedules = new ArrayList<SnapshotScheduleVO>();
+                    for (SnapshotScheduleVO sched : _schedules.values()) {
+                        if (sched.getAsyncJobId() != null) {
+                            schedules.add(sched);
+                        }
+                    }
+                    return schedules;
+                } else if (name.equals("findOneByVolumePolicy")) {
+                    for (SnapshotScheduleVO sched : _schedules.values()) {
+                        if (sched.getVolumeId().equals(args[0]) && sched.getPolicyId().equals(args[1])) {
+                            return sched;
+                        }
+                    }
+                    return null;
+                } else if (name.equals("persist")) {
+                    SnapshotScheduleVO sched = (SnapshotScheduleVO) args[0];
+                    FakeComponents.inject(sched, "id", _nextId++);
+                    _schedules.put(sched.getId(), sched);
+                    return sched;
+                } else if (name.equals("acquireInLockTable")) {
+                    return _schedules.get(args[0]);
+                }
+                assertTrue(name, name.equals("update") || name.equals("releaseFromLockTable"));
+                return true;
+            }
+        });
+        scheduler._snapshotPolicyDao = FakeComponents.create(SnapshotPolicyDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("findById", method.getName());
+                return _policies.get(args[0]);
+            }
+        });
+        scheduler._volsDao = FakeComponents.create(VolumeDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("listByIds", method.getName());
+                _volumeQueries++;
+                List<VolumeVO> volumes = new ArrayList<VolumeVO>();
+                for (Object volumeId : (Collection<?>) args[0]) {
+                    if (_volumes.containsKey(volumeId)) {
+                        volumes.add(_volumes.get(volumeId));
+                    }
+                }
+                return volumes;
+            }
+        });
+        // every vm runs on the host with its own id
+        scheduler._vmDao = FakeComponents.create(VMInstanceDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("listByIds", method.getName());
+                _vmQueries++;
+                List<VMInstanceVO> vms = new ArrayList<VMInstanceVO>();
+                for (Object vmId : (Collection<?>) args[0]) {
+                    VMInstanceVO vm = new VMInstanceVO((Long) vmId, 1, "vm-" + vmId, "i-2-" + vmId + "-VM", VirtualMachine.Type.User, 1L, HypervisorType.KVM, 1, 1, 2, false);
+                    vm.setHostId((Long) vmId);
+                    vms.add(vm);
+                }
+                return vms;
+            }
+        });
+        scheduler._asyncJobDao = FakeComponents.create(AsyncJobDao.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                assertEquals("findById", method.getName());
+                AsyncJobVO job = new AsyncJobVO();
+                job.setStatus(_tick >= _jobEnds.get(args[0]) ? AsyncJobResult.STATUS_SUCCEEDED : AsyncJobResult.STATUS_IN_PROGRESS);
+                return job;
+            }
+        });
+        return scheduler;
+    }
+}
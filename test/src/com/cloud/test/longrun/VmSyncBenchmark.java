@@ -0,0 +1,157 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.test.longrun;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.log4j.Logger;
+
+import com.cloud.test.stress.TestClientWithAPI;
+
+/**
+ * Measures how long the management server takes to process the full VM state sync of simulator hosts.
+ * 
+ * Each iteration reconnects every simulator routing host through the integration API port, the reconnect
+ * makes the simulator resend its StartupRoutingCommand with all of its VM states, and the time until the
+ * reconnect job completes is recorded. Populate the simulator zone with VMs before running, the number of
+ * running VMs is reported along with the timings.
+ * 
+ * Usage: VmSyncBenchmark -h <management server> [-i <iterations>]
+ */
+public class VmSyncBenchmark {
+	public static final Logger s_logger = Logger.getLogger(VmSyncBenchmark.class.getName());
+
+	private static final int _apiPort = 8096;
+	private static final String _apiUrl = "/client/api";
+	private static final long _pollInterval = 100;
+	private static final long _jobTimeout = 600000;
+
+	public static void main(String[] args) {
+		List<String> argsList = Arrays.asList(args);
+		Iterator<String> iter = argsList.iterator();
+		String host = "http://localhost";
+		int iterations = 5;
+
+		while (iter.hasNext()) {
+			String arg = iter.next();
+			if (arg.equals("-h")) {
+				host = "http://" + iter.next();
+			}
+			if (arg.equals("-i")) {
+				iterations = Integer.parseInt(iter.next());
+			}
+		}
+
+		String server = host + ":" + _apiPort + _apiUrl;
+		try {
+			List<String> hostIds = listValues(server, "command=listHosts&type=Routing&hypervisor=Simulator", "id");
+			List<String> vmIds = listValues(server, "command=listVirtualMachines&listall=true&state=Running", "id");
+			s_logger.info("Benchmarking VM sync on " + hostIds.size() + " simulator hosts with " + vmIds.size() + " running VMs, " + iterations + " iterations");
+			if (hostIds.isEmpty()) {
+				s_logger.error("No simulator routing host found, nothing to benchmark");
+				return;
+			}
+
+			long min = Long.MAX_VALUE;
+			long max = 0;
+			long total = 0;
+			int count = 0;
+			for (int i = 0; i < iterations; i++) {
+				for (String hostId : hostIds) {
+					long duration = reconnect(server, hostId);
+					if (duration < 0) {
+						continue;
+					}
+					min = Math.min(min, duration);
+					max = Math.max(max, duration);
+					total += duration;
+					count++;
+					s_logger.info("Iteration " + i + ", host " + hostId + ": reconnect with full VM sync took " + duration + " ms");
+				}
+			}
+
+			if (count > 0) {
+				s_logger.info("VM sync benchmark done, hosts: " + hostIds.size() + ", running VMs: " + vmIds.size() + ", samples: " + count
+						+ ", min: " + min + " ms, avg: " + (total / count) + " ms, max: " + max + " ms");
+			} else {
+				s_logger.error("No successful reconnect, no result to report");
+			}
+		} catch (Exception e) {
+			s_logger.error("VM sync benchmark failed", e);
+		}
+	}
+
+	private static long reconnect(String server, String hostId) throws IOException, InterruptedException {
+		long start = System.currentTimeMillis();
+		Map<String, String> values = singleValues(server, "command=reconnectHost&id=" + hostId, "jobid");
+		String jobId = values.get("jobid");
+		if (jobId == null) {
+			s_logger.error("Unable to reconnect host " + hostId);
+			return -1;
+		}
+
+		while (System.currentTimeMillis() - start < _jobTimeout) {
+			values = singleValues(server, "command=queryAsyncJobResult&jobid=" + jobId, "jobstatus");
+			String status = values.get("jobstatus");
+			if (status != null && !status.equals("0")) {
+				if (!status.equals("1")) {
+					s_logger.error("Reconnect job " + jobId + " for host " + hostId + " failed with status " + status);
+					return -1;
+				}
+				return System.currentTimeMillis() - start;
+			}
+			Thread.sleep(_pollInterval);
+		}
+
+		s_logger.error("Reconnect job " + jobId + " for host " + hostId + " timed out");
+		return -1;
+	}
+
+	private static List<String> listValues(String server, String query, String tagName) throws IOException {
+		InputStream is = execute(server, query);
+		if (is == null) {
+			return new ArrayList<String>();
+		}
+		List<String> values = TestClientWithAPI.getMultipleValuesFromXML(is, new String[] { tagName }).get(tagName);
+		return values != null ? values : new ArrayList<String>();
+	}
+
+	private static Map<String, String> singleValues(String server, String query, String tagName) throws IOException {
+		InputStream is = execute(server, query);
+		if (is == null) {
+			return new HashMap<String, String>();
+		}
+		return TestClientWithAPI.getSingleValueFromXML(is, new String[] { tagName });
+	}
+
+	private static InputStream execute(String server, String query) throws IOException {
+		HttpClient client = new HttpClient();
+		HttpMethod method = new GetMethod(server + "?" + query);
+		int responseCode = client.executeMethod(method);
+		if (responseCode != 200) {
+			s_logger.error("Request " + query + " failed with response code " + responseCode + ": " + method.getStatusText());
+			return null;
+		}
+		return method.getResponseBodyAsStream();
+	}
+}
@@ -0,0 +1,108 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with fixed millisecond buckets, cheap enough to be updated
+ * on every operation and read from JMX at any time
+ */
+public class LatencyHistogram {
+    private static final long[] DEFAULT_BUCKETS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    private final long[] _bounds;
+    private final AtomicLongArray _counts;
+    private final AtomicLong _total = new AtomicLong();
+    private final AtomicLong _sum = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(DEFAULT_BUCKETS);
+    }
+
+    /**
+     * @param bounds ascending upper bounds (inclusive, in ms) of the buckets, an overflow bucket is added after the last one
+     */
+    public LatencyHistogram(long[] bounds) {
+        _bounds = bounds.clone();
+        _counts = new AtomicLongArray(_bounds.length + 1);
+    }
+
+    public void record(long latencyMs) {
+        int i = 0;
+        while (i < _bounds.length && latencyMs > _bounds[i]) {
+            i++;
+        }
+        _counts.incrementAndGet(i);
+        _total.incrementAndGet();
+        _sum.addAndGet(latencyMs);
+
+        long max = _max.get();
+        while (latencyMs > max && !_max.compareAndSet(max, latencyMs)) {
+            max = _max.get();
+        }
+    }
+
+    public long getCount() {
+        return _total.get();
+    }
+
+    public long getMax() {
+        return _max.get();
+    }
+
+    public long getAverage() {
+        long count = _total.get();
+        return count > 0 ? _sum.get() / count : 0;
+    }
+
+    /**
+     * @return number of samples above the given latency, rounded to bucket boundaries
+     */
+    public long getCountAbove(long latencyMs) {
+        long count = 0;
+        for (int i = 0; i < _counts.length(); i++) {
+            if (i == _bounds.length || _bounds[i] > latencyMs) {
+                count += _counts.get(i);
+            }
+        }
+        return count;
+    }
+
+    public long[] getCounts() {
+        long[] counts = new long[_counts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = _counts.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < _counts.length(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            if (i < _bounds.length) {
+                sb.append("<=").append(_bounds[i]).append("ms: ");
+            } else {
+                sb.append(">").append(_bounds[_bounds.length - 1]).append("ms: ");
+            }
+            sb.append(_counts.get(i));
+        }
+        return sb.toString();
+    }
+}
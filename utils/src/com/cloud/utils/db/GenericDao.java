@@ -13,6 +13,7 @@
 package com.cloud.utils.db;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -49,6 +50,15 @@ public interface GenericDao<T, ID extends Serializable> {
     
     T findById(ID id, boolean fresh);
     
+    /**
+     * Look for the active entity beans with the given database ids in one query.
+     * @param ids database unique ids of the entity beans.
+     * @return the entity beans found, in no particular order.
+     */
+    List<T> listByIds(Collection<ID> ids);
+    
+    List<T> listByIdsIncludingRemoved(Collection<ID> ids);
+    
     /**
      * @return VO object ready to be used for update.  It won't have any fields filled in.
      */
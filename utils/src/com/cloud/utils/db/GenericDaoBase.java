@@ -909,6 +909,26 @@ public abstract class GenericDaoBase<T, ID extends Serializable> implements Gene
         return findById(id, true, null);
     }
 
+    @Override @DB(txn=false)
+    public List<T> listByIds(Collection<ID> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<T>();
+        }
+        SearchCriteria<T> sc = createSearchCriteria();
+        sc.addAnd(_idField.getName(), SearchCriteria.Op.IN, ids.toArray());
+        return listBy(sc);
+    }
+
+    @Override @DB(txn=false)
+    public List<T> listByIdsIncludingRemoved(Collection<ID> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<T>();
+        }
+        SearchCriteria<T> sc = createSearchCriteria();
+        sc.addAnd(_idField.getName(), SearchCriteria.Op.IN, ids.toArray());
+        return listIncludingRemovedBy(sc);
+    }
+
     @Override @DB(txn=false)
     public T findById(final ID id, boolean fresh) {
         if(!fresh) {
@@ -20,6 +20,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -91,6 +92,8 @@ public class Transaction {
     private long _id;
 
     private final LinkedList<Pair<String, Long>> _lockTimes = new LinkedList<Pair<String, Long>>();
+    private final List<Runnable> _beforeCommitTasks = new ArrayList<Runnable>();
+    private final List<Runnable> _afterCommitTasks = new ArrayList<Runnable>();
 
     private String _name;
     private Connection _conn;
@@ -110,6 +113,51 @@ public class Transaction {
         return txn;
     }
 
+    /**
+     * Runs the task in the transaction in progress on this thread, right before its outermost commit, or right away
+     * if there is none. Tasks are dropped if the transaction rolls back, and a task that throws rolls it back. Meant
+     * for writes held back to be done once per transaction, e.g. summed counter updates.
+     */
+    public static void runBeforeCommit(Runnable task) {
+        Transaction txn = tls.get();
+        if (txn == null || !txn._txn) {
+            task.run();
+            return;
+        }
+        txn._beforeCommitTasks.add(task);
+    }
+
+    /**
+     * @return the task of the given class waiting for the transaction in progress on this thread to commit, null if
+     *         there is none.
+     */
+    public static <T extends Runnable> T getBeforeCommitTask(Class<T> type) {
+        Transaction txn = tls.get();
+        if (txn == null || !txn._txn) {
+            return null;
+        }
+        for (Runnable task : txn._beforeCommitTasks) {
+            if (type.isInstance(task)) {
+                return type.cast(task);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the task once the transaction in progress on this thread commits, or right away if there is none.
+     * Tasks are dropped if the transaction rolls back. Meant for work on in memory state that must not see
+     * uncommitted changes, e.g. invalidating a cache.
+     */
+    public static void runAfterCommit(Runnable task) {
+        Transaction txn = tls.get();
+        if (txn == null || !txn._txn) {
+            task.run();
+            return;
+        }
+        txn._afterCommitTasks.add(task);
+    }
+
     public static Transaction open(final short databaseId) {
         String name = buildName();
         if (name == null) {
@@ -585,6 +633,8 @@ public class Transaction {
         }
         _txn = false;
         _name = null;
+        _beforeCommitTasks.clear();
+        _afterCommitTasks.clear();
 
         closeConnection();
 
@@ -659,6 +709,10 @@ public class Transaction {
             return false;
         }
 
+        if (!_beforeCommitTasks.isEmpty() && isOutermostTxn()) {
+            runBeforeCommitTasks();
+        }
+
         Iterator<StackElement> it = _stack.iterator();
         while (it.hasNext()) {
             StackElement st = it.next();
@@ -683,11 +737,56 @@ public class Transaction {
                 clearLockTimes();
                 closeConnection();
             }
-            return true;
         } catch (final SQLException e) {
             rollbackTransaction();
             throw new CloudRuntimeException("Unable to commit or close the connection. ", e);
         }
+
+        runAfterCommitTasks();
+        return true;
+    }
+
+    protected boolean isOutermostTxn() {
+        int started = 0;
+        for (StackElement st : _stack) {
+            if (st.type == START_TXN) {
+                started++;
+            }
+        }
+        return started == 1;
+    }
+
+    /**
+     * Runs the tasks, and the ones they add, while the transaction is still started, so that their own start() and
+     * commit() nest in it.
+     */
+    protected void runBeforeCommitTasks() {
+        while (!_beforeCommitTasks.isEmpty()) {
+            Runnable task = _beforeCommitTasks.remove(0);
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                s_logger.warn("Before commit task " + task + " failed, rolling back", e);
+                rollback();
+                throw e;
+            }
+        }
+    }
+
+    protected void runAfterCommitTasks() {
+        if (_afterCommitTasks.isEmpty()) {
+            return;
+        }
+
+        List<Runnable> tasks = new ArrayList<Runnable>(_afterCommitTasks);
+        _afterCommitTasks.clear();
+        for (Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                s_logger.warn("Unable to run after commit task " + task, e);
+            }
+        }
     }
 
     protected void closeConnection() {
@@ -791,6 +890,8 @@ public class Transaction {
         }
         assert (!hasTxnInStack()) : "Who's rolling back transaction when there's still txn in stack?";
         _txn = false;
+        _beforeCommitTasks.clear();
+        _afterCommitTasks.clear();
         try {
             if (_conn != null) {
                 if (s_logger.isDebugEnabled()) {
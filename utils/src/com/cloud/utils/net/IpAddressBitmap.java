@@ -0,0 +1,137 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.utils.net;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Compact set of the free addresses of a cidr, one bit per address. It covers the same range as
+ * NetUtils.getAllIpsFromCidr (network address + 2 up to the broadcast address - 1) without boxing
+ * every address of the range.
+ */
+public class IpAddressBitmap {
+    private static final int RANDOM_PROBES = 8;
+
+    private final long _start;
+    private final int _size;
+    private final BitSet _used;
+    private int _usedCount;
+
+    public IpAddressBitmap(String cidrAddress, long cidrSize) {
+        assert (cidrSize < 32) : "You do know this is not for ipv6 right?  Keep it smaller than 32 but you have " + cidrSize;
+        long ip = NetUtils.ip2Long(cidrAddress);
+        long network = ip & NetUtils.ip2Long(NetUtils.getCidrNetmask(cidrSize));
+        long broadcast = network + (1L << (32 - cidrSize)) - 1;
+
+        _start = network + 2;
+        _size = (int)Math.max(0, broadcast - _start);
+        _used = new BitSet(_size);
+    }
+
+    public long getStart() {
+        return _start;
+    }
+
+    public int getSize() {
+        return _size;
+    }
+
+    public int getFreeCount() {
+        return _size - _usedCount;
+    }
+
+    public boolean isFull() {
+        return _usedCount >= _size;
+    }
+
+    public boolean contains(long ip) {
+        return ip >= _start && ip < _start + _size;
+    }
+
+    public boolean isUsed(long ip) {
+        return contains(ip) && _used.get((int)(ip - _start));
+    }
+
+    /**
+     * mark an address as used, addresses outside of the range are ignored.
+     * @return true if the address was free
+     */
+    public boolean markUsed(long ip) {
+        if (!contains(ip)) {
+            return false;
+        }
+        int index = (int)(ip - _start);
+        if (_used.get(index)) {
+            return false;
+        }
+        _used.set(index);
+        _usedCount++;
+        return true;
+    }
+
+    public boolean markFree(long ip) {
+        if (!contains(ip)) {
+            return false;
+        }
+        int index = (int)(ip - _start);
+        if (!_used.get(index)) {
+            return false;
+        }
+        _used.clear(index);
+        _usedCount--;
+        return true;
+    }
+
+    /**
+     * Picks a random free address, skipping the addresses that end with .1 which are reserved for gateways.
+     * A few random probes are tried first, then the next free address after a random position is taken, so
+     * the cost does not depend on the size of the range unless it is nearly full.
+     * 
+     * @return the address, -1 if there is no free address left.
+     */
+    public long pickRandomFree(Random random) {
+        if (isFull()) {
+            return -1;
+        }
+
+        for (int i = 0; i < RANDOM_PROBES; i++) {
+            int index = random.nextInt(_size);
+            if (!_used.get(index) && !isGatewayLike(index)) {
+                return _start + index;
+            }
+        }
+
+        int from = random.nextInt(_size);
+        long ip = nextFree(from, _size);
+        if (ip < 0) {
+            ip = nextFree(0, from);
+        }
+        return ip;
+    }
+
+    private long nextFree(int from, int to) {
+        int index = _used.nextClearBit(from);
+        while (index < to) {
+            if (!isGatewayLike(index)) {
+                return _start + index;
+            }
+            index = _used.nextClearBit(index + 1);
+        }
+        return -1;
+    }
+
+    private boolean isGatewayLike(int index) {
+        return ((_start + index) & 0xff) == 1;
+    }
+}
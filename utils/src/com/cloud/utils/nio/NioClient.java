@@ -28,6 +28,7 @@ public class NioClient extends NioConnection {
     
     protected String _host;
     protected String _bindAddress;
+    protected int _connectTimeout;
     
     public NioClient(String name, String host, int port, int workers, HandlerFactory factory) {
         super(name, port, workers, factory);
@@ -38,6 +39,13 @@ public class NioClient extends NioConnection {
     	_bindAddress = ipAddress;
     }
     
+    /**
+     * @param timeout connect timeout in milliseconds, 0 waits until the OS gives up.
+     */
+    public void setConnectTimeout(int timeout) {
+        _connectTimeout = timeout;
+    }
+    
     @Override
     protected void init() throws IOException {
         _selector = Selector.open();
@@ -57,9 +65,16 @@ public class NioClient extends NioConnection {
             }
 
             addr = new InetSocketAddress(_host, _port);
-            sch.connect(addr);
+            if (_connectTimeout > 0) {
+                sch.socket().connect(addr, _connectTimeout);
+            } else {
+                sch.connect(addr);
+            }
         } catch (IOException e) {
         	_selector.close();
+        	if (sch != null) {
+        	    sch.close();
+        	}
         	throw e;
         }
 
@@ -76,6 +91,7 @@ public class NioClient extends NioConnection {
         	s_logger.info("SSL: Handshake done");
         } catch (Exception e) {
         	_selector.close();
+        	sch.close();
         	throw new IOException("SSL: Fail to init SSL! " + e);
         }
         
@@ -92,6 +108,7 @@ public class NioClient extends NioConnection {
             task = _factory.create(Task.Type.CONNECT, link, null);
         } catch (Exception e) {
         	_selector.close();
+        	sch.close();
         	throw new IOException("Fail to init NioClient! " + e);
         }
         _executor.execute(task);
@@ -71,10 +71,12 @@ public abstract class NioConnection implements Runnable {
         _thread = new Thread(this, _name + "-Selector");
         _isRunning = true;
         _thread.start();
-        // Wait until we got init() done
+        // Wait until we got init() done, the thread ends if init() fails
         synchronized(_thread) {
             try {
-                _thread.wait();
+                while (!_isStartup && _thread.isAlive()) {
+                    _thread.wait();
+                }
             } catch (InterruptedException e) {
                 s_logger.warn("Interrupted start thread ", e);
             }
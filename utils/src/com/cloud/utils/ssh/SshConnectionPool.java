@@ -0,0 +1,342 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.utils.ssh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.LatencyHistogram;
+import com.cloud.utils.Pair;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.trilead.ssh2.ChannelCondition;
+
+/**
+ * Keeps one authenticated ssh connection per host open so that running a command costs a channel open
+ * instead of a tcp connect, key exchange and authentication. Connections are kept alive while in use,
+ * closed once idle for too long and reopened once when a command could not be sent on a broken connection.
+ * A command that fails after it has been sent is not run again, router scripts are not idempotent.
+ */
+public class SshConnectionPool {
+    private static final Logger s_logger = Logger.getLogger(SshConnectionPool.class);
+
+    /**
+     * An authenticated connection to one host
+     */
+    public interface SshSession {
+        /**
+         * @return whether the command exited with 0, and its output
+         * @throws ChannelOpenException if the command could not be sent, it is safe to run it again then
+         */
+        Pair<Boolean, String> execute(String command, int timeoutMs) throws IOException;
+
+        void keepAlive() throws IOException;
+
+        void close();
+    }
+
+    public interface SshSessionFactory {
+        SshSession connect(String host) throws IOException;
+    }
+
+    /**
+     * Thrown when no channel could be opened on a connection, the command has not reached the host
+     */
+    public static class ChannelOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ChannelOpenException(String message, Throwable cause) {
+            super(message);
+            initCause(cause);
+        }
+    }
+
+    private static class PooledSession {
+        final SshSession session;
+        volatile long lastUsed;
+
+        PooledSession(SshSession session, long now) {
+            this.session = session;
+            this.lastUsed = now;
+        }
+    }
+
+    private final String _name;
+    private final SshSessionFactory _factory;
+    private final long _idleTimeoutMs;
+    private final ConcurrentHashMap<String, PooledSession> _sessions = new ConcurrentHashMap<String, PooledSession>();
+    private final ConcurrentHashMap<String, Object> _connectLocks = new ConcurrentHashMap<String, Object>();
+    private final Map<String, LatencyHistogram> _latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+    private ScheduledExecutorService _executor;
+
+    public SshConnectionPool(String name, SshSessionFactory factory, int idleTimeoutSeconds) {
+        _name = name;
+        _factory = factory;
+        _idleTimeoutMs = idleTimeoutSeconds * 1000L;
+    }
+
+    /**
+     * Starts sending keepalives to the open connections and closing the idle ones
+     */
+    public void start(int keepAliveSeconds) {
+        _executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(_name + "-SshPool"));
+        _executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictIdle(System.currentTimeMillis());
+                    keepAlive();
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug(_name + " ssh command latencies: " + getLatencyReport());
+                    }
+                } catch (Throwable e) {
+                    s_logger.warn("Unexpected exception while maintaining the " + _name + " ssh connections", e);
+                }
+            }
+        }, keepAliveSeconds, keepAliveSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (_executor != null) {
+            _executor.shutdownNow();
+        }
+        for (String host : _sessions.keySet()) {
+            close(host);
+        }
+    }
+
+    /**
+     * Runs the command on the host. If the pooled connection turns out to be broken before the command was
+     * sent, the command is run once more on a new connection; a failure after that is thrown to the caller.
+     * 
+     * @param name what the latency of the command is reported under
+     */
+    public Pair<Boolean, String> execute(String host, String name, String command, int timeoutMs) throws IOException {
+        long start = System.currentTimeMillis();
+        Pair<Boolean, String> result;
+        PooledSession pooled = getSession(host);
+        try {
+            result = pooled.session.execute(command, timeoutMs);
+        } catch (ChannelOpenException e) {
+            s_logger.info("Ssh connection to " + host + " is broken, reconnecting: " + e.getMessage());
+            discard(host, pooled);
+            pooled = getSession(host);
+            try {
+                result = pooled.session.execute(command, timeoutMs);
+            } catch (IOException e2) {
+                discard(host, pooled);
+                throw e2;
+            }
+        } catch (IOException e) {
+            s_logger.warn("Ssh connection to " + host + " failed while running " + name + ", not running it again: " + e.getMessage());
+            discard(host, pooled);
+            throw e;
+        }
+        long end = System.currentTimeMillis();
+        pooled.lastUsed = end;
+        getLatency(name).record(end - start);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Executed " + name + " on " + host + " in " + (end - start) + "ms");
+        }
+        return result;
+    }
+
+    public void close(String host) {
+        PooledSession pooled = _sessions.remove(host);
+        if (pooled != null) {
+            pooled.session.close();
+        }
+    }
+
+    public int getSessionCount() {
+        return _sessions.size();
+    }
+
+    public LatencyHistogram getLatency(String name) {
+        LatencyHistogram latency = _latencies.get(name);
+        if (latency == null) {
+            synchronized (_latencies) {
+                latency = _latencies.get(name);
+                if (latency == null) {
+                    latency = new LatencyHistogram();
+                    _latencies.put(name, latency);
+                }
+            }
+        }
+        return latency;
+    }
+
+    public String getLatencyReport() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(_latencies).entrySet()) {
+            LatencyHistogram latency = entry.getValue();
+            sb.append(entry.getKey()).append(": count=").append(latency.getCount()).append(", avg=").append(latency.getAverage())
+                .append("ms, max=").append(latency.getMax()).append("ms; ");
+        }
+        return sb.toString();
+    }
+
+    protected void evictIdle(long now) {
+        for (Map.Entry<String, PooledSession> entry : _sessions.entrySet()) {
+            PooledSession pooled = entry.getValue();
+            if (now - pooled.lastUsed > _idleTimeoutMs) {
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Closing idle ssh connection to " + entry.getKey());
+                }
+                discard(entry.getKey(), pooled);
+            }
+        }
+    }
+
+    protected void keepAlive() {
+        for (Map.Entry<String, PooledSession> entry : _sessions.entrySet()) {
+            try {
+                entry.getValue().session.keepAlive();
+            } catch (IOException e) {
+                s_logger.info("Ssh connection to " + entry.getKey() + " is gone: " + e.getMessage());
+                discard(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private PooledSession getSession(String host) throws IOException {
+        PooledSession pooled = _sessions.get(host);
+        if (pooled != null) {
+            return pooled;
+        }
+
+        // connect under a per host lock, a slow host must not hold up commands to the other hosts
+        Object lock = new Object();
+        Object existing = _connectLocks.putIfAbsent(host, lock);
+        if (existing != null) {
+            lock = existing;
+        }
+        synchronized (lock) {
+            pooled = _sessions.get(host);
+            if (pooled == null) {
+                pooled = new PooledSession(_factory.connect(host), System.currentTimeMillis());
+                _sessions.put(host, pooled);
+            }
+            return pooled;
+        }
+    }
+
+    private void discard(String host, PooledSession pooled) {
+        if (_sessions.remove(host, pooled)) {
+            pooled.session.close();
+        }
+    }
+
+    /**
+     * Public key authenticated Trilead connections
+     */
+    public static class TrileadSessionFactory implements SshSessionFactory {
+        private final int _port;
+        private final String _user;
+        private final File _keyFile;
+        private final int _connectTimeoutMs;
+
+        public TrileadSessionFactory(int port, String user, File keyFile, int connectTimeoutMs) {
+            _port = port;
+            _user = user;
+            _keyFile = keyFile;
+            _connectTimeoutMs = connectTimeoutMs;
+        }
+
+        @Override
+        public SshSession connect(String host) throws IOException {
+            com.trilead.ssh2.Connection conn = new com.trilead.ssh2.Connection(host, _port);
+            try {
+                conn.connect(null, _connectTimeoutMs, _connectTimeoutMs);
+                if (!conn.authenticateWithPublicKey(_user, _keyFile, null)) {
+                    throw new IOException("Failed to authenticate ssh user " + _user + " on host " + host);
+                }
+            } catch (IOException e) {
+                conn.close();
+                throw e;
+            }
+            return new TrileadSession(conn);
+        }
+    }
+
+    private static class TrileadSession implements SshSession {
+        private final com.trilead.ssh2.Connection _conn;
+
+        TrileadSession(com.trilead.ssh2.Connection conn) {
+            _conn = conn;
+        }
+
+        @Override
+        public Pair<Boolean, String> execute(String command, int timeoutMs) throws IOException {
+            com.trilead.ssh2.Session sess;
+            try {
+                sess = _conn.openSession();
+            } catch (IOException e) {
+                throw new ChannelOpenException("Unable to open a session: " + e.getMessage(), e);
+            }
+            try {
+                sess.execCommand(command);
+
+                InputStream stdout = sess.getStdout();
+                InputStream stderr = sess.getStderr();
+                byte[] buffer = new byte[8192];
+                StringBuilder sbResult = new StringBuilder();
+                while (true) {
+                    if ((stdout.available() == 0) && (stderr.available() == 0)) {
+                        int conditions = sess.waitForCondition(ChannelCondition.STDOUT_DATA | ChannelCondition.STDERR_DATA | ChannelCondition.EOF, timeoutMs);
+                        if ((conditions & ChannelCondition.TIMEOUT) != 0) {
+                            // the connection itself is fine, the command is just slow
+                            return new Pair<Boolean, String>(false, "Timed out in waiting for the result of " + command);
+                        }
+                        if ((conditions & ChannelCondition.EOF) != 0 && (conditions & (ChannelCondition.STDOUT_DATA | ChannelCondition.STDERR_DATA)) == 0) {
+                            break;
+                        }
+                    }
+
+                    while (stdout.available() > 0) {
+                        int read = stdout.read(buffer);
+                        sbResult.append(new String(buffer, 0, read));
+                    }
+                    while (stderr.available() > 0) {
+                        int read = stderr.read(buffer);
+                        sbResult.append(new String(buffer, 0, read));
+                    }
+                }
+
+                sess.waitForCondition(ChannelCondition.EXIT_STATUS, timeoutMs);
+                Integer exitStatus = sess.getExitStatus();
+                return new Pair<Boolean, String>(exitStatus != null && exitStatus.intValue() == 0, sbResult.toString());
+            } finally {
+                sess.close();
+            }
+        }
+
+        @Override
+        public void keepAlive() throws IOException {
+            _conn.sendIgnorePacket();
+        }
+
+        @Override
+        public void close() {
+            _conn.close();
+        }
+    }
+}
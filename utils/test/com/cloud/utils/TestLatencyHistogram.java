@@ -0,0 +1,59 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.utils;
+
+import org.junit.Assert;
+
+import com.cloud.utils.testcase.Log4jEnabledTestCase;
+
+public class TestLatencyHistogram extends Log4jEnabledTestCase {
+
+	public void testBuckets() {
+		LatencyHistogram histogram = new LatencyHistogram(new long[] { 10, 100, 1000 });
+		histogram.record(0);
+		histogram.record(10);
+		histogram.record(11);
+		histogram.record(500);
+		histogram.record(5000);
+		
+		Assert.assertArrayEquals(new long[] { 2, 1, 1, 1 }, histogram.getCounts());
+		Assert.assertEquals(5, histogram.getCount());
+		Assert.assertEquals(5000, histogram.getMax());
+		Assert.assertEquals(1104, histogram.getAverage());
+		Assert.assertEquals(2, histogram.getCountAbove(100));
+		Assert.assertEquals("<=10ms: 2, <=100ms: 1, <=1000ms: 1, >1000ms: 1", histogram.toString());
+	}
+	
+	public void testConcurrentRecord() throws Exception {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		Thread[] threads = new Thread[8];
+		for(int i = 0; i < threads.length; i++) {
+			final int base = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int j = 0; j < 1000; j++) {
+						histogram.record(base * 10 + j % 7);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		
+		Assert.assertEquals(8000, histogram.getCount());
+		Assert.assertEquals(76, histogram.getMax());
+	}
+}
@@ -0,0 +1,79 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class TransactionAfterCommitTest extends TestCase {
+
+    private static Runnable record(final List<String> ran, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void testRunsRightAwayWithoutTransaction() {
+        List<String> ran = new ArrayList<String>();
+        Transaction.runAfterCommit(record(ran, "now"));
+        assertEquals(1, ran.size());
+    }
+
+    @Test
+    public void testRunsOnceOutermostTransactionCommits() {
+        List<String> ran = new ArrayList<String>();
+        Transaction txn = Transaction.open("AfterCommitTest");
+        try {
+            txn.start();
+            txn.start();
+            Transaction.runAfterCommit(record(ran, "nested"));
+            txn.commit();
+            assertTrue("nested commit must not run the task", ran.isEmpty());
+
+            txn.commit();
+            assertEquals(1, ran.size());
+            assertEquals("nested", ran.get(0));
+
+            // no transaction in progress any more
+            Transaction.runAfterCommit(record(ran, "after"));
+            assertEquals(2, ran.size());
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void testDroppedOnRollback() {
+        List<String> ran = new ArrayList<String>();
+        Transaction txn = Transaction.open("AfterCommitTest");
+        try {
+            txn.start();
+            Transaction.runAfterCommit(record(ran, "rolledback"));
+            txn.rollback();
+
+            txn.start();
+            txn.commit();
+            assertTrue(ran.isEmpty());
+        } finally {
+            txn.close();
+        }
+    }
+}
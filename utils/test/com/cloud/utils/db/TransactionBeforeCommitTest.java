@@ -0,0 +1,134 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class TransactionBeforeCommitTest extends TestCase {
+
+    private static class Record implements Runnable {
+        private final List<String> _ran;
+        private final String _name;
+
+        Record(List<String> ran, String name) {
+            _ran = ran;
+            _name = name;
+        }
+
+        @Override
+        public void run() {
+            // the task's own transaction nests in the one being committed
+            Transaction txn = Transaction.currentTxn();
+            txn.start();
+            _ran.add(_name + (txn.commit() ? " committed" : ""));
+        }
+    }
+
+    @Test
+    public void testRunsRightAwayWithoutTransaction() {
+        List<String> ran = new ArrayList<String>();
+        Transaction txn = Transaction.open("BeforeCommitTest");
+        try {
+            Transaction.runBeforeCommit(new Record(ran, "now"));
+            assertEquals(1, ran.size());
+            assertNull(Transaction.getBeforeCommitTask(Record.class));
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void testRunsInOutermostTransactionBeforeItCommits() {
+        List<String> ran = new ArrayList<String>();
+        final List<String> after = new ArrayList<String>();
+        Transaction txn = Transaction.open("BeforeCommitTest");
+        try {
+            txn.start();
+            txn.start();
+            Record task = new Record(ran, "nested");
+            Transaction.runBeforeCommit(task);
+            Transaction.runAfterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    after.add("after");
+                }
+            });
+            assertSame(task, Transaction.getBeforeCommitTask(Record.class));
+            txn.commit();
+            assertTrue("nested commit must not run the task", ran.isEmpty());
+
+            assertTrue(txn.commit());
+            assertEquals(1, ran.size());
+            assertEquals("nested", ran.get(0));
+            assertEquals(1, after.size());
+            assertNull(Transaction.getBeforeCommitTask(Record.class));
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void testDroppedOnRollback() {
+        List<String> ran = new ArrayList<String>();
+        Transaction txn = Transaction.open("BeforeCommitTest");
+        try {
+            txn.start();
+            Transaction.runBeforeCommit(new Record(ran, "rolledback"));
+            txn.rollback();
+
+            txn.start();
+            assertNull(Transaction.getBeforeCommitTask(Record.class));
+            txn.commit();
+            assertTrue(ran.isEmpty());
+        } finally {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void testFailedTaskRollsBack() {
+        final List<String> after = new ArrayList<String>();
+        Transaction txn = Transaction.open("BeforeCommitTest");
+        try {
+            txn.start();
+            Transaction.runBeforeCommit(new Runnable() {
+                @Override
+                public void run() {
+                    throw new CloudRuntimeException("failed");
+                }
+            });
+            Transaction.runAfterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    after.add("after");
+                }
+            });
+            try {
+                txn.commit();
+                fail("the failed task must fail the commit");
+            } catch (CloudRuntimeException e) {
+            }
+            assertFalse(txn.dbTxnStarted());
+            assertTrue(after.isEmpty());
+        } finally {
+            txn.close();
+        }
+    }
+}
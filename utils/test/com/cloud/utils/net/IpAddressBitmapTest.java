@@ -0,0 +1,129 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.utils.net;
+
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+public class IpAddressBitmapTest extends TestCase {
+    private static final Logger s_logger = Logger.getLogger(IpAddressBitmapTest.class);
+
+    @Test
+    public void testRangeMatchesGetAllIpsFromCidr() {
+        for (int size : new int[] { 16, 20, 24, 28, 30 }) {
+            Set<Long> all = NetUtils.getAllIpsFromCidr("10.1.2.3", size);
+            IpAddressBitmap bitmap = new IpAddressBitmap("10.1.2.3", size);
+            assertEquals("Range size differs for /" + size, all.size(), bitmap.getSize());
+            for (Long ip : all) {
+                assertTrue(bitmap.contains(ip));
+            }
+            assertFalse(bitmap.contains(bitmap.getStart() - 1));
+            assertFalse(bitmap.contains(bitmap.getStart() + bitmap.getSize()));
+        }
+    }
+
+    @Test
+    public void testPickRandomFree() {
+        IpAddressBitmap bitmap = new IpAddressBitmap("192.168.10.0", 24);
+        Random random = new Random(1);
+
+        // a /24 hands out .2 to .254
+        int picked = 0;
+        long ip;
+        while ((ip = bitmap.pickRandomFree(random)) >= 0) {
+            assertFalse("Picked a used address", bitmap.isUsed(ip));
+            assertFalse("Picked a gateway address", NetUtils.long2Ip(ip).endsWith(".1"));
+            assertTrue(bitmap.markUsed(ip));
+            picked++;
+        }
+        assertEquals(253, picked);
+
+        long released = NetUtils.ip2Long("192.168.10.100");
+        assertTrue(bitmap.markFree(released));
+        assertEquals(released, bitmap.pickRandomFree(random));
+    }
+
+    @Test
+    public void testSkipGatewayLikeAddresses() {
+        // in a /23 the x.x.11.1 address is inside the range but never picked
+        IpAddressBitmap bitmap = new IpAddressBitmap("192.168.10.0", 23);
+        Random random = new Random(1);
+        long gatewayLike = NetUtils.ip2Long("192.168.11.1");
+        assertTrue(bitmap.contains(gatewayLike));
+
+        int picked = 0;
+        long ip;
+        while ((ip = bitmap.pickRandomFree(random)) >= 0) {
+            assertTrue(ip != gatewayLike);
+            bitmap.markUsed(ip);
+            picked++;
+        }
+        assertEquals(bitmap.getSize() - 1, picked);
+    }
+
+    @Test
+    public void testMarkOutsideRange() {
+        IpAddressBitmap bitmap = new IpAddressBitmap("192.168.10.0", 24);
+        assertFalse(bitmap.markUsed(NetUtils.ip2Long("192.168.11.5")));
+        assertFalse(bitmap.markUsed(NetUtils.ip2Long("192.168.10.255")));
+        assertEquals(bitmap.getSize(), bitmap.getFreeCount());
+        assertTrue(bitmap.markUsed(NetUtils.ip2Long("192.168.10.5")));
+        assertFalse(bitmap.markUsed(NetUtils.ip2Long("192.168.10.5")));
+        assertEquals(bitmap.getSize() - 1, bitmap.getFreeCount());
+    }
+
+    /**
+     * Compares the cost of picking a guest address with the bitmap against materializing the whole cidr,
+     * with half of the network in use.
+     */
+    @Test
+    public void testBenchmarkAgainstGetAllIpsFromCidr() {
+        Random random = new Random(1);
+        int rounds = 50;
+        for (int size : new int[] { 24, 20, 16 }) {
+            IpAddressBitmap template = new IpAddressBitmap("10.0.0.0", size);
+            long[] used = new long[template.getSize() / 2];
+            for (int i = 0; i < used.length; i++) {
+                used[i] = template.getStart() + i * 2;
+            }
+
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                Set<Long> allPossibleIps = NetUtils.getAllIpsFromCidr("10.0.0.0", size);
+                for (long ip : used) {
+                    allPossibleIps.remove(ip);
+                }
+                Long[] array = allPossibleIps.toArray(new Long[allPossibleIps.size()]);
+                assertTrue(array[random.nextInt(array.length)] > 0);
+            }
+            long setNanos = (System.nanoTime() - start) / rounds;
+
+            start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                IpAddressBitmap bitmap = new IpAddressBitmap("10.0.0.0", size);
+                for (long ip : used) {
+                    bitmap.markUsed(ip);
+                }
+                assertTrue(bitmap.pickRandomFree(random) > 0);
+            }
+            long bitmapNanos = (System.nanoTime() - start) / rounds;
+
+            s_logger.info("/" + size + " with " + used.length + " used addresses: getAllIpsFromCidr " + setNanos / 1000 + " us, bitmap " + bitmapNanos / 1000 + " us per allocation");
+        }
+    }
+}
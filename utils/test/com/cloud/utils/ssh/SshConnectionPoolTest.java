@@ -0,0 +1,195 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.utils.ssh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.cloud.utils.Pair;
+import com.cloud.utils.testcase.Log4jEnabledTestCase;
+
+public class SshConnectionPoolTest extends Log4jEnabledTestCase {
+
+    static class MockSession implements SshConnectionPool.SshSession {
+        final List<String> commands = new ArrayList<String>();
+        boolean broken;
+        boolean brokenWhileRunning;
+        boolean closed;
+        int keepAlives;
+
+        @Override
+        public Pair<Boolean, String> execute(String command, int timeoutMs) throws IOException {
+            if (broken) {
+                throw new SshConnectionPool.ChannelOpenException("connection reset", null);
+            }
+            commands.add(command);
+            if (brokenWhileRunning) {
+                throw new IOException("connection reset");
+            }
+            return new Pair<Boolean, String>(!command.contains("fail"), "ran " + command);
+        }
+
+        @Override
+        public void keepAlive() throws IOException {
+            if (broken) {
+                throw new IOException("connection reset");
+            }
+            keepAlives++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    static class MockFactory implements SshConnectionPool.SshSessionFactory {
+        final List<MockSession> sessions = new ArrayList<MockSession>();
+
+        @Override
+        public synchronized SshConnectionPool.SshSession connect(String host) throws IOException {
+            MockSession session = new MockSession();
+            sessions.add(session);
+            return session;
+        }
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        MockFactory factory = new MockFactory();
+        SshConnectionPool pool = new SshConnectionPool("Test", factory, 300);
+
+        for (int i = 0; i < 10; i++) {
+            Pair<Boolean, String> result = pool.execute("169.254.1.1", "firewall.sh", "/root/firewall.sh -A " + i, 1000);
+            assertTrue(result.first());
+        }
+        assertFalse(pool.execute("169.254.1.1", "ipassoc.sh", "/root/ipassoc.sh fail", 1000).first());
+        pool.execute("169.254.1.2", "ipassoc.sh", "/root/ipassoc.sh -A", 1000);
+
+        assertEquals(2, factory.sessions.size());
+        assertEquals(11, factory.sessions.get(0).commands.size());
+        assertEquals(2, pool.getSessionCount());
+        assertEquals(10, pool.getLatency("firewall.sh").getCount());
+        assertEquals(2, pool.getLatency("ipassoc.sh").getCount());
+        assertTrue(pool.getLatencyReport().contains("firewall.sh: count=10"));
+    }
+
+    @Test
+    public void testReconnectOnBrokenConnection() throws Exception {
+        MockFactory factory = new MockFactory();
+        SshConnectionPool pool = new SshConnectionPool("Test", factory, 300);
+
+        pool.execute("169.254.1.1", "checkrouter.sh", "/root/checkrouter.sh", 1000);
+        factory.sessions.get(0).broken = true;
+
+        Pair<Boolean, String> result = pool.execute("169.254.1.1", "checkrouter.sh", "/root/checkrouter.sh", 1000);
+        assertTrue(result.first());
+        assertEquals(2, factory.sessions.size());
+        assertTrue(factory.sessions.get(0).closed);
+        assertEquals(1, factory.sessions.get(1).commands.size());
+        assertEquals(1, pool.getSessionCount());
+    }
+
+    @Test
+    public void testCommandIsNotRerunOnceSent() throws Exception {
+        MockFactory factory = new MockFactory();
+        SshConnectionPool pool = new SshConnectionPool("Test", factory, 300);
+
+        pool.execute("169.254.1.1", "checkrouter.sh", "/root/checkrouter.sh", 1000);
+        factory.sessions.get(0).brokenWhileRunning = true;
+
+        try {
+            pool.execute("169.254.1.1", "ipassoc.sh", "/root/ipassoc.sh -A", 1000);
+            fail("command that broke the connection must not be run again");
+        } catch (IOException e) {
+        }
+        assertEquals(1, factory.sessions.size());
+        assertEquals(2, factory.sessions.get(0).commands.size());
+        assertTrue(factory.sessions.get(0).closed);
+        assertEquals(0, pool.getSessionCount());
+
+        // the next command gets a new connection
+        assertTrue(pool.execute("169.254.1.1", "ipassoc.sh", "/root/ipassoc.sh -A", 1000).first());
+        assertEquals(2, factory.sessions.size());
+    }
+
+    @Test
+    public void testSlowConnectDoesNotBlockOtherHosts() throws Exception {
+        final Object gate = new Object();
+        final boolean[] open = new boolean[1];
+        final SshConnectionPool pool = new SshConnectionPool("Test", new SshConnectionPool.SshSessionFactory() {
+            @Override
+            public SshConnectionPool.SshSession connect(String host) throws IOException {
+                if (host.equals("169.254.1.1")) {
+                    synchronized (gate) {
+                        while (!open[0]) {
+                            try {
+                                gate.wait();
+                            } catch (InterruptedException e) {
+                                throw new IOException("interrupted");
+                            }
+                        }
+                    }
+                }
+                return new MockSession();
+            }
+        }, 300);
+
+        Thread slow = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    pool.execute("169.254.1.1", "checkrouter.sh", "/root/checkrouter.sh", 1000);
+                } catch (IOException e) {
+                }
+            }
+        };
+        slow.start();
+        try {
+            Thread.sleep(100);
+            assertTrue(pool.execute("169.254.1.2", "checkrouter.sh", "/root/checkrouter.sh", 1000).first());
+            assertEquals(1, pool.getSessionCount());
+        } finally {
+            synchronized (gate) {
+                open[0] = true;
+                gate.notifyAll();
+            }
+            slow.join();
+        }
+        assertEquals(2, pool.getSessionCount());
+    }
+
+    @Test
+    public void testKeepAliveAndIdleEviction() throws Exception {
+        MockFactory factory = new MockFactory();
+        SshConnectionPool pool = new SshConnectionPool("Test", factory, 300);
+
+        pool.execute("169.254.1.1", "checkrouter.sh", "/root/checkrouter.sh", 1000);
+        pool.execute("169.254.1.2", "checkrouter.sh", "/root/checkrouter.sh", 1000);
+
+        factory.sessions.get(1).broken = true;
+        pool.keepAlive();
+        assertEquals(1, factory.sessions.get(0).keepAlives);
+        assertTrue(factory.sessions.get(1).closed);
+        assertEquals(1, pool.getSessionCount());
+
+        pool.evictIdle(System.currentTimeMillis());
+        assertEquals(1, pool.getSessionCount());
+        pool.evictIdle(System.currentTimeMillis() + 301 * 1000L);
+        assertEquals(0, pool.getSessionCount());
+        assertTrue(factory.sessions.get(0).closed);
+    }
+}
@@ -0,0 +1,90 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.utils.testcase;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import junit.framework.Assert;
+
+import com.cloud.utils.Pair;
+import com.cloud.utils.ReflectUtil;
+
+/**
+ * In-memory stand-ins for the DAOs and managers a component under test is wired to, for tests that run
+ * without a database and so cannot go through MockComponentLocator.
+ */
+public class FakeComponents {
+    /**
+     * @param handler answers the calls made on the fake; null answers every call with the return type's default
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T create(Class<T> clazz, final InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (handler == null) {
+                    return defaultValue(method.getReturnType());
+                }
+                return handler.invoke(proxy, method, args);
+            }
+        });
+    }
+
+    /**
+     * Sets a field of the component, declared by its class or any superclass, the way ComponentLocator injects it.
+     */
+    public static void inject(Object target, String name, Object value) {
+        Pair<Class<?>, Field> field = ReflectUtil.getAnyField(target.getClass(), name);
+        if (field == null) {
+            Assert.fail("No field " + name + " in " + target.getClass().getName());
+        }
+
+        try {
+            field.second().setAccessible(true);
+            field.second().set(target, value);
+        } catch (IllegalAccessException e) {
+            Assert.fail("Unable to set " + name + ": " + e.toString());
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (type == char.class) {
+            return Character.valueOf((char) 0);
+        }
+        if (type == long.class) {
+            return Long.valueOf(0);
+        }
+        if (type == float.class) {
+            return Float.valueOf(0);
+        }
+        if (type == double.class) {
+            return Double.valueOf(0);
+        }
+        if (type == byte.class) {
+            return Byte.valueOf((byte) 0);
+        }
+        if (type == short.class) {
+            return Short.valueOf((short) 0);
+        }
+        return Integer.valueOf(0);
+    }
+}
@@ -55,12 +55,12 @@ public class BaseMO {
 	}
 	
 	public ManagedObjectReference getParentMor() throws Exception {
-		return (ManagedObjectReference)_context.getServiceUtil().getDynamicProperty(_mor, "parent");
+		return (ManagedObjectReference)_context.getPropertyValue(_mor, "parent");
 	}
 
 	public String getName() throws Exception {
 		if(_name == null)
-			_name = (String)_context.getServiceUtil().getDynamicProperty(_mor, "name");
+			_name = (String)_context.getPropertyValue(_mor, "name");
 		
 		return _name;
 	}
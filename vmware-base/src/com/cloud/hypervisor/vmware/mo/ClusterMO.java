@@ -119,6 +119,17 @@ public class ClusterMO extends BaseMO implements VmwareHypervisorHost {
 		if(s_logger.isTraceEnabled())
 			s_logger.trace("vCenter API trace - retrieveProperties() for VM properties. target MOR: " + _mor.get_value() + ", properties: " + new Gson().toJson(propertyPaths));
 		
+	    ObjectContent[] properties = _context.getService().retrieveProperties(
+	    	_context.getServiceContent().getPropertyCollector(), 
+	    	new PropertyFilterSpec[] { getVmPropertyFilterSpec(propertyPaths) });
+	    
+	    if(s_logger.isTraceEnabled())
+			s_logger.trace("vCenter API trace - retrieveProperties() done");
+	    return properties;
+	}
+	
+	@Override
+	public PropertyFilterSpec getVmPropertyFilterSpec(String[] propertyPaths) {
 		PropertySpec pSpec = new PropertySpec();
 		pSpec.setType("VirtualMachine");
 		pSpec.setPathSet(propertyPaths);
@@ -142,14 +153,7 @@ public class ClusterMO extends BaseMO implements VmwareHypervisorHost {
 	    PropertyFilterSpec pfSpec = new PropertyFilterSpec();
 	    pfSpec.setPropSet(new PropertySpec[] { pSpec });
 	    pfSpec.setObjectSet(new ObjectSpec[] { oSpec });
-	    
-	    ObjectContent[] properties = _context.getService().retrieveProperties(
-	    	_context.getServiceContent().getPropertyCollector(), 
-	    	new PropertyFilterSpec[] { pfSpec });
-	    
-	    if(s_logger.isTraceEnabled())
-			s_logger.trace("vCenter API trace - retrieveProperties() done");
-	    return properties;
+	    return pfSpec;
 	}
 
 	@Override
@@ -46,18 +46,18 @@ public class DatastoreMO extends BaseMO {
 
 	public String getName() throws Exception {
 		if(_name == null) 
-			_name = (String)_context.getServiceUtil().getDynamicProperty(_mor, "name");
+			_name = (String)_context.getPropertyValue(_mor, "name");
 		
 		return _name;
 	}
 	
 	public DatastoreSummary getSummary() throws Exception {
-		return (DatastoreSummary)_context.getServiceUtil().getDynamicProperty(_mor, "summary");
+		return (DatastoreSummary)_context.getPropertyValue(_mor, "summary");
 	}
 	
 	public HostDatastoreBrowserMO getHostDatastoreBrowserMO() throws Exception {
 		return new HostDatastoreBrowserMO(_context, 
-				(ManagedObjectReference)_context.getServiceUtil().getDynamicProperty(_mor, "browser"));
+				(ManagedObjectReference)_context.getPropertyValue(_mor, "browser"));
 	}
 	
 	public String getInventoryPath() throws Exception {
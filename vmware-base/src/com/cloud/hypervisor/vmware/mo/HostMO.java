@@ -21,9 +21,9 @@ import org.apache.log4j.Logger;
 
 import com.cloud.hypervisor.vmware.util.VmwareContext;
 import com.cloud.hypervisor.vmware.util.VmwareHelper;
+import com.cloud.hypervisor.vmware.util.VmwarePropertySnapshot;
 import com.cloud.utils.Pair;
 import com.google.gson.Gson;
-import com.vmware.apputils.vim25.ServiceUtil;
 import com.vmware.vim25.AboutInfo;
 import com.vmware.vim25.ClusterDasConfigInfo;
 import com.vmware.vim25.ComputeResourceSummary;
@@ -74,7 +74,7 @@ public class HostMO extends BaseMO implements VmwareHypervisorHost {
 	}
 	
 	public HostConfigManager getHostConfigManager() throws Exception {
-		return (HostConfigManager)_context.getServiceUtil().getDynamicProperty(_mor, "configManager");
+		return (HostConfigManager)_context.getPropertyValue(_mor, "configManager");
 	}
 	
 	public VirtualNicManagerNetConfig[] getHostVirtualNicManagerNetConfig() throws Exception {
@@ -146,15 +146,13 @@ public class HostMO extends BaseMO implements VmwareHypervisorHost {
 	
 	public HostDatastoreSystemMO getHostDatastoreSystemMO() throws Exception {
 		return new HostDatastoreSystemMO(_context,
-			(ManagedObjectReference)_context.getServiceUtil().getDynamicProperty(
-				_mor, "configManager.datastoreSystem")
+			(ManagedObjectReference)_context.getPropertyValue(_mor, "configManager.datastoreSystem")
 		);
 	}
 	
 	public HostDatastoreBrowserMO getHostDatastoreBrowserMO() throws Exception {
 		return new HostDatastoreBrowserMO(_context,
-				(ManagedObjectReference)_context.getServiceUtil().getDynamicProperty(
-					_mor, "datastoreBrowser")
+				(ManagedObjectReference)_context.getPropertyValue(_mor, "datastoreBrowser")
 			);
 	}
 
@@ -198,15 +196,17 @@ public class HostMO extends BaseMO implements VmwareHypervisorHost {
 
 	@Override
 	public ManagedObjectReference getHyperHostOwnerResourcePool() throws Exception {
-		ServiceUtil serviceUtil = _context.getServiceUtil();
-		ManagedObjectReference morComputerResource = (ManagedObjectReference)serviceUtil.getDynamicProperty(_mor, "parent");
-		return (ManagedObjectReference)serviceUtil.getDynamicProperty(morComputerResource, "resourcePool"); 
+		// host parent and its resource pool in one round trip
+		VmwarePropertySnapshot snapshot = _context.retrieveProperties(_mor, new String[] { "parent" }, 
+			"parent", "ComputeResource", new String[] { "resourcePool" });
+		
+		ManagedObjectReference morComputerResource = (ManagedObjectReference)snapshot.get(_mor, "parent");
+		return (ManagedObjectReference)snapshot.get(morComputerResource, "resourcePool"); 
 	}
 
 	@Override
 	public ManagedObjectReference getHyperHostCluster() throws Exception {
-		ServiceUtil serviceUtil = _context.getServiceUtil();
-		ManagedObjectReference morParent = (ManagedObjectReference)serviceUtil.getDynamicProperty(_mor, "parent");
+		ManagedObjectReference morParent = getParentMor();
 		
 		if(morParent.getType().equalsIgnoreCase("ClusterComputeResource")) {
 			return morParent;
@@ -217,13 +217,13 @@ public class HostMO extends BaseMO implements VmwareHypervisorHost {
 	}
 	
 	public ManagedObjectReference[] getHostLocalDatastore() throws Exception {
-		ServiceUtil serviceUtil = _context.getServiceUtil();
-		ManagedObjectReference[] datastores = (ManagedObjectReference[])serviceUtil.getDynamicProperty(
-			_mor, "datastore");
+		VmwarePropertySnapshot snapshot = _context.retrieveProperties(_mor, new String[] { "datastore" }, 
+			"datastore", "Datastore", new String[] { "summary" });
+		ManagedObjectReference[] datastores = (ManagedObjectReference[])snapshot.get(_mor, "datastore");
 		List<ManagedObjectReference> l = new ArrayList<ManagedObjectReference>();
 		if(datastores != null) {
 			for(ManagedObjectReference mor : datastores) {
-				DatastoreSummary summary = (DatastoreSummary)serviceUtil.getDynamicProperty(mor, "summary");
+				DatastoreSummary summary = (DatastoreSummary)snapshot.get(mor, "summary");
 				if(summary.getType().equalsIgnoreCase("VMFS") && !summary.getMultipleHostAccess())
 					l.add(mor);
 			}
@@ -249,7 +249,7 @@ public class HostMO extends BaseMO implements VmwareHypervisorHost {
 	}
 	
 	public AboutInfo getHostAboutInfo() throws Exception {
-		return (AboutInfo)_context.getServiceUtil().getDynamicProperty(_mor, "config.product");
+		return (AboutInfo)_context.getPropertyValue(_mor, "config.product");
 	}
 	
 	public VmwareHostType getHostType() throws Exception {
@@ -447,7 +447,7 @@ public class HostMO extends BaseMO implements VmwareHypervisorHost {
 	}
 	
 	public String getHostName() throws Exception {
-		return (String)_context.getServiceUtil().getDynamicProperty(_mor, "name");
+		return (String)_context.getPropertyValue(_mor, "name");
 	}
 
     @Override
@@ -555,6 +555,17 @@ public class HostMO extends BaseMO implements VmwareHypervisorHost {
 		if(s_logger.isTraceEnabled())
 			s_logger.trace("vCenter API trace - retrieveProperties() for VM properties. target MOR: " + _mor.get_value() + ", properties: " + new Gson().toJson(propertyPaths));
 		
+	    ObjectContent[] properties = _context.getService().retrieveProperties(
+	    	_context.getServiceContent().getPropertyCollector(), 
+	    	new PropertyFilterSpec[] { getVmPropertyFilterSpec(propertyPaths) });
+
+		if(s_logger.isTraceEnabled())
+			s_logger.trace("vCenter API trace - retrieveProperties() done");
+	    return properties;
+	}
+	
+	@Override
+	public PropertyFilterSpec getVmPropertyFilterSpec(String[] propertyPaths) {
 		PropertySpec pSpec = new PropertySpec();
 		pSpec.setType("VirtualMachine");
 		pSpec.setPathSet(propertyPaths);
@@ -572,14 +583,7 @@ public class HostMO extends BaseMO implements VmwareHypervisorHost {
 	    PropertyFilterSpec pfSpec = new PropertyFilterSpec();
 	    pfSpec.setPropSet(new PropertySpec[] { pSpec });
 	    pfSpec.setObjectSet(new ObjectSpec[] { oSpec });
-	    
-	    ObjectContent[] properties = _context.getService().retrieveProperties(
-	    	_context.getServiceContent().getPropertyCollector(), 
-	    	new PropertyFilterSpec[] { pfSpec });
-
-		if(s_logger.isTraceEnabled())
-			s_logger.trace("vCenter API trace - retrieveProperties() done");
-	    return properties;
+	    return pfSpec;
 	}
 
 	@Override
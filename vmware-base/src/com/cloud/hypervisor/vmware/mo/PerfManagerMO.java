@@ -13,18 +13,34 @@
 package com.cloud.hypervisor.vmware.mo;
 
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.cloud.hypervisor.vmware.util.VmwareContext;
+import com.vmware.vim25.ArrayOfPerfCounterInfo;
+import com.vmware.vim25.DynamicProperty;
 import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
 import com.vmware.vim25.PerfCompositeMetric;
 import com.vmware.vim25.PerfCounterInfo;
+import com.vmware.vim25.PerfEntityMetric;
 import com.vmware.vim25.PerfEntityMetricBase;
 import com.vmware.vim25.PerfInterval;
 import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfMetricSeries;
 import com.vmware.vim25.PerfProviderSummary;
 import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
 
 public class PerfManagerMO extends BaseMO {
+    // interval id that selects the real-time statistics collected by ESX hosts
+    public static final int REALTIME_INTERVAL_ID = 20;
+    // sample period in seconds of those real-time statistics
+    public static final int REALTIME_SAMPLE_PERIOD_SECONDS = 20;
+
     public PerfManagerMO(VmwareContext context, ManagedObjectReference mor) {
         super(context, mor);
     }
@@ -63,6 +79,61 @@ public class PerfManagerMO extends BaseMO {
         return _context.getService().queryPerf(_mor, specs);
     }
     
+    /**
+     * Queries the most recent sample of a fixed set of counters for many entities with a single QueryPerf call.
+     * Counters are asked for their aggregate instance, i.e. summed over all nics or disks of the entity.
+     * 
+     * @return latest sample value by entity MOR value and counter id; entities or counters without
+     *         a sample are left out
+     */
+    public Map<String, Map<Integer, Long>> queryLatestPerfValues(ManagedObjectReference[] morEntities, 
+        int[] counterIds, int intervalId) throws Exception {
+        
+        Map<String, Map<Integer, Long>> values = new HashMap<String, Map<Integer, Long>>();
+        if(morEntities.length == 0 || counterIds.length == 0)
+            return values;
+        
+        PerfMetricId[] metricIds = new PerfMetricId[counterIds.length];
+        for(int i = 0; i < counterIds.length; i++) {
+            metricIds[i] = new PerfMetricId();
+            metricIds[i].setCounterId(counterIds[i]);
+            metricIds[i].setInstance("");
+        }
+        
+        PerfQuerySpec[] specs = new PerfQuerySpec[morEntities.length];
+        for(int i = 0; i < morEntities.length; i++) {
+            specs[i] = new PerfQuerySpec();
+            specs[i].setEntity(morEntities[i]);
+            specs[i].setMetricId(metricIds);
+            specs[i].setIntervalId(intervalId);
+            specs[i].setMaxSample(1);
+        }
+        
+        PerfEntityMetricBase[] metrics = queryPerf(specs);
+        if(metrics == null)
+            return values;
+        
+        for(PerfEntityMetricBase metric : metrics) {
+            if(!(metric instanceof PerfEntityMetric))
+                continue;
+            
+            PerfMetricSeries[] series = ((PerfEntityMetric)metric).getValue();
+            if(series == null)
+                continue;
+            
+            Map<Integer, Long> entityValues = new HashMap<Integer, Long>();
+            for(PerfMetricSeries serie : series) {
+                if(serie instanceof PerfMetricIntSeries) {
+                    long[] samples = ((PerfMetricIntSeries)serie).getValue();
+                    if(samples != null && samples.length > 0)
+                        entityValues.put(serie.getId().getCounterId(), samples[samples.length - 1]);
+                }
+            }
+            values.put(metric.getEntity().get_value(), entityValues);
+        }
+        return values;
+    }
+    
     public void removePerfInterval(int samplePeriod) throws Exception {
         _context.getService().removePerfInterval(_mor, samplePeriod);
     }
@@ -72,7 +143,28 @@ public class PerfManagerMO extends BaseMO {
     }
     
     public PerfCounterInfo[] getCounterInfo() throws Exception {
-        return (PerfCounterInfo[])_context.getServiceUtil().getDynamicProperty(_mor, "perfCounter");
+        PropertySpec pSpec = new PropertySpec();
+        pSpec.setType(_mor.getType());
+        pSpec.setPathSet(new String[] { "perfCounter" });
+        
+        ObjectSpec oSpec = new ObjectSpec();
+        oSpec.setObj(_mor);
+        
+        PropertyFilterSpec pfSpec = new PropertyFilterSpec();
+        pfSpec.setPropSet(new PropertySpec[] { pSpec });
+        pfSpec.setObjectSet(new ObjectSpec[] { oSpec });
+        
+        ObjectContent[] ocs = _context.getService().retrieveProperties(
+            _context.getServiceContent().getPropertyCollector(), 
+            new PropertyFilterSpec[] { pfSpec });
+        
+        if(ocs == null || ocs.length == 0 || ocs[0].getPropSet() == null)
+            return null;
+        
+        DynamicProperty prop = ocs[0].getPropSet(0);
+        if(prop.getVal() instanceof ArrayOfPerfCounterInfo)
+            return ((ArrayOfPerfCounterInfo)prop.getVal()).getPerfCounterInfo();
+        return (PerfCounterInfo[])prop.getVal();
     }
     
     public PerfInterval[] getIntervalInfo() throws Exception {
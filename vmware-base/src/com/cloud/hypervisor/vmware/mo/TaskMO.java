@@ -51,6 +51,9 @@ public class TaskMO extends BaseMO {
     public static String getTaskFailureInfo(VmwareContext context, ManagedObjectReference morTask) {
     	StringBuffer sb = new StringBuffer();
     	
+    	// a failed task may still have changed part of what it was meant to
+    	context.invalidatePropertySnapshot();
+    	
     	try {
     		TaskInfo info = (TaskInfo)context.getServiceUtil().getDynamicProperty(morTask, "info");
     		if(info != null) {
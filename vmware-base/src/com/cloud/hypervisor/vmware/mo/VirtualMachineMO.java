@@ -149,7 +149,7 @@ public class VirtualMachineMO extends BaseMO {
 	}
 	
 	public String getVmName() throws Exception {
-		return (String)getContext().getServiceUtil().getDynamicProperty(_mor, "name");
+		return (String)_context.getPropertyValue(_mor, "name");
 	}
 	
 	public GuestInfo getVmGuestInfo() throws Exception {
@@ -604,13 +604,11 @@ public class VirtualMachineMO extends BaseMO {
 	}
 	
 	public VirtualMachineFileInfo getFileInfo() throws Exception {
-		return (VirtualMachineFileInfo)_context.getServiceUtil().getDynamicProperty(
-			_mor, "config.files");
+		return (VirtualMachineFileInfo)_context.getPropertyValue(_mor, "config.files");
 	}
 	
 	public ManagedObjectReference getParentMor() throws Exception {
-		return (ManagedObjectReference)_context.getServiceUtil().getDynamicProperty(
-			_mor, "parent");
+		return (ManagedObjectReference)_context.getPropertyValue(_mor, "parent");
 	}
 
 	public String[] getNetworks() throws Exception {
@@ -1606,8 +1604,7 @@ public class VirtualMachineMO extends BaseMO {
 	}
 	
 	public int getScsiDeviceControllerKey() throws Exception {
-	    VirtualDevice[] devices = (VirtualDevice [])_context.getServiceUtil().
-	    	getDynamicProperty(_mor, "config.hardware.device");
+	    VirtualDevice[] devices = (VirtualDevice [])_context.getPropertyValue(_mor, "config.hardware.device");
 		
 	    if(devices != null && devices.length > 0) {
 	    	for(VirtualDevice device : devices) {
@@ -1622,8 +1619,7 @@ public class VirtualMachineMO extends BaseMO {
 	}
 
 	public int getScsiDeviceControllerKeyNoException() throws Exception {
-	    VirtualDevice[] devices = (VirtualDevice [])_context.getServiceUtil().
-	    	getDynamicProperty(_mor, "config.hardware.device");
+	    VirtualDevice[] devices = (VirtualDevice [])_context.getPropertyValue(_mor, "config.hardware.device");
 		
 	    if(devices != null && devices.length > 0) {
 	    	for(VirtualDevice device : devices) {
@@ -1659,7 +1655,7 @@ public class VirtualMachineMO extends BaseMO {
 	
 	// return pair of VirtualDisk and disk device bus name(ide0:0, etc)
 	public Pair<VirtualDisk, String> getDiskDevice(String vmdkDatastorePath, boolean matchExactly) throws Exception {
-		VirtualDevice[] devices = (VirtualDevice[])_context.getServiceUtil().getDynamicProperty(_mor, "config.hardware.device");
+		VirtualDevice[] devices = (VirtualDevice[])_context.getPropertyValue(_mor, "config.hardware.device");
 		
 		s_logger.info("Look for disk device info from volume : " + vmdkDatastorePath);
 		DatastoreFile dsSrcFile = new DatastoreFile(vmdkDatastorePath);
@@ -1797,7 +1793,7 @@ public class VirtualMachineMO extends BaseMO {
 	
 	public VirtualDisk[] getAllDiskDevice() throws Exception {
 		List<VirtualDisk> deviceList = new ArrayList<VirtualDisk>();
-		VirtualDevice[] devices = (VirtualDevice[])_context.getServiceUtil().getDynamicProperty(_mor, "config.hardware.device");
+		VirtualDevice[] devices = (VirtualDevice[])_context.getPropertyValue(_mor, "config.hardware.device");
 		if(devices != null && devices.length > 0) {
 			for(VirtualDevice device : devices) {
 				if(device instanceof VirtualDisk) {
@@ -1837,8 +1833,7 @@ public class VirtualMachineMO extends BaseMO {
 	}
 	
 	public int tryGetIDEDeviceControllerKey() throws Exception {
-	    VirtualDevice[] devices = (VirtualDevice [])_context.getServiceUtil().
-    		getDynamicProperty(_mor, "config.hardware.device");
+	    VirtualDevice[] devices = (VirtualDevice [])_context.getPropertyValue(_mor, "config.hardware.device");
 	
 	    if(devices != null && devices.length > 0) {
 	    	for(VirtualDevice device : devices) {
@@ -1852,8 +1847,7 @@ public class VirtualMachineMO extends BaseMO {
 	}
 	
 	public int getIDEDeviceControllerKey() throws Exception {
-	    VirtualDevice[] devices = (VirtualDevice [])_context.getServiceUtil().
-	    	getDynamicProperty(_mor, "config.hardware.device");
+	    VirtualDevice[] devices = (VirtualDevice [])_context.getPropertyValue(_mor, "config.hardware.device");
 		
 	    if(devices != null && devices.length > 0) {
 	    	for(VirtualDevice device : devices) {
@@ -1873,8 +1867,7 @@ public class VirtualMachineMO extends BaseMO {
 	}
 	
 	public VirtualDevice getIsoDevice() throws Exception {
-		VirtualDevice[] devices = (VirtualDevice[])_context.getServiceUtil().
-			getDynamicProperty(_mor, "config.hardware.device");
+		VirtualDevice[] devices = (VirtualDevice[])_context.getPropertyValue(_mor, "config.hardware.device");
 		if(devices != null && devices.length > 0) {
 			for(VirtualDevice device : devices) {
 				if(device instanceof VirtualCdrom) {
@@ -1886,8 +1879,7 @@ public class VirtualMachineMO extends BaseMO {
 	}
 	
 	public int getPCIDeviceControllerKey() throws Exception {
-	    VirtualDevice[] devices = (VirtualDevice [])_context.getServiceUtil().
-	        getDynamicProperty(_mor, "config.hardware.device");
+	    VirtualDevice[] devices = (VirtualDevice [])_context.getPropertyValue(_mor, "config.hardware.device");
 	
 	    if(devices != null && devices.length > 0) {
 	    	for(VirtualDevice device : devices) {
@@ -1907,8 +1899,7 @@ public class VirtualMachineMO extends BaseMO {
 	}
 	
 	public int getNextDeviceNumber(int controllerKey) throws Exception {
-		VirtualDevice[] devices = (VirtualDevice[])_context.getServiceUtil().
-			getDynamicProperty(_mor, "config.hardware.device");
+		VirtualDevice[] devices = (VirtualDevice[])_context.getPropertyValue(_mor, "config.hardware.device");
 		
 		int deviceNumber = -1;
 		if(devices != null && devices.length > 0) {
@@ -1924,8 +1915,7 @@ public class VirtualMachineMO extends BaseMO {
 	}
 	
 	public VirtualDevice[] getNicDevices() throws Exception {
-		VirtualDevice[] devices = (VirtualDevice[])_context.getServiceUtil().
-			getDynamicProperty(_mor, "config.hardware.device");
+		VirtualDevice[] devices = (VirtualDevice[])_context.getPropertyValue(_mor, "config.hardware.device");
 		
 		List<VirtualDevice> nics = new ArrayList<VirtualDevice>();
 		if(devices != null) {
@@ -1940,8 +1930,7 @@ public class VirtualMachineMO extends BaseMO {
 	}
 	
 	public Pair<Integer, VirtualDevice> getNicDeviceIndex(String networkNamePrefix) throws Exception {
-        VirtualDevice[] devices = (VirtualDevice[])_context.getServiceUtil().
-        getDynamicProperty(_mor, "config.hardware.device");
+        VirtualDevice[] devices = (VirtualDevice[])_context.getPropertyValue(_mor, "config.hardware.device");
         
         List<VirtualDevice> nics = new ArrayList<VirtualDevice>();
         if(devices != null) {
@@ -1979,8 +1968,7 @@ public class VirtualMachineMO extends BaseMO {
 		
 		List<VirtualDevice> returnList = new ArrayList<VirtualDevice>();
 		
-		VirtualDevice[] devices = (VirtualDevice[])_context.getServiceUtil().
-			getDynamicProperty(_mor, "config.hardware.device");
+		VirtualDevice[] devices = (VirtualDevice[])_context.getPropertyValue(_mor, "config.hardware.device");
 		
 		if(devices != null) {
 			for(VirtualDevice device : devices) {
@@ -0,0 +1,216 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.hypervisor.vmware.mo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.hypervisor.vmware.util.VmwareContext;
+import com.vmware.vim25.InvalidCollectorVersion;
+import com.vmware.vim25.ManagedObjectNotFound;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.MissingObject;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VirtualMachinePowerState;
+
+/**
+ * Keeps power states of the VMs on a hypervisor host up to date through a long-lived property filter instead of 
+ * retrieving name/power state/template flag of every VM on every ping.
+ * 
+ * The filter lives on a property collector of its own so that waitForTask() calls, which drive the session's
+ * default collector, neither consume our updates nor invalidate our data version. Every call to 
+ * {@link #getVmPowerStates()} asks the collector for changes since the last known version with checkForUpdates(), 
+ * which returns immediately and is empty when nothing has changed. The collector is only rebuilt, and all VMs 
+ * retrieved again, when it has gone away or reports a version gap.
+ */
+public class VmStateTracker {
+    private static final Logger s_logger = Logger.getLogger(VmStateTracker.class);
+    
+    public static final String PROP_NAME = "name";
+    public static final String PROP_POWER_STATE = "runtime.powerState";
+    public static final String PROP_TEMPLATE = "config.template";
+    
+    private final VmwareContext _context;
+    private final VmwareHypervisorHost _hyperHost;
+    
+    private ManagedObjectReference _morCollector;
+    private ManagedObjectReference _morFilter;
+    private String _version;
+    
+    // keyed by VM MOR value
+    private final Map<String, VmState> _vms = new HashMap<String, VmState>();
+    
+    public VmStateTracker(VmwareContext context, VmwareHypervisorHost hyperHost) {
+        _context = context;
+        _hyperHost = hyperHost;
+    }
+    
+    public VmwareContext getContext() {
+        return _context;
+    }
+    
+    /**
+     * @return power states of the non-template VMs on the host keyed by VM name
+     */
+    public synchronized Map<String, VirtualMachinePowerState> getVmPowerStates() throws Exception {
+        refresh();
+        
+        Map<String, VirtualMachinePowerState> states = new HashMap<String, VirtualMachinePowerState>();
+        for(VmState vm : _vms.values()) {
+            if(vm.name == null || vm.template)
+                continue;
+            
+            states.put(vm.name, vm.powerState != null ? vm.powerState : VirtualMachinePowerState.poweredOff);
+        }
+        return states;
+    }
+    
+    public synchronized void close() {
+        if(_morCollector != null) {
+            try {
+                _context.getService().destroyPropertyCollector(_morCollector);
+            } catch(Exception e) {
+                s_logger.info("Unable to destroy VM state property collector " + _morCollector.get_value() + ", " + e.toString());
+            }
+        }
+        reset();
+    }
+    
+    private void refresh() throws Exception {
+        if(_morCollector == null) {
+            resync();
+            return;
+        }
+        
+        UpdateSet updateSet;
+        try {
+            updateSet = _context.getService().checkForUpdates(_morCollector, _version);
+        } catch(InvalidCollectorVersion e) {
+            s_logger.info("VM state collector on " + _hyperHost.getMor().get_value() + " reports a version gap at version " + _version + ", retrieve all VMs again");
+            close();
+            resync();
+            return;
+        } catch(ManagedObjectNotFound e) {
+            s_logger.info("VM state collector on " + _hyperHost.getMor().get_value() + " is gone, retrieve all VMs again");
+            reset();
+            resync();
+            return;
+        } catch(Exception e) {
+            // connection level failures are left to the caller, which normally drops the whole service context.
+            // the collector may well still exist on vCenter, so try to destroy it rather than leak it
+            close();
+            throw e;
+        }
+        
+        apply(updateSet);
+    }
+    
+    private void resync() throws Exception {
+        try {
+            _morCollector = _context.getService().createPropertyCollector(_context.getServiceContent().getPropertyCollector());
+            _morFilter = _context.getService().createFilter(_morCollector, 
+                _hyperHost.getVmPropertyFilterSpec(new String[] { PROP_NAME, PROP_POWER_STATE, PROP_TEMPLATE }), true);
+            _version = "";
+            _vms.clear();
+            
+            // the first update set of a new filter reports every VM it covers as entered
+            apply(_context.getService().checkForUpdates(_morCollector, _version));
+        } catch(Exception e) {
+            close();
+            throw e;
+        }
+        
+        if(s_logger.isDebugEnabled())
+            s_logger.debug("VM state collector on " + _hyperHost.getMor().get_value() + " loaded " + _vms.size() + " VMs at version " + _version);
+    }
+    
+    private void reset() {
+        _morCollector = null;
+        _morFilter = null;
+        _version = null;
+        _vms.clear();
+    }
+    
+    private void apply(UpdateSet updateSet) {
+        // no update set means nothing has changed since the version we passed in
+        if(updateSet == null)
+            return;
+        
+        PropertyFilterUpdate[] filterUpdates = updateSet.getFilterSet();
+        if(filterUpdates != null) {
+            for(PropertyFilterUpdate filterUpdate : filterUpdates) {
+                if(!_morFilter.get_value().equals(filterUpdate.getFilter().get_value()))
+                    continue;
+                
+                ObjectUpdate[] objUpdates = filterUpdate.getObjectSet();
+                if(objUpdates != null) {
+                    for(ObjectUpdate objUpdate : objUpdates)
+                        apply(objUpdate);
+                }
+                
+                MissingObject[] missingObjs = filterUpdate.getMissingSet();
+                if(missingObjs != null) {
+                    for(MissingObject missingObj : missingObjs)
+                        _vms.remove(missingObj.getObj().get_value());
+                }
+            }
+        }
+        
+        _version = updateSet.getVersion();
+    }
+    
+    private void apply(ObjectUpdate objUpdate) {
+        String key = objUpdate.getObj().get_value();
+        
+        if(objUpdate.getKind() == ObjectUpdateKind.leave) {
+            _vms.remove(key);
+            return;
+        }
+        
+        VmState vm = _vms.get(key);
+        if(vm == null) {
+            vm = new VmState();
+            _vms.put(key, vm);
+        }
+        
+        PropertyChange[] changes = objUpdate.getChangeSet();
+        if(changes != null) {
+            for(PropertyChange change : changes) {
+                Object val = change.getVal();
+                if(change.getOp() == PropertyChangeOp.remove || change.getOp() == PropertyChangeOp.indirectRemove)
+                    val = null;
+                
+                if(change.getName().equals(PROP_NAME)) {
+                    vm.name = (String)val;
+                } else if(change.getName().equals(PROP_POWER_STATE)) {
+                    vm.powerState = (VirtualMachinePowerState)val;
+                } else if(change.getName().equals(PROP_TEMPLATE)) {
+                    vm.template = val != null && val.toString().equalsIgnoreCase("true");
+                }
+            }
+        }
+    }
+    
+    private static class VmState {
+        String name;
+        VirtualMachinePowerState powerState;
+        boolean template;
+    }
+}
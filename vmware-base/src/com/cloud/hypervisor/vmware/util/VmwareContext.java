@@ -28,8 +28,10 @@ import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -39,6 +41,8 @@ import org.apache.log4j.Logger;
 
 import com.cloud.hypervisor.vmware.mo.DatacenterMO;
 import com.cloud.hypervisor.vmware.mo.DatastoreFile;
+import com.cloud.hypervisor.vmware.mo.PerfCounterInfoMapper;
+import com.cloud.hypervisor.vmware.mo.PerfManagerMO;
 import com.cloud.utils.ActionDelegate;
 import com.vmware.apputils.version.ExtendedAppUtil;
 import com.vmware.apputils.vim25.ServiceConnection;
@@ -64,6 +68,10 @@ public class VmwareContext {
 	private String _serverAddress;
 	
 	private Map<String, Object> _stockMap = new HashMap<String, Object>();
+	private volatile PerfCounterInfoMapper _perfCounterInfoMapper;
+	
+	// property snapshots of the command that is being executed by current thread, keyed by vCenter address
+	private static ThreadLocal<Map<String, VmwarePropertySnapshot>> s_commandSnapshots = new ThreadLocal<Map<String, VmwarePropertySnapshot>>();
 	private int _CHUNKSIZE = 1*1024*1024;		// 1M
 	
 	
@@ -130,6 +138,174 @@ public class VmwareContext {
 		return getServiceContent().getRootFolder();
 	}
 	
+	/**
+	 * Starts collecting the properties read through {@link #getPropertyValue(ManagedObjectReference, String)} and
+	 * {@link #retrieveProperties(ManagedObjectReference[], String[][])} by current thread, so that a property is 
+	 * fetched from vCenter only once per command. The snapshot is dropped whenever a task completes and at 
+	 * {@link #endPropertySnapshot()}.
+	 */
+	public static void beginPropertySnapshot() {
+		s_commandSnapshots.set(new HashMap<String, VmwarePropertySnapshot>());
+	}
+	
+	public static void endPropertySnapshot() {
+		s_commandSnapshots.remove();
+	}
+	
+	public void invalidatePropertySnapshot() {
+		Map<String, VmwarePropertySnapshot> snapshots = s_commandSnapshots.get();
+		if(snapshots != null)
+			snapshots.remove(_serverAddress);
+	}
+	
+	private VmwarePropertySnapshot getCommandSnapshot() {
+		Map<String, VmwarePropertySnapshot> snapshots = s_commandSnapshots.get();
+		if(snapshots == null)
+			return null;
+		
+		VmwarePropertySnapshot snapshot = snapshots.get(_serverAddress);
+		if(snapshot == null) {
+			snapshot = new VmwarePropertySnapshot();
+			snapshots.put(_serverAddress, snapshot);
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Same as ServiceUtil.getDynamicProperty(), but answered from the command snapshot when the property has been 
+	 * read before. Use it only for properties that change through tasks. 
+	 */
+	public Object getPropertyValue(ManagedObjectReference mor, String propertyPath) throws Exception {
+		VmwarePropertySnapshot snapshot = getCommandSnapshot();
+		if(snapshot != null && snapshot.contains(mor, propertyPath))
+			return snapshot.get(mor, propertyPath);
+		
+		return retrieveProperties(new ManagedObjectReference[] { mor }, new String[][] { new String[] { propertyPath } }).get(mor, propertyPath);
+	}
+	
+	/**
+	 * Fetches propertyPaths[i] of mors[i] for all objects with a single RetrieveProperties call
+	 */
+	public VmwarePropertySnapshot retrieveProperties(ManagedObjectReference[] mors, String[][] propertyPaths) throws Exception {
+		assert(mors.length == propertyPaths.length);
+		
+		Map<String, Set<String>> pathsByType = new HashMap<String, Set<String>>();
+		ObjectSpec[] oSpecs = new ObjectSpec[mors.length];
+		for(int i = 0; i < mors.length; i++) {
+			addPropertyPaths(pathsByType, mors[i].getType(), propertyPaths[i]);
+			
+			oSpecs[i] = new ObjectSpec();
+			oSpecs[i].setObj(mors[i]);
+			oSpecs[i].setSkip(Boolean.FALSE);
+		}
+		
+		ObjectContent[] ocs = retrieveProperties(oSpecs, pathsByType);
+		
+		VmwarePropertySnapshot snapshot = new VmwarePropertySnapshot();
+		if(ocs != null) {
+			for(ObjectContent oc : ocs) {
+				for(int i = 0; i < mors.length; i++) {
+					if(isSameMor(mors[i], oc.getObj()))
+						snapshot.put(oc, propertyPaths[i]);
+				}
+			}
+		}
+		return mergeIntoCommandSnapshot(snapshot);
+	}
+	
+	/**
+	 * Fetches propertyPaths of mor together with targetPropertyPaths of every object of targetType that mor refers 
+	 * to through its traversalPath property, e.g. the summaries of all datastores of a host, with a single 
+	 * RetrieveProperties call. The target objects can be listed with {@link VmwarePropertySnapshot#getObjects(String)}.
+	 */
+	public VmwarePropertySnapshot retrieveProperties(ManagedObjectReference mor, String[] propertyPaths, 
+		String traversalPath, String targetType, String[] targetPropertyPaths) throws Exception {
+		
+		Map<String, Set<String>> pathsByType = new HashMap<String, Set<String>>();
+		addPropertyPaths(pathsByType, mor.getType(), propertyPaths);
+		addPropertyPaths(pathsByType, targetType, targetPropertyPaths);
+		
+		TraversalSpec traversal = new TraversalSpec();
+		traversal.setType(mor.getType());
+		traversal.setPath(traversalPath);
+		traversal.setName("snapshotTraversal");
+		
+		ObjectSpec oSpec = new ObjectSpec();
+		oSpec.setObj(mor);
+		oSpec.setSkip(Boolean.FALSE);
+		oSpec.setSelectSet(new SelectionSpec[] { traversal });
+		
+		ObjectContent[] ocs = retrieveProperties(new ObjectSpec[] { oSpec }, pathsByType);
+		
+		VmwarePropertySnapshot snapshot = new VmwarePropertySnapshot();
+		if(ocs != null) {
+			for(ObjectContent oc : ocs) {
+				if(isSameMor(mor, oc.getObj()))
+					snapshot.put(oc, propertyPaths);
+				else
+					snapshot.put(oc, targetPropertyPaths);
+			}
+		}
+		return mergeIntoCommandSnapshot(snapshot);
+	}
+	
+	private ObjectContent[] retrieveProperties(ObjectSpec[] oSpecs, Map<String, Set<String>> pathsByType) throws Exception {
+		List<PropertySpec> pSpecs = new ArrayList<PropertySpec>();
+		for(Map.Entry<String, Set<String>> entry : pathsByType.entrySet()) {
+			PropertySpec pSpec = new PropertySpec();
+			pSpec.setType(entry.getKey());
+			pSpec.setPathSet(entry.getValue().toArray(new String[0]));
+			pSpecs.add(pSpec);
+		}
+		
+		PropertyFilterSpec pfSpec = new PropertyFilterSpec();
+		pfSpec.setPropSet(pSpecs.toArray(new PropertySpec[0]));
+		pfSpec.setObjectSet(oSpecs);
+		
+		return getService().retrieveProperties(getServiceContent().getPropertyCollector(), new PropertyFilterSpec[] { pfSpec });
+	}
+	
+	private VmwarePropertySnapshot mergeIntoCommandSnapshot(VmwarePropertySnapshot snapshot) {
+		VmwarePropertySnapshot commandSnapshot = getCommandSnapshot();
+		if(commandSnapshot != null)
+			commandSnapshot.putAll(snapshot);
+		return snapshot;
+	}
+	
+	private static void addPropertyPaths(Map<String, Set<String>> pathsByType, String type, String[] propertyPaths) {
+		Set<String> paths = pathsByType.get(type);
+		if(paths == null) {
+			paths = new LinkedHashSet<String>();
+			pathsByType.put(type, paths);
+		}
+		
+		if(propertyPaths != null) {
+			for(String path : propertyPaths)
+				paths.add(path);
+		}
+	}
+	
+	private static boolean isSameMor(ManagedObjectReference mor1, ManagedObjectReference mor2) {
+		return mor1.getType().equals(mor2.getType()) && mor1.get_value().equals(mor2.get_value());
+	}
+	
+	public PerfManagerMO getPerfManager() {
+		return new PerfManagerMO(this, getServiceContent().getPerfManager());
+	}
+	
+	/**
+	 * The counter table of the performance manager doesn't change during a session, so it is
+	 * fetched once per context rather than on every stats collection.
+	 */
+	public PerfCounterInfoMapper getPerfCounterInfoMapper() throws Exception {
+		PerfCounterInfoMapper mapper = _perfCounterInfoMapper;
+		if(mapper == null) {
+			mapper = new PerfCounterInfoMapper(getPerfManager().getCounterInfo());
+			_perfCounterInfoMapper = mapper;
+		}
+		return mapper;
+	}
+	
 	public ManagedObjectReference getHostMorByPath(String inventoryPath) throws Exception {
 		assert(inventoryPath != null);
 		
@@ -263,6 +439,9 @@ public class VmwareContext {
 	}
 	
 	public void waitForTaskProgressDone(ManagedObjectReference morTask) throws Exception {
+		// whatever the task has changed is not reflected in the properties read so far
+		invalidatePropertySnapshot();
+		
 		while(true) {
 			TaskInfo tinfo = (TaskInfo)getServiceUtil().getDynamicProperty(morTask, "info");
 			Integer progress = tinfo.getProgress();
@@ -0,0 +1,124 @@
+// Copyright 2012 Citrix Systems, Inc. Licensed under the
+// Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License.  Citrix Systems, Inc.
+// reserves all rights not expressly granted by the License.
+// You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+// 
+// Automatically generated by addcopyright.py at 04/03/2012
+package com.cloud.hypervisor.vmware.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+
+/**
+ * Property values of managed objects as returned by one or more RetrieveProperties calls. Properties that were
+ * asked for but are unset on the server are recorded as null, so that they are not fetched again.
+ */
+public class VmwarePropertySnapshot {
+	private final Map<String, ManagedObjectReference> _mors = new HashMap<String, ManagedObjectReference>();
+	private final Map<String, Map<String, Object>> _values = new HashMap<String, Map<String, Object>>();
+	
+	public boolean contains(ManagedObjectReference mor, String propertyPath) {
+		Map<String, Object> values = _values.get(getKey(mor));
+		return values != null && values.containsKey(propertyPath);
+	}
+	
+	public Object get(ManagedObjectReference mor, String propertyPath) {
+		Map<String, Object> values = _values.get(getKey(mor));
+		if(values == null)
+			return null;
+		return values.get(propertyPath);
+	}
+	
+	/**
+	 * @return objects of the given type that have properties in this snapshot, e.g. the targets of a traversal
+	 */
+	public List<ManagedObjectReference> getObjects(String type) {
+		List<ManagedObjectReference> mors = new ArrayList<ManagedObjectReference>();
+		for(ManagedObjectReference mor : _mors.values()) {
+			if(mor.getType().equals(type))
+				mors.add(mor);
+		}
+		return mors;
+	}
+	
+	public int size() {
+		return _values.size();
+	}
+	
+	public void put(ManagedObjectReference mor, String propertyPath, Object value) {
+		String key = getKey(mor);
+		Map<String, Object> values = _values.get(key);
+		if(values == null) {
+			values = new HashMap<String, Object>();
+			_values.put(key, values);
+			_mors.put(key, mor);
+		}
+		values.put(propertyPath, value);
+	}
+	
+	public void putAll(VmwarePropertySnapshot snapshot) {
+		for(Map.Entry<String, Map<String, Object>> entry : snapshot._values.entrySet()) {
+			ManagedObjectReference mor = snapshot._mors.get(entry.getKey());
+			for(Map.Entry<String, Object> value : entry.getValue().entrySet())
+				put(mor, value.getKey(), value.getValue());
+		}
+	}
+	
+	/**
+	 * Records the properties retrieved for an object. Paths in propertyPaths that the server did not return are 
+	 * unset and recorded as null. 
+	 */
+	public void put(ObjectContent oc, String[] propertyPaths) throws Exception {
+		if(propertyPaths != null) {
+			for(String propertyPath : propertyPaths)
+				put(oc.getObj(), propertyPath, null);
+		}
+		
+		DynamicProperty[] props = oc.getPropSet();
+		if(props != null) {
+			for(DynamicProperty prop : props)
+				put(oc.getObj(), prop.getName(), unwrapArrayOf(prop.getVal()));
+		}
+	}
+	
+	public void clear() {
+		_mors.clear();
+		_values.clear();
+	}
+	
+	// array properties come back wrapped in ArrayOfXxx beans, ServiceUtil.getDynamicProperty() hands out the array itself
+	private static Object unwrapArrayOf(Object value) throws Exception {
+		if(value == null)
+			return null;
+		
+		String className = value.getClass().getSimpleName();
+		if(!className.startsWith("ArrayOf"))
+			return value;
+		
+		String elementType = className.substring("ArrayOf".length());
+		Method getter;
+		try {
+			getter = value.getClass().getMethod("get" + elementType);
+		} catch(NoSuchMethodException e) {
+			getter = value.getClass().getMethod("get_" + elementType.toLowerCase());
+		}
+		return getter.invoke(value);
+	}
+	
+	private static String getKey(ManagedObjectReference mor) {
+		return mor.getType() + ":" + mor.get_value();
+	}
+}